@@ -6,7 +6,10 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 
 import de.jungblut.datastructure.ArrayUtils;
+import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleMatrix;
+import de.jungblut.math.sparse.SparseDoubleRowMatrix;
 
 /**
  * Abstract base class for classifiers.
@@ -32,6 +35,41 @@ public abstract class AbstractClassifier implements Classifier {
         Iterables.toArray(features, DoubleVector.class));
   }
 
+  /**
+   * Predicts row by row, classifiers that can score a whole batch with matrix
+   * operations should override this.
+   */
+  @Override
+  public DoubleMatrix predict(DoubleMatrix features) {
+    DoubleVector[] predictions = new DoubleVector[features.getRowCount()];
+    for (int i = 0; i < predictions.length; i++) {
+      predictions[i] = predict(features.getRowVector(i));
+    }
+    return new DenseDoubleMatrix(predictions);
+  }
+
+  /**
+   * Predicts row by row, so the given vectors are passed as they are.
+   */
+  @Override
+  public DoubleMatrix predict(DoubleVector[] features) {
+    DoubleVector[] predictions = new DoubleVector[features.length];
+    for (int i = 0; i < predictions.length; i++) {
+      predictions[i] = predict(features[i]);
+    }
+    return new DenseDoubleMatrix(predictions);
+  }
+
+  /**
+   * @return the rows as a matrix, sparse if the first row is sparse.
+   */
+  protected static DoubleMatrix toMatrix(DoubleVector[] rows) {
+    if (rows[0].isSparse()) {
+      return new SparseDoubleRowMatrix(rows);
+    }
+    return new DenseDoubleMatrix(rows);
+  }
+
   @Override
   public int predictedClass(DoubleVector features, double threshold) {
     DoubleVector predict = predict(features);
@@ -1,5 +1,6 @@
 package de.jungblut.classification;
 
+import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
 
 /**
@@ -41,6 +42,23 @@ public interface Classifier {
    */
   public DoubleVector predict(DoubleVector features);
 
+  /**
+   * Classifies every row of the given matrix at once.
+   * 
+   * @param features the features, a row for every example.
+   * @return a matrix that contains the result of
+   *         {@link #predict(DoubleVector)} for every row in the same order.
+   */
+  public DoubleMatrix predict(DoubleMatrix features);
+
+  /**
+   * Classifies all given rows at once.
+   * 
+   * @return a matrix that contains the result of
+   *         {@link #predict(DoubleVector)} for every row in the same order.
+   */
+  public DoubleMatrix predict(DoubleVector[] features);
+
   /**
    * Classifies the given features.
    * 
@@ -1,20 +1,37 @@
 package de.jungblut.classification.bayes;
 
+import gnu.trove.iterator.TIntDoubleIterator;
+
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.commons.math3.util.FastMath;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import de.jungblut.classification.AbstractClassifier;
 import de.jungblut.datastructure.Iterables;
 import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.DoubleVector.DoubleVectorElement;
+import de.jungblut.math.dense.DenseDoubleMatrix;
 import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.math.sparse.SparseDoubleRowMatrix;
 import de.jungblut.math.tuple.Tuple;
+import de.jungblut.partition.BlockPartitioner;
+import de.jungblut.partition.Boundaries.Range;
 import de.jungblut.writable.MatrixWritable;
 import de.jungblut.writable.VectorWritable;
 
@@ -23,7 +40,15 @@ import de.jungblut.writable.VectorWritable;
  * representations of the "feature given class" probabilities. So this can be
  * scaled to very large text corpora and large numbers of classes easily.
  * Serialization and deserialization happens through the like-named static
- * methods.
+ * methods. Training counts into {@link NaiveBayesStatistics}, which can be
+ * counted by multiple threads or merged from separately trained shards. <br/>
+ * <br/>
+ * For prediction the probabilities are additionally laid out term major, so a
+ * document is scored for all classes in a single pass over its tokens. This
+ * table is dense in the classes, it takes eight bytes per class for every
+ * token that was seen in any class. It is built on the first prediction and
+ * only if it has at most {@link #setMaxTermTableSize(long)} entries, otherwise
+ * every class is scored separately on the sparse probabilities.
  * 
  * @author thomas.jungblut
  * 
@@ -31,11 +56,27 @@ import de.jungblut.writable.VectorWritable;
 public final class MultinomialNaiveBayes extends AbstractClassifier {
 
   private static final double LOW_PROBABILITY = FastMath.log(1e-8);
+  // 128mb of log probabilities
+  private static final long DEFAULT_MAX_TERM_TABLE_SIZE = 1L << 24;
+  // the largest array the vm can allocate
+  static final long MAX_TERM_TABLE_SIZE = Integer.MAX_VALUE - 8;
+
+  private static final int NUM_PROCESSORS = Runtime.getRuntime()
+      .availableProcessors();
+  // shared by all models, batches that are predicted from within a worker
+  // are helped by the waiting thread instead of blocking it
+  private static final ForkJoinPool PREDICTION_POOL = new ForkJoinPool(
+      NUM_PROCESSORS);
 
   private DoubleMatrix probabilityMatrix;
   private DoubleVector classPriorProbability;
 
+  // built on the first prediction
+  private volatile TermTable termTable;
+  private long maxTermTableSize = DEFAULT_MAX_TERM_TABLE_SIZE;
+
   private boolean verbose;
+  private int numThreads = 1;
 
   /**
    * Default constructor to construct this classifier.
@@ -51,6 +92,19 @@ public final class MultinomialNaiveBayes extends AbstractClassifier {
     this.verbose = verbose;
   }
 
+  /**
+   * @param verbose true if this classifier should output some progress
+   *          information to STDOUT.
+   * @param numThreads the number of threads that count the training data and
+   *          predict batches of documents.
+   */
+  public MultinomialNaiveBayes(boolean verbose, int numThreads) {
+    Preconditions.checkArgument(numThreads > 0,
+        "Number of threads must be at least one.");
+    this.verbose = verbose;
+    this.numThreads = numThreads;
+  }
+
   /**
    * Deserialization constructor to instantiate an already trained classifier
    * from the internal representations.
@@ -69,48 +123,71 @@ public final class MultinomialNaiveBayes extends AbstractClassifier {
   public void train(Iterable<DoubleVector> features,
       Iterable<DoubleVector> outcome) {
 
-    Iterator<DoubleVector> featureIterator = features.iterator();
-    Iterator<DoubleVector> outcomeIterator = outcome.iterator();
+    final Iterator<DoubleVector> featureIterator = features.iterator();
+    final Iterator<DoubleVector> outcomeIterator = outcome.iterator();
     Tuple<DoubleVector, DoubleVector> first = Iterables.consumeNext(
         featureIterator, outcomeIterator);
 
     int numDistinctClasses = first.getSecond().getDimension();
     // respect the binary case
     numDistinctClasses = numDistinctClasses == 1 ? 2 : numDistinctClasses;
-    // sparse row representations, so every class has the features as a hashset
-    // of values. This gives good compression for many class problems.
-    probabilityMatrix = new SparseDoubleRowMatrix(numDistinctClasses, first
-        .getFirst().getDimension());
-
-    int[] tokenPerClass = new int[numDistinctClasses];
-    int[] numDocumentsPerClass = new int[numDistinctClasses];
+    final int numFeatures = first.getFirst().getDimension();
 
-    // init the probability with the document length = word count for each token
     // observe our first example, then loop until we have observed everything
-    observe(first.getFirst(), first.getSecond(), numDistinctClasses,
-        tokenPerClass, numDocumentsPerClass);
-    int numDocumentsSeen = 1;
-    while ((first = Iterables.consumeNext(featureIterator, outcomeIterator)) != null) {
-      observe(first.getFirst(), first.getSecond(), numDistinctClasses,
-          tokenPerClass, numDocumentsPerClass);
-      numDocumentsSeen++;
+    NaiveBayesStatistics statistics = new NaiveBayesStatistics(
+        numDistinctClasses, numFeatures);
+    statistics.observe(first.getFirst(), first.getSecond());
+    if (numThreads == 1) {
+      while ((first = Iterables.consumeNext(featureIterator, outcomeIterator)) != null) {
+        statistics.observe(first.getFirst(), first.getSecond());
+      }
+    } else {
+      // every thread counts its share of the stream, the counts are merged
+      List<Callable<NaiveBayesStatistics>> workers = new ArrayList<>();
+      for (int i = 0; i < numThreads; i++) {
+        workers.add(new Observer(featureIterator, outcomeIterator,
+            numDistinctClasses, numFeatures));
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(numThreads,
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("NaiveBayes Worker %d").build());
+      try {
+        for (Future<NaiveBayesStatistics> future : pool.invokeAll(workers)) {
+          statistics.merge(future.get());
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        throw new RuntimeException(e);
+      } finally {
+        pool.shutdownNow();
+      }
     }
 
+    setStatistics(statistics);
+  }
+
+  /**
+   * Computes the probabilities from the given statistics.
+   */
+  private void setStatistics(NaiveBayesStatistics statistics) {
+    final int numDistinctClasses = statistics.getNumClasses();
+    // sparse row representations, so every class has the features as a hashset
+    // of values. This gives good compression for many class problems.
+    probabilityMatrix = new SparseDoubleRowMatrix(numDistinctClasses,
+        statistics.getNumFeatures());
+
     // know we know the token distribution per class, we can calculate the
     // probability. It is intended for them to be negative in some cases
     for (int row = 0; row < numDistinctClasses; row++) {
-      // we can quite efficiently iterate over the non-zero row vectors now
-      DoubleVector rowVector = probabilityMatrix.getRowVector(row);
       // don't care about not occuring words, we honor them with a very small
       // probability later on when predicting, here we save a lot space.
-      Iterator<DoubleVectorElement> iterateNonZero = rowVector.iterateNonZero();
-      double normalizer = FastMath.log(tokenPerClass[row]
+      double normalizer = FastMath.log(statistics.getTokensPerClass(row)
           + probabilityMatrix.getColumnCount() - 1);
-      while (iterateNonZero.hasNext()) {
-        DoubleVectorElement next = iterateNonZero.next();
-        double currentWordCount = next.getValue();
+      TIntDoubleIterator iterator = statistics.getTokenCounts(row).iterator();
+      while (iterator.hasNext()) {
+        iterator.advance();
+        double currentWordCount = iterator.value();
         double logProbability = FastMath.log(currentWordCount) - normalizer;
-        probabilityMatrix.set(row, next.getIndex(), logProbability);
+        probabilityMatrix.set(row, iterator.key(), logProbability);
       }
       if (verbose) {
         System.out
@@ -120,34 +197,133 @@ public final class MultinomialNaiveBayes extends AbstractClassifier {
 
     classPriorProbability = new DenseDoubleVector(numDistinctClasses);
     for (int i = 0; i < numDistinctClasses; i++) {
-      double prior = FastMath.log(numDocumentsPerClass[i])
-          - FastMath.log(numDocumentsSeen);
+      double prior = FastMath.log(statistics.getDocumentsPerClass(i))
+          - FastMath.log(statistics.getNumDocuments());
       classPriorProbability.set(i, prior);
     }
+    termTable = null;
   }
 
-  private void observe(DoubleVector document, DoubleVector outcome,
-      int numDistinctClasses, int[] tokenPerClass, int[] numDocumentsPerClass) {
-    int predictedClass = outcome.maxIndex();
-    if (numDistinctClasses == 2) {
-      predictedClass = (int) outcome.get(0);
-    }
-    tokenPerClass[predictedClass] += document.getLength();
-    numDocumentsPerClass[predictedClass]++;
-
-    Iterator<DoubleVectorElement> iterateNonZero = document.iterateNonZero();
-    while (iterateNonZero.hasNext()) {
-      DoubleVectorElement next = iterateNonZero.next();
-      double currentCount = probabilityMatrix.get(predictedClass,
-          next.getIndex());
-      probabilityMatrix.set(predictedClass, next.getIndex(), currentCount
-          + next.getValue());
-    }
+  /**
+   * Sets the maximum number of entries of the term major table that speeds up
+   * the prediction, each takes eight bytes. The table has an entry per class
+   * for every token that was seen in any class. If it would be larger, every
+   * class is scored separately. Defaults to 2^24 entries (128mb), zero
+   * disables the table. The table is an array, so it can't have more than
+   * {@value #MAX_TERM_TABLE_SIZE} entries.
+   */
+  public void setMaxTermTableSize(long maxEntries) {
+    Preconditions.checkArgument(maxEntries >= 0
+        && maxEntries <= MAX_TERM_TABLE_SIZE,
+        "Maximum table size must be between 0 and " + MAX_TERM_TABLE_SIZE
+            + "! Given: " + maxEntries);
+    this.maxTermTableSize = maxEntries;
+    this.termTable = null;
   }
 
   @Override
   public DoubleVector predict(DoubleVector features) {
-    return getProbabilityDistribution(features);
+    double[] distribution = new double[classPriorProbability.getLength()];
+    score(features, distribution, 0, 1);
+    return new DenseDoubleVector(distribution);
+  }
+
+  /**
+   * Predicts the given documents with the number of threads this classifier
+   * was constructed with.
+   */
+  @Override
+  public DoubleMatrix predict(DoubleVector[] features) {
+    return predict(features, numThreads);
+  }
+
+  /**
+   * Predicts the given documents.
+   * 
+   * @param features the documents to predict.
+   * @param numThreads the number of threads that predict the documents,
+   *          capped at the number of available processors.
+   * @return a matrix with the class distribution of each document in its row.
+   */
+  public DoubleMatrix predict(final DoubleVector[] features, int numThreads) {
+    Preconditions.checkArgument(numThreads > 0,
+        "Number of threads must be at least one.");
+    final int numDocuments = features.length;
+    // column major, so the documents are written with a stride of one
+    final int numClasses = classPriorProbability.getLength();
+    Preconditions.checkArgument(
+        (long) numDocuments * numClasses <= MAX_TERM_TABLE_SIZE,
+        "Too many documents for a single prediction matrix of " + numClasses
+            + " classes! Given: " + numDocuments);
+    final double[] result = new double[numDocuments * numClasses];
+    int threads = Math.min(Math.min(numThreads, NUM_PROCESSORS),
+        numDocuments);
+    if (threads <= 1) {
+      for (int i = 0; i < numDocuments; i++) {
+        score(features[i], result, i, numDocuments);
+      }
+    } else {
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (final Range range : new BlockPartitioner().partition(threads,
+          numDocuments).getBoundaries()) {
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for (int i = range.getStart(); i <= range.getEnd(); i++) {
+              score(features[i], result, i, numDocuments);
+            }
+            return null;
+          }
+        });
+      }
+      try {
+        for (Future<Void> future : PREDICTION_POOL.invokeAll(tasks)) {
+          future.get();
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return new DenseDoubleMatrix(numDocuments, numClasses, result);
+  }
+
+  /**
+   * Scores all classes of the document and normalizes them to a probability
+   * distribution.
+   * 
+   * @param document the document to score.
+   * @param out the array to write the distribution into.
+   * @param offset the index of the first class in the output.
+   * @param stride the distance between two classes in the output.
+   */
+  private void score(DoubleVector document, double[] out, int offset,
+      int stride) {
+    final int numClasses = classPriorProbability.getLength();
+    final int end = offset + numClasses * stride;
+    TermTable table = getTermTable();
+    if (table.termRows != null) {
+      table.score(document, out, offset, stride, numClasses);
+    } else {
+      for (int i = offset, c = 0; i < end; i += stride, c++) {
+        out[i] = getProbabilityForClass(document, c);
+      }
+    }
+
+    double maxProbability = Double.NEGATIVE_INFINITY;
+    for (int i = offset; i < end; i += stride) {
+      maxProbability = Math.max(maxProbability, out[i]);
+    }
+    double probabilitySum = 0.0d;
+    // we normalize it back
+    for (int i = offset, c = 0; i < end; i += stride, c++) {
+      out[i] = FastMath.exp(out[i] - maxProbability
+          + classPriorProbability.get(c));
+      probabilitySum += out[i];
+    }
+    // since the sum is sometimes not 1, we need to divide by the sum
+    for (int i = offset; i < end; i += stride) {
+      out[i] /= probabilitySum;
+    }
   }
 
   private double getProbabilityForClass(DoubleVector document, int classIndex) {
@@ -166,31 +342,101 @@ public final class MultinomialNaiveBayes extends AbstractClassifier {
     return probabilitySum;
   }
 
-  private DenseDoubleVector getProbabilityDistribution(DoubleVector document) {
-
-    int numClasses = classPriorProbability.getLength();
-    DenseDoubleVector distribution = new DenseDoubleVector(numClasses);
-    // loop through all classes and get the max probable one
-    for (int i = 0; i < numClasses; i++) {
-      double probability = getProbabilityForClass(document, i);
-      distribution.set(i, probability);
+  /**
+   * @return the term major table, which has no rows if it would be too large.
+   */
+  private TermTable getTermTable() {
+    TermTable table = termTable;
+    if (table == null) {
+      synchronized (this) {
+        table = termTable;
+        if (table == null) {
+          table = TermTable.build(probabilityMatrix,
+              classPriorProbability.getLength(), maxTermTableSize);
+          termTable = table;
+        }
+      }
     }
+    return table;
+  }
 
-    double maxProbability = distribution.max();
-    double probabilitySum = 0.0d;
-    // we normalize it back
-    for (int i = 0; i < numClasses; i++) {
-      double probability = distribution.get(i);
-      double normalizedProbability = FastMath.exp(probability - maxProbability
-          + classPriorProbability.get(i));
-      distribution.set(i, normalizedProbability);
-      probabilitySum += normalizedProbability;
+  /**
+   * The log probabilities of all classes laid out term major, so a token can
+   * be scored for all classes with a single lookup. Tokens that weren't seen
+   * in a class get the low default probability.
+   */
+  private static final class TermTable {
+
+    // the row of each token, -1 if no class has seen the token
+    private final int[] termRows;
+    private final double[] termProbabilities;
+
+    private TermTable(int[] termRows, double[] termProbabilities) {
+      this.termRows = termRows;
+      this.termProbabilities = termProbabilities;
     }
 
-    // since the sum is sometimes not 1, we need to divide by the sum
-    distribution = (DenseDoubleVector) distribution.divide(probabilitySum);
+    /**
+     * Adds the log probabilities of the document's tokens to the classes in
+     * the output.
+     */
+    void score(DoubleVector document, double[] out, int offset, int stride,
+        int numClasses) {
+      final int end = offset + numClasses * stride;
+      for (int i = offset; i < end; i += stride) {
+        out[i] = 0d;
+      }
+      Iterator<DoubleVectorElement> iterateNonZero = document.iterateNonZero();
+      while (iterateNonZero.hasNext()) {
+        DoubleVectorElement next = iterateNonZero.next();
+        int index = next.getIndex();
+        // tokens that no class has seen add the same amount to every class
+        if (index >= termRows.length || termRows[index] < 0) {
+          continue;
+        }
+        double wordCount = next.getValue();
+        int row = termRows[index] * numClasses;
+        for (int i = offset; i < end; i += stride) {
+          out[i] += wordCount * termProbabilities[row++];
+        }
+      }
+    }
 
-    return distribution;
+    /**
+     * @return the table, or one without rows if it would have more than the
+     *         given number of entries.
+     */
+    static TermTable build(DoubleMatrix probabilityMatrix, int numClasses,
+        long maxEntries) {
+      int[] termRows = new int[probabilityMatrix.getColumnCount()];
+      Arrays.fill(termRows, -1);
+      int numTerms = 0;
+      for (int row = 0; row < numClasses; row++) {
+        Iterator<DoubleVectorElement> iterateNonZero = probabilityMatrix
+            .getRowVector(row).iterateNonZero();
+        while (iterateNonZero.hasNext()) {
+          int index = iterateNonZero.next().getIndex();
+          if (termRows[index] < 0) {
+            termRows[index] = numTerms++;
+          }
+        }
+      }
+      if ((long) numTerms * numClasses > maxEntries) {
+        return new TermTable(null, null);
+      }
+      double[] termProbabilities = new double[numTerms * numClasses];
+      Arrays.fill(termProbabilities, LOW_PROBABILITY);
+      for (int row = 0; row < numClasses; row++) {
+        Iterator<DoubleVectorElement> iterateNonZero = probabilityMatrix
+            .getRowVector(row).iterateNonZero();
+        while (iterateNonZero.hasNext()) {
+          DoubleVectorElement next = iterateNonZero.next();
+          termProbabilities[termRows[next.getIndex()] * numClasses + row] = next
+              .getValue();
+        }
+      }
+      return new TermTable(termRows, termProbabilities);
+    }
   }
 
   /**
@@ -207,6 +453,70 @@ public final class MultinomialNaiveBayes extends AbstractClassifier {
     return this.probabilityMatrix;
   }
 
+  /**
+   * Observes examples drawn from the shared iterators into its own statistics
+   * until they are exhausted.
+   */
+  private static final class Observer implements
+      Callable<NaiveBayesStatistics> {
+
+    private static final int CHUNK_SIZE = 256;
+
+    private final Iterator<DoubleVector> featureIterator;
+    private final Iterator<DoubleVector> outcomeIterator;
+    private final NaiveBayesStatistics statistics;
+    private final DoubleVector[] features = new DoubleVector[CHUNK_SIZE];
+    private final DoubleVector[] outcomes = new DoubleVector[CHUNK_SIZE];
+
+    Observer(Iterator<DoubleVector> featureIterator,
+        Iterator<DoubleVector> outcomeIterator, int numClasses,
+        int numFeatures) {
+      this.featureIterator = featureIterator;
+      this.outcomeIterator = outcomeIterator;
+      this.statistics = new NaiveBayesStatistics(numClasses, numFeatures);
+    }
+
+    @Override
+    public NaiveBayesStatistics call() {
+      int size;
+      while ((size = nextChunk()) > 0) {
+        for (int i = 0; i < size; i++) {
+          statistics.observe(features[i], outcomes[i]);
+        }
+      }
+      return statistics;
+    }
+
+    private int nextChunk() {
+      int size = 0;
+      synchronized (featureIterator) {
+        while (size < CHUNK_SIZE) {
+          Tuple<DoubleVector, DoubleVector> next = Iterables.consumeNext(
+              featureIterator, outcomeIterator);
+          if (next == null) {
+            break;
+          }
+          features[size] = next.getFirst();
+          outcomes[size] = next.getSecond();
+          size++;
+        }
+      }
+      return size;
+    }
+  }
+
+  /**
+   * Creates a trained classifier from the given statistics, for example after
+   * merging the statistics of multiple shards of the training data.
+   */
+  public static MultinomialNaiveBayes create(NaiveBayesStatistics statistics) {
+    Preconditions.checkArgument(statistics.getNumDocuments() > 0,
+        "Statistics must contain at least a single document!");
+    MultinomialNaiveBayes model = new MultinomialNaiveBayes();
+    model.setStatistics(statistics);
+    return model;
+  }
+
   /**
    * Deserializes a new MultinomialNaiveBayesClassifier from the given input
    * stream. Note that "in" will not be closed by this method.
@@ -0,0 +1,180 @@
+package de.jungblut.classification.bayes;
+
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+
+/**
+ * Sufficient statistics of a {@link MultinomialNaiveBayes}: the token counts
+ * per class and feature as well as the number of documents per class. They
+ * can be observed on separate shards of the data (e.g. in threads or map
+ * tasks), merged and then turned into a classifier with
+ * {@link MultinomialNaiveBayes#create(NaiveBayesStatistics)}.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public final class NaiveBayesStatistics implements Writable {
+
+  private int numClasses;
+  private int numFeatures;
+  private TIntDoubleHashMap[] tokenCounts;
+  private long[] tokensPerClass;
+  private long[] documentsPerClass;
+  private long numDocuments;
+
+  /**
+   * Deserialization constructor, use {@link #readFields(DataInput)} to fill.
+   */
+  public NaiveBayesStatistics() {
+  }
+
+  /**
+   * Creates empty statistics.
+   * 
+   * @param numClasses the number of classes, at least two.
+   * @param numFeatures the dimension of the documents.
+   */
+  public NaiveBayesStatistics(int numClasses, int numFeatures) {
+    Preconditions.checkArgument(numClasses > 1,
+        "At least two classes are needed! Given: " + numClasses);
+    Preconditions.checkArgument(numFeatures > 0,
+        "Number of features must be positive! Given: " + numFeatures);
+    init(numClasses, numFeatures);
+  }
+
+  private void init(int numClasses, int numFeatures) {
+    this.numClasses = numClasses;
+    this.numFeatures = numFeatures;
+    this.tokenCounts = new TIntDoubleHashMap[numClasses];
+    for (int i = 0; i < numClasses; i++) {
+      tokenCounts[i] = new TIntDoubleHashMap();
+    }
+    this.tokensPerClass = new long[numClasses];
+    this.documentsPerClass = new long[numClasses];
+    this.numDocuments = 0;
+  }
+
+  /**
+   * Counts the tokens of the given document towards its class. In the binary
+   * case the class is the first element of the outcome, else the index of its
+   * maximum.
+   */
+  public void observe(DoubleVector document, DoubleVector outcome) {
+    int predictedClass = outcome.maxIndex();
+    if (numClasses == 2) {
+      predictedClass = (int) outcome.get(0);
+    }
+    tokensPerClass[predictedClass] += document.getLength();
+    documentsPerClass[predictedClass]++;
+    numDocuments++;
+
+    TIntDoubleHashMap counts = tokenCounts[predictedClass];
+    Iterator<DoubleVectorElement> iterateNonZero = document.iterateNonZero();
+    while (iterateNonZero.hasNext()) {
+      DoubleVectorElement next = iterateNonZero.next();
+      counts.adjustOrPutValue(next.getIndex(), next.getValue(),
+          next.getValue());
+    }
+  }
+
+  /**
+   * Adds the counts of the other statistics to these.
+   */
+  public void merge(NaiveBayesStatistics other) {
+    Preconditions.checkArgument(numClasses == other.numClasses
+        && numFeatures == other.numFeatures,
+        "Can't merge statistics of different dimensions! Given: "
+            + other.numClasses + "x" + other.numFeatures + ", expected: "
+            + numClasses + "x" + numFeatures);
+    for (int i = 0; i < numClasses; i++) {
+      TIntDoubleHashMap counts = tokenCounts[i];
+      TIntDoubleIterator iterator = other.tokenCounts[i].iterator();
+      while (iterator.hasNext()) {
+        iterator.advance();
+        counts.adjustOrPutValue(iterator.key(), iterator.value(),
+            iterator.value());
+      }
+      tokensPerClass[i] += other.tokensPerClass[i];
+      documentsPerClass[i] += other.documentsPerClass[i];
+    }
+    numDocuments += other.numDocuments;
+  }
+
+  public int getNumClasses() {
+    return this.numClasses;
+  }
+
+  public int getNumFeatures() {
+    return this.numFeatures;
+  }
+
+  public long getNumDocuments() {
+    return this.numDocuments;
+  }
+
+  /**
+   * @return the summed up values of the features per class.
+   */
+  TIntDoubleHashMap getTokenCounts(int classIndex) {
+    return this.tokenCounts[classIndex];
+  }
+
+  /**
+   * @return the number of non-zero features of all documents of a class.
+   */
+  long getTokensPerClass(int classIndex) {
+    return this.tokensPerClass[classIndex];
+  }
+
+  long getDocumentsPerClass(int classIndex) {
+    return this.documentsPerClass[classIndex];
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, numClasses);
+    WritableUtils.writeVInt(out, numFeatures);
+    WritableUtils.writeVLong(out, numDocuments);
+    for (int i = 0; i < numClasses; i++) {
+      WritableUtils.writeVLong(out, tokensPerClass[i]);
+      WritableUtils.writeVLong(out, documentsPerClass[i]);
+      WritableUtils.writeVInt(out, tokenCounts[i].size());
+      TIntDoubleIterator iterator = tokenCounts[i].iterator();
+      while (iterator.hasNext()) {
+        iterator.advance();
+        WritableUtils.writeVInt(out, iterator.key());
+        out.writeDouble(iterator.value());
+      }
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    init(WritableUtils.readVInt(in), WritableUtils.readVInt(in));
+    numDocuments = WritableUtils.readVLong(in);
+    for (int i = 0; i < numClasses; i++) {
+      tokensPerClass[i] = WritableUtils.readVLong(in);
+      documentsPerClass[i] = WritableUtils.readVLong(in);
+      final int size = WritableUtils.readVInt(in);
+      TIntDoubleHashMap counts = new TIntDoubleHashMap(size);
+      for (int j = 0; j < size; j++) {
+        counts.put(WritableUtils.readVInt(in), in.readDouble());
+      }
+      tokenCounts[i] = counts;
+    }
+  }
+
+}
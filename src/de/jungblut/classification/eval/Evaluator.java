@@ -20,6 +20,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.jungblut.classification.Classifier;
 import de.jungblut.classification.ClassifierFactory;
 import de.jungblut.datastructure.ArrayUtils;
+import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.partition.BlockPartitioner;
 import de.jungblut.partition.Boundaries.Range;
@@ -35,6 +36,9 @@ public final class Evaluator {
 
   private static final Log LOG = LogFactory.getLog(Evaluator.class);
 
+  // number of test examples that are predicted at once
+  private static final int PREDICTION_BATCH_SIZE = 1024;
+
   private Evaluator() {
     throw new IllegalAccessError();
   }
@@ -314,43 +318,49 @@ public final class Evaluator {
     result.numLabels = numLabels;
     result.testSize = testOutcome.length;
     result.trainSize = trainingSetSize;
-    // check the binary case to calculate special metrics
-    if (numLabels == 2) {
-      for (int i = 0; i < testFeatures.length; i++) {
-        int outcomeClass = ((int) testOutcome[i].get(0));
-        DoubleVector predictedVector = classifier.predict(testFeatures[i]);
-        int prediction = 0;
-        if (threshold == null) {
-          prediction = classifier.extractPredictedClass(predictedVector);
-        } else {
-          prediction = classifier.extractPredictedClass(predictedVector,
-              threshold);
-        }
-        if (outcomeClass == 1) {
-          if (prediction == 1) {
-            result.truePositive++; // "Correct result"
+    if (numLabels != 2) {
+      result.confusionMatrix = new int[numLabels][numLabels];
+    }
+    // predict in batches to make use of the matrix operations of a classifier
+    for (int start = 0; start < testFeatures.length;
+        start += PREDICTION_BATCH_SIZE) {
+      int end = Math.min(testFeatures.length, start + PREDICTION_BATCH_SIZE);
+      DoubleMatrix predictions = classifier.predict(Arrays.copyOfRange(
+          testFeatures, start, end));
+      for (int i = start; i < end; i++) {
+        DoubleVector predictedVector = predictions.getRowVector(i - start);
+        // check the binary case to calculate special metrics
+        if (numLabels == 2) {
+          int outcomeClass = ((int) testOutcome[i].get(0));
+          int prediction = 0;
+          if (threshold == null) {
+            prediction = classifier.extractPredictedClass(predictedVector);
           } else {
-            result.falseNegative++; // "Missing the correct result"
+            prediction = classifier.extractPredictedClass(predictedVector,
+                threshold);
           }
-        } else if (outcomeClass == 0) {
-          if (prediction == 0) {
-            result.trueNegative++; // "Correct absence of result"
-          } else {
-            result.falsePositive++; // "Unexpected result"
+          if (outcomeClass == 1) {
+            if (prediction == 1) {
+              result.truePositive++; // "Correct result"
+            } else {
+              result.falseNegative++; // "Missing the correct result"
+            }
+          } else if (outcomeClass == 0) {
+            if (prediction == 0) {
+              result.trueNegative++; // "Correct absence of result"
+            } else {
+              result.falsePositive++; // "Unexpected result"
+            }
+          }
+        } else {
+          int outcomeClass = testOutcome[i].maxIndex();
+          int prediction = classifier.extractPredictedClass(predictedVector);
+          result.confusionMatrix[outcomeClass][prediction]++;
+          if (outcomeClass == prediction) {
+            result.correct++;
           }
         }
       }
-    } else {
-      int[][] confusionMatrix = new int[numLabels][numLabels];
-      for (int i = 0; i < testFeatures.length; i++) {
-        int outcomeClass = testOutcome[i].maxIndex();
-        int prediction = classifier.predictedClass(testFeatures[i]);
-        confusionMatrix[outcomeClass][prediction]++;
-        if (outcomeClass == prediction) {
-          result.correct++;
-        }
-      }
-      result.confusionMatrix = confusionMatrix;
     }
     return result;
   }
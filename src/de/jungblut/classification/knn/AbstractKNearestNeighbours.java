@@ -38,9 +38,15 @@ public abstract class AbstractKNearestNeighbours extends AbstractClassifier {
    */
   @Override
   public DoubleVector predict(DoubleVector features) {
-    List<VectorDistanceTuple<DoubleVector>> nearestNeighbours = getNearestNeighbours(
-        features, k);
+    return predict(getNearestNeighbours(features, k));
+  }
 
+  /**
+   * @return the majority vote of the given neighbours, see
+   *         {@link #predict(DoubleVector)}.
+   */
+  protected DoubleVector predict(
+      List<VectorDistanceTuple<DoubleVector>> nearestNeighbours) {
     DenseDoubleVector outcomeHistogram = new DenseDoubleVector(numOutcomes);
     for (VectorDistanceTuple<DoubleVector> tuple : nearestNeighbours) {
       int classIndex = 0;
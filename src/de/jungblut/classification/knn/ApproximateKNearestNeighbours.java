@@ -0,0 +1,123 @@
+package de.jungblut.classification.knn;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import de.jungblut.datastructure.HNSWIndex;
+import de.jungblut.datastructure.KDTree.VectorDistanceTuple;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.writable.VectorWritable;
+
+/**
+ * K nearest neighbour classification algorithm that is seeded with a "database"
+ * of known examples and predicts based on the k-nearest neighbours majority
+ * vote for a class. The neighbours are retrieved approximately from a
+ * {@link HNSWIndex}, so this scales to large databases and works with any
+ * distance measurer. The recall of the neighbours is configured by the search
+ * width of the index. Training adds to the examples that are already known.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public final class ApproximateKNearestNeighbours extends
+    AbstractKNearestNeighbours {
+
+  private final HNSWIndex index;
+  private final List<DoubleVector> outcomes;
+
+  /**
+   * Constructs a new knn classifier.
+   * 
+   * @param numOutcomes the number of different outcomes that can be predicted.
+   * @param k the number of neighbours to analyse to get a prediction (it does
+   *          so by majority voting).
+   * @param index the index to add the examples to, defines the distance
+   *          measurer and the search width.
+   */
+  public ApproximateKNearestNeighbours(int numOutcomes, int k,
+      HNSWIndex index) {
+    this(numOutcomes, k, index, new ArrayList<DoubleVector>());
+  }
+
+  private ApproximateKNearestNeighbours(int numOutcomes, int k,
+      HNSWIndex index, List<DoubleVector> outcomes) {
+    super(numOutcomes, k);
+    this.index = index;
+    this.outcomes = outcomes;
+  }
+
+  @Override
+  public void train(Iterable<DoubleVector> features,
+      Iterable<DoubleVector> outcome) {
+    Iterator<DoubleVector> featIterator = features.iterator();
+    Iterator<DoubleVector> outIterator = outcome.iterator();
+    while (featIterator.hasNext()) {
+      add(featIterator.next(), outIterator.next());
+    }
+  }
+
+  /**
+   * Adds a single example to the known examples.
+   */
+  public void add(DoubleVector feature, DoubleVector outcome) {
+    index.add(feature);
+    outcomes.add(outcome);
+  }
+
+  @Override
+  protected List<VectorDistanceTuple<DoubleVector>> getNearestNeighbours(
+      DoubleVector feature, int k) {
+    List<VectorDistanceTuple<Integer>> result = index.query(feature, k);
+    List<VectorDistanceTuple<DoubleVector>> neighbours = new ArrayList<>(
+        result.size());
+    for (VectorDistanceTuple<Integer> tuple : result) {
+      neighbours.add(new VectorDistanceTuple<>(tuple.getVector(), outcomes
+          .get(tuple.getValue()), tuple.getDistance()));
+    }
+    return neighbours;
+  }
+
+  /**
+   * @return the index of the known examples.
+   */
+  public HNSWIndex getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Writes the given classifier to the output stream. Note that the stream
+   * isn't closed here.
+   */
+  public static void serialize(ApproximateKNearestNeighbours model,
+      DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, model.numOutcomes);
+    WritableUtils.writeVInt(out, model.k);
+    HNSWIndex.serialize(model.index, out);
+    for (DoubleVector outcome : model.outcomes) {
+      VectorWritable.writeVector(outcome, out);
+    }
+  }
+
+  /**
+   * Reads a new classifier from the given stream. Note that the stream isn't
+   * closed here.
+   */
+  public static ApproximateKNearestNeighbours deserialize(DataInput in)
+      throws IOException {
+    int numOutcomes = WritableUtils.readVInt(in);
+    int k = WritableUtils.readVInt(in);
+    HNSWIndex index = HNSWIndex.deserialize(in);
+    List<DoubleVector> outcomes = new ArrayList<>(index.size());
+    for (int i = 0; i < index.size(); i++) {
+      outcomes.add(VectorWritable.readVector(in));
+    }
+    return new ApproximateKNearestNeighbours(numOutcomes, k, index, outcomes);
+  }
+
+}
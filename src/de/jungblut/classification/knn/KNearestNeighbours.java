@@ -1,11 +1,17 @@
 package de.jungblut.classification.knn;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
-import de.jungblut.datastructure.KDTree;
+import com.google.common.base.Preconditions;
+
+import de.jungblut.datastructure.FlatKDTree;
 import de.jungblut.datastructure.KDTree.VectorDistanceTuple;
+import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleMatrix;
 
 /**
  * K nearest neighbour classification algorithm that is seeded with a "database"
@@ -17,7 +23,7 @@ import de.jungblut.math.DoubleVector;
  */
 public final class KNearestNeighbours extends AbstractKNearestNeighbours {
 
-  private final KDTree<DoubleVector> tree;
+  private FlatKDTree<DoubleVector> tree;
 
   /**
    * Constructs a new knn classifier.
@@ -28,25 +34,51 @@ public final class KNearestNeighbours extends AbstractKNearestNeighbours {
    */
   public KNearestNeighbours(int numOutcomes, int k) {
     super(numOutcomes, k);
-    this.tree = new KDTree<>();
   }
 
   @Override
   public void train(Iterable<DoubleVector> features,
       Iterable<DoubleVector> outcome) {
 
+    List<DoubleVector> featureList = new ArrayList<>();
+    List<DoubleVector> outcomeList = new ArrayList<>();
     Iterator<DoubleVector> featIterator = features.iterator();
     Iterator<DoubleVector> outIterator = outcome.iterator();
 
     while (featIterator.hasNext()) {
-      tree.add(featIterator.next(), outIterator.next());
+      featureList.add(featIterator.next());
+      outcomeList.add(outIterator.next());
     }
+    tree = new FlatKDTree<>(featureList, outcomeList);
+  }
 
+  /**
+   * Predicts the given features in parallel, by querying the tree for the
+   * neighbours of all features at once.
+   */
+  @Override
+  public DoubleMatrix predict(DoubleVector[] features) {
+    checkTrained();
+    List<List<VectorDistanceTuple<DoubleVector>>> neighbours = tree
+        .getNearestNeighbours(Arrays.asList(features), k,
+            Double.POSITIVE_INFINITY, Runtime.getRuntime()
+                .availableProcessors());
+    DoubleVector[] predictions = new DoubleVector[features.length];
+    for (int i = 0; i < predictions.length; i++) {
+      predictions[i] = predict(neighbours.get(i));
+    }
+    return new DenseDoubleMatrix(predictions);
   }
 
   @Override
   protected List<VectorDistanceTuple<DoubleVector>> getNearestNeighbours(
       DoubleVector feature, int k) {
+    checkTrained();
     return tree.getNearestNeighbours(feature, k);
   }
+
+  private void checkTrained() {
+    Preconditions.checkState(tree != null,
+        "The classifier must be trained before predicting!");
+  }
 }
@@ -3,21 +3,28 @@ package de.jungblut.classification.nn;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
 
 import com.google.common.base.Preconditions;
 
 import de.jungblut.classification.AbstractClassifier;
 import de.jungblut.classification.Classifier;
+import de.jungblut.datastructure.InputProvider;
+import de.jungblut.datastructure.VectorFileInputProvider;
 import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
 import de.jungblut.math.activation.ActivationFunction;
 import de.jungblut.math.activation.LinearActivationFunction;
 import de.jungblut.math.activation.SigmoidActivationFunction;
+import de.jungblut.math.dense.DenseDoubleMatrix;
 import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.math.minimize.CostFunction;
 import de.jungblut.math.minimize.DenseMatrixFolder;
 import de.jungblut.math.minimize.Minimizer;
 import de.jungblut.math.squashing.ErrorFunction;
+import de.jungblut.math.tuple.Tuple;
 import de.jungblut.writable.MatrixWritable;
 
 /**
@@ -68,7 +75,7 @@ public final class MultilayerPerceptron extends AbstractClassifier {
 
     /**
      * Sets the training type, it defaults to CPU- so only use if you want to
-     * use the GPU.
+     * use the GPU or the blocked CPU matrix multiplication.
      */
     public MultilayerPerceptronBuilder trainingType(TrainingType type) {
       this.type = type;
@@ -286,6 +293,27 @@ public final class MultilayerPerceptron extends AbstractClassifier {
     return activationVector;
   }
 
+  /**
+   * Predicts the outcome of all rows by doing a forward pass of the whole
+   * batch. Each layer is a single matrix-matrix product with the weights.
+   * 
+   * @return a matrix with the activations of the output layer in every row.
+   */
+  @Override
+  public DoubleMatrix predict(DoubleMatrix features) {
+    DoubleMatrix activationMatrix = features;
+    for (int i = 1; i < layers.length; i++) {
+      activationMatrix = activations[i].apply(multiplyWithBias(
+          activationMatrix, weights[i - 1].getWeights()));
+    }
+    return activationMatrix;
+  }
+
+  @Override
+  public DoubleMatrix predict(DoubleVector[] features) {
+    return predict(toMatrix(features));
+  }
+
   /**
    * Predicts the outcome of the given input by doing a forward pass. Used for
    * binary classification by a threshold. Everything above threshold will be
@@ -300,6 +328,56 @@ public final class MultilayerPerceptron extends AbstractClassifier {
     return activations;
   }
 
+  /**
+   * Computes [1, x] * weights^T without adding the bias column to x.
+   */
+  private static DoubleMatrix multiplyWithBias(DoubleMatrix x,
+      DoubleMatrix weights) {
+    final int m = x.getRowCount();
+    final int units = weights.getRowCount();
+    final int columns = weights.getColumnCount();
+    Preconditions.checkArgument(x.getColumnCount() + 1 == columns,
+        "Input layer size must match the given vector dimension! Given: "
+            + x.getColumnCount() + ", expected: " + (columns - 1));
+    double[] w = new double[units * columns];
+    for (int k = 0; k < columns; k++) {
+      for (int j = 0; j < units; j++) {
+        w[j + k * units] = weights.get(j, k);
+      }
+    }
+    // column major result, so the inner loops are sequential
+    double[] z = new double[m * units];
+    for (int j = 0; j < units; j++) {
+      Arrays.fill(z, j * m, (j + 1) * m, w[j]);
+    }
+    if (x instanceof DenseDoubleMatrix) {
+      double[] a = ((DenseDoubleMatrix) x).getColumnMajorMatrix();
+      for (int j = 0; j < units; j++) {
+        final int col = j * m;
+        for (int k = 1; k < columns; k++) {
+          double t = w[j + k * units];
+          int inCol = (k - 1) * m;
+          for (int row = 0; row < m; row++) {
+            z[col + row] += a[inCol + row] * t;
+          }
+        }
+      }
+    } else {
+      for (int row = 0; row < m; row++) {
+        Iterator<DoubleVectorElement> iterateNonZero = x.getRowVector(row)
+            .iterateNonZero();
+        while (iterateNonZero.hasNext()) {
+          DoubleVectorElement next = iterateNonZero.next();
+          int offset = (next.getIndex() + 1) * units;
+          for (int j = 0; j < units; j++) {
+            z[j * m + row] += next.getValue() * w[offset + j];
+          }
+        }
+      }
+    }
+    return new DenseDoubleMatrix(m, units, z);
+  }
+
   // could be simplified now due to a "copy" constructor
   private static DoubleVector addBias(DoubleVector activations) {
     return new DenseDoubleVector(1d, activations.toArray());
@@ -336,6 +414,23 @@ public final class MultilayerPerceptron extends AbstractClassifier {
         getFoldedThetaVector());
   }
 
+  /**
+   * Trains on examples that are streamed from the given provider, so the
+   * dataset doesn't need to fit into memory. The examples are read in batches
+   * of the configured mini batch size, which thus must be set.
+   * 
+   * @param examples the training examples as tuple of features and outcome,
+   *          e.g. from a {@link VectorFileInputProvider}.
+   * @return the cost of the training.
+   */
+  public final double train(
+      InputProvider<Tuple<DoubleVector, DoubleVector>> examples) {
+    CostFunction costFunction = new MultilayerPerceptronCostFunction(this,
+        examples);
+    return trainInternal(minimizer, maxIterations, verbose, costFunction,
+        getFoldedThetaVector());
+  }
+
   /**
    * Internal training method.
    * 
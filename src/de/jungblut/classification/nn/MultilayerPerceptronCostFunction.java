@@ -1,12 +1,20 @@
 package de.jungblut.classification.nn;
 
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.Arrays;
 import java.util.Random;
 
 import com.google.common.base.Preconditions;
 
+import de.jungblut.datastructure.InputProvider;
 import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.activation.AbstractActivationFunction;
 import de.jungblut.math.activation.ActivationFunction;
+import de.jungblut.math.activation.LinearActivationFunction;
+import de.jungblut.math.activation.SoftMaxActivationFunction;
+import de.jungblut.math.cpu.CPUMatrixUtils;
 import de.jungblut.math.cuda.JCUDAMatrixUtils;
 import de.jungblut.math.dense.DenseDoubleMatrix;
 import de.jungblut.math.dense.DenseDoubleVector;
@@ -14,9 +22,15 @@ import de.jungblut.math.minimize.AbstractMiniBatchCostFunction;
 import de.jungblut.math.minimize.CostGradientTuple;
 import de.jungblut.math.minimize.DenseMatrixFolder;
 import de.jungblut.math.squashing.ErrorFunction;
+import de.jungblut.math.tuple.Tuple;
 
 /**
- * Neural network costfunction for a multilayer perceptron.
+ * Neural network costfunction for a multilayer perceptron. <br/>
+ * Dense batches on the CPU are computed on preallocated buffers per thread and
+ * batch size, that are reused in every iteration. The bias and the activation
+ * are applied while writing the output of a layer, so a batch only allocates
+ * its resulting gradient. Networks with activations that can't be computed
+ * element-wise (except softmax) fall back to the matrix operations.
  * 
  * @author thomas.jungblut
  */
@@ -32,6 +46,16 @@ public final class MultilayerPerceptronCostFunction extends
   private final double visibleDropoutProbability;
   private final double hiddenDropoutProbability;
   private final Random rnd;
+  private final boolean workspaceSupported;
+  private final int[] thetaOffsets;
+  private final int numParameters;
+  // buffers of the current thread by the number of rows in a batch
+  private final ThreadLocal<TIntObjectHashMap<Workspace>> workspaces = new ThreadLocal<TIntObjectHashMap<Workspace>>() {
+    @Override
+    protected TIntObjectHashMap<Workspace> initialValue() {
+      return new TIntObjectHashMap<>();
+    }
+  };
 
   public MultilayerPerceptronCostFunction(MultilayerPerceptron network,
       DoubleVector[] features, DoubleVector[] outcome) {
@@ -46,11 +70,49 @@ public final class MultilayerPerceptronCostFunction extends
     this.visibleDropoutProbability = network.getVisibleDropoutProbability();
     this.hiddenDropoutProbability = network.getHiddenDropoutProbability();
     this.rnd = new Random();
+    this.workspaceSupported = isWorkspaceSupported(trainingType, activations);
+    this.thetaOffsets = new int[unfoldParameters.length + 1];
+    for (int i = 0; i < unfoldParameters.length; i++) {
+      thetaOffsets[i + 1] = thetaOffsets[i] + unfoldParameters[i][0]
+          * unfoldParameters[i][1];
+    }
+    this.numParameters = thetaOffsets[unfoldParameters.length];
+  }
+
+  /**
+   * Creates a cost function that streams the examples from the given provider
+   * in batches of the networks mini batch size.
+   */
+  public MultilayerPerceptronCostFunction(MultilayerPerceptron network,
+      InputProvider<Tuple<DoubleVector, DoubleVector>> examples) {
+    super(examples, network.getMiniBatchSize(), network.getBatchParallelism(),
+        network.isStochastic());
+    this.lambda = network.getLambda();
+    this.layerSizes = network.getLayers();
+    this.unfoldParameters = computeUnfoldParameters(layerSizes);
+    this.activations = network.getActivations();
+    this.error = network.getErrorFunction();
+    this.trainingType = network.getTrainingType();
+    this.visibleDropoutProbability = network.getVisibleDropoutProbability();
+    this.hiddenDropoutProbability = network.getHiddenDropoutProbability();
+    this.rnd = new Random();
+    this.workspaceSupported = isWorkspaceSupported(trainingType, activations);
+    this.thetaOffsets = new int[unfoldParameters.length + 1];
+    for (int i = 0; i < unfoldParameters.length; i++) {
+      thetaOffsets[i + 1] = thetaOffsets[i] + unfoldParameters[i][0]
+          * unfoldParameters[i][1];
+    }
+    this.numParameters = thetaOffsets[unfoldParameters.length];
   }
 
   @Override
   protected CostGradientTuple evaluateBatch(DoubleVector theta,
       DoubleMatrix featureBatch, DoubleMatrix outcomeBatch) {
+    if (workspaceSupported && featureBatch instanceof DenseDoubleMatrix
+        && outcomeBatch instanceof DenseDoubleMatrix) {
+      return computeInWorkspace(theta, (DenseDoubleMatrix) featureBatch,
+          (DenseDoubleMatrix) outcomeBatch);
+    }
     return compute(theta, featureBatch, outcomeBatch);
   }
 
@@ -62,7 +124,7 @@ public final class MultilayerPerceptronCostFunction extends
    * @param y the outcome.
    * @return a tuple of cost and gradient.
    */
-  private CostGradientTuple compute(DoubleVector input, DoubleMatrix x,
+  CostGradientTuple compute(DoubleVector input, DoubleMatrix x,
       DoubleMatrix y) {
     Preconditions.checkArgument(
         x.getColumnCount() - 1 == layerSizes[0],
@@ -98,6 +160,150 @@ public final class MultilayerPerceptronCostFunction extends
         DenseMatrixFolder.foldMatrices(thetaGradients));
   }
 
+  /**
+   * Does the same computation as
+   * {@link #compute(DoubleVector, DoubleMatrix, DoubleMatrix)} on the reused
+   * buffers of the current thread. All matrices are stored column major, the
+   * parameters are directly read from the folded theta vector.
+   * 
+   * @param input the input parameters (theta).
+   * @param x the features.
+   * @param y the outcome.
+   * @return a tuple of cost and gradient.
+   */
+  CostGradientTuple computeInWorkspace(DoubleVector input,
+      DenseDoubleMatrix x, DenseDoubleMatrix y) {
+    Preconditions.checkArgument(
+        x.getColumnCount() - 1 == layerSizes[0],
+        "Input layer size must match the given vector dimension! Given: "
+            + (x.getColumnCount() - 1) + ", expected: " + layerSizes[0]);
+    final int m = x.getRowCount();
+    final int last = layerSizes.length - 1;
+    final double[] theta = input.toArray();
+    Workspace ws = getWorkspace(m);
+
+    // forward propagation, a[i] contains the bias in its first column
+    double[] a0 = x.getColumnMajorMatrix();
+    if (visibleDropoutProbability > 0d) {
+      System.arraycopy(a0, 0, ws.a[0], 0, a0.length);
+      dropout(rnd, ws.a[0], m, visibleDropoutProbability);
+      a0 = ws.a[0];
+    }
+    ws.a[0] = a0;
+    for (int i = 1; i <= last; i++) {
+      double[] in = ws.a[i - 1];
+      double[] z = ws.z[i];
+      double[] out = ws.a[i];
+      final int units = layerSizes[i];
+      final int inColumns = layerSizes[i - 1] + 1;
+      final int offset = thetaOffsets[i - 1];
+      // hidden layers write their activations after the bias column
+      final int outOffset = i < last ? m : 0;
+      if (i < last) {
+        Arrays.fill(out, 0, m, 1d);
+      }
+      boolean softmax = activations[i] instanceof SoftMaxActivationFunction;
+      for (int j = 0; j < units; j++) {
+        final int col = j * m;
+        Arrays.fill(z, col, col + m, 0d);
+        for (int k = 0; k < inColumns; k++) {
+          double t = theta[offset + j + k * units];
+          int inCol = k * m;
+          for (int row = 0; row < m; row++) {
+            z[col + row] += in[inCol + row] * t;
+          }
+        }
+        if (!softmax) {
+          for (int row = 0; row < m; row++) {
+            out[outOffset + col + row] = activations[i].apply(z[col + row]);
+          }
+        }
+      }
+      if (softmax) {
+        softmax(z, out, outOffset, m, units);
+      }
+      if (i < last && hiddenDropoutProbability > 0d) {
+        dropout(rnd, out, m, hiddenDropoutProbability);
+      }
+    }
+
+    // backpropagate the error, starting with the difference in the last layer
+    final double[] output = ws.a[last];
+    final double[] outcome = y.getColumnMajorMatrix();
+    for (int i = 0; i < output.length; i++) {
+      ws.delta[last][i] = output[i] - outcome[i];
+    }
+    for (int i = last - 1; i > 0; i--) {
+      double[] next = ws.delta[i + 1];
+      double[] delta = ws.delta[i];
+      double[] z = ws.z[i];
+      final int units = layerSizes[i];
+      final int nextUnits = layerSizes[i + 1];
+      final int offset = thetaOffsets[i];
+      for (int j = 0; j < units; j++) {
+        final int col = j * m;
+        Arrays.fill(delta, col, col + m, 0d);
+        for (int k = 0; k < nextUnits; k++) {
+          // skip the bias column of theta
+          double t = theta[offset + k + (j + 1) * nextUnits];
+          int nextCol = k * m;
+          for (int row = 0; row < m; row++) {
+            delta[col + row] += next[nextCol + row] * t;
+          }
+        }
+        for (int row = 0; row < m; row++) {
+          delta[col + row] *= activations[i].gradient(z[col + row]);
+        }
+      }
+    }
+
+    // the gradient is written in the folded layout of theta
+    DoubleVector gradientVector = new DenseDoubleVector(numParameters);
+    double[] gradient = gradientVector.toArray();
+    double regularization = 0d;
+    for (int i = 0; i < last; i++) {
+      double[] delta = ws.delta[i + 1];
+      double[] activation = ws.a[i];
+      final int rows = layerSizes[i + 1];
+      final int columns = layerSizes[i] + 1;
+      final int offset = thetaOffsets[i];
+      for (int c = 0; c < columns; c++) {
+        for (int r = 0; r < rows; r++) {
+          double sum = 0d;
+          for (int row = 0; row < m; row++) {
+            sum += delta[r * m + row] * activation[c * m + row];
+          }
+          int index = offset + r + c * rows;
+          gradient[index] = sum / m;
+          if (lambda != 0d) {
+            double reg = theta[index] * (lambda / m);
+            if (c == 0) {
+              // the bias column is overwritten with its regularization
+              gradient[index] = reg;
+            } else {
+              gradient[index] += reg;
+              regularization += theta[index] * theta[index];
+            }
+          }
+        }
+      }
+    }
+    regularization = (lambda / (2.0d * m)) * regularization;
+
+    double j = (1.0d / m) * error.calculateError(y, ws.output) + regularization;
+    return new CostGradientTuple(j, gradientVector);
+  }
+
+  private Workspace getWorkspace(int m) {
+    TIntObjectHashMap<Workspace> map = workspaces.get();
+    Workspace ws = map.get(m);
+    if (ws == null) {
+      ws = new Workspace(layerSizes, m);
+      map.put(m, ws);
+    }
+    return ws;
+  }
+
   public void forwardPropagate(DoubleMatrix[] thetas, DoubleMatrix[] ax,
       DoubleMatrix[] zx) {
     for (int i = 1; i < layerSizes.length; i++) {
@@ -189,6 +395,8 @@ public final class MultilayerPerceptronCostFunction extends
     switch (trainingType) {
       case CPU:
         return multiplyCPU(a1, a2, a1Transpose, a2Transpose);
+      case CPU_BLOCKED:
+        return multiplyCPUBlocked(a1, a2, a1Transpose, a2Transpose);
       case GPU:
         return multiplyGPU(a1, a2, a1Transpose, a2Transpose);
     }
@@ -203,12 +411,111 @@ public final class MultilayerPerceptronCostFunction extends
     return a1.multiply(a2);
   }
 
+  private static DoubleMatrix multiplyCPUBlocked(DoubleMatrix a1,
+      DoubleMatrix a2, boolean a1Transpose, boolean a2Transpose) {
+    if (a1 instanceof DenseDoubleMatrix && a2 instanceof DenseDoubleMatrix) {
+      return CPUMatrixUtils.multiply((DenseDoubleMatrix) a1,
+          (DenseDoubleMatrix) a2, a1Transpose, a2Transpose);
+    }
+    return multiplyCPU(a1, a2, a1Transpose, a2Transpose);
+  }
+
   private static DoubleMatrix multiplyGPU(DoubleMatrix a1, DoubleMatrix a2,
       boolean a1Transpose, boolean a2Transpose) {
     return JCUDAMatrixUtils.multiply((DenseDoubleMatrix) a1,
         (DenseDoubleMatrix) a2, a1Transpose, a2Transpose);
   }
 
+  /**
+   * Applies the softmax on every row of the column major matrix z.
+   */
+  private static void softmax(double[] z, double[] out, int outOffset, int m,
+      int units) {
+    for (int row = 0; row < m; row++) {
+      double max = Double.NEGATIVE_INFINITY;
+      for (int j = 0; j < units; j++) {
+        max = Math.max(max, z[j * m + row]);
+      }
+      double sum = 0d;
+      for (int j = 0; j < units; j++) {
+        double exp = Math.exp(z[j * m + row] - max);
+        out[outOffset + j * m + row] = exp;
+        sum += exp;
+      }
+      for (int j = 0; j < units; j++) {
+        out[outOffset + j * m + row] /= sum;
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #dropout(Random, DoubleMatrix, double)} on a column major
+   * matrix with m rows.
+   */
+  private static void dropout(Random rnd, double[] activations, int m,
+      double p) {
+    final int columns = activations.length / m;
+    for (int row = 0; row < m; row++) {
+      for (int col = 0; col < columns; col++) {
+        if (rnd.nextDouble() <= p) {
+          activations[col * m + row] = 0d;
+        }
+      }
+    }
+  }
+
+  /**
+   * The workspace computes the same result as the matrix operations if every
+   * activation is applied element-wise or is a softmax. The matrix gradient of
+   * the linear activation differs from its element-wise gradient, thus it is
+   * only supported on the output layer where its gradient isn't used.
+   */
+  static boolean isWorkspaceSupported(TrainingType trainingType,
+      ActivationFunction[] activations) {
+    if (trainingType != TrainingType.CPU) {
+      return false;
+    }
+    for (int i = 1; i < activations.length; i++) {
+      if (!(activations[i] instanceof AbstractActivationFunction)) {
+        return false;
+      }
+      if (activations[i] instanceof LinearActivationFunction
+          && i < activations.length - 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Buffers for a batch with a fixed number of rows, all column major.
+   */
+  private static final class Workspace {
+
+    // activations, hidden layers contain the bias in their first column
+    private final double[][] a;
+    // values before the activation
+    private final double[][] z;
+    private final double[][] delta;
+    // wraps the last activations for the error function
+    private final DenseDoubleMatrix output;
+
+    Workspace(int[] layerSizes, int m) {
+      final int last = layerSizes.length - 1;
+      a = new double[layerSizes.length][];
+      z = new double[layerSizes.length][];
+      delta = new double[layerSizes.length][];
+      // only used for the visible dropout
+      a[0] = new double[m * (layerSizes[0] + 1)];
+      for (int i = 1; i <= last; i++) {
+        a[i] = new double[m * (layerSizes[i] + (i < last ? 1 : 0))];
+        z[i] = new double[m * layerSizes[i]];
+        delta[i] = new double[m * layerSizes[i]];
+      }
+      output = new DenseDoubleMatrix(m, layerSizes[last], a[last]);
+    }
+  }
+
   /**
    * Calculates the unfold parameters to unroll a learned theta vector in their
    * matrix.
@@ -53,7 +53,7 @@ public final class RBM {
 
     /**
      * Sets the training type, it defaults to CPU- so only use if you want to
-     * use the GPU.
+     * use the GPU or the blocked CPU matrix multiplication.
      */
     public RBMBuilder trainingType(TrainingType type) {
       this.type = type;
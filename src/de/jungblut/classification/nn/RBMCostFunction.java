@@ -5,6 +5,7 @@ import java.util.Random;
 import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.activation.ActivationFunction;
+import de.jungblut.math.cpu.CPUMatrixUtils;
 import de.jungblut.math.cuda.JCUDAMatrixUtils;
 import de.jungblut.math.dense.DenseDoubleMatrix;
 import de.jungblut.math.dense.DenseDoubleVector;
@@ -116,6 +117,8 @@ public final class RBMCostFunction extends AbstractMiniBatchCostFunction {
     switch (type) {
       case CPU:
         return multiplyCPU(a1, a2, a1Transpose, a2Transpose);
+      case CPU_BLOCKED:
+        return multiplyCPUBlocked(a1, a2, a1Transpose, a2Transpose);
       case GPU:
         return multiplyGPU(a1, a2, a1Transpose, a2Transpose);
     }
@@ -130,6 +133,15 @@ public final class RBMCostFunction extends AbstractMiniBatchCostFunction {
     return a1.multiply(a2);
   }
 
+  private static DoubleMatrix multiplyCPUBlocked(DoubleMatrix a1,
+      DoubleMatrix a2, boolean a1Transpose, boolean a2Transpose) {
+    if (a1 instanceof DenseDoubleMatrix && a2 instanceof DenseDoubleMatrix) {
+      return CPUMatrixUtils.multiply((DenseDoubleMatrix) a1,
+          (DenseDoubleMatrix) a2, a1Transpose, a2Transpose);
+    }
+    return multiplyCPU(a1, a2, a1Transpose, a2Transpose);
+  }
+
   private static DoubleMatrix multiplyGPU(DoubleMatrix a1, DoubleMatrix a2,
       boolean a1Transpose, boolean a2Transpose) {
     return JCUDAMatrixUtils.multiply((DenseDoubleMatrix) a1,
@@ -1,8 +1,10 @@
 package de.jungblut.classification.nn;
 
 /**
- * Train normally on the CPU or on the GPU via CUDA?
+ * Train normally on the CPU, on the CPU with a blocked and multithreaded
+ * matrix multiplication (see {@link de.jungblut.math.cpu.CPUMatrixUtils}) or
+ * on the GPU via CUDA?
  */
 public enum TrainingType {
-  CPU, GPU
+  CPU, CPU_BLOCKED, GPU
 }
@@ -13,6 +13,7 @@ import de.jungblut.math.DoubleVector;
 import de.jungblut.math.DoubleVector.DoubleVectorElement;
 import de.jungblut.math.dense.DenseDoubleMatrix;
 import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.minimize.HogwildGradientDescent;
 import de.jungblut.math.minimize.Minimizer;
 import de.jungblut.math.sparse.SparseDoubleRowMatrix;
 import de.jungblut.math.sparse.SparseDoubleVector;
@@ -23,6 +24,7 @@ public final class LogisticRegression extends AbstractClassifier {
   private final Minimizer minimizer;
   private final int numIterations;
   private final boolean verbose;
+  private final int batchSize;
 
   // learned weights
   private DoubleVector theta;
@@ -39,10 +41,27 @@ public final class LogisticRegression extends AbstractClassifier {
    */
   public LogisticRegression(double lambda, Minimizer minimizer,
       int numIterations, boolean verbose) {
+    this(lambda, minimizer, numIterations, 0, verbose);
+  }
+
+  /**
+   * Creates a new logistic regression.
+   * 
+   * @param lambda the regularization parameter.
+   * @param minimizer the minimizer to use to train this model.
+   * @param numIterations the number of iterations to make.
+   * @param batchSize the number of examples per batch for stochastic
+   *          minimizers like {@link HogwildGradientDescent}, 0 denotes a
+   *          single batch of all examples.
+   * @param verbose output the progress to STDOUT if true.
+   */
+  public LogisticRegression(double lambda, Minimizer minimizer,
+      int numIterations, int batchSize, boolean verbose) {
     super();
     this.lambda = lambda;
     this.minimizer = minimizer;
     this.numIterations = numIterations;
+    this.batchSize = batchSize;
     this.verbose = verbose;
     this.random = new Random();
   }
@@ -78,7 +97,7 @@ public final class LogisticRegression extends AbstractClassifier {
     y = y.transpose();
 
     LogisticRegressionCostFunction cnf = new LogisticRegressionCostFunction(x,
-        y, lambda);
+        y, lambda, batchSize);
 
     // random init theta
     theta = new DenseDoubleVector(x.getColumnCount() * y.getRowCount());
@@ -107,6 +126,32 @@ public final class LogisticRegression extends AbstractClassifier {
         features.dot(theta)) });
   }
 
+  /**
+   * Predicts all rows with a single matrix-vector product.
+   * 
+   * @return a matrix with a single column that contains the probability of
+   *         the positive class for every row.
+   */
+  @Override
+  public DoubleMatrix predict(DoubleMatrix features) {
+    Preconditions.checkArgument(
+        features.getColumnCount() + 1 == theta.getDimension(),
+        "Features must match the dimension of the learned weights!");
+    DoubleVector weights = theta.sliceByLength(1, theta.getDimension() - 1);
+    DoubleVector z = features.multiplyVectorRow(weights);
+    double bias = theta.get(0);
+    double[] result = new double[features.getRowCount()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = SIGMOID.get().apply(z.get(i) + bias);
+    }
+    return new DenseDoubleMatrix(result.length, 1, result);
+  }
+
+  @Override
+  public DoubleMatrix predict(DoubleVector[] features) {
+    return predict(toMatrix(features));
+  }
+
   /**
    * @return the learned weights.FSO
    */
@@ -3,16 +3,24 @@ package de.jungblut.classification.regression;
 import static de.jungblut.math.activation.ActivationFunctionSelector.SIGMOID;
 
 import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
 
 import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+import de.jungblut.math.MathUtils;
 import de.jungblut.math.dense.DenseDoubleMatrix;
-import de.jungblut.math.minimize.CostFunction;
+import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.math.minimize.CostGradientTuple;
+import de.jungblut.math.minimize.StochasticCostFunction;
+import de.jungblut.math.sparse.SparseDoubleVector;
 import de.jungblut.math.squashing.ErrorFunction;
 import de.jungblut.math.squashing.LogisticErrorFunction;
 
-public final class LogisticRegressionCostFunction implements CostFunction {
+public final class LogisticRegressionCostFunction implements
+    StochasticCostFunction {
 
   private static final ErrorFunction ERROR_FUNCTION = new LogisticErrorFunction();
 
@@ -21,6 +29,8 @@ public final class LogisticRegressionCostFunction implements CostFunction {
   private final DoubleMatrix y;
   private final int m;
   private final double lambda;
+  private final int batchSize;
+  private final int numBatches;
 
   /**
    * @param x normal feature matrix, column 0 should contain the bias.
@@ -30,11 +40,29 @@ public final class LogisticRegressionCostFunction implements CostFunction {
    */
   public LogisticRegressionCostFunction(DoubleMatrix x, DoubleMatrix y,
       double lambda) {
+    this(x, y, lambda, 0);
+  }
+
+  /**
+   * @param x normal feature matrix, column 0 should contain the bias.
+   * @param y normal outcome matrix, for multiple classes use the one-hot
+   *          encoding. This matrix should be transposed.
+   * @param lambda l1 reg parameter.
+   * @param batchSize the number of consecutive rows in a batch for stochastic
+   *          minimizers, 0 denotes a single batch of all rows.
+   */
+  public LogisticRegressionCostFunction(DoubleMatrix x, DoubleMatrix y,
+      double lambda, int batchSize) {
+    Preconditions.checkArgument(batchSize >= 0
+        && batchSize <= x.getRowCount(), "Batchsize wasn't in range of 0-"
+        + x.getRowCount());
     this.x = x;
     this.lambda = lambda;
     this.m = x.getRowCount();
     this.xTransposed = this.x.transpose();
     this.y = y;
+    this.batchSize = batchSize == 0 ? m : batchSize;
+    this.numBatches = (m + this.batchSize - 1) / this.batchSize;
   }
 
   @Override
@@ -57,4 +85,47 @@ public final class LogisticRegressionCostFunction implements CostFunction {
 
     return new CostGradientTuple(j, gradient);
   }
+
+  @Override
+  public int getNumBatches() {
+    return numBatches;
+  }
+
+  /**
+   * Evaluates the rows of the batch one by one, so for sparse features only
+   * the non-zero features are contained in the gradient (unless lambda is set).
+   */
+  @Override
+  public CostGradientTuple evaluateBatch(DoubleVector theta, int batchIndex) {
+    final int start = batchIndex * batchSize;
+    final int end = Math.min(m, start + batchSize);
+    final int rows = end - start;
+    DoubleVector gradient = x.isSparse() ? new SparseDoubleVector(
+        theta.getDimension()) : new DenseDoubleVector(theta.getDimension());
+    double error = 0d;
+    for (int row = start; row < end; row++) {
+      DoubleVector features = x.getRowVector(row);
+      double hypo = SIGMOID.get().apply(features.dot(theta));
+      double outcome = y.get(0, row);
+      error += -outcome * MathUtils.guardLogarithm(hypo) - (1d - outcome)
+          * MathUtils.guardLogarithm(1d - hypo);
+      double loss = (hypo - outcome) / rows;
+      Iterator<DoubleVectorElement> iterateNonZero = features.iterateNonZero();
+      while (iterateNonZero.hasNext()) {
+        DoubleVectorElement next = iterateNonZero.next();
+        gradient.set(next.getIndex(), gradient.get(next.getIndex()) + loss
+            * next.getValue());
+      }
+    }
+    double j = error / rows;
+    if (lambda != 0d) {
+      DoubleVector reg = theta.multiply(lambda / rows);
+      // don't regularize the bias
+      reg.set(0, 0d);
+      gradient = gradient.add(reg);
+      j += lambda * theta.pow(2).sum() / rows;
+    }
+    return new CostGradientTuple(j, gradient);
+  }
+
 }
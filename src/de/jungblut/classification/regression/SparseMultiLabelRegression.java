@@ -1,8 +1,18 @@
 package de.jungblut.classification.regression;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
@@ -17,7 +27,12 @@ import de.jungblut.math.tuple.Tuple;
  * descent to optimize the hamming loss. If a weight value drops below 1e-6, it
  * will consider the weight as zero- thus sparsifiying the matrix on the fly. In
  * addition, there is a sparsity parameter "lambda" that decays the weight by a
- * mixture of L1 lasso and L2 ridge norm: lambda * L1 + (1-lambda) * L2.
+ * mixture of L1 lasso and L2 ridge norm: lambda * L1 + (1-lambda) * L2. <br/>
+ * <br/>
+ * Training works on flat arrays of the initialized weights, thus an update
+ * only costs the non-zero features times their non-zero weights. The examples
+ * of the stream can be trained on by multiple threads concurrently, see
+ * {@link #setNumThreads(int)}.
  * 
  * @author thomas.jungblut
  * 
@@ -25,7 +40,8 @@ import de.jungblut.math.tuple.Tuple;
 public final class SparseMultiLabelRegression {
 
   private static final SigmoidActivationFunction SIGMOID = new SigmoidActivationFunction();
-  private static final HammingLossFunction LOSS = new HammingLossFunction(0.5);
+  private static final double LOSS_THRESHOLD = 0.5;
+  private static final int CHUNK_SIZE = 64;
   private Random random = new Random();
 
   private final double alpha;
@@ -37,6 +53,7 @@ public final class SparseMultiLabelRegression {
   private int reportInterval = 500;
   private double nearZeroLimit = 1e-6;
   private boolean verbose = false;
+  private int numThreads = 1;
 
   /**
    * Creates a new multilabel regression.
@@ -56,56 +73,79 @@ public final class SparseMultiLabelRegression {
   public void train(Iterable<Tuple<DoubleVector, DoubleVector>> dataStream) {
     DoubleMatrix theta = this.weights;
     initWeights(dataStream, theta);
-    for (int epoch = 0; epoch < epochs; epoch++) {
-      double lossSum = 0d;
-      int localItems = 0;
-      for (Tuple<DoubleVector, DoubleVector> tuple : dataStream) {
-        localItems++;
-        DoubleVector feature = tuple.getFirst();
-        DoubleVector outcome = tuple.getSecond();
-        DoubleVector z1 = theta.multiplyVectorColumn(feature);
-        DoubleVector activations = SIGMOID.apply(z1);
-        double loss = LOSS.calculateError(
-            new SparseDoubleRowMatrix(Arrays.asList(outcome)),
-            new SparseDoubleRowMatrix(Arrays.asList(activations)));
-        lossSum += loss;
-        DoubleVector activationDifference = activations.subtract(outcome);
-        // update theta by a smarter sparsity algorithm
-        Iterator<DoubleVectorElement> featureIterator = feature
-            .iterateNonZero();
-        while (featureIterator.hasNext()) {
-          DoubleVectorElement next = featureIterator.next();
-          DoubleVector rowVector = theta.getRowVector(next.getIndex());
-          double l2 = rowVector.pow(2d).sum();
-          Iterator<DoubleVectorElement> diffIterator = activationDifference
-              .iterateNonZero();
-          while (diffIterator.hasNext()) {
-            DoubleVectorElement diffElement = diffIterator.next();
-            double val = rowVector.get(diffElement.getIndex());
-            if (val != 0) {
-              val = val - diffElement.getValue() * alpha;
-              // apply the decay
-              if (lambda != 0d) {
-                val -= ((lambda * val) + (1d - lambda) * l2);
-              }
-              if (Math.abs(val) < nearZeroLimit) {
-                val = 0;
-              }
-              rowVector.set(diffElement.getIndex(), val);
-            }
+    // weights that weren't initialized stay zero, so the non-zero structure of
+    // theta is fixed from now on and can be trained in flat arrays
+    final int numRows = theta.getRowCount();
+    final int[] rows = theta.rowIndices();
+    final int[] rowOffsets = new int[numRows + 1];
+    for (int row : rows) {
+      rowOffsets[row + 1] = theta.getRowVector(row).getLength();
+    }
+    for (int row = 0; row < numRows; row++) {
+      rowOffsets[row + 1] += rowOffsets[row];
+    }
+    final int[] columns = new int[rowOffsets[numRows]];
+    final double[] values = new double[rowOffsets[numRows]];
+    for (int row : rows) {
+      int offset = rowOffsets[row];
+      Iterator<DoubleVectorElement> iterateNonZero = theta.getRowVector(row)
+          .iterateNonZero();
+      while (iterateNonZero.hasNext()) {
+        columns[offset++] = iterateNonZero.next().getIndex();
+      }
+      Arrays.sort(columns, rowOffsets[row], offset);
+      for (int i = rowOffsets[row]; i < offset; i++) {
+        values[i] = theta.get(row, columns[i]);
+      }
+    }
+
+    int threads = numThreads;
+    ExecutorService pool = null;
+    if (threads > 1) {
+      pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("MultiLabelRegression Worker %d")
+          .build());
+    }
+    try {
+      for (int epoch = 0; epoch < epochs; epoch++) {
+        Iterator<Tuple<DoubleVector, DoubleVector>> iterator = dataStream
+            .iterator();
+        List<Worker> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+          workers.add(new Worker(iterator, rowOffsets, columns, values,
+              theta.getColumnCount()));
+        }
+        if (pool == null) {
+          workers.get(0).call();
+        } else {
+          for (Future<Void> future : pool.invokeAll(workers)) {
+            future.get();
           }
         }
-        if (verbose && localItems % reportInterval == 0) {
-          System.out.format(" Item %d | AVG Loss: %f\r", localItems,
+        if (verbose) {
+          double lossSum = 0d;
+          int localItems = 0;
+          for (Worker worker : workers) {
+            lossSum += worker.lossSum;
+            localItems += worker.items;
+          }
+          System.out.format("\nEpoch %d | AVG Loss: %f\n", epoch,
               (lossSum / localItems));
         }
       }
-      if (verbose) {
-        System.out.format("\nEpoch %d | AVG Loss: %f\n", epoch,
-            (lossSum / localItems));
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
       }
     }
 
+    for (int row : rows) {
+      for (int i = rowOffsets[row]; i < rowOffsets[row + 1]; i++) {
+        theta.set(row, columns[i], values[i]);
+      }
+    }
     this.weights = theta;
 
   }
@@ -128,6 +168,17 @@ public final class SparseMultiLabelRegression {
     return this;
   }
 
+  /**
+   * @param numThreads the number of threads that train on the examples of the
+   *          stream concurrently, defaults to a single thread.
+   */
+  public SparseMultiLabelRegression setNumThreads(int numThreads) {
+    Preconditions.checkArgument(numThreads > 0,
+        "Number of threads must be at least one.");
+    this.numThreads = numThreads;
+    return this;
+  }
+
   /**
    * @param lambda the l_1 + l^2_2 combination parameter.
    */
@@ -181,4 +232,149 @@ public final class SparseMultiLabelRegression {
     }
   }
 
+  /**
+   * Trains on chunks of examples drawn from a shared iterator until the stream
+   * is exhausted. The weights are updated without any locking, like
+   * "Hogwild!" (Niu, Recht, Re, Wright 2011): examples are sparse, so
+   * concurrent updates rarely touch the same weights.
+   */
+  private final class Worker implements Callable<Void> {
+
+    private final Iterator<Tuple<DoubleVector, DoubleVector>> iterator;
+    private final int[] rowOffsets;
+    private final int[] columns;
+    private final double[] values;
+    // the activations of the current example, only the touched labels are set
+    private final double[] activations;
+    private final boolean[] touched;
+    private final int[] touchedLabels;
+    private final List<Tuple<DoubleVector, DoubleVector>> chunk = new ArrayList<>(
+        CHUNK_SIZE);
+
+    private double lossSum;
+    private int items;
+
+    Worker(Iterator<Tuple<DoubleVector, DoubleVector>> iterator,
+        int[] rowOffsets, int[] columns, double[] values, int numOutcomes) {
+      this.iterator = iterator;
+      this.rowOffsets = rowOffsets;
+      this.columns = columns;
+      this.values = values;
+      this.activations = new double[numOutcomes];
+      this.touched = new boolean[numOutcomes];
+      this.touchedLabels = new int[numOutcomes];
+    }
+
+    @Override
+    public Void call() {
+      while (nextChunk()) {
+        for (Tuple<DoubleVector, DoubleVector> tuple : chunk) {
+          train(tuple.getFirst(), tuple.getSecond());
+          items++;
+          if (verbose && numThreads == 1 && items % reportInterval == 0) {
+            System.out.format(" Item %d | AVG Loss: %f\r", items,
+                (lossSum / items));
+          }
+        }
+      }
+      return null;
+    }
+
+    private boolean nextChunk() {
+      chunk.clear();
+      synchronized (iterator) {
+        while (chunk.size() < CHUNK_SIZE && iterator.hasNext()) {
+          chunk.add(iterator.next());
+        }
+      }
+      return !chunk.isEmpty();
+    }
+
+    private void train(DoubleVector feature, DoubleVector outcome) {
+      // sparse forward pass, labels without any weight keep a zero activation
+      int numTouched = 0;
+      Iterator<DoubleVectorElement> featureIterator = feature.iterateNonZero();
+      while (featureIterator.hasNext()) {
+        DoubleVectorElement next = featureIterator.next();
+        int row = next.getIndex();
+        for (int i = rowOffsets[row]; i < rowOffsets[row + 1]; i++) {
+          int label = columns[i];
+          if (!touched[label]) {
+            touched[label] = true;
+            touchedLabels[numTouched++] = label;
+            activations[label] = 0d;
+          }
+          activations[label] += values[i] * next.getValue();
+        }
+      }
+      for (int i = 0; i < numTouched; i++) {
+        int label = touchedLabels[i];
+        double z = activations[label];
+        activations[label] = z == 0d ? 0d : SIGMOID.apply(z);
+      }
+      lossSum += hammingLoss(outcome, numTouched);
+
+      // update theta by a smarter sparsity algorithm
+      featureIterator = feature.iterateNonZero();
+      while (featureIterator.hasNext()) {
+        int row = featureIterator.next().getIndex();
+        final int start = rowOffsets[row];
+        final int end = rowOffsets[row + 1];
+        double l2 = 0d;
+        for (int i = start; i < end; i++) {
+          l2 += values[i] * values[i];
+        }
+        for (int i = start; i < end; i++) {
+          double val = values[i];
+          double diff = activations[columns[i]] - outcome.get(columns[i]);
+          if (val != 0 && diff != 0) {
+            val = val - diff * alpha;
+            // apply the decay
+            if (lambda != 0d) {
+              val -= ((lambda * val) + (1d - lambda) * l2);
+            }
+            if (Math.abs(val) < nearZeroLimit) {
+              val = 0;
+            }
+            values[i] = val;
+          }
+        }
+      }
+      for (int i = 0; i < numTouched; i++) {
+        touched[touchedLabels[i]] = false;
+      }
+    }
+
+    /**
+     * Same as the {@link HammingLossFunction} on the outcome and the sparse
+     * activations, over the labels that are non-zero in either of them.
+     */
+    private double hammingLoss(DoubleVector outcome, int numTouched) {
+      int mismatches = 0;
+      int visited = 0;
+      for (int i = 0; i < numTouched; i++) {
+        int label = touchedLabels[i];
+        double activation = activations[label];
+        double y = outcome.get(label);
+        if (activation != 0d || y != 0d) {
+          visited++;
+          if (activation > LOSS_THRESHOLD ^ y == 1d) {
+            mismatches++;
+          }
+        }
+      }
+      Iterator<DoubleVectorElement> outcomeIterator = outcome.iterateNonZero();
+      while (outcomeIterator.hasNext()) {
+        DoubleVectorElement next = outcomeIterator.next();
+        if (!touched[next.getIndex()]) {
+          visited++;
+          if (next.getValue() == 1d) {
+            mismatches++;
+          }
+        }
+      }
+      return visited == 0 ? 0d : mismatches / (double) visited;
+    }
+  }
+
 }
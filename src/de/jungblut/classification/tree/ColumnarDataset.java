@@ -0,0 +1,136 @@
+package de.jungblut.classification.tree;
+
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.math.DoubleVector;
+
+/**
+ * Columnar training data for tree induction. Every feature is stored as a
+ * primitive array over all rows and the outcome is stored as the class index
+ * per row. Trees are trained on an array of row indices into this store, so
+ * many trees (e.g. the bags of a {@link RandomForest}) can share a single
+ * instance without copying the data.
+ *
+ * @author thomas.jungblut
+ *
+ */
+public final class ColumnarDataset {
+
+  // [featureIndex][rowIndex]
+  private final double[][] columns;
+  private final int[] outcomes;
+  private final int numRows;
+  private final int outcomeDimension;
+  private final boolean binaryClassification;
+
+  private ColumnarDataset(double[][] columns, int[] outcomes,
+      int outcomeDimension, boolean binaryClassification) {
+    this.columns = columns;
+    this.outcomes = outcomes;
+    this.numRows = outcomes.length;
+    this.outcomeDimension = outcomeDimension;
+    this.binaryClassification = binaryClassification;
+  }
+
+  /**
+   * @return the values of the given feature over all rows.
+   */
+  public double[] getColumn(int featureIndex) {
+    return columns[featureIndex];
+  }
+
+  /**
+   * @return the class index of every row.
+   */
+  public int[] getOutcomes() {
+    return outcomes;
+  }
+
+  /**
+   * @return the number of rows.
+   */
+  public int getNumRows() {
+    return numRows;
+  }
+
+  /**
+   * @return the number of features.
+   */
+  public int getNumFeatures() {
+    return columns.length;
+  }
+
+  /**
+   * @return the number of possible classes, two in the binary case.
+   */
+  public int getOutcomeDimension() {
+    return outcomeDimension;
+  }
+
+  /**
+   * @return true if the outcome was a single dimension of zero or one.
+   */
+  public boolean isBinaryClassification() {
+    return binaryClassification;
+  }
+
+  /**
+   * @return the indices of all rows in ascending order.
+   */
+  public int[] allRows() {
+    int[] rows = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      rows[i] = i;
+    }
+    return rows;
+  }
+
+  /**
+   * @return a bootstrap sample of the row indices, drawn with replacement. The
+   *         number of times a row is contained denotes its weight.
+   */
+  public int[] bag(Random rnd) {
+    int[] rows = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      rows[i] = rnd.nextInt(numRows);
+    }
+    return rows;
+  }
+
+  /**
+   * Transposes the given row vectors into a new columnar dataset.
+   *
+   * @param features the features, all must have the same dimension.
+   * @param outcome the outcome, either a single dimension with zero or one for
+   *          binary classification or one dimension per class.
+   * @return a new columnar dataset.
+   */
+  public static ColumnarDataset create(DoubleVector[] features,
+      DoubleVector[] outcome) {
+    Preconditions.checkArgument(features.length == outcome.length,
+        "Number of examples and outcomes must match!");
+    Preconditions.checkArgument(features.length > 0,
+        "Features must contain at least a single item!");
+    int numFeatures = features[0].getDimension();
+    double[][] columns = new double[numFeatures][features.length];
+    int[] outcomes = new int[features.length];
+    boolean binaryClassification = outcome[0].getDimension() == 1;
+    for (int row = 0; row < features.length; row++) {
+      DoubleVector vec = features[row];
+      for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+        columns[featureIndex][row] = vec.get(featureIndex);
+      }
+      if (binaryClassification) {
+        outcomes[row] = (int) outcome[row].get(0);
+      } else {
+        outcomes[row] = outcome[row].maxIndex();
+      }
+    }
+    return new ColumnarDataset(columns, outcomes,
+        binaryClassification ? 2 : outcome[0].getDimension(),
+        binaryClassification);
+  }
+
+}
@@ -2,6 +2,7 @@ package de.jungblut.classification.tree;
 
 import gnu.trove.iterator.TDoubleIterator;
 import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.hash.TDoubleHashSet;
@@ -10,29 +11,36 @@ import gnu.trove.set.hash.TIntHashSet;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.commons.math3.util.FastMath;
 import org.apache.hadoop.io.WritableUtils;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 
 import de.jungblut.classification.AbstractClassifier;
 import de.jungblut.datastructure.ArrayUtils;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.math.sparse.SparseDoubleVector;
-import de.jungblut.math.tuple.Tuple;
 
 /**
  * A decision tree that can be used for classification with numerical or
  * categorical features. The tree is built by maximizing information gain using
  * the ID3 algorithm. If no featureTypes were supplied, the default is assumed
  * to be nominal features at all feature dimensions. <br/>
+ * The training happens on a {@link ColumnarDataset}, every node just partitions
+ * its range of an array of row indices in place. <br/>
  * Instances can be created by the static factory methods #create().
  * 
  * @author thomasjungblut
@@ -41,21 +49,39 @@ import de.jungblut.math.tuple.Tuple;
 public final class DecisionTree extends AbstractClassifier {
 
   private static final double LOG2 = FastMath.log(2);
+  // minimum number of rows in a node to fork work in parallel mode
+  private static final int PARALLEL_BUILD_THRESHOLD = 1024;
+
+  // the format of the nodes in serialized trees, older versions wrote a
+  // boolean that was true for a single compiled class
+  private static final byte NODES_FORMAT = 0;
+  private static final byte COMPILED_CLASS_FORMAT = 1;
+  private static final byte COMPILED_CLASSES_FORMAT = 2;
 
   private AbstractTreeNode rootNode;
   private FeatureType[] featureTypes;
   private int numRandomFeaturesToChoose;
   private int maxHeight = 25;
   private long seed = System.currentTimeMillis();
+  // zero means exhaustive numerical split search
+  private int numericalSplitBins = 0;
+  private int numThreads = 1;
 
   // default is binary classification 0 or 1.
   private boolean binaryClassification = true;
   private boolean compile = false;
   private String compiledName = null;
-  private byte[] compiledClass = null;
+  private Map<String, byte[]> compiledClasses = null;
   private int outcomeDimension;
   private int numFeatures;
 
+  // only set while building the tree
+  private ColumnarDataset data;
+  private int[] outcomes;
+  private int[] scratch;
+  private double[][] numericalSplitCandidates;
+  private ForkJoinPool pool;
+
   // use the static factory methods!
   private DecisionTree() {
   }
@@ -73,29 +99,59 @@ public final class DecisionTree extends AbstractClassifier {
 
   @Override
   public void train(DoubleVector[] features, DoubleVector[] outcome) {
-    Preconditions.checkArgument(features.length == outcome.length,
-        "Number of examples and outcomes must match!");
+    ColumnarDataset dataset = ColumnarDataset.create(features, outcome);
+    train(dataset, dataset.allRows());
+  }
+
+  /**
+   * Trains this tree on the given rows of the columnar dataset.
+   * 
+   * @param dataset the dataset, it is not modified and can be shared.
+   * @param rows the row indices to train on, rows can occur multiple times (for
+   *          example in a bootstrap sample). The content of this array is
+   *          reordered in place.
+   */
+  public void train(ColumnarDataset dataset, int[] rows) {
+    Preconditions.checkArgument(rows.length > 0,
+        "There must be at least a single row to train on!");
     // assume all nominal if nothing was set
     if (featureTypes == null) {
-      featureTypes = new FeatureType[features[0].getDimension()];
+      featureTypes = new FeatureType[dataset.getNumFeatures()];
       Arrays.fill(featureTypes, FeatureType.NOMINAL);
     }
     Preconditions.checkArgument(
-        featureTypes.length == features[0].getDimension(),
+        featureTypes.length == dataset.getNumFeatures(),
         "FeatureType length must match the dimension of the features!");
-    binaryClassification = outcome[0].getDimension() == 1;
-    if (binaryClassification) {
-      outcomeDimension = 2;
-    } else {
-      outcomeDimension = outcome[0].getDimension();
+    binaryClassification = dataset.isBinaryClassification();
+    outcomeDimension = dataset.getOutcomeDimension();
+    numFeatures = dataset.getNumFeatures();
+    data = dataset;
+    outcomes = dataset.getOutcomes();
+    scratch = new int[rows.length];
+    if (numericalSplitBins > 0) {
+      numericalSplitCandidates = computeNumericalSplitCandidates(rows);
     }
-    numFeatures = features[0].getDimension();
     TIntHashSet possibleFeatureIndices = getPossibleFeatures();
     // recursively build the tree...
-    // note that we use linked lists to remove examples we don't need, linked
-    // structures do not require costly copy operations after removal
-    rootNode = build(Lists.newLinkedList(Arrays.asList(features)),
-        Lists.newLinkedList(Arrays.asList(outcome)), possibleFeatureIndices, 0);
+    try {
+      if (numThreads > 1) {
+        pool = new ForkJoinPool(numThreads);
+        rootNode = pool.invoke(new BuildTask(rows, 0, rows.length,
+            possibleFeatureIndices, 0));
+      } else {
+        rootNode = build(rows, 0, rows.length, possibleFeatureIndices, 0);
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+        pool = null;
+      }
+      // the training state is only needed while building
+      data = null;
+      outcomes = null;
+      scratch = null;
+      numericalSplitCandidates = null;
+    }
     if (compile) {
       try {
         compileTree();
@@ -131,10 +187,10 @@ public final class DecisionTree extends AbstractClassifier {
    * @throws Exception some error might happen during compilation or loading.
    */
   public void compileTree() throws Exception {
-    if (compiledClass == null) {
+    if (compiledClasses == null) {
       compiledName = TreeCompiler.generateClassName();
-      compiledClass = TreeCompiler.compileNode(compiledName, rootNode);
-      rootNode = TreeCompiler.load(compiledName, compiledClass);
+      compiledClasses = TreeCompiler.compile(compiledName, rootNode);
+      rootNode = TreeCompiler.load(compiledName, compiledClasses);
     }
   }
 
@@ -158,15 +214,16 @@ public final class DecisionTree extends AbstractClassifier {
   }
 
   /**
-   * Recursively build the decision tree in a top down fashion.
+   * Recursively build the decision tree in a top down fashion on the rows
+   * between from (inclusive) and to (exclusive).
    */
-  private AbstractTreeNode build(List<DoubleVector> features,
-      List<DoubleVector> outcome, TIntHashSet possibleFeatureIndices, int level) {
+  private AbstractTreeNode build(int[] rows, int from, int to,
+      TIntHashSet possibleFeatureIndices, int level) {
 
     // we select a subset of features at every tree level
     possibleFeatureIndices = chooseRandomFeatures(possibleFeatureIndices);
 
-    int[] countOutcomeClasses = getPossibleClasses(outcome);
+    int[] countOutcomeClasses = getPossibleClasses(rows, from, to);
     TIntHashSet notZeroClasses = new TIntHashSet();
     for (int i = 0; i < countOutcomeClasses.length; i++) {
       if (countOutcomeClasses[i] != 0) {
@@ -190,9 +247,21 @@ public final class DecisionTree extends AbstractClassifier {
     // that one that maximizes it and split on it
     double targetEntropy = getEntropy(countOutcomeClasses);
     Split[] infoGain = new Split[numFeatures];
-    for (int featureIndex : possibleFeatureIndices.toArray()) {
-      infoGain[featureIndex] = computeSplit(targetEntropy, featureIndex,
-          countOutcomeClasses, features, outcome);
+    boolean parallel = pool != null && to - from >= PARALLEL_BUILD_THRESHOLD;
+    if (parallel) {
+      // every feature writes to its own slot, so the result doesn't depend on
+      // the order of execution
+      List<SplitTask> tasks = new ArrayList<>();
+      for (int featureIndex : possibleFeatureIndices.toArray()) {
+        tasks.add(new SplitTask(infoGain, targetEntropy, featureIndex,
+            countOutcomeClasses, rows, from, to));
+      }
+      ForkJoinTask.invokeAll(tasks);
+    } else {
+      for (int featureIndex : possibleFeatureIndices.toArray()) {
+        infoGain[featureIndex] = computeSplit(targetEntropy, featureIndex,
+            countOutcomeClasses, rows, from, to);
+      }
     }
 
     // pick the split with highest info gain
@@ -208,20 +277,31 @@ public final class DecisionTree extends AbstractClassifier {
     Split bestSplit = infoGain[maxIndex];
     int bestSplitIndex = bestSplit.getSplitAttributeIndex();
     if (featureTypes[bestSplitIndex].isNominal()) {
-      TIntHashSet uniqueFeatures = getNominalValues(bestSplitIndex, features);
-      NominalNode node = new NominalNode(bestSplitIndex, uniqueFeatures.size());
-      int cIndex = 0;
-      for (int nominalValue : uniqueFeatures.toArray()) {
-        node.nominalSplitValues[cIndex] = nominalValue;
-        Tuple<List<DoubleVector>, List<DoubleVector>> filtered = filterNominal(
-            features, outcome, bestSplitIndex, nominalValue);
+      int[] nominalValues = getNominalValues(bestSplitIndex, rows, from, to)
+          .toArray();
+      int[] childOffsets = partitionNominal(rows, from, to, bestSplitIndex,
+          nominalValues);
+      NominalNode node = new NominalNode(bestSplitIndex, nominalValues.length);
+      BuildTask[] tasks = new BuildTask[nominalValues.length];
+      for (int cIndex = 0; cIndex < nominalValues.length; cIndex++) {
+        node.nominalSplitValues[cIndex] = nominalValues[cIndex];
         TIntHashSet newPossibleFeatures = new TIntHashSet(
             possibleFeatureIndices);
         // remove that feature
         newPossibleFeatures.remove(bestSplitIndex);
-        node.children[cIndex] = build(filtered.getFirst(),
-            filtered.getSecond(), newPossibleFeatures, level + 1);
-        cIndex++;
+        tasks[cIndex] = new BuildTask(rows, childOffsets[cIndex],
+            childOffsets[cIndex + 1], newPossibleFeatures, level + 1);
+      }
+      // the children work on disjoint ranges of the rows and the scratch
+      if (parallel) {
+        ForkJoinTask.invokeAll(tasks);
+        for (int cIndex = 0; cIndex < tasks.length; cIndex++) {
+          node.children[cIndex] = tasks[cIndex].join();
+        }
+      } else {
+        for (int cIndex = 0; cIndex < tasks.length; cIndex++) {
+          node.children[cIndex] = tasks[cIndex].compute();
+        }
       }
       // make a faster lookup by sorting
       node.sortInternal();
@@ -229,15 +309,10 @@ public final class DecisionTree extends AbstractClassifier {
     } else {
       // numerical split
       TIntHashSet newPossibleFeatures = new TIntHashSet(possibleFeatureIndices);
-      Tuple<List<DoubleVector>, List<DoubleVector>> filterNumeric = filterNumeric(
-          features, outcome, bestSplitIndex,
-          bestSplit.getNumericalSplitValue(), true);
-      Tuple<List<DoubleVector>, List<DoubleVector>> filterNumericHigher = filterNumeric(
-          features, outcome, bestSplitIndex,
-          bestSplit.getNumericalSplitValue(), false);
-
-      if (filterNumeric.getFirst().isEmpty()
-          || filterNumericHigher.getFirst().isEmpty()) {
+      int splitPoint = partitionNumeric(rows, from, to, bestSplitIndex,
+          bestSplit.getNumericalSplitValue());
+
+      if (splitPoint == from || splitPoint == to) {
         newPossibleFeatures.remove(bestSplitIndex);
       } else {
         // we changed something, thus we can unselect all numerical features
@@ -249,12 +324,20 @@ public final class DecisionTree extends AbstractClassifier {
       }
 
       // build subtrees
-      AbstractTreeNode lower = build(filterNumeric.getFirst(),
-          filterNumeric.getSecond(), new TIntHashSet(newPossibleFeatures),
-          level + 1);
-      AbstractTreeNode higher = build(filterNumericHigher.getFirst(),
-          filterNumericHigher.getSecond(),
+      BuildTask lowerTask = new BuildTask(rows, from, splitPoint,
           new TIntHashSet(newPossibleFeatures), level + 1);
+      BuildTask higherTask = new BuildTask(rows, splitPoint, to,
+          new TIntHashSet(newPossibleFeatures), level + 1);
+      AbstractTreeNode lower;
+      AbstractTreeNode higher;
+      if (parallel) {
+        ForkJoinTask.invokeAll(lowerTask, higherTask);
+        lower = lowerTask.join();
+        higher = higherTask.join();
+      } else {
+        lower = lowerTask.compute();
+        higher = higherTask.compute();
+      }
       // now we can return this completed node
       return new NumericalNode(bestSplitIndex,
           bestSplit.getNumericalSplitValue(), lower, higher);
@@ -263,72 +346,58 @@ public final class DecisionTree extends AbstractClassifier {
   }
 
   /**
-   * Filters all examples where the feature at the given index has NOT the
-   * specific value. So the returned lists contain only vectors where the
-   * feature has the specific value.
+   * Stable partitions the rows between from and to by the given nominal
+   * values, so the rows of the i-th value end up in a consecutive range.
    * 
-   * @return a new tuple of two new lists (features and their outcome).
-   */
-  private Tuple<List<DoubleVector>, List<DoubleVector>> filterNominal(
-      List<DoubleVector> features, List<DoubleVector> outcome,
-      int bestSplitIndex, int nominalValue) {
-
-    List<DoubleVector> newFeatures = Lists.newLinkedList();
-    List<DoubleVector> newOutcomes = Lists.newLinkedList();
-
-    Iterator<DoubleVector> featureIterator = features.iterator();
-    Iterator<DoubleVector> outcomeIterator = outcome.iterator();
-    while (featureIterator.hasNext()) {
-      DoubleVector feature = featureIterator.next();
-      DoubleVector out = outcomeIterator.next();
-      if (((int) feature.get(bestSplitIndex)) == nominalValue) {
-        newFeatures.add(feature);
-        newOutcomes.add(out);
-      }
+   * @return an array of length nominalValues.length + 1 that contains the start
+   *         offsets of every range and the end offset of the last range.
+   */
+  private int[] partitionNominal(int[] rows, int from, int to,
+      int bestSplitIndex, int[] nominalValues) {
+    double[] column = data.getColumn(bestSplitIndex);
+    TIntIntHashMap valueToChild = new TIntIntHashMap(nominalValues.length);
+    for (int i = 0; i < nominalValues.length; i++) {
+      valueToChild.put(nominalValues[i], i);
     }
-
-    return new Tuple<>(newFeatures, newOutcomes);
+    int[] offsets = new int[nominalValues.length + 1];
+    for (int i = from; i < to; i++) {
+      offsets[valueToChild.get((int) column[rows[i]]) + 1]++;
+    }
+    offsets[0] = from;
+    for (int i = 1; i < offsets.length; i++) {
+      offsets[i] += offsets[i - 1];
+    }
+    int[] next = Arrays.copyOf(offsets, nominalValues.length);
+    for (int i = from; i < to; i++) {
+      int child = valueToChild.get((int) column[rows[i]]);
+      scratch[next[child]++] = rows[i];
+    }
+    System.arraycopy(scratch, from, rows, from, to - from);
+    return offsets;
   }
 
   /**
-   * Filters the lists by numerical decision.
+   * Stable partitions the rows between from and to by numerical decision.
+   * Rows where the feature is lower or equal to the split value are moved to
+   * the front, strictly higher ones to the back.
    * 
-   * @param features the features to filter.
-   * @param outcome the outcome to filter.
-   * @param bestSplitIndex the feature split index with highest information
-   *          gain.
-   * @param splitValue the value of the split point.
-   * @param lower true if the returned list should contain lower items, else it
-   *          contains strictly higher items.
-   * @return two filtered parallel lists.
-   */
-  private Tuple<List<DoubleVector>, List<DoubleVector>> filterNumeric(
-      List<DoubleVector> features, List<DoubleVector> outcome,
-      int bestSplitIndex, double splitValue, boolean lower) {
-
-    List<DoubleVector> newFeatures = Lists.newLinkedList();
-    List<DoubleVector> newOutcomes = Lists.newLinkedList();
-
-    Iterator<DoubleVector> featureIterator = features.iterator();
-    Iterator<DoubleVector> outcomeIterator = outcome.iterator();
-    while (featureIterator.hasNext()) {
-      DoubleVector feature = featureIterator.next();
-      DoubleVector out = outcomeIterator.next();
-      if (lower) {
-        if (feature.get(bestSplitIndex) <= splitValue) {
-          newFeatures.add(feature);
-          newOutcomes.add(out);
-        }
+   * @return the index of the first row that is strictly higher.
+   */
+  private int partitionNumeric(int[] rows, int from, int to,
+      int bestSplitIndex, double splitValue) {
+    double[] column = data.getColumn(bestSplitIndex);
+    int lower = from;
+    int higher = from;
+    for (int i = from; i < to; i++) {
+      int row = rows[i];
+      if (column[row] <= splitValue) {
+        rows[lower++] = row;
       } else {
-        if (feature.get(bestSplitIndex) > splitValue) {
-          newFeatures.add(feature);
-          newOutcomes.add(out);
-        }
+        scratch[higher++] = row;
       }
-
     }
-
-    return new Tuple<>(newFeatures, newOutcomes);
+    System.arraycopy(scratch, from, rows, lower, higher - from);
+    return lower;
   }
 
   /**
@@ -337,26 +406,24 @@ public final class DecisionTree extends AbstractClassifier {
    * @param overallEntropy the overall entropy at the given time.
    * @param featureIndex the feature index to evaluate on.
    * @param countOutcomeClasses the histogram over all possible outcome classes.
-   * @param features the features.
-   * @param outcome the outcome.
+   * @param rows the row indices.
+   * @param from the start of the rows to evaluate.
+   * @param to the (exclusive) end of the rows to evaluate.
    * @return a {@link Split} that contains a possible split (either numerical or
    *         categorical) along with the information gain.
    */
   private Split computeSplit(double overallEntropy, int featureIndex,
-      int[] countOutcomeClasses, List<DoubleVector> features,
-      List<DoubleVector> outcome) {
+      int[] countOutcomeClasses, int[] rows, int from, int to) {
 
+    double[] column = data.getColumn(featureIndex);
     if (featureTypes[featureIndex].isNominal()) {
       TIntObjectHashMap<int[]> featureValueOutcomeCount = new TIntObjectHashMap<>();
       TIntIntHashMap rowSums = new TIntIntHashMap();
       int numFeatures = 0;
-      Iterator<DoubleVector> featureIterator = features.iterator();
-      Iterator<DoubleVector> outcomeIterator = outcome.iterator();
-      while (featureIterator.hasNext()) {
-        DoubleVector feature = featureIterator.next();
-        DoubleVector out = outcomeIterator.next();
-        int classIndex = getOutcomeClassIndex(out);
-        int nominalFeatureValue = (int) feature.get(featureIndex);
+      for (int i = from; i < to; i++) {
+        int row = rows[i];
+        int classIndex = outcomes[row];
+        int nominalFeatureValue = (int) column[row];
         int[] is = featureValueOutcomeCount.get(nominalFeatureValue);
         if (is == null) {
           is = new int[outcomeDimension];
@@ -377,20 +444,20 @@ public final class DecisionTree extends AbstractClassifier {
         entropySum += condEntropy;
       }
       return new Split(featureIndex, overallEntropy - entropySum);
+    } else if (numericalSplitCandidates != null) {
+      return computeHistogramSplit(overallEntropy, featureIndex, rows, from, to);
     } else {
       // numerical case
-      Iterator<DoubleVector> featureIterator = features.iterator();
       TDoubleHashSet possibleFeatureValues = new TDoubleHashSet();
-      while (featureIterator.hasNext()) {
-        DoubleVector feature = featureIterator.next();
-        possibleFeatureValues.add(feature.get(featureIndex));
+      for (int i = from; i < to; i++) {
+        possibleFeatureValues.add(column[rows[i]]);
       }
       double bestInfogain = -1;
       double bestSplit = 0.0;
       TDoubleIterator iterator = possibleFeatureValues.iterator();
       while (iterator.hasNext()) {
         double value = iterator.next();
-        double ig = computeNumericalInfogain(features, outcome, overallEntropy,
+        double ig = computeNumericalInfogain(rows, from, to, overallEntropy,
             featureIndex, value);
         if (ig > bestInfogain) {
           bestInfogain = ig;
@@ -403,13 +470,123 @@ public final class DecisionTree extends AbstractClassifier {
   }
 
   /**
-   * This method computes the numerical information gain for the given features
-   * and outcomes and a featureIndex and its value. This is done by iterating
-   * once over all features and outcomes and calculating a table of outcome
-   * counts given a higher/lower relationship to the given feature value.
+   * Computes the numerical split by scanning the features only once. Every
+   * value is binned into a histogram over the precomputed split candidates
+   * (lower or equal than the candidate), then a single sweep over the bins
+   * yields the information gain for every candidate split point.
    * 
-   * @param features the features.
-   * @param outcome the outcomes.
+   * @param overallEntropy the overall entropy at the given time.
+   * @param featureIndex the feature index to evaluate on.
+   * @param rows the row indices.
+   * @param from the start of the rows to evaluate.
+   * @param to the (exclusive) end of the rows to evaluate.
+   * @return a {@link Split} with the best numerical split value found.
+   */
+  private Split computeHistogramSplit(double overallEntropy, int featureIndex,
+      int[] rows, int from, int to) {
+    double[] column = data.getColumn(featureIndex);
+    double[] candidates = numericalSplitCandidates[featureIndex];
+    // the last bin contains everything strictly higher than the last candidate
+    int[][] histogram = new int[candidates.length + 1][outcomeDimension];
+    int[] binSums = new int[candidates.length + 1];
+    int[] highCounts = new int[outcomeDimension];
+    for (int i = from; i < to; i++) {
+      int row = rows[i];
+      int classIndex = outcomes[row];
+      int bin = Arrays.binarySearch(candidates, column[row]);
+      if (bin < 0) {
+        bin = -(bin + 1);
+      }
+      histogram[bin][classIndex]++;
+      binSums[bin]++;
+      highCounts[classIndex]++;
+    }
+
+    double invDatasize = 1d / (to - from);
+    int[] lowCounts = new int[outcomeDimension];
+    int lowCount = 0;
+    int highCount = to - from;
+    double bestInfogain = -1;
+    double bestSplit = 0.0;
+    for (int bin = 0; bin < candidates.length; bin++) {
+      if (binSums[bin] == 0) {
+        // same partition as the candidate before, or nothing lower at all
+        continue;
+      }
+      for (int i = 0; i < outcomeDimension; i++) {
+        lowCounts[i] += histogram[bin][i];
+        highCounts[i] -= histogram[bin][i];
+      }
+      lowCount += binSums[bin];
+      highCount -= binSums[bin];
+      double ig = overallEntropy
+          - (lowCount * invDatasize * getEntropy(lowCounts, lowCount))
+          - (highCount * invDatasize * getEntropy(highCounts, highCount));
+      if (ig > bestInfogain) {
+        bestInfogain = ig;
+        bestSplit = candidates[bin];
+      }
+    }
+    return new Split(featureIndex, bestInfogain, bestSplit);
+  }
+
+  /**
+   * Computes the possible split values for every numerical feature by sorting
+   * the column once and taking at most numericalSplitBins quantiles of it.
+   * 
+   * @return an array indexed by feature that contains the sorted and distinct
+   *         split candidates, nominal features are null.
+   */
+  private double[][] computeNumericalSplitCandidates(int[] rows) {
+    double[][] candidates = new double[numFeatures][];
+    double[] values = new double[rows.length];
+    for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+      if (featureTypes[featureIndex].isNumerical()) {
+        double[] column = data.getColumn(featureIndex);
+        for (int i = 0; i < rows.length; i++) {
+          values[i] = column[rows[i]];
+        }
+        Arrays.sort(values);
+        candidates[featureIndex] = getQuantiles(values, numericalSplitBins);
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * @param sortedValues the ascending sorted values.
+   * @param numBins the maximum number of bins.
+   * @return at most numBins distinct and ascending sorted values that act as
+   *         the upper bound of a bin. If there are less distinct values than
+   *         bins, all distinct values are returned.
+   */
+  static double[] getQuantiles(double[] sortedValues, int numBins) {
+    TDoubleArrayList quantiles = new TDoubleArrayList(numBins);
+    int n = sortedValues.length;
+    for (int bin = 1; bin <= numBins; bin++) {
+      // index of the last item in this bin
+      int index = (int) ((long) bin * n / numBins) - 1;
+      if (index < 0) {
+        continue;
+      }
+      double value = sortedValues[index];
+      if (quantiles.isEmpty()
+          || quantiles.get(quantiles.size() - 1) < value) {
+        quantiles.add(value);
+      }
+    }
+    return quantiles.toArray();
+  }
+
+  /**
+   * This method computes the numerical information gain for the given rows and
+   * a featureIndex and its value. This is done by iterating once over all rows
+   * and calculating a table of outcome counts given a higher/lower relationship
+   * to the given feature value.
+   * 
+   * @param rows the row indices.
+   * @param from the start of the rows to evaluate.
+   * @param to the (exclusive) end of the rows to evaluate.
    * @param overallEntropy the overall entropy of the selectable features.
    * @param featureIndex the feature index to check.
    * @param value the value that acts as a possible split point between a lower
@@ -417,22 +594,19 @@ public final class DecisionTree extends AbstractClassifier {
    * @return the information gain under the feature given a value as a split
    *         point.
    */
-  private double computeNumericalInfogain(List<DoubleVector> features,
-      List<DoubleVector> outcome, double overallEntropy, int featureIndex,
-      double value) {
-    double invDatasize = 1d / features.size();
+  private double computeNumericalInfogain(int[] rows, int from, int to,
+      double overallEntropy, int featureIndex, double value) {
+    double[] column = data.getColumn(featureIndex);
+    double invDatasize = 1d / (to - from);
     // 0 denotes lower than or equal, 1 denotes higher
     int[][] counts = new int[2][outcomeDimension];
     int lowCount = 0;
     int highCount = 0;
     Arrays.fill(counts, new int[outcomeDimension]);
-    Iterator<DoubleVector> featureIterator = features.iterator();
-    Iterator<DoubleVector> outcomeIterator = outcome.iterator();
-    while (featureIterator.hasNext()) {
-      DoubleVector feature = featureIterator.next();
-      DoubleVector out = outcomeIterator.next();
-      int idx = getOutcomeClassIndex(out);
-      if (feature.get(featureIndex) > value) {
+    for (int i = from; i < to; i++) {
+      int row = rows[i];
+      int idx = outcomes[row];
+      if (column[row] > value) {
         counts[1][idx]++;
         highCount++;
       } else {
@@ -449,29 +623,14 @@ public final class DecisionTree extends AbstractClassifier {
   }
 
   /**
-   * @return the class index, this takes binary classification into account as
-   *         well as multi class classification.
-   */
-  private int getOutcomeClassIndex(DoubleVector out) {
-    int classIndex = 0;
-    if (binaryClassification) {
-      classIndex = (int) out.get(0);
-    } else {
-      classIndex = out.maxIndex();
-    }
-    return classIndex;
-  }
-
-  /**
-   * @return a set of nominal values of that feature index given the examples
-   *         that contain this feature.
+   * @return a set of nominal values of that feature index given the rows.
    */
-  private TIntHashSet getNominalValues(int featureIndex,
-      List<DoubleVector> features) {
+  private TIntHashSet getNominalValues(int featureIndex, int[] rows, int from,
+      int to) {
+    double[] column = data.getColumn(featureIndex);
     TIntHashSet uniqueFeatures = new TIntHashSet();
-    for (DoubleVector vec : features) {
-      int featureValue = (int) vec.get(featureIndex);
-      uniqueFeatures.add(featureValue);
+    for (int i = from; i < to; i++) {
+      uniqueFeatures.add((int) column[rows[i]]);
     }
     return uniqueFeatures;
   }
@@ -480,16 +639,11 @@ public final class DecisionTree extends AbstractClassifier {
    * @return an array from 0-outcome dimension that has a count on every feature
    *         index representing how often it occurred.
    */
-  private int[] getPossibleClasses(List<DoubleVector> outcome) {
+  private int[] getPossibleClasses(int[] rows, int from, int to) {
     int[] clzs = new int[outcomeDimension];
-    for (DoubleVector out : outcome) {
-      if (binaryClassification) {
-        clzs[(int) out.get(0)]++;
-      } else {
-        clzs[out.maxIndex()]++;
-      }
+    for (int i = from; i < to; i++) {
+      clzs[outcomes[rows[i]]]++;
     }
-
     return clzs;
   }
 
@@ -538,6 +692,32 @@ public final class DecisionTree extends AbstractClassifier {
     return this;
   }
 
+  /**
+   * Sets the number of quantile bins that are used to find numerical splits.
+   * Instead of evaluating every distinct value of a feature as a split point,
+   * the values are binned once per tree and every node scans a feature only
+   * once. Zero or negative numbers (the default) turn on the exhaustive search.
+   * 
+   * @return this decision tree instance.
+   */
+  public DecisionTree setNumericalSplitBins(int bins) {
+    this.numericalSplitBins = bins;
+    return this;
+  }
+
+  /**
+   * Sets the number of threads to build this tree with. If greater than one,
+   * the features are scored in parallel at large nodes and large subtrees are
+   * built as separate fork/join tasks. The resulting tree is the same as if it
+   * were built by a single thread.
+   * 
+   * @return this decision tree instance.
+   */
+  public DecisionTree setNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+    return this;
+  }
+
   /**
    * Sets the seed for a random number generator if used.
    */
@@ -546,6 +726,18 @@ public final class DecisionTree extends AbstractClassifier {
     return this;
   }
 
+  AbstractTreeNode getRootNode() {
+    return rootNode;
+  }
+
+  boolean isBinaryClassification() {
+    return binaryClassification;
+  }
+
+  int getOutcomeDimension() {
+    return outcomeDimension;
+  }
+
   /*
    * for testing
    */
@@ -579,13 +771,17 @@ public final class DecisionTree extends AbstractClassifier {
         WritableUtils.writeVInt(out, tree.featureTypes[i].ordinal());
       }
 
-      if (tree.compiledClass == null) {
-        out.writeBoolean(false);
+      if (tree.compiledClasses == null) {
+        out.writeByte(NODES_FORMAT);
         tree.rootNode.write(out);
       } else {
-        out.writeBoolean(true);
+        out.writeByte(COMPILED_CLASSES_FORMAT);
         out.writeUTF(tree.compiledName);
-        WritableUtils.writeCompressedByteArray(out, tree.compiledClass);
+        WritableUtils.writeVInt(out, tree.compiledClasses.size());
+        for (Entry<String, byte[]> entry : tree.compiledClasses.entrySet()) {
+          out.writeUTF(entry.getKey());
+          WritableUtils.writeCompressedByteArray(out, entry.getValue());
+        }
       }
     } catch (Exception e) {
       throw new IOException(e);
@@ -604,9 +800,18 @@ public final class DecisionTree extends AbstractClassifier {
     for (int i = 0; i < numFeatures; i++) {
       arr[i] = FeatureType.values()[WritableUtils.readVInt(in)];
     }
-    if (in.readBoolean()) {
+    byte format = in.readByte();
+    if (format == COMPILED_CLASS_FORMAT || format == COMPILED_CLASSES_FORMAT) {
       String name = in.readUTF();
-      byte[] compiled = WritableUtils.readCompressedByteArray(in);
+      Map<String, byte[]> compiled = new LinkedHashMap<>();
+      if (format == COMPILED_CLASS_FORMAT) {
+        compiled.put(name, WritableUtils.readCompressedByteArray(in));
+      } else {
+        int numClasses = WritableUtils.readVInt(in);
+        for (int i = 0; i < numClasses; i++) {
+          compiled.put(in.readUTF(), WritableUtils.readCompressedByteArray(in));
+        }
+      }
       try {
         AbstractTreeNode loadedRoot = TreeCompiler.load(name, compiled);
         return new DecisionTree(loadedRoot, arr, binary, numFeatures,
@@ -614,9 +819,11 @@ public final class DecisionTree extends AbstractClassifier {
       } catch (Exception e) {
         throw new IOException(e);
       }
-    } else {
+    } else if (format == NODES_FORMAT) {
       AbstractTreeNode root = AbstractTreeNode.read(in);
       return new DecisionTree(root, arr, binary, numFeatures, outcomeDimension);
+    } else {
+      throw new IOException("Unknown tree format: " + format);
     }
   }
 
@@ -678,6 +885,23 @@ public final class DecisionTree extends AbstractClassifier {
     return entropySum;
   }
 
+  /**
+   * @param outcomeCounter the prediction class counts.
+   * @param sum the sum of the class counts.
+   * @return the entropy of the given prediction class counts, classes that
+   *         didn't occur don't contribute to it.
+   */
+  static double getEntropy(int[] outcomeCounter, int sum) {
+    double entropySum = 0d;
+    for (int x : outcomeCounter) {
+      if (x != 0) {
+        double conditionalProbability = x / (double) sum;
+        entropySum -= (conditionalProbability * log2(conditionalProbability));
+      }
+    }
+    return entropySum;
+  }
+
   /**
    * @return the log2 of the given input.
    */
@@ -685,4 +909,65 @@ public final class DecisionTree extends AbstractClassifier {
     return FastMath.log(num) / LOG2;
   }
 
+  /**
+   * Builds the subtree for the given range of rows.
+   */
+  private final class BuildTask extends RecursiveTask<AbstractTreeNode> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] rows;
+    private final int from;
+    private final int to;
+    private final TIntHashSet possibleFeatureIndices;
+    private final int level;
+
+    BuildTask(int[] rows, int from, int to,
+        TIntHashSet possibleFeatureIndices, int level) {
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+      this.possibleFeatureIndices = possibleFeatureIndices;
+      this.level = level;
+    }
+
+    @Override
+    protected AbstractTreeNode compute() {
+      return build(rows, from, to, possibleFeatureIndices, level);
+    }
+  }
+
+  /**
+   * Computes the split of a single feature and writes it to its slot.
+   */
+  private final class SplitTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Split[] infoGain;
+    private final double overallEntropy;
+    private final int featureIndex;
+    private final int[] countOutcomeClasses;
+    private final int[] rows;
+    private final int from;
+    private final int to;
+
+    SplitTask(Split[] infoGain, double overallEntropy, int featureIndex,
+        int[] countOutcomeClasses, int[] rows, int from, int to) {
+      this.infoGain = infoGain;
+      this.overallEntropy = overallEntropy;
+      this.featureIndex = featureIndex;
+      this.countOutcomeClasses = countOutcomeClasses;
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      infoGain[featureIndex] = computeSplit(overallEntropy, featureIndex,
+          countOutcomeClasses, rows, from, to);
+    }
+  }
+
 }
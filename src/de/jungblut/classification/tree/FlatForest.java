@@ -0,0 +1,375 @@
+package de.jungblut.classification.tree;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.classification.AbstractClassifier;
+import de.jungblut.datastructure.ArrayUtils;
+import de.jungblut.math.DoubleMatrix;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleMatrix;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+/**
+ * Flattened inference representation of one or multiple decision trees. All
+ * nodes of all trees are encoded as a struct of arrays: the split feature, the
+ * split threshold and the offsets of the two children of every node. This
+ * doesn't need any class generation like the {@link TreeCompiler} and thus
+ * isn't limited in size. <br/>
+ * Nodes are encoded in the following manner:
+ * <ul>
+ * <li>Leaf nodes have a negative feature, -(label + 1).</li>
+ * <li>Numerical nodes go to the second child if the value of the feature is
+ * strictly higher than the threshold, otherwise to the first one.</li>
+ * <li>Nominal nodes are encoded as a chain of equality tests, each goes to the
+ * second child if the value equals the threshold and otherwise to the next test
+ * of the chain. The end of the chain is a leaf with label zero.</li>
+ * </ul>
+ * Trees can't be trained in this representation, it can be created from a
+ * trained {@link DecisionTree} or {@link RandomForest} that wasn't compiled.
+ * Predictions are combined by majority vote like in the {@link RandomForest}.
+ *
+ * @author thomas.jungblut
+ *
+ */
+public final class FlatForest extends AbstractClassifier {
+
+  private static final byte NUMERICAL = 0;
+  private static final byte NOMINAL = 1;
+
+  private final int[] roots;
+  private final int[] features;
+  private final double[] thresholds;
+  private final byte[] types;
+  // the two children of node i are at 2*i and 2*i+1
+  private final int[] children;
+
+  private final boolean binaryClassification;
+  private final int outcomeDimension;
+
+  private FlatForest(int[] roots, int[] features, double[] thresholds,
+      byte[] types, int[] children, boolean binaryClassification,
+      int outcomeDimension) {
+    this.roots = roots;
+    this.features = features;
+    this.thresholds = thresholds;
+    this.types = types;
+    this.children = children;
+    this.binaryClassification = binaryClassification;
+    this.outcomeDimension = outcomeDimension;
+  }
+
+  @Override
+  public void train(DoubleVector[] features, DoubleVector[] outcome) {
+    throw new UnsupportedOperationException(
+        "A flat forest can't be trained, create it from a trained forest!");
+  }
+
+  @Override
+  public DoubleVector predict(DoubleVector features) {
+    return toPrediction(vote(features.toArray()));
+  }
+
+  @Override
+  public DoubleVector predictProbability(DoubleVector features) {
+    return toProbability(vote(features.toArray()));
+  }
+
+  /**
+   * Predicts a batch of rows by majority vote.
+   *
+   * @return the predictions in the same format as {@link #predict(DoubleVector)}.
+   */
+  @Override
+  public DoubleMatrix predict(DoubleVector[] features) {
+    return new DenseDoubleMatrix(toPredictions(vote(toArrays(features))));
+  }
+
+  /**
+   * Predicts all rows of the matrix by majority vote, the trees are evaluated
+   * like in {@link #vote(double[][])}.
+   */
+  @Override
+  public DoubleMatrix predict(DoubleMatrix features) {
+    double[][] rows = new double[features.getRowCount()][];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = features.getRowVector(i).toArray();
+    }
+    return new DenseDoubleMatrix(toPredictions(vote(rows)));
+  }
+
+  /**
+   * Predicts the vote distribution of a batch of rows.
+   *
+   * @return the predictions in the same format as
+   *         {@link #predictProbability(DoubleVector)}.
+   */
+  public DoubleVector[] predictProbability(DoubleVector[] features) {
+    int[][] votes = vote(toArrays(features));
+    DoubleVector[] result = new DoubleVector[votes.length];
+    for (int i = 0; i < votes.length; i++) {
+      result[i] = toProbability(votes[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Scores all rows with all trees. The trees are evaluated one after another
+   * over the whole batch, so the nodes of a tree stay in the cache.
+   *
+   * @param rows the rows to score, indexed by [row][feature].
+   * @return the number of votes per row and class, indexed by [row][class].
+   */
+  public int[][] vote(double[][] rows) {
+    int[][] votes = new int[rows.length][outcomeDimension];
+    for (int tree = 0; tree < roots.length; tree++) {
+      int root = roots[tree];
+      for (int row = 0; row < rows.length; row++) {
+        votes[row][predictTree(root, rows[row])]++;
+      }
+    }
+    return votes;
+  }
+
+  /**
+   * Scores a single row with all trees.
+   *
+   * @return the number of votes per class.
+   */
+  public int[] vote(double[] row) {
+    int[] votes = new int[outcomeDimension];
+    for (int tree = 0; tree < roots.length; tree++) {
+      votes[predictTree(roots[tree], row)]++;
+    }
+    return votes;
+  }
+
+  /**
+   * @return the number of trees.
+   */
+  public int getNumTrees() {
+    return roots.length;
+  }
+
+  /**
+   * @return the number of nodes of all trees.
+   */
+  public int getNumNodes() {
+    return features.length;
+  }
+
+  /**
+   * Walks down a single tree.
+   *
+   * @return the predicted class index.
+   */
+  private int predictTree(int root, double[] row) {
+    int node = root;
+    int feature;
+    while ((feature = features[node]) >= 0) {
+      double value = row[feature];
+      double threshold = thresholds[node];
+      boolean second = types[node] == NUMERICAL ? value > threshold
+          : (int) value == (int) threshold;
+      node = children[(node << 1) + (second ? 1 : 0)];
+    }
+    return -feature - 1;
+  }
+
+  private DoubleVector toPrediction(int[] votes) {
+    int clz = ArrayUtils.maxIndex(votes);
+    if (binaryClassification) {
+      return new DenseDoubleVector(new double[] { clz });
+    }
+    DoubleVector vec = new DenseDoubleVector(outcomeDimension);
+    vec.set(clz, 1d);
+    return vec;
+  }
+
+  private DoubleVector[] toPredictions(int[][] votes) {
+    DoubleVector[] result = new DoubleVector[votes.length];
+    for (int i = 0; i < votes.length; i++) {
+      result[i] = toPrediction(votes[i]);
+    }
+    return result;
+  }
+
+  private DoubleVector toProbability(int[] votes) {
+    double sum = roots.length;
+    if (binaryClassification) {
+      return new DenseDoubleVector(new double[] { votes[1] / sum });
+    }
+    DoubleVector vec = new DenseDoubleVector(outcomeDimension);
+    for (int i = 0; i < votes.length; i++) {
+      vec.set(i, votes[i] / sum);
+    }
+    return vec;
+  }
+
+  private static double[][] toArrays(DoubleVector[] features) {
+    double[][] rows = new double[features.length][];
+    for (int i = 0; i < features.length; i++) {
+      rows[i] = features[i].toArray();
+    }
+    return rows;
+  }
+
+  /**
+   * Flattens a single trained tree.
+   */
+  public static FlatForest create(DecisionTree tree) {
+    return create(new DecisionTree[] { tree });
+  }
+
+  /**
+   * Flattens all trees of the trained forest.
+   */
+  public static FlatForest create(RandomForest forest) {
+    return create(forest.getTrees());
+  }
+
+  /**
+   * Flattens the given trained trees into a single forest.
+   */
+  public static FlatForest create(DecisionTree[] trees) {
+    Preconditions.checkArgument(trees.length > 0,
+        "There must be at least a single tree!");
+    Builder builder = new Builder();
+    int[] roots = new int[trees.length];
+    for (int i = 0; i < trees.length; i++) {
+      Preconditions.checkArgument(
+          trees[i].isBinaryClassification() == trees[0]
+              .isBinaryClassification()
+              && trees[i].getOutcomeDimension() == trees[0]
+                  .getOutcomeDimension(),
+          "All trees must predict the same outcome!");
+      roots[i] = builder.add(trees[i].getRootNode());
+    }
+    return new FlatForest(roots, builder.features.toArray(),
+        builder.thresholds.toArray(), builder.types.toArray(),
+        builder.children.toArray(), trees[0].isBinaryClassification(),
+        trees[0].getOutcomeDimension());
+  }
+
+  /**
+   * Writes the given forest to the output stream. Note that the stream isn't
+   * closed here.
+   */
+  public static void serialize(FlatForest forest, DataOutput out)
+      throws IOException {
+    out.writeBoolean(forest.binaryClassification);
+    WritableUtils.writeVInt(out, forest.outcomeDimension);
+    WritableUtils.writeVInt(out, forest.roots.length);
+    for (int root : forest.roots) {
+      WritableUtils.writeVInt(out, root);
+    }
+    WritableUtils.writeVInt(out, forest.features.length);
+    for (int i = 0; i < forest.features.length; i++) {
+      WritableUtils.writeVInt(out, forest.features[i]);
+      if (forest.features[i] >= 0) {
+        out.writeByte(forest.types[i]);
+        out.writeDouble(forest.thresholds[i]);
+        WritableUtils.writeVInt(out, forest.children[i << 1]);
+        WritableUtils.writeVInt(out, forest.children[(i << 1) + 1]);
+      }
+    }
+  }
+
+  /**
+   * Reads a new forest from the given stream. Note that the stream isn't
+   * closed here.
+   */
+  public static FlatForest deserialize(DataInput in) throws IOException {
+    boolean binary = in.readBoolean();
+    int outcomeDimension = WritableUtils.readVInt(in);
+    int[] roots = new int[WritableUtils.readVInt(in)];
+    for (int i = 0; i < roots.length; i++) {
+      roots[i] = WritableUtils.readVInt(in);
+    }
+    int numNodes = WritableUtils.readVInt(in);
+    int[] features = new int[numNodes];
+    double[] thresholds = new double[numNodes];
+    byte[] types = new byte[numNodes];
+    int[] children = new int[numNodes << 1];
+    for (int i = 0; i < numNodes; i++) {
+      features[i] = WritableUtils.readVInt(in);
+      if (features[i] >= 0) {
+        types[i] = in.readByte();
+        thresholds[i] = in.readDouble();
+        children[i << 1] = WritableUtils.readVInt(in);
+        children[(i << 1) + 1] = WritableUtils.readVInt(in);
+      }
+    }
+    return new FlatForest(roots, features, thresholds, types, children,
+        binary, outcomeDimension);
+  }
+
+  /**
+   * Appends tree nodes in pre-order to the growing arrays.
+   */
+  private static final class Builder {
+
+    private final TIntArrayList features = new TIntArrayList();
+    private final TDoubleArrayList thresholds = new TDoubleArrayList();
+    private final TByteArrayList types = new TByteArrayList();
+    private final TIntArrayList children = new TIntArrayList();
+
+    /**
+     * @return the index of the added node.
+     */
+    int add(AbstractTreeNode node) {
+      if (node instanceof LeafNode) {
+        return addLeaf(((LeafNode) node).getLabel());
+      } else if (node instanceof NumericalNode) {
+        NumericalNode numerical = (NumericalNode) node;
+        int index = addNode(numerical.getSplitAttributeIndex(),
+            numerical.getSplitAttributeValue(), NUMERICAL);
+        children.set(index << 1, add(numerical.getLower()));
+        children.set((index << 1) + 1, add(numerical.getHigher()));
+        return index;
+      } else if (node instanceof NominalNode) {
+        NominalNode nominal = (NominalNode) node;
+        return addNominalChain(nominal, 0);
+      }
+      throw new IllegalArgumentException(
+          "Compiled trees can't be flattened, found "
+              + node.getClass().getName());
+    }
+
+    private int addNominalChain(NominalNode node, int valueIndex) {
+      if (valueIndex == node.nominalSplitValues.length) {
+        // unknown categories resort to the default class 0
+        return addLeaf(0);
+      }
+      int index = addNode(node.getSplitAttributeIndex(),
+          node.nominalSplitValues[valueIndex], NOMINAL);
+      children.set((index << 1) + 1, add(node.children[valueIndex]));
+      children.set(index << 1, addNominalChain(node, valueIndex + 1));
+      return index;
+    }
+
+    private int addLeaf(int label) {
+      return addNode(-(label + 1), 0d, NUMERICAL);
+    }
+
+    private int addNode(int feature, double threshold, byte type) {
+      int index = features.size();
+      features.add(feature);
+      thresholds.add(threshold);
+      types.add(type);
+      children.add(0);
+      children.add(0);
+      return index;
+    }
+  }
+
+}
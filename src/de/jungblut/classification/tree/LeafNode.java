@@ -35,6 +35,10 @@ public final class LeafNode extends AbstractTreeNode {
     visitor.visitJumpInsn(Opcodes.GOTO, returnLabel);
   }
 
+  int getLabel() {
+    return label;
+  }
+
   @Override
   public void readFields(DataInput in) throws IOException {
     label = WritableUtils.readVInt(in);
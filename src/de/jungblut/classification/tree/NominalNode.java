@@ -106,6 +106,10 @@ public final class NominalNode extends AbstractTreeNode {
 
   }
 
+  int getSplitAttributeIndex() {
+    return splitAttributeIndex;
+  }
+
   @Override
   public void readFields(DataInput in) throws IOException {
     this.splitAttributeIndex = WritableUtils.readVInt(in);
@@ -55,8 +55,14 @@ public final class NumericalNode extends AbstractTreeNode {
         "(" + Type.INT_TYPE.getDescriptor() + ")"
             + Type.DOUBLE_TYPE.getDescriptor());
     // now we have the double value of the vector at the index on the stack.
-    // let's load the comparison value.
-    visitor.visitLdcInsn(splitAttributeValue);
+    // let's load the comparison value. ASM hashes double constants by their
+    // integral part, so they are stored by their bits, which is much faster to
+    // compile for large trees. The conversion is an intrinsic of the JIT.
+    visitor.visitLdcInsn(Double.doubleToRawLongBits(splitAttributeValue));
+    visitor.visitMethodInsn(Opcodes.INVOKESTATIC,
+        Type.getInternalName(Double.class), "longBitsToDouble", "("
+            + Type.LONG_TYPE.getDescriptor() + ")"
+            + Type.DOUBLE_TYPE.getDescriptor());
 
     Label smallerLabel = new Label();
     Label end = new Label();
@@ -74,6 +80,22 @@ public final class NumericalNode extends AbstractTreeNode {
     visitor.visitLabel(end);
   }
 
+  int getSplitAttributeIndex() {
+    return splitAttributeIndex;
+  }
+
+  double getSplitAttributeValue() {
+    return splitAttributeValue;
+  }
+
+  AbstractTreeNode getLower() {
+    return lower;
+  }
+
+  AbstractTreeNode getHigher() {
+    return higher;
+  }
+
   @Override
   public void readFields(DataInput in) throws IOException {
     splitAttributeIndex = WritableUtils.readVInt(in);
@@ -4,6 +4,15 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import com.google.common.base.Preconditions;
 
@@ -12,28 +21,35 @@ import de.jungblut.classification.Classifier;
 import de.jungblut.classification.ClassifierFactory;
 import de.jungblut.classification.meta.Voter;
 import de.jungblut.classification.meta.Voter.CombiningType;
-import de.jungblut.classification.meta.Voter.SelectionType;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
 
 /**
  * A decision tree forest, using bagging. The decision trees inside are compiled
  * directly into byte code for fast performance. The training can be done
- * multithreaded.
+ * multithreaded, all trees share a single {@link ColumnarDataset} and are
+ * trained on bootstrap samples of its row indices.
  * 
  * @author thomasjungblut
  * 
  */
 public final class RandomForest extends AbstractClassifier {
 
+  private static final Log LOG = LogFactory.getLog(RandomForest.class);
+
   private final int numTrees;
   private FeatureType[] featureTypes;
   private int numThreads = 1;
+  private int numTreeThreads = 1;
+  private long seed = System.currentTimeMillis();
   private int numRandomFeaturesToChoose = 0;
   private int maxHeight = Integer.MAX_VALUE;
+  private int numericalSplitBins = 0;
   private boolean verbose;
   private boolean compile = false;
 
   private Voter<DecisionTree> trees;
+  private AbstractTreeNode compiledForest;
 
   private RandomForest(int numTrees) {
     this.numTrees = numTrees;
@@ -50,6 +66,8 @@ public final class RandomForest extends AbstractClassifier {
         "Number of examples and outcomes must match!");
     Preconditions.checkArgument(numTrees > 1,
         "There must be at least two trees to make up a forest!");
+    // a previously compiled forest would still predict the old trees
+    compiledForest = null;
     // assume all nominal if nothing was set
     if (featureTypes == null) {
       featureTypes = new FeatureType[features[0].getDimension()];
@@ -66,16 +84,50 @@ public final class RandomForest extends AbstractClassifier {
         "Number of random features to choose must be "
             + "lower or equal than the number of features!");
 
-    trees = Voter
-        .create(numTrees, CombiningType.MAJORITY, new DecisionTreeFactory())
-        .selectionType(SelectionType.BAGGING).numThreads(numThreads)
-        .verbose(verbose);
-    // do the training!
-    trees.train(features, outcome);
+    trees = Voter.create(numTrees, CombiningType.MAJORITY,
+        new DecisionTreeFactory()).verbose(verbose);
+    // all trees share the same columnar data, a bag is just an index array
+    ColumnarDataset dataset = ColumnarDataset.create(features, outcome);
+    Random rnd = new Random(seed);
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      ExecutorCompletionService<Boolean> completionService = new ExecutorCompletionService<>(
+          pool);
+      Classifier[] classifier = trees.getClassifier();
+      for (int i = 0; i < classifier.length; i++) {
+        // draw all randomness upfront, so it doesn't depend on the scheduling
+        DecisionTree tree = ((DecisionTree) classifier[i]).setSeed(rnd
+            .nextLong());
+        completionService.submit(new TrainingWorker(tree, dataset, dataset
+            .bag(rnd)));
+      }
+      // do the training!
+      for (int i = 0; i < classifier.length; i++) {
+        completionService.take().get();
+        if (verbose) {
+          LOG.info("Finished with training tree " + (i + 1) + " of "
+              + classifier.length);
+        }
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    } finally {
+      pool.shutdownNow();
+    }
   }
 
   @Override
   public DoubleVector predict(DoubleVector features) {
+    if (compiledForest != null) {
+      DecisionTree first = getTrees()[0];
+      int clz = compiledForest.predict(features);
+      if (first.isBinaryClassification()) {
+        return new DenseDoubleVector(new double[] { clz });
+      }
+      DoubleVector vec = new DenseDoubleVector(first.getOutcomeDimension());
+      vec.set(clz, 1d);
+      return vec;
+    }
     // just proxy to the voter
     trees.setCombiningType(CombiningType.MAJORITY);
     return trees.predict(features);
@@ -87,6 +139,35 @@ public final class RandomForest extends AbstractClassifier {
     return trees.predict(features);
   }
 
+  /**
+   * Compiles all trees of this trained forest into a single class that does
+   * the majority vote inline, {@link #predict(DoubleVector)} uses it
+   * afterwards. The trees must not be compiled on their own. Note that the
+   * compiled forest isn't serialized, it can be compiled again after
+   * deserialization.
+   * 
+   * @throws Exception some error might happen during compilation or loading.
+   */
+  public void compileForest() throws Exception {
+    DecisionTree[] decisionTrees = getTrees();
+    AbstractTreeNode[] roots = new AbstractTreeNode[decisionTrees.length];
+    for (int i = 0; i < roots.length; i++) {
+      roots[i] = decisionTrees[i].getRootNode();
+    }
+    String name = TreeCompiler.generateClassName();
+    compiledForest = TreeCompiler.load(name, TreeCompiler.compileForest(
+        name, roots, decisionTrees[0].getOutcomeDimension()));
+  }
+
+  DecisionTree[] getTrees() {
+    Classifier[] classifier = trees.getClassifier();
+    DecisionTree[] result = new DecisionTree[classifier.length];
+    for (int i = 0; i < classifier.length; i++) {
+      result[i] = (DecisionTree) classifier[i];
+    }
+    return result;
+  }
+
   /**
    * @return sets this instance to compile and returns it.
    */
@@ -120,6 +201,17 @@ public final class RandomForest extends AbstractClassifier {
     return this;
   }
 
+  /**
+   * Sets the number of quantile bins to search numerical splits in every tree,
+   * zero or negative numbers (the default) turn on the exhaustive search.
+   * 
+   * @return this instance.
+   */
+  public RandomForest setNumericalSplitBins(int bins) {
+    this.numericalSplitBins = bins;
+    return this;
+  }
+
   /**
    * @return this instance, set the number of threads for training the forest.
    */
@@ -128,6 +220,26 @@ public final class RandomForest extends AbstractClassifier {
     return this;
   }
 
+  /**
+   * @return this instance, set the number of threads that are used to build a
+   *         single tree in parallel.
+   */
+  public RandomForest numTreeThreads(int numTreeThreads) {
+    this.numTreeThreads = numTreeThreads;
+    return this;
+  }
+
+  /**
+   * Sets the seed for the bagging and the trees, a forest trained with the
+   * same seed on the same data is always the same.
+   * 
+   * @return this instance.
+   */
+  public RandomForest setSeed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
   /**
    * @return this instance, set to the number of random features to choose at
    *         every decision tree level.
@@ -193,6 +305,25 @@ public final class RandomForest extends AbstractClassifier {
     return new RandomForest(numTrees, voter);
   }
 
+  private static final class TrainingWorker implements Callable<Boolean> {
+
+    private final DecisionTree tree;
+    private final ColumnarDataset dataset;
+    private final int[] bag;
+
+    TrainingWorker(DecisionTree tree, ColumnarDataset dataset, int[] bag) {
+      this.tree = tree;
+      this.dataset = dataset;
+      this.bag = bag;
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+      tree.train(dataset, bag);
+      return true;
+    }
+  }
+
   private final class DecisionTreeFactory implements
       ClassifierFactory<DecisionTree> {
 
@@ -201,11 +332,15 @@ public final class RandomForest extends AbstractClassifier {
       if (compile) {
         return DecisionTree.createCompiledTree(featureTypes)
             .setNumRandomFeaturesToChoose(numRandomFeaturesToChoose)
-            .setMaxHeight(maxHeight);
+            .setMaxHeight(maxHeight)
+            .setNumericalSplitBins(numericalSplitBins)
+            .setNumThreads(numTreeThreads);
       } else {
         return DecisionTree.create(featureTypes)
             .setNumRandomFeaturesToChoose(numRandomFeaturesToChoose)
-            .setMaxHeight(maxHeight);
+            .setMaxHeight(maxHeight)
+            .setNumericalSplitBins(numericalSplitBins)
+            .setNumThreads(numTreeThreads);
       }
     }
   }
@@ -1,14 +1,29 @@
 package de.jungblut.classification.tree;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Random;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
+import com.google.common.base.Preconditions;
+
+import de.jungblut.datastructure.ArrayUtils;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
 
 /**
  * Compilation unit for the object tree structure of the {@link DecisionTree}.
@@ -23,20 +38,42 @@ import de.jungblut.math.DoubleVector;
  * of the split with a reference.</li>
  * </ul>
  * 
- * The data that needs to be stored in order to compare is put into the constant
- * space of a class. Thus this is only limited to 2^16 entries on some JVMs. The
- * created class is called "CompiledNode_{timestamp}_{random}" and it's
- * {@link AbstractTreeNode} {@link #compileAndLoad(AbstractTreeNode)} method
- * throws an unsupported operation exception.
+ * Methods are limited to 64k of byte code and the hotspot JVM doesn't JIT
+ * methods that are larger than 8k. Thus subtrees are outlined into static
+ * helper methods once a method exceeds {@link #METHOD_BUDGET} bytes. The data
+ * that needs to be stored in order to compare is put into the constant space
+ * of a class, which is limited to 2^16 entries. Once the helper methods exceed
+ * {@link #CLASS_BUDGET} constants, they are put into additional helper classes
+ * called "{name}_{index}". The main class is called
+ * "CompiledNode_{timestamp}_{random}" and it's {@link AbstractTreeNode}
+ * {@link AbstractTreeNode#transformToByteCode(MethodVisitor, Label)} method
+ * throws an unsupported operation exception. <br/>
+ * Whole forests can be compiled into a single main class that does the
+ * majority vote inline.
  * 
  * @author thomas.jungblut
  * 
  */
 public final class TreeCompiler implements Opcodes {
 
+  private static final Log LOG = LogFactory.getLog(TreeCompiler.class);
+
   private static final String CLAZZ_NAME = "CompiledNode";
   private static final Random RNG = new Random();
 
+  // estimated bytes of byte code per method, below the hotspot JIT limit
+  static final int METHOD_BUDGET = 6000;
+  // estimated number of constants per class, below the limit of 2^16
+  static final int CLASS_BUDGET = 40000;
+  // number of trees that vote in a single method
+  private static final int VOTES_PER_METHOD = 256;
+
+  private static final String NODE_DESCRIPTOR = Type.getMethodDescriptor(
+      Type.INT_TYPE, Type.getType(DoubleVector.class));
+  private static final String VOTE_DESCRIPTOR = Type.getMethodDescriptor(
+      Type.VOID_TYPE, Type.getType(DoubleVector.class),
+      Type.getType(int[].class));
+
   /**
    * Compiles the given node and directly loads it.
    * 
@@ -46,7 +83,7 @@ public final class TreeCompiler implements Opcodes {
    */
   public static AbstractTreeNode compileAndLoad(String name,
       AbstractTreeNode node) throws Exception {
-    return load(name, compileNode(name, node));
+    return load(name, compile(name, node));
   }
 
   /**
@@ -63,31 +100,55 @@ public final class TreeCompiler implements Opcodes {
   }
 
   /**
-   * Compiles the given tree node and name into a class.
+   * Loads the given tree node via its name and the byte code of all classes it
+   * consists of.
+   * 
+   * @param name the name of the main class.
+   * @param classes the classes as returned by
+   *          {@link #compile(String, AbstractTreeNode)}.
+   * @return a new {@link AbstractTreeNode}.
+   */
+  public static AbstractTreeNode load(String name, Map<String, byte[]> classes)
+      throws Exception {
+    // the helpers must be defined before the main class is used
+    for (Entry<String, byte[]> entry : classes.entrySet()) {
+      if (!entry.getKey().equals(name)) {
+        loadClass(entry.getValue(), entry.getKey());
+      }
+    }
+    return load(name, classes.get(name));
+  }
+
+  /**
+   * Compiles the given tree node and name into a single class.
    * 
    * @param name the name of the class.
    * @param root the treenode to compile.
    * @return a byte[] representing the class contents.
+   * @throws IllegalArgumentException if the tree is too large for a single
+   *           class, use {@link #compile(String, AbstractTreeNode)} instead.
    */
   public static byte[] compileNode(String name, AbstractTreeNode root)
       throws Exception {
-    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-    cw.visit(Opcodes.V1_6, ACC_PUBLIC + ACC_FINAL, name, null,
-        Type.getInternalName(AbstractTreeNode.class), null);
-    cw.visitSource(name + ".java", null);
+    Map<String, byte[]> classes = compile(name, root);
+    Preconditions.checkArgument(classes.size() == 1,
+        "Tree is too large for a single class, it needs " + classes.size());
+    return classes.get(name);
+  }
 
-    // add the constructor
-    {
-      MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()"
-          + Type.VOID_TYPE.getReturnType(), null, null);
-      mv.visitVarInsn(ALOAD, 0);
-      mv.visitMethodInsn(INVOKESPECIAL,
-          Type.getInternalName(AbstractTreeNode.class), "<init>", "()"
-              + Type.VOID_TYPE.getReturnType());
-      mv.visitInsn(RETURN);
-      mv.visitMaxs(1, 1);
-      mv.visitEnd();
-    }
+  /**
+   * Compiles the given tree node and name into one or multiple classes.
+   * 
+   * @param name the name of the main class.
+   * @param root the treenode to compile.
+   * @return a map of class name to its content, contains at least the main
+   *         class.
+   */
+  public static Map<String, byte[]> compile(String name, AbstractTreeNode root)
+      throws Exception {
+    Chunker chunker = new Chunker(name);
+    AbstractTreeNode mainRoot = chunker.outline(root);
+    ClassWriter cw = chunker.newMainClass();
     // override the "predict" method
     {
       MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "predict", Type
@@ -95,7 +156,7 @@ public final class TreeCompiler implements Opcodes {
               "predict", DoubleVector.class)), null, null);
       Label end = new Label();
 
-      root.transformToByteCode(mv, end);
+      mainRoot.transformToByteCode(mv, end);
 
       mv.visitLabel(end);
       // return the last int on the stack.
@@ -103,23 +164,61 @@ public final class TreeCompiler implements Opcodes {
       mv.visitMaxs(0, 0);
       mv.visitEnd();
     }
-    // make the "transformToByteCode" throw an exception
+    return chunker.finish(cw);
+  }
+
+  /**
+   * Compiles the given trees into one or multiple classes. The main class
+   * predicts the class that was predicted by most trees, ties are broken by
+   * the lower class index.
+   * 
+   * @param name the name of the main class.
+   * @param roots the root nodes of the trees to compile.
+   * @param numClasses the number of possible classes, two in the binary case.
+   * @return a map of class name to its content, contains at least the main
+   *         class.
+   */
+  public static Map<String, byte[]> compileForest(String name,
+      AbstractTreeNode[] roots, int numClasses) throws Exception {
+    Preconditions.checkArgument(roots.length > 0,
+        "There must be at least a single tree!");
+    Chunker chunker = new Chunker(name);
+    List<MethodCallNode> trees = new ArrayList<>(roots.length);
+    for (AbstractTreeNode root : roots) {
+      trees.add(chunker.outlineMethod(chunker.outline(root)));
+    }
+    // every vote method increments the votes of a block of trees
+    List<MethodCallNode> voteMethods = new ArrayList<>();
+    for (int start = 0; start < trees.size(); start += VOTES_PER_METHOD) {
+      voteMethods.add(chunker.addVoteMethod(trees.subList(start,
+          Math.min(trees.size(), start + VOTES_PER_METHOD))));
+    }
+
+    ClassWriter cw = chunker.newMainClass();
     {
-      MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "transformToByteCode", Type
+      MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "predict", Type
           .getMethodDescriptor(AbstractTreeNode.class.getDeclaredMethod(
-              "transformToByteCode", MethodVisitor.class, Label.class)), null,
-          null);
-      mv.visitTypeInsn(NEW, "java/lang/UnsupportedOperationException");
-      mv.visitInsn(DUP);
-      mv.visitMethodInsn(INVOKESPECIAL,
-          "java/lang/UnsupportedOperationException", "<init>", "()V");
-      mv.visitInsn(ATHROW);
+              "predict", DoubleVector.class)), null, null);
+      // int[] votes = new int[numClasses];
+      mv.visitLdcInsn(numClasses);
+      mv.visitIntInsn(NEWARRAY, T_INT);
+      mv.visitVarInsn(ASTORE, 2);
+      for (MethodCallNode voteMethod : voteMethods) {
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKESTATIC, voteMethod.owner, voteMethod.name,
+            VOTE_DESCRIPTOR);
+      }
+      // return ArrayUtils.maxIndex(votes);
+      mv.visitVarInsn(ALOAD, 2);
+      mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ArrayUtils.class),
+          "maxIndex", Type.getMethodDescriptor(Type.INT_TYPE,
+              Type.getType(int[].class)));
+      mv.visitInsn(IRETURN);
       mv.visitMaxs(0, 0);
       mv.visitEnd();
     }
-    cw.visitEnd();
-
-    return cw.toByteArray();
+    return chunker.finish(cw);
   }
 
   /**
@@ -132,6 +231,314 @@ public final class TreeCompiler implements Opcodes {
         + Integer.toString(Math.abs(RNG.nextInt()), 36);
   }
 
+  /**
+   * @return the estimated size in bytes of the byte code of the given node
+   *         without its children.
+   */
+  static int estimateByteCodeSize(AbstractTreeNode node) {
+    if (node instanceof NominalNode) {
+      int numCategories = ((NominalNode) node).nominalSplitValues.length;
+      // load, get, switch with padding, gotos and the default
+      return 20 + 11 * numCategories;
+    } else if (node instanceof NumericalNode) {
+      // load, get, compare, branch and goto
+      return 19;
+    } else if (node instanceof MethodCallNode) {
+      return 9;
+    }
+    // constant and goto
+    return 6;
+  }
+
+  /**
+   * @return the estimated number of constants of the given node without its
+   *         children.
+   */
+  static int estimateConstants(AbstractTreeNode node) {
+    if (node instanceof NumericalNode) {
+      // the index and a double, which takes two entries
+      return 3;
+    } else if (node instanceof MethodCallNode) {
+      // method, class and name/type references plus their names
+      return 6;
+    }
+    return 1;
+  }
+
+  /**
+   * Outlines subtrees into static helper methods and distributes these across
+   * helper classes.
+   */
+  private static final class Chunker {
+
+    private final String name;
+    private final IdentityHashMap<AbstractTreeNode, int[]> sizes = new IdentityHashMap<>();
+    private final Map<String, ClassWriter> helperClasses = new LinkedHashMap<>();
+    private ClassWriter currentClass;
+    private String currentClassName;
+    private int currentConstants;
+    private int methodCounter;
+
+    Chunker(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Rebuilds the given subtree bottom up, every child that makes the
+     * inlined code of a node exceed the method budget is outlined into its
+     * own method, starting with the largest.
+     * 
+     * @return the root of the subtree that fits into a single method.
+     */
+    AbstractTreeNode outline(AbstractTreeNode node) {
+      AbstractTreeNode result;
+      if (node instanceof NumericalNode) {
+        NumericalNode numerical = (NumericalNode) node;
+        AbstractTreeNode[] children = new AbstractTreeNode[] {
+            outline(numerical.getLower()), outline(numerical.getHigher()) };
+        fit(node, children);
+        result = new NumericalNode(numerical.getSplitAttributeIndex(),
+            numerical.getSplitAttributeValue(), children[0], children[1]);
+      } else if (node instanceof NominalNode) {
+        NominalNode nominal = (NominalNode) node;
+        AbstractTreeNode[] children = new AbstractTreeNode[nominal.children.length];
+        for (int i = 0; i < children.length; i++) {
+          children[i] = outline(nominal.children[i]);
+        }
+        fit(node, children);
+        NominalNode copy = new NominalNode(nominal.getSplitAttributeIndex(),
+            children.length);
+        System.arraycopy(nominal.nominalSplitValues, 0,
+            copy.nominalSplitValues, 0, children.length);
+        System.arraycopy(children, 0, copy.children, 0, children.length);
+        result = copy;
+      } else if (node instanceof LeafNode) {
+        result = node;
+      } else {
+        throw new IllegalArgumentException(
+            "Compiled trees can't be compiled again, found "
+                + node.getClass().getName());
+      }
+      int[] size = new int[] { estimateByteCodeSize(node),
+          estimateConstants(node) };
+      for (AbstractTreeNode child : getChildren(result)) {
+        int[] childSize = sizeOf(child);
+        size[0] += childSize[0];
+        size[1] += childSize[1];
+      }
+      sizes.put(result, size);
+      return result;
+    }
+
+    /**
+     * Replaces the largest children with method calls until the node fits.
+     */
+    private void fit(AbstractTreeNode node, AbstractTreeNode[] children) {
+      int total = estimateByteCodeSize(node);
+      for (AbstractTreeNode child : children) {
+        total += sizeOf(child)[0];
+      }
+      while (total > METHOD_BUDGET) {
+        int largest = 0;
+        for (int i = 1; i < children.length; i++) {
+          if (sizeOf(children[i])[0] > sizeOf(children[largest])[0]) {
+            largest = i;
+          }
+        }
+        if (children[largest] instanceof MethodCallNode) {
+          // all children are already outlined
+          break;
+        }
+        total -= sizeOf(children[largest])[0];
+        children[largest] = outlineMethod(children[largest]);
+        total += sizeOf(children[largest])[0];
+      }
+    }
+
+    /**
+     * Emits the given subtree into a new static method.
+     * 
+     * @return the node that calls the method.
+     */
+    MethodCallNode outlineMethod(AbstractTreeNode subtree) {
+      MethodCallNode call = newMethod(sizeOf(subtree)[1]);
+      MethodVisitor mv = currentClass.visitMethod(ACC_PUBLIC + ACC_STATIC,
+          call.name, NODE_DESCRIPTOR, null, null);
+      // the nodes expect the vector in the slot of an instance method
+      mv.visitVarInsn(ALOAD, 0);
+      mv.visitVarInsn(ASTORE, 1);
+      Label end = new Label();
+      subtree.transformToByteCode(mv, end);
+      mv.visitLabel(end);
+      mv.visitInsn(IRETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+      return call;
+    }
+
+    /**
+     * Emits a static method that increments the votes array at the predicted
+     * class of every given tree.
+     * 
+     * @return the node that references the method.
+     */
+    MethodCallNode addVoteMethod(List<MethodCallNode> trees) {
+      MethodCallNode call = newMethod(trees.size()
+          * estimateConstants(trees.get(0)));
+      MethodVisitor mv = currentClass.visitMethod(ACC_PUBLIC + ACC_STATIC,
+          call.name, VOTE_DESCRIPTOR, null, null);
+      for (MethodCallNode tree : trees) {
+        // votes[tree(features)]++;
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESTATIC, tree.owner, tree.name,
+            NODE_DESCRIPTOR);
+        mv.visitInsn(DUP2);
+        mv.visitInsn(IALOAD);
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IADD);
+        mv.visitInsn(IASTORE);
+      }
+      mv.visitInsn(RETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+      return call;
+    }
+
+    /**
+     * @return a call to a new method in the current helper class, a new class
+     *         is started if the current one exceeds the budget.
+     */
+    private MethodCallNode newMethod(int constants) {
+      if (currentClass == null
+          || currentConstants + constants > CLASS_BUDGET) {
+        currentClassName = name + "_" + helperClasses.size();
+        currentClass = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        currentClass.visit(Opcodes.V1_6, ACC_PUBLIC + ACC_FINAL,
+            currentClassName, null, Type.getInternalName(Object.class), null);
+        currentClass.visitSource(currentClassName + ".java", null);
+        helperClasses.put(currentClassName, currentClass);
+        currentConstants = 0;
+      }
+      currentConstants += constants;
+      MethodCallNode call = new MethodCallNode(currentClassName, "node"
+          + (methodCounter++));
+      sizes.put(call, new int[] { estimateByteCodeSize(call),
+          estimateConstants(call) });
+      return call;
+    }
+
+    /**
+     * @return a new main class with its constructor and the overridden
+     *         transformToByteCode method.
+     */
+    ClassWriter newMainClass() throws Exception {
+      ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+      cw.visit(Opcodes.V1_6, ACC_PUBLIC + ACC_FINAL, name, null,
+          Type.getInternalName(AbstractTreeNode.class), null);
+      cw.visitSource(name + ".java", null);
+
+      // add the constructor
+      {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()"
+            + Type.VOID_TYPE.getReturnType(), null, null);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL,
+            Type.getInternalName(AbstractTreeNode.class), "<init>", "()"
+                + Type.VOID_TYPE.getReturnType());
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+      }
+      // make the "transformToByteCode" throw an exception
+      {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "transformToByteCode",
+            Type.getMethodDescriptor(AbstractTreeNode.class.getDeclaredMethod(
+                "transformToByteCode", MethodVisitor.class, Label.class)),
+            null, null);
+        mv.visitTypeInsn(NEW, "java/lang/UnsupportedOperationException");
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL,
+            "java/lang/UnsupportedOperationException", "<init>", "()V");
+        mv.visitInsn(ATHROW);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+      }
+      return cw;
+    }
+
+    /**
+     * @return the main class followed by all helper classes.
+     */
+    Map<String, byte[]> finish(ClassWriter mainClass) {
+      mainClass.visitEnd();
+      Map<String, byte[]> classes = new LinkedHashMap<>();
+      classes.put(name, mainClass.toByteArray());
+      for (Entry<String, ClassWriter> entry : helperClasses.entrySet()) {
+        entry.getValue().visitEnd();
+        classes.put(entry.getKey(), entry.getValue().toByteArray());
+      }
+      return classes;
+    }
+
+    private int[] sizeOf(AbstractTreeNode node) {
+      return sizes.get(node);
+    }
+
+    private static AbstractTreeNode[] getChildren(AbstractTreeNode node) {
+      if (node instanceof NumericalNode) {
+        NumericalNode numerical = (NumericalNode) node;
+        return new AbstractTreeNode[] { numerical.getLower(),
+            numerical.getHigher() };
+      } else if (node instanceof NominalNode) {
+        return ((NominalNode) node).children;
+      }
+      return new AbstractTreeNode[0];
+    }
+  }
+
+  /**
+   * Placeholder for an outlined subtree, compiles to a static method call.
+   * This node only exists during compilation.
+   */
+  private static final class MethodCallNode extends AbstractTreeNode {
+
+    private final String owner;
+    private final String name;
+
+    MethodCallNode(String owner, String name) {
+      this.owner = owner;
+      this.name = name;
+    }
+
+    @Override
+    public void transformToByteCode(MethodVisitor visitor, Label returnLabel) {
+      visitor.visitVarInsn(ALOAD, 1);
+      visitor.visitMethodInsn(INVOKESTATIC, owner, name, NODE_DESCRIPTOR);
+      visitor.visitJumpInsn(GOTO, returnLabel);
+    }
+
+    @Override
+    public int predict(DoubleVector features) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte getType() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void writeInternal(DataOutput out) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private static <CLAZZ> Class<CLAZZ> loadClass(byte[] b, String className)
       throws Exception {
@@ -158,4 +565,55 @@ public final class TreeCompiler implements Opcodes {
       method.setAccessible(false);
     }
   }
+
+  /**
+   * Simple benchmarking between the interpreted and the compiled tree.
+   */
+  public static void main(String[] args) throws Exception {
+    int numFeatures = 50;
+    int depth = 16;
+    Random rnd = new Random(0);
+    AbstractTreeNode root = randomTree(rnd, numFeatures, depth);
+    String name = generateClassName();
+    long start = System.currentTimeMillis();
+    Map<String, byte[]> classes = compile(name, root);
+    AbstractTreeNode compiled = load(name, classes);
+    LOG.info("Compilation into " + classes.size() + " classes took: "
+        + (System.currentTimeMillis() - start) / 1000f + "s!");
+
+    DoubleVector[] vectors = new DoubleVector[100000];
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i] = new DenseDoubleVector(numFeatures);
+      for (int j = 0; j < numFeatures; j++) {
+        vectors[i].set(j, rnd.nextDouble());
+      }
+    }
+    for (int iteration = 0; iteration < 10; iteration++) {
+      start = System.currentTimeMillis();
+      long interpretedSum = 0;
+      for (DoubleVector v : vectors) {
+        interpretedSum += root.predict(v);
+      }
+      long interpreted = System.currentTimeMillis() - start;
+      start = System.currentTimeMillis();
+      long compiledSum = 0;
+      for (DoubleVector v : vectors) {
+        compiledSum += compiled.predict(v);
+      }
+      long compiledTime = System.currentTimeMillis() - start;
+      LOG.info("Interpreted took: " + interpreted / 1000f
+          + "s! Compiled took: " + compiledTime / 1000f + "s! Difference: "
+          + (interpretedSum - compiledSum));
+    }
+  }
+
+  private static AbstractTreeNode randomTree(Random rnd, int numFeatures,
+      int depth) {
+    if (depth == 0) {
+      return new LeafNode(rnd.nextInt(2));
+    }
+    return new NumericalNode(rnd.nextInt(numFeatures), rnd.nextDouble(),
+        randomTree(rnd, numFeatures, depth - 1), randomTree(rnd, numFeatures,
+            depth - 1));
+  }
 }
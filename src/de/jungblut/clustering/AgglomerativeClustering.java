@@ -36,6 +36,9 @@ import de.jungblut.math.DoubleVector;
  * find the nearest to merge.</li><br/>
  * <li>If nearest neighbour search was unsuccessful (there was no item to
  * cluster anymore), the point/vector is added to the next level directly.</li>
+ * <br/>
+ * For an exact hierarchical clustering with a choice of the linkage, see
+ * {@link #cluster(List, DistanceMeasurer, Linkage)}.
  * 
  * @author thomas.jungblut
  * 
@@ -45,6 +48,76 @@ public final class AgglomerativeClustering {
   private static final Log LOG = LogFactory
       .getLog(AgglomerativeClustering.class);
 
+  /**
+   * The linkage defines the distance between two clusters, it is given by the
+   * Lance-Williams update of the distance between a cluster k and the union
+   * of the clusters a and b.
+   */
+  public static enum Linkage {
+    /**
+     * The minimum distance between the points of both clusters.
+     */
+    SINGLE {
+      @Override
+      double update(double dak, double dbk, double dab, int na, int nb, int nk) {
+        return Math.min(dak, dbk);
+      }
+    },
+    /**
+     * The maximum distance between the points of both clusters.
+     */
+    COMPLETE {
+      @Override
+      double update(double dak, double dbk, double dab, int na, int nb, int nk) {
+        return Math.max(dak, dbk);
+      }
+    },
+    /**
+     * The average distance between the points of both clusters (UPGMA).
+     */
+    AVERAGE {
+      @Override
+      double update(double dak, double dbk, double dab, int na, int nb, int nk) {
+        return (na * dak + nb * dbk) / (na + nb);
+      }
+    },
+    /**
+     * Merges the clusters with the minimum increase of the within cluster
+     * variance, only meaningful for the euclidian distance.
+     */
+    WARD {
+      @Override
+      double update(double dak, double dbk, double dab, int na, int nb, int nk) {
+        double sum = (na + nk) * dak * dak + (nb + nk) * dbk * dbk - nk * dab
+            * dab;
+        return Math.sqrt(Math.max(0d, sum / (na + nb + nk)));
+      }
+    };
+
+    abstract double update(double dak, double dbk, double dab, int na,
+        int nb, int nk);
+  }
+
+  /**
+   * Clusters the points with the nearest neighbour chain algorithm. In
+   * contrast to the level wise clustering, this always merges the two closest
+   * clusters by the given linkage. The distances are kept in memory, so this
+   * needs O(n^2) memory except for ward linkage with the euclidian distance,
+   * where the distances are computed from the cluster centroids.
+   * 
+   * @param points the points to cluster on.
+   * @param distanceMeasurer the distance measurement to use.
+   * @param linkage the linkage that defines the distance between clusters.
+   * @return the root of the cluster tree. The split distance of a node is the
+   *         linkage distance between its children and the mean is the
+   *         centroid of all points below it.
+   */
+  public static ClusterNode cluster(List<DoubleVector> points,
+      DistanceMeasurer distanceMeasurer, Linkage linkage) {
+    return new NearestNeighbourChain(points, distanceMeasurer, linkage)
+        .cluster();
+  }
+
   /**
    * Starts the clustering process.
    * 
@@ -174,6 +247,19 @@ public final class AgglomerativeClustering {
       right.parent = this;
     }
 
+    /**
+     * Initialize the node with a two ClusterNodes and their merged mean.
+     */
+    ClusterNode(ClusterNode node1, ClusterNode node2, double distance,
+        DoubleVector mean) {
+      this.mean = mean;
+      this.splitDistance = distance;
+      this.left = node1;
+      this.right = node2;
+      left.parent = this;
+      right.parent = this;
+    }
+
     /**
      * @return the mean between the two children. Used for distance calculations
      *         at merging time.
@@ -6,15 +6,29 @@ import gnu.trove.set.hash.TIntHashSet;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import de.jungblut.datastructure.ArrayUtils;
+import de.jungblut.datastructure.KDTree;
+import de.jungblut.datastructure.KDTree.VectorDistanceTuple;
 import de.jungblut.distance.DistanceMeasurer;
 import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.dense.DenseDoubleMatrix;
+import de.jungblut.partition.BlockPartitioner;
+import de.jungblut.partition.Boundaries.Range;
 
 /**
  * Sequential version of DBSCAN to evaluate if this algorithm is suitable for
@@ -25,7 +39,11 @@ import de.jungblut.math.dense.DenseDoubleMatrix;
  * 1. compute distance matrix between the points <br/>
  * 2. extract adjacent points via threshold epsilon and minpoints s <br/>
  * 3. run connected components (here BFS)<br/>
- * 4. PROFIT!
+ * 4. PROFIT! <br/>
+ * <br/>
+ * The distance matrix needs quadratic memory, so for larger inputs the
+ * euclidian neighbourhoods can be queried from a kd-tree instead, see
+ * {@link #cluster(List, int, double, int)}.
  */
 public final class DBSCAN {
 
@@ -51,6 +69,27 @@ public final class DBSCAN {
     return connectedComponents;
   }
 
+  /**
+   * Clusters the points by their euclidian distance. Instead of computing the
+   * whole distance matrix, the points are put into a {@link KDTree} and the
+   * epsilon neighbourhood of every point is queried from it. The queries are
+   * distributed among the given number of threads.
+   * 
+   * @param minPoints the minimum points in a cluster.
+   * @param epsilon the radius of a point to detect other points.
+   * @param numThreads the number of threads that query the neighbourhoods.
+   */
+  public ArrayList<DoubleVector>[] cluster(List<DoubleVector> points,
+      int minPoints, double epsilon, int numThreads) {
+    Preconditions.checkArgument(numThreads > 0,
+        "Number of threads must be at least one.");
+    TIntObjectHashMap<int[]> adjacencyMatrix = generateAdjacencyList(points,
+        minPoints, epsilon, numThreads);
+    connectedComponents = findConnectedComponents(points, adjacencyMatrix);
+    noise = findNoise(points);
+    return connectedComponents;
+  }
+
   /**
    * @return the found noise as list of vectors.
    */
@@ -109,6 +148,120 @@ public final class DBSCAN {
     return adjacencyList;
   }
 
+  /**
+   * Generates the same adjacency list as
+   * {@link #generateAdjacencyMatrix(DoubleMatrix, List, int, double)} for the
+   * euclidian distance, by querying a kd-tree for the neighbourhoods.
+   */
+  private TIntObjectHashMap<int[]> generateAdjacencyList(
+      List<DoubleVector> points, int minPoints, double epsilon, int numThreads) {
+    final int n = points.size();
+    TIntObjectHashMap<int[]> adjacencyList = new TIntObjectHashMap<>();
+    if (n == 0) {
+      return adjacencyList;
+    }
+    KDTree<Integer> tree = new KDTree<>();
+    // insert in random order, sorted inputs would degrade the tree to a list
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    Random random = new Random(0L);
+    for (int i = n - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+    }
+    for (int index : order) {
+      tree.add(points.get(index), index);
+    }
+
+    int threads = Math.min(numThreads, n);
+    List<NeighbourhoodQuery> queries = new ArrayList<>(threads);
+    for (Range range : new BlockPartitioner().partition(threads, n)
+        .getBoundaries()) {
+      queries.add(new NeighbourhoodQuery(tree, points, range.getStart(),
+          range.getEnd() + 1, minPoints, epsilon));
+    }
+    try {
+      if (threads == 1) {
+        queries.get(0).call();
+      } else {
+        ExecutorService pool = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("DBSCAN Worker %d").build());
+        try {
+          for (Future<Void> future : pool.invokeAll(queries)) {
+            future.get();
+          }
+        } finally {
+          pool.shutdownNow();
+        }
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    }
+
+    for (NeighbourhoodQuery query : queries) {
+      for (int i = query.start; i < query.end; i++) {
+        int[] neighbours = query.neighbours[i - query.start];
+        if (neighbours != null) {
+          adjacencyList.put(i, neighbours);
+        }
+      }
+    }
+    return adjacencyList;
+  }
+
+  /**
+   * Queries the neighbourhoods of a range of points, the tree is only read
+   * and can be shared between the queries.
+   */
+  private static final class NeighbourhoodQuery implements Callable<Void> {
+
+    private final KDTree<Integer> tree;
+    private final List<DoubleVector> points;
+    private final int start;
+    private final int end;
+    private final int minPoints;
+    private final double epsilon;
+    private final int[][] neighbours;
+
+    NeighbourhoodQuery(KDTree<Integer> tree, List<DoubleVector> points,
+        int start, int end, int minPoints, double epsilon) {
+      this.tree = tree;
+      this.points = points;
+      this.start = start;
+      this.end = end;
+      this.minPoints = minPoints;
+      this.epsilon = epsilon;
+      this.neighbours = new int[end - start][];
+    }
+
+    @Override
+    public Void call() {
+      for (int i = start; i < end; i++) {
+        List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+            points.get(i), epsilon);
+        int[] possibleNeighbours = new int[result.size()];
+        int size = 0;
+        for (VectorDistanceTuple<Integer> tuple : result) {
+          // the tree includes the radius, the matrix version does not
+          int index = tuple.getValue();
+          if (index != i && tuple.getDistance() < epsilon) {
+            possibleNeighbours[size++] = index;
+          }
+        }
+        if (size >= minPoints) {
+          Arrays.sort(possibleNeighbours, 0, size);
+          neighbours[i - start] = Arrays.copyOf(possibleNeighbours, size);
+        }
+      }
+      return null;
+    }
+  }
+
   /**
    * Returns a mapping between a cluster ID and its associated points.
    */
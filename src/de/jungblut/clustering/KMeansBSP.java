@@ -2,6 +2,8 @@ package de.jungblut.clustering;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
@@ -27,12 +29,18 @@ import de.jungblut.bsp.CenterMessage;
 import de.jungblut.distance.DistanceMeasurer;
 import de.jungblut.distance.EuclidianDistance;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
 import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.writable.VectorWritable;
 
 /**
  * K-Means in BSP that reads a bunch of vectors from input system and a given
- * centroid path that contains initial centers.
+ * centroid path that contains initial centers. <br/>
+ * Every iteration takes two supersteps: the tasks sum up their vectors per
+ * center and send these partial sums to the first task, which combines them to
+ * the new centers. Only the centers that moved are broadcasted back to the
+ * other tasks. The number of messages and their serialized bytes are tracked
+ * in the {@link KMeansCounter}.
  * 
  * @author thomas.jungblut
  * 
@@ -47,7 +55,14 @@ public final class KMeansBSP
   public static final String DISTANCE_MEASURE_CLASS = "distance.measure.class";
   public static final String CENTER_IN_PATH = "center.in.path";
 
+  public static enum KMeansCounter {
+    MESSAGES_SENT, MESSAGE_BYTES_SENT
+  }
+
   private static final Log LOG = LogFactory.getLog(KMeansBSP.class);
+  // the center index and count, the sparse flag, length and name flag of the
+  // plain vector encoding that are written around the values
+  private static final int MESSAGE_HEADER_BYTES = 4 + 4 + 1 + 4 + 1;
   // a task local copy of our cluster centers
   private DoubleVector[] centers;
   // simple cache to speed up computation, because the algorithm is disk based
@@ -57,6 +72,12 @@ public final class KMeansBSP
   // our distance measurement
   private DistanceMeasurer distanceMeasurer;
   private Configuration conf;
+  // task local sums of the assigned vectors, lazily allocated per center
+  private double[][] sums;
+  private int[] counts;
+  // the first peer combines the partial sums of all tasks
+  private boolean master;
+  private int movedCenters;
 
   @Override
   public final void setup(
@@ -81,6 +102,9 @@ public final class KMeansBSP
     Preconditions.checkArgument(centers.size() > 0,
         "Centers file must contain at least a single center!");
     this.centers = centers.toArray(new DoubleVector[centers.size()]);
+    this.sums = new double[this.centers.length][];
+    this.counts = new int[this.centers.length];
+    this.master = peer.getPeerName().equals(peer.getPeerName(0));
 
     distanceMeasurer = new EuclidianDistance();
     String distanceClass = peer.getConfiguration().get(DISTANCE_MEASURE_CLASS);
@@ -104,14 +128,20 @@ public final class KMeansBSP
       BSPPeer<VectorWritable, NullWritable, IntWritable, VectorWritable, CenterMessage> peer)
       throws IOException, InterruptedException, SyncException {
     long converged;
+    int iterations = 0;
     while (true) {
       assignCenters(peer);
       peer.sync();
+      if (master) {
+        combineCenters(peer);
+      }
+      peer.sync();
       converged = updateCenters(peer);
       peer.reopenInput();
+      iterations++;
       if (converged == 0)
         break;
-      if (maxIterations > 0 && maxIterations < peer.getSuperstepCount())
+      if (maxIterations > 0 && maxIterations < iterations)
         break;
     }
     LOG.info("Finished! Writing the assignments...");
@@ -119,61 +149,76 @@ public final class KMeansBSP
     LOG.info("Done.");
   }
 
-  private long updateCenters(
+  /**
+   * Combines the partial sums of all tasks to the new centers on the first
+   * task and broadcasts the centers that moved.
+   */
+  private void combineCenters(
       BSPPeer<VectorWritable, NullWritable, IntWritable, VectorWritable, CenterMessage> peer)
       throws IOException {
-    // this is the update step
-    DoubleVector[] msgCenters = new DoubleVector[centers.length];
-    int[] incrementSum = new int[centers.length];
+    // the own partial sums are already in place, add the ones of the others
     CenterMessage msg;
-    // basically just summing incoming vectors
     while ((msg = peer.getCurrentMessage()) != null) {
-      DoubleVector oldCenter = msgCenters[msg.getCenterIndex()];
-      DoubleVector newCenter = msg.getData();
-      incrementSum[msg.getCenterIndex()] += msg.getIncrementCounter();
-      if (oldCenter == null) {
-        msgCenters[msg.getCenterIndex()] = newCenter;
-      } else {
-        msgCenters[msg.getCenterIndex()] = oldCenter.add(newCenter);
-      }
-    }
-    // divide by how often we globally summed vectors
-    for (int i = 0; i < msgCenters.length; i++) {
-      // and only if we really have an update for c
-      if (msgCenters[i] != null) {
-        msgCenters[i] = msgCenters[i].divide(incrementSum[i]);
-      }
+      add(msg.getCenterIndex(), msg.getData(), msg.getIncrementCounter());
     }
-    // finally check for convergence by the absolute difference
-    long convergedCounter = 0L;
-    for (int i = 0; i < msgCenters.length; i++) {
-      final DoubleVector oldCenter = centers[i];
-      if (msgCenters[i] != null) {
-        double calculateError = oldCenter.subtract(msgCenters[i]).abs().sum();
+    movedCenters = 0;
+    for (int i = 0; i < centers.length; i++) {
+      // only if we really have an update for c
+      if (counts[i] > 0) {
+        DoubleVector newCenter = new DenseDoubleVector(sums[i])
+            .divide(counts[i]);
+        // check for convergence by the absolute difference
+        double calculateError = centers[i].subtract(newCenter).abs().sum();
         if (calculateError > 0.0d) {
-          centers[i] = msgCenters[i];
-          convergedCounter++;
+          centers[i] = newCenter;
+          movedCenters++;
+          for (String peerName : peer.getAllPeerNames()) {
+            if (!peerName.equals(peer.getPeerName())) {
+              send(peer, peerName, new CenterMessage(i, newCenter));
+            }
+          }
         }
       }
     }
+  }
+
+  /**
+   * Applies the centers that were broadcasted by the first task.
+   * 
+   * @return the number of centers that moved.
+   */
+  private long updateCenters(
+      BSPPeer<VectorWritable, NullWritable, IntWritable, VectorWritable, CenterMessage> peer)
+      throws IOException {
+    if (master) {
+      return movedCenters;
+    }
+    long convergedCounter = 0L;
+    CenterMessage msg;
+    while ((msg = peer.getCurrentMessage()) != null) {
+      centers[msg.getCenterIndex()] = msg.getData();
+      convergedCounter++;
+    }
     return convergedCounter;
   }
 
   private void assignCenters(
       BSPPeer<VectorWritable, NullWritable, IntWritable, VectorWritable, CenterMessage> peer)
       throws IOException {
-    // each task has all the centers, if a center has been updated it
-    // needs to be broadcasted.
-    final DoubleVector[] newCenterArray = new DoubleVector[centers.length];
-    final int[] summationCount = new int[centers.length];
+    for (int i = 0; i < centers.length; i++) {
+      if (counts[i] > 0) {
+        Arrays.fill(sums[i], 0d);
+        counts[i] = 0;
+      }
+    }
     // if our cache is not enabled, iterate over the disk items
     if (cache == null) {
       // we have an assignment step
       final NullWritable value = NullWritable.get();
       final VectorWritable key = new VectorWritable();
       while (peer.readNext(key, value)) {
-        assignCentersInternal(newCenterArray, summationCount, key.getVector()
-            .deepCopy());
+        DoubleVector v = key.getVector();
+        add(getNearestCenter(v), v, 1);
       }
     } else {
       // if our cache is enabled but empty, we have to read it from disk first
@@ -184,38 +229,66 @@ public final class KMeansBSP
           DoubleVector deepCopy = key.getVector().deepCopy();
           cache.add(deepCopy);
           // but do the assignment directly
-          assignCentersInternal(newCenterArray, summationCount, deepCopy);
+          add(getNearestCenter(deepCopy), deepCopy, 1);
         }
       } else {
         // now we can iterate in memory and check against the centers
         for (DoubleVector v : cache) {
-          assignCentersInternal(newCenterArray, summationCount, v);
+          add(getNearestCenter(v), v, 1);
         }
       }
     }
-    // now send messages about the local updates to each other peer
-    for (int i = 0; i < newCenterArray.length; i++) {
-      if (newCenterArray[i] != null) {
-        for (String peerName : peer.getAllPeerNames()) {
-          peer.send(peerName, new CenterMessage(i, summationCount[i],
-              newCenterArray[i]));
+    // the first task combines the partial sums, the others send theirs to it
+    if (!master) {
+      String masterName = peer.getPeerName(0);
+      for (int i = 0; i < centers.length; i++) {
+        if (counts[i] > 0) {
+          send(peer, masterName, new CenterMessage(i, counts[i],
+              new DenseDoubleVector(sums[i])));
         }
       }
     }
   }
 
-  private void assignCentersInternal(final DoubleVector[] newCenterArray,
-      final int[] summationCount, final DoubleVector key) {
-    final int lowestDistantCenter = getNearestCenter(key);
-    final DoubleVector clusterCenter = newCenterArray[lowestDistantCenter];
-    if (clusterCenter == null) {
-      newCenterArray[lowestDistantCenter] = key;
+  /**
+   * Adds the given vector (or partial sum of count vectors) in place to the
+   * sum of the center.
+   */
+  private void add(int center, DoubleVector v, int count) {
+    double[] sum = sums[center];
+    if (sum == null) {
+      sum = sums[center] = new double[v.getDimension()];
+    }
+    if (v.isSparse()) {
+      Iterator<DoubleVectorElement> iterateNonZero = v.iterateNonZero();
+      while (iterateNonZero.hasNext()) {
+        DoubleVectorElement next = iterateNonZero.next();
+        sum[next.getIndex()] += next.getValue();
+      }
     } else {
-      // add the vector to the center
-      newCenterArray[lowestDistantCenter] = newCenterArray[lowestDistantCenter]
-          .add(key);
-      summationCount[lowestDistantCenter]++;
+      double[] values = v.toArray();
+      for (int i = 0; i < sum.length; i++) {
+        sum[i] += values[i];
+      }
     }
+    counts[center] += count;
+  }
+
+  private void send(
+      BSPPeer<VectorWritable, NullWritable, IntWritable, VectorWritable, CenterMessage> peer,
+      String peerName, CenterMessage msg) throws IOException {
+    peer.incrementCounter(KMeansCounter.MESSAGES_SENT, 1L);
+    peer.incrementCounter(KMeansCounter.MESSAGE_BYTES_SENT,
+        getMessageBytes(msg));
+    peer.send(peerName, msg);
+  }
+
+  /**
+   * @return the number of bytes the message is serialized to, without writing
+   *         it. Only dense centers and sums are sent.
+   */
+  static long getMessageBytes(CenterMessage msg) {
+    return MESSAGE_HEADER_BYTES + 8L * msg.getData().getDimension();
   }
 
   private int getNearestCenter(DoubleVector key) {
@@ -257,7 +330,7 @@ public final class KMeansBSP
     }
     // just on the first task write the centers to filesystem to prevent
     // collisions
-    if (peer.getPeerName().equals(peer.getPeerName(0))) {
+    if (master) {
       String pathString = conf.get(CENTER_OUT_PATH);
       if (pathString != null) {
         try (SequenceFile.Writer dataWriter = SequenceFile.createWriter(
@@ -3,16 +3,49 @@ package de.jungblut.clustering;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import de.jungblut.distance.DistanceMeasurer;
+import de.jungblut.distance.EuclidianDistance;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.partition.BlockPartitioner;
+import de.jungblut.partition.Boundaries.Range;
 
 /**
- * Sequential version of k-means clustering.
+ * Multithreaded version of k-means clustering. The vectors are split into
+ * ranges per thread, every thread assigns its vectors and sums them up in
+ * primitive arrays per center. The sums of all threads are merged into the new
+ * centers at the end of every iteration. For configuration use the
+ * {@link KMeansClusteringBuilder}, the constructors are single threaded. <br/>
+ * <br/>
+ * The assignment step can optionally be accelerated by the triangle inequality
+ * (Hamerly 2010, "Making k-means even faster"). For every vector a lower bound
+ * on the distance to its second closest center is kept, as well as the
+ * distance of every center to its closest other center. Vectors whose assigned
+ * center is closer than both bounds can't change their assignment, so only the
+ * distance to the assigned center is measured. This yields the same result as
+ * measuring all distances, but is only valid for distances that satisfy the
+ * triangle inequality like {@link de.jungblut.distance.EuclidianDistance} or
+ * {@link de.jungblut.distance.ManhattanDistance}. <br/>
+ * <br/>
+ * For large datasets {@link #clusterMiniBatch(int, int, DistanceMeasurer,
+ * boolean)} only looks at a small random sample of the vectors in every
+ * iteration.
  * 
  * @author thomas.jungblut
  * 
@@ -20,10 +53,108 @@ import de.jungblut.math.DoubleVector;
 public final class KMeansClustering {
 
   private static final Log LOG = LogFactory.getLog(KMeansClustering.class);
+  // relative slack of the bounds to account for rounding errors
+  private static final double BOUND_EPSILON = 1e-10;
+
+  public static final class KMeansClusteringBuilder {
+
+    private final List<DoubleVector> vectors;
+    private final int k;
+    private boolean randomInitialization;
+    private boolean triangleInequality;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private long seed = System.currentTimeMillis();
+
+    private KMeansClusteringBuilder(List<DoubleVector> vectors, int k) {
+      Preconditions.checkArgument(k > 0 && k <= vectors.size(),
+          "k must be between 1 and the number of vectors! Given: " + k);
+      this.vectors = vectors;
+      this.k = k;
+    }
+
+    public KMeansClustering build() {
+      return new KMeansClustering(this);
+    }
+
+    /**
+     * Picks k random vectors as initial centers instead of the k-means++
+     * seeding. Note that this shuffles the given list of vectors.
+     * 
+     * @return the builder again.
+     */
+    public KMeansClusteringBuilder randomInitialization() {
+      this.randomInitialization = true;
+      return this;
+    }
+
+    /**
+     * Skips distance measurements in the assignment by the triangle
+     * inequality. Only valid for metric distances.
+     * 
+     * @return the builder again.
+     */
+    public KMeansClusteringBuilder triangleInequality() {
+      this.triangleInequality = true;
+      return this;
+    }
+
+    /**
+     * Sets the number of threads that assign the vectors, defaults to the
+     * number of available processors. Every thread keeps the sums of its
+     * vectors for every center.
+     * 
+     * @param numThreads the number of threads.
+     * @return the builder again.
+     */
+    public KMeansClusteringBuilder numThreads(int numThreads) {
+      Preconditions.checkArgument(numThreads > 0,
+          "Number of threads must be at least one.");
+      this.numThreads = numThreads;
+      return this;
+    }
+
+    /**
+     * Sets the seed for the initialization and the mini-batch sampling.
+     * 
+     * @return the builder again.
+     */
+    public KMeansClusteringBuilder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * Creates a new builder.
+     * 
+     * @param vectors the vectors to cluster.
+     * @param k the number of centers to use.
+     * @return a new builder.
+     */
+    public static KMeansClusteringBuilder create(List<DoubleVector> vectors,
+        int k) {
+      return new KMeansClusteringBuilder(vectors, k);
+    }
+
+    /**
+     * Creates a new builder.
+     * 
+     * @param vectors the vectors to cluster.
+     * @param k the number of centers to use.
+     * @return a new builder.
+     */
+    public static KMeansClusteringBuilder create(DoubleVector[] vectors,
+        int k) {
+      return new KMeansClusteringBuilder(Arrays.asList(vectors), k);
+    }
+
+  }
 
   private final DoubleVector[] centers;
   private final List<DoubleVector> vectors;
   private final int k;
+  private final boolean triangleInequality;
+  private final int numThreads;
+  private final Random random;
 
   /**
    * Initializes a new {@link KMeansClustering}.
@@ -34,7 +165,23 @@ public final class KMeansClustering {
    *          first k vectors.
    */
   public KMeansClustering(int k, DoubleVector[] vectors, boolean random) {
-    this(k, Arrays.asList(vectors), random);
+    this(k, Arrays.asList(vectors), random, false);
+  }
+
+  /**
+   * Initializes a new {@link KMeansClustering}.
+   * 
+   * @param k the number of centers to use.
+   * @param vectors the vectors to cluster.
+   * @param random true if use random initialization, else it will just pick the
+   *          first k vectors.
+   * @param triangleInequality true if the assignment should skip distance
+   *          measurements by the triangle inequality. Only valid for metric
+   *          distances.
+   */
+  public KMeansClustering(int k, DoubleVector[] vectors, boolean random,
+      boolean triangleInequality) {
+    this(k, Arrays.asList(vectors), random, triangleInequality);
   }
 
   /**
@@ -46,8 +193,27 @@ public final class KMeansClustering {
    *          first k vectors.
    */
   public KMeansClustering(int k, List<DoubleVector> vectors, boolean random) {
+    this(k, vectors, random, false);
+  }
+
+  /**
+   * Initializes a new {@link KMeansClustering}.
+   * 
+   * @param k the number of centers to use.
+   * @param vectors the vectors to cluster.
+   * @param random true if use random initialization, else it will just pick the
+   *          first k vectors.
+   * @param triangleInequality true if the assignment should skip distance
+   *          measurements by the triangle inequality. Only valid for metric
+   *          distances.
+   */
+  public KMeansClustering(int k, List<DoubleVector> vectors, boolean random,
+      boolean triangleInequality) {
     this.k = k;
     this.vectors = vectors;
+    this.triangleInequality = triangleInequality;
+    this.numThreads = 1;
+    this.random = new Random();
     this.centers = new DoubleVector[k];
     if (random) {
       Collections.shuffle(vectors);
@@ -64,14 +230,45 @@ public final class KMeansClustering {
    * @param vectors the vectors to cluster.
    */
   public KMeansClustering(List<DoubleVector> centers, List<DoubleVector> vectors) {
+    this(centers, vectors, false);
+  }
+
+  /**
+   * Initializes a new {@link KMeansClustering}.
+   * 
+   * @param centers initial centers, maybe seeded from {@link CanopyClustering}.
+   * @param vectors the vectors to cluster.
+   * @param triangleInequality true if the assignment should skip distance
+   *          measurements by the triangle inequality. Only valid for metric
+   *          distances.
+   */
+  public KMeansClustering(List<DoubleVector> centers,
+      List<DoubleVector> vectors, boolean triangleInequality) {
     this.k = centers.size();
     this.vectors = vectors;
+    this.triangleInequality = triangleInequality;
+    this.numThreads = 1;
+    this.random = new Random();
     this.centers = new DoubleVector[k];
     for (int i = 0; i < k; i++) {
       this.centers[i] = centers.get(i);
     }
   }
 
+  private KMeansClustering(KMeansClusteringBuilder builder) {
+    this.k = builder.k;
+    this.vectors = builder.vectors;
+    this.triangleInequality = builder.triangleInequality;
+    this.numThreads = builder.numThreads;
+    this.random = new Random(builder.seed);
+    if (builder.randomInitialization) {
+      Collections.shuffle(vectors, random);
+      this.centers = vectors.subList(0, k).toArray(new DoubleVector[k]);
+    } else {
+      this.centers = seedPlusPlus(vectors, k, random);
+    }
+  }
+
   /**
    * Starts the clustering process.
    * 
@@ -86,60 +283,415 @@ public final class KMeansClustering {
    */
   public ArrayList<DoubleVector>[] cluster(int iterations,
       DistanceMeasurer distanceMeasurer, double delta, boolean verbose) {
+    DoubleVector[] points = vectors.toArray(new DoubleVector[vectors.size()]);
+    int[] assignment = new int[points.length];
+    Arrays.fill(assignment, -1);
+    Bounds bounds = triangleInequality ? new Bounds(points.length) : null;
+    List<Worker> workers = createWorkers(points, assignment, bounds,
+        distanceMeasurer, true);
+    ExecutorService pool = createPool(workers.size());
+    try {
+      double lastCost = Double.MAX_VALUE;
+      // now do the main loopings
+      for (int iteration = 0; iteration < iterations; iteration++) {
+        if (bounds != null) {
+          bounds.measureCenters(distanceMeasurer);
+        }
+        run(pool, workers);
+        // merge the sums of all threads into the first one
+        Worker merged = workers.get(0);
+        for (int i = 1; i < workers.size(); i++) {
+          merged.merge(workers.get(i));
+        }
+        double cost = merged.cost;
+        DoubleVector[] previousCenters = centers.clone();
+        // calculate the new centers
+        for (int i = 0; i < centers.length; i++) {
+          // only avg if we have something to avg
+          if (merged.counts[i] > 0) {
+            centers[i] = new DenseDoubleVector(merged.sums[i])
+                .divide(merged.counts[i]);
+          }
+        }
+        if (bounds != null) {
+          bounds.moveCenters(previousCenters, assignment, distanceMeasurer);
+        }
+
+        if (verbose) {
+          LOG.info("Iteration " + iteration + " | Cost: " + cost + "\r");
+        }
+        double diff = Math.abs(lastCost - cost);
+        if (diff < delta) {
+          break;
+        }
+        lastCost = cost;
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+    }
+    return toAssignments(points, assignment);
+  }
 
+  /**
+   * Starts the mini-batch clustering process (Sculley 2010, "Web-scale k-means
+   * clustering"). Every iteration assigns a random sample of the vectors to
+   * their closest center and moves each center towards its assigned vectors by
+   * a learning rate that decays with the number of vectors the center has seen
+   * so far. After the iterations every vector is assigned once.
+   * 
+   * @param iterations the iterations to cluster.
+   * @param batchSize the number of vectors sampled in every iteration.
+   * @param distanceMeasurer the distance measurement to use.
+   * @param if true, costs of every batch will be printed.
+   * @return the assignments to a cluster, each arraylist contains the vectors
+   *         at the index of the center that can be retrieved with
+   *         {@link #getCenters()}.
+   */
+  public ArrayList<DoubleVector>[] clusterMiniBatch(int iterations,
+      int batchSize, DistanceMeasurer distanceMeasurer, boolean verbose) {
+    Preconditions.checkArgument(batchSize > 0,
+        "Batch size must be at least one! Given: " + batchSize);
+    DoubleVector[] points = vectors.toArray(new DoubleVector[vectors.size()]);
+    // the centers are moved in place, thus they must not share the input
+    for (int i = 0; i < centers.length; i++) {
+      centers[i] = new DenseDoubleVector(centers[i].toArray());
+    }
+    int[] seen = new int[k];
+    DoubleVector[] batch = new DoubleVector[batchSize];
+    int[] batchAssignment = new int[batchSize];
+    List<Worker> batchWorkers = createWorkers(batch, batchAssignment, null,
+        distanceMeasurer, false);
+    int[] assignment = new int[points.length];
+    List<Worker> workers = createWorkers(points, assignment, null,
+        distanceMeasurer, false);
+    ExecutorService pool = createPool(workers.size());
+    try {
+      for (int iteration = 0; iteration < iterations; iteration++) {
+        for (int i = 0; i < batchSize; i++) {
+          batch[i] = points[random.nextInt(points.length)];
+        }
+        run(pool, batchWorkers);
+        for (int i = 0; i < batchSize; i++) {
+          int center = batchAssignment[i];
+          double learningRate = 1d / ++seen[center];
+          moveCenter(centers[center].toArray(), batch[i], learningRate);
+        }
+        if (verbose) {
+          double cost = 0d;
+          for (Worker worker : batchWorkers) {
+            cost += worker.cost;
+          }
+          LOG.info("Iteration " + iteration + " | Batch Cost: "
+              + (cost / batchSize) + "\r");
+        }
+      }
+      run(pool, workers);
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+    }
+    return toAssignments(points, assignment);
+  }
+
+  /**
+   * Moves the center towards the vector: c = (1 - rate) * c + rate * v.
+   */
+  private static void moveCenter(double[] center, DoubleVector v,
+      double learningRate) {
+    if (v.isSparse()) {
+      for (int i = 0; i < center.length; i++) {
+        center[i] *= 1d - learningRate;
+      }
+      Iterator<DoubleVectorElement> iterateNonZero = v.iterateNonZero();
+      while (iterateNonZero.hasNext()) {
+        DoubleVectorElement next = iterateNonZero.next();
+        center[next.getIndex()] += learningRate * next.getValue();
+      }
+    } else {
+      double[] values = v.toArray();
+      for (int i = 0; i < center.length; i++) {
+        center[i] = (1d - learningRate) * center[i] + learningRate * values[i];
+      }
+    }
+  }
+
+  /**
+   * Assigns the vector at the given index to its closest center. If bounds are
+   * given, only measures all distances if they can't guarantee that the
+   * center stays the same.
+   * 
+   * @return the distance of the vector to its center.
+   */
+  private double assign(DoubleVector v, int index, int[] assignment,
+      Bounds bounds, DistanceMeasurer distanceMeasurer) {
+    int center = assignment[index];
+    if (bounds != null && center >= 0) {
+      double distance = distanceMeasurer.measureDistance(centers[center], v);
+      double bound = Math.max(bounds.halfNearestCenter[center],
+          bounds.lower[index]);
+      if (distance < bound * (1d - BOUND_EPSILON)) {
+        return distance;
+      }
+    }
+    int lowestDistantCenter = 0;
+    double lowestDistance = Double.MAX_VALUE;
+    double secondDistance = Double.MAX_VALUE;
+    for (int i = 0; i < centers.length; i++) {
+      final double estimatedDistance = distanceMeasurer.measureDistance(
+          centers[i], v);
+      // check if we have a can assign a new center, because we
+      // got a lower distance
+      if (estimatedDistance < lowestDistance) {
+        secondDistance = lowestDistance;
+        lowestDistance = estimatedDistance;
+        lowestDistantCenter = i;
+      } else if (estimatedDistance < secondDistance) {
+        secondDistance = estimatedDistance;
+      }
+    }
+    assignment[index] = lowestDistantCenter;
+    if (bounds != null) {
+      bounds.lower[index] = secondDistance;
+    }
+    return lowestDistance;
+  }
+
+  private List<Worker> createWorkers(DoubleVector[] points, int[] assignment,
+      Bounds bounds, DistanceMeasurer distanceMeasurer, boolean accumulate) {
+    int threads = Math.max(1, Math.min(numThreads, points.length));
+    List<Worker> workers = new ArrayList<>(threads);
+    for (Range range : new BlockPartitioner().partition(threads,
+        points.length).getBoundaries()) {
+      workers.add(new Worker(points, assignment, range.getStart(),
+          range.getEnd() + 1, bounds, distanceMeasurer, accumulate));
+    }
+    return workers;
+  }
+
+  private static ExecutorService createPool(int threads) {
+    if (threads <= 1) {
+      return null;
+    }
+    return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("KMeans Worker %d").build());
+  }
+
+  private static void run(ExecutorService pool, List<Worker> workers) {
+    try {
+      if (pool == null) {
+        for (Worker worker : workers) {
+          worker.call();
+        }
+      } else {
+        for (Future<Void> future : pool.invokeAll(workers)) {
+          future.get();
+        }
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private ArrayList<DoubleVector>[] toAssignments(DoubleVector[] points,
+      int[] assignment) {
     @SuppressWarnings("unchecked")
     ArrayList<DoubleVector>[] assignments = new ArrayList[k];
     for (int i = 0; i < assignments.length; i++) {
       assignments[i] = new ArrayList<>();
     }
-    double lastCost = Double.MAX_VALUE;
-    // now do the main loopings
-    for (int iteration = 0; iteration < iterations; iteration++) {
-      // clear current assignments
-      for (int i = 0; i < assignments.length; i++) {
-        assignments[i].clear();
-      }
-      double cost = 0d;
-      // assign the vectors again
-      for (DoubleVector v : vectors) {
-        int lowestDistantCenter = 0;
-        double lowestDistance = Double.MAX_VALUE;
-        for (int i = 0; i < centers.length; i++) {
-          final double estimatedDistance = distanceMeasurer.measureDistance(
-              centers[i], v);
-          // check if we have a can assign a new center, because we
-          // got a lower distance
-          if (estimatedDistance < lowestDistance) {
-            lowestDistance = estimatedDistance;
-            lowestDistantCenter = i;
+    for (int i = 0; i < points.length; i++) {
+      // vectors are unassigned if there was no iteration
+      if (assignment[i] >= 0) {
+        assignments[assignment[i]].add(points[i]);
+      }
+    }
+    return assignments;
+  }
+
+  /**
+   * Picks the initial centers by the k-means++ seeding (Arthur, Vassilvitskii
+   * 2007). Every next center is sampled with a probability proportional to the
+   * squared euclidian distance of a vector to its closest center so far.
+   */
+  static DoubleVector[] seedPlusPlus(List<DoubleVector> vectors, int k,
+      Random random) {
+    DoubleVector[] points = vectors.toArray(new DoubleVector[vectors.size()]);
+    DoubleVector[] centers = new DoubleVector[k];
+    double[] minDistances = new double[points.length];
+    Arrays.fill(minDistances, Double.MAX_VALUE);
+    centers[0] = points[random.nextInt(points.length)];
+    EuclidianDistance distance = EuclidianDistance.get();
+    for (int c = 1; c < k; c++) {
+      double sum = 0d;
+      for (int i = 0; i < points.length; i++) {
+        double d = distance.measureDistance(centers[c - 1], points[i]);
+        minDistances[i] = Math.min(minDistances[i], d * d);
+        sum += minDistances[i];
+      }
+      double target = random.nextDouble() * sum;
+      int next = 0;
+      double cumulative = minDistances[0];
+      while (cumulative <= target && next < points.length - 1) {
+        cumulative += minDistances[++next];
+      }
+      if (sum == 0d) {
+        // all vectors are already centers
+        next = random.nextInt(points.length);
+      }
+      centers[c] = points[next];
+    }
+    return centers;
+  }
+
+  /**
+   * Assigns a range of vectors and sums them up per center.
+   */
+  private final class Worker implements Callable<Void> {
+
+    private final DoubleVector[] points;
+    private final int[] assignment;
+    private final int start;
+    private final int end;
+    private final Bounds bounds;
+    private final DistanceMeasurer distanceMeasurer;
+    private final boolean accumulate;
+
+    // lazily allocated per center, reused over the iterations
+    private final double[][] sums;
+    private final int[] counts;
+    private double cost;
+
+    Worker(DoubleVector[] points, int[] assignment, int start, int end,
+        Bounds bounds, DistanceMeasurer distanceMeasurer, boolean accumulate) {
+      this.points = points;
+      this.assignment = assignment;
+      this.start = start;
+      this.end = end;
+      this.bounds = bounds;
+      this.distanceMeasurer = distanceMeasurer;
+      this.accumulate = accumulate;
+      this.sums = new double[k][];
+      this.counts = new int[k];
+    }
+
+    @Override
+    public Void call() {
+      cost = 0d;
+      if (accumulate) {
+        for (int i = 0; i < k; i++) {
+          if (counts[i] > 0) {
+            Arrays.fill(sums[i], 0d);
+            counts[i] = 0;
           }
         }
-        cost += lowestDistance;
-        assignments[lowestDistantCenter].add(v);
       }
-      // calculate the new centers
-      for (int i = 0; i < assignments.length; i++) {
-        // only avg if we have something to avg
-        if (!assignments[i].isEmpty()) {
-          DoubleVector sumVector = assignments[i].get(0);
-          for (int n = 1; n < assignments[i].size(); n++) {
-            sumVector = sumVector.add(assignments[i].get(n));
-          }
-          centers[i] = sumVector.divide(assignments[i].size());
+      for (int i = start; i < end; i++) {
+        DoubleVector v = points[i];
+        cost += assign(v, i, assignment, bounds, distanceMeasurer);
+        if (accumulate) {
+          add(assignment[i], v);
+        }
+      }
+      return null;
+    }
+
+    private void add(int center, DoubleVector v) {
+      double[] sum = sums[center];
+      if (sum == null) {
+        sum = sums[center] = new double[v.getDimension()];
+      }
+      if (v.isSparse()) {
+        Iterator<DoubleVectorElement> iterateNonZero = v.iterateNonZero();
+        while (iterateNonZero.hasNext()) {
+          DoubleVectorElement next = iterateNonZero.next();
+          sum[next.getIndex()] += next.getValue();
+        }
+      } else {
+        double[] values = v.toArray();
+        for (int i = 0; i < sum.length; i++) {
+          sum[i] += values[i];
         }
       }
+      counts[center]++;
+    }
 
-      if (verbose) {
-        LOG.info("Iteration " + iteration + " | Cost: " + cost + "\r");
+    void merge(Worker other) {
+      cost += other.cost;
+      for (int i = 0; i < k; i++) {
+        if (other.counts[i] == 0) {
+          continue;
+        }
+        if (sums[i] == null) {
+          sums[i] = new double[other.sums[i].length];
+        }
+        for (int j = 0; j < sums[i].length; j++) {
+          sums[i][j] += other.sums[i][j];
+        }
+        counts[i] += other.counts[i];
       }
-      double diff = Math.abs(lastCost - cost);
-      if (diff < delta) {
-        break;
+    }
+  }
+
+  /**
+   * The state of the triangle inequality bounds between iterations.
+   */
+  private final class Bounds {
+
+    // lower bound on the distance to the second closest center per vector
+    private final double[] lower;
+    // half the distance of a center to its closest other center
+    private final double[] halfNearestCenter;
+
+    Bounds(int numVectors) {
+      this.lower = new double[numVectors];
+      this.halfNearestCenter = new double[k];
+    }
+
+    /**
+     * Measures the distances between all centers.
+     */
+    void measureCenters(DistanceMeasurer distanceMeasurer) {
+      Arrays.fill(halfNearestCenter, Double.MAX_VALUE);
+      for (int i = 0; i < centers.length; i++) {
+        for (int j = i + 1; j < centers.length; j++) {
+          double half = distanceMeasurer.measureDistance(centers[i],
+              centers[j]) / 2d;
+          halfNearestCenter[i] = Math.min(halfNearestCenter[i], half);
+          halfNearestCenter[j] = Math.min(halfNearestCenter[j], half);
+        }
       }
-      lastCost = cost;
+    }
 
+    /**
+     * Loosens the lower bounds by the largest movement of any other center
+     * than the assigned one.
+     */
+    void moveCenters(DoubleVector[] previousCenters, int[] assignment,
+        DistanceMeasurer distanceMeasurer) {
+      int largest = -1;
+      double largestDrift = 0d;
+      double secondDrift = 0d;
+      for (int i = 0; i < centers.length; i++) {
+        double drift = previousCenters[i] == centers[i] ? 0d
+            : distanceMeasurer.measureDistance(previousCenters[i], centers[i]);
+        if (drift > largestDrift) {
+          secondDrift = largestDrift;
+          largestDrift = drift;
+          largest = i;
+        } else if (drift > secondDrift) {
+          secondDrift = drift;
+        }
+      }
+      if (largestDrift == 0d) {
+        return;
+      }
+      for (int i = 0; i < lower.length; i++) {
+        lower[i] -= assignment[i] == largest ? secondDrift : largestDrift;
+      }
     }
-    return assignments;
   }
 
   /**
@@ -8,7 +8,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.math3.util.FastMath;
 
-import de.jungblut.datastructure.KDTree;
+import de.jungblut.datastructure.FlatKDTree;
 import de.jungblut.datastructure.KDTree.VectorDistanceTuple;
 import de.jungblut.distance.EuclidianDistance;
 import de.jungblut.math.DoubleVector;
@@ -46,20 +46,40 @@ public final class MeanShiftClustering {
    */
   public static List<DoubleVector> cluster(List<DoubleVector> points,
       double windowSize, double mergeWindow, int maxIterations, boolean verbose) {
-    // initialize our lookup structure
-    KDTree<Integer> kdTree = new KDTree<>();
-    // assign an index to each point
-    int index = 0;
-    for (DoubleVector v : points) {
-      kdTree.add(v, index++);
+    return cluster(points, windowSize, mergeWindow, maxIterations, Runtime
+        .getRuntime().availableProcessors(), verbose);
+  }
+
+  /**
+   * Clusters a bunch of given points using the Mean Shift algorithm, the
+   * windows of the centers are queried on the given number of threads.
+   * 
+   * @param points the points to cluster.
+   * @param windowSize the window size to observe points arround the center in.
+   *          This is also used to observe initial centers.
+   * @param mergeWindow the merge window size, if a pair of centers is within
+   *          this mergeWindow the centers are merged together.
+   * @param maxIterations the maximum number of iterations to do before
+   *          breaking.
+   * @param numThreads the number of threads to query the windows with.
+   * @param verbose if true, progress will be reported after each iteration.
+   * @return the centers of the meanshift algorithm.
+   */
+  public static List<DoubleVector> cluster(List<DoubleVector> points,
+      double windowSize, double mergeWindow, int maxIterations,
+      int numThreads, boolean verbose) {
+    // initialize our lookup structure, the value of a point is its index
+    List<Integer> indices = new ArrayList<>(points.size());
+    for (int i = 0; i < points.size(); i++) {
+      indices.add(i);
     }
-    kdTree.balanceBySort();
+    FlatKDTree<Integer> kdTree = new FlatKDTree<>(points, indices);
     // start observing the centers
     List<DoubleVector> centers = observeCenters(kdTree, points, windowSize,
         verbose);
     // now iterate over our found centers
     for (int i = 0; i < maxIterations; i++) {
-      int converged = meanShift(kdTree, centers, windowSize);
+      int converged = meanShift(kdTree, centers, windowSize, numThreads);
       // merge if centers are within the mergeWindow
       merge(centers, mergeWindow);
       if (verbose) {
@@ -101,15 +121,17 @@ public final class MeanShiftClustering {
    * @param kdTree the kdtree containing the points to cluster.
    * @param centers the already observed centers.
    * @param h the window size "h".
+   * @param numThreads the number of threads to query the windows with.
    * @return the number of centers that haven't converged yet.
    */
-  private static int meanShift(KDTree<Integer> kdTree,
-      List<DoubleVector> centers, double h) {
+  private static int meanShift(FlatKDTree<Integer> kdTree,
+      List<DoubleVector> centers, double h, int numThreads) {
     int remainingConvergence = 0;
+    List<List<VectorDistanceTuple<Integer>>> windows = kdTree
+        .getNearestNeighbours(centers, Integer.MAX_VALUE, h, numThreads);
     for (int i = 0; i < centers.size(); i++) {
       DoubleVector v = centers.get(i);
-      List<VectorDistanceTuple<Integer>> neighbours = kdTree
-          .getNearestNeighbours(v, h);
+      List<VectorDistanceTuple<Integer>> neighbours = windows.get(i);
       double weightSum = 0d;
       DoubleVector numerator = new DenseDoubleVector(v.getLength());
       for (VectorDistanceTuple<Integer> neighbour : neighbours) {
@@ -135,7 +157,7 @@ public final class MeanShiftClustering {
   /**
    * Small one pass exclusive clustering.
    */
-  private static List<DoubleVector> observeCenters(KDTree<Integer> kdTree,
+  private static List<DoubleVector> observeCenters(FlatKDTree<Integer> kdTree,
       List<DoubleVector> points, double h, boolean verbose) {
     List<DoubleVector> centers = new ArrayList<>();
     BitSet assignedIndices = new BitSet(kdTree.size());
@@ -0,0 +1,196 @@
+package de.jungblut.clustering;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.clustering.AgglomerativeClustering.ClusterNode;
+import de.jungblut.clustering.AgglomerativeClustering.Linkage;
+import de.jungblut.distance.DistanceMeasurer;
+import de.jungblut.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+
+/**
+ * Hierarchical clustering with the nearest neighbour chain algorithm (see
+ * Muellner, "Modern hierarchical, agglomerative clustering algorithms", 2011).
+ * The chain follows nearest neighbours until two clusters are reciprocal
+ * nearest neighbours, which are then merged. This yields the same tree as the
+ * greedy closest pair algorithm for the reducible linkages in {@link Linkage},
+ * but with O(n^2) time.<br/>
+ * <br/>
+ * Distances between clusters are either kept in a condensed upper triangular
+ * array that is updated by the Lance-Williams formula, or for ward linkage
+ * with euclidian distance computed from the cluster centroids. The latter only
+ * needs memory linear in the number of points.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+final class NearestNeighbourChain {
+
+  // the largest number of elements that a java array can hold
+  private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private final Linkage linkage;
+  private final ClusterNode[] nodes;
+  private final int[] sizes;
+  // holds the slots of the clusters that weren't merged yet
+  private final int[] active;
+  private final int[] activePosition;
+  private int numActive;
+
+  private final double[] condensed;
+  private final double[][] centroids;
+
+  NearestNeighbourChain(List<DoubleVector> points,
+      DistanceMeasurer distanceMeasurer, Linkage linkage) {
+    Preconditions.checkArgument(!points.isEmpty(),
+        "Need at least a single point to cluster.");
+    this.linkage = linkage;
+    final int n = points.size();
+    this.nodes = new ClusterNode[n];
+    this.sizes = new int[n];
+    this.active = new int[n];
+    this.activePosition = new int[n];
+    for (int i = 0; i < n; i++) {
+      nodes[i] = new ClusterNode(points.get(i));
+      sizes[i] = 1;
+      active[i] = i;
+      activePosition[i] = i;
+    }
+    this.numActive = n;
+
+    if (linkage == Linkage.WARD
+        && distanceMeasurer instanceof EuclidianDistance) {
+      this.condensed = null;
+      this.centroids = new double[n][];
+      for (int i = 0; i < n; i++) {
+        centroids[i] = points.get(i).toArray().clone();
+      }
+    } else {
+      long size = (long) n * (n - 1) / 2;
+      Preconditions.checkArgument(size <= MAX_ARRAY_SIZE, "Can't store the "
+          + size + " distances between " + n + " points in a single array.");
+      this.centroids = null;
+      this.condensed = new double[(int) size];
+      for (int i = 0; i < n; i++) {
+        DoubleVector a = points.get(i);
+        for (int j = i + 1; j < n; j++) {
+          condensed[index(i, j)] = distanceMeasurer.measureDistance(a,
+              points.get(j));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the root of the resulting cluster tree.
+   */
+  ClusterNode cluster() {
+    final int[] chain = new int[nodes.length];
+    int chainSize = 0;
+    while (numActive > 1) {
+      if (chainSize == 0) {
+        chain[chainSize++] = active[0];
+      }
+      int a;
+      int b;
+      double distance;
+      while (true) {
+        a = chain[chainSize - 1];
+        b = chainSize > 1 ? chain[chainSize - 2] : -1;
+        // prefer the previous chain element on ties, else the chain can cycle
+        distance = b >= 0 ? distance(a, b) : Double.POSITIVE_INFINITY;
+        int nearest = b;
+        for (int i = 0; i < numActive; i++) {
+          int candidate = active[i];
+          if (candidate != a && candidate != b) {
+            double d = distance(a, candidate);
+            if (d < distance) {
+              distance = d;
+              nearest = candidate;
+            }
+          }
+        }
+        if (nearest == b) {
+          break;
+        }
+        chain[chainSize++] = nearest;
+      }
+      chainSize -= 2;
+      merge(a, b, distance);
+    }
+    return nodes[active[0]];
+  }
+
+  /**
+   * Merges the cluster at slot a into the cluster at slot b.
+   */
+  private void merge(int a, int b, double distance) {
+    final int na = sizes[a];
+    final int nb = sizes[b];
+    deactivate(a);
+    if (condensed != null) {
+      for (int i = 0; i < numActive; i++) {
+        int k = active[i];
+        if (k != b) {
+          int bk = index(b, k);
+          condensed[bk] = linkage.update(condensed[index(a, k)],
+              condensed[bk], distance, na, nb, sizes[k]);
+        }
+      }
+    }
+
+    DoubleVector mean = nodes[a].getMean().multiply(na)
+        .add(nodes[b].getMean().multiply(nb)).divide(na + nb);
+    nodes[b] = new ClusterNode(nodes[a], nodes[b], distance, mean);
+    nodes[a] = null;
+    sizes[b] = na + nb;
+    if (centroids != null) {
+      double[] ca = centroids[a];
+      double[] cb = centroids[b];
+      for (int i = 0; i < cb.length; i++) {
+        cb[i] = (na * ca[i] + nb * cb[i]) / (na + nb);
+      }
+      centroids[a] = null;
+    }
+  }
+
+  private void deactivate(int slot) {
+    int position = activePosition[slot];
+    int last = active[--numActive];
+    active[position] = last;
+    activePosition[last] = position;
+  }
+
+  private double distance(int a, int b) {
+    if (condensed != null) {
+      return condensed[index(a, b)];
+    }
+    // ward distance in terms of the centroids and the cluster sizes
+    double[] ca = centroids[a];
+    double[] cb = centroids[b];
+    double sum = 0d;
+    for (int i = 0; i < ca.length; i++) {
+      double diff = ca[i] - cb[i];
+      sum += diff * diff;
+    }
+    double na = sizes[a];
+    double nb = sizes[b];
+    return Math.sqrt(2d * na * nb / (na + nb) * sum);
+  }
+
+  /**
+   * @return the index of the pair in the condensed upper triangular array.
+   */
+  private int index(int i, int j) {
+    if (i > j) {
+      int tmp = i;
+      i = j;
+      j = tmp;
+    }
+    final long n = nodes.length;
+    return (int) (n * i - (long) i * (i + 1) / 2 + j - i - 1);
+  }
+
+}
@@ -113,8 +113,10 @@ public final class VectorWritable implements WritableComparable<VectorWritable>
   public static DoubleVector readVector(DataInput in) throws IOException {
     final int length = in.readInt();
     DoubleVector vector = new DenseDoubleVector(length);
+    // fill the backing array of the vector directly
+    double[] values = vector.toArray();
     for (int i = 0; i < length; i++) {
-      vector.set(i, in.readDouble());
+      values[i] = in.readDouble();
     }
     return vector;
   }
@@ -0,0 +1,475 @@
+package de.jungblut.datastructure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.datastructure.KDTree.VectorDistanceTuple;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.partition.BlockPartitioner;
+import de.jungblut.partition.Boundaries.Range;
+
+/**
+ * Static kd-tree that is bulk loaded from a set of points. In contrast to the
+ * {@link KDTree} there are no node objects, the tree is laid out implicitly in
+ * a flat array of coordinates: the node of a range of the array is the middle
+ * element, that is the median in the split dimension of the range, and the
+ * lower and upper half of the range are its left and right subtree. The split
+ * dimension is the one with the largest spread of the points in the range, so
+ * the tree is always balanced.<br/>
+ * <br/>
+ * Searches only prune by the distance to the splitting planes and collect the
+ * results in primitive arrays, so they don't allocate while visiting nodes.
+ * The tree is immutable after construction and can be queried by many threads
+ * concurrently, see {@link #getNearestNeighbours(List, int, double, int)} for
+ * batches of queries. All distances are euclidian. The points are copied into
+ * a dense array, so this is meant for dense data of a low dimensionality.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public final class FlatKDTree<VALUE> {
+
+  private static final int NUM_PROCESSORS = Runtime.getRuntime()
+      .availableProcessors();
+  // shared by all trees, the threads are only started on demand. Batches
+  // that are queried from within a worker are helped by the waiting thread
+  // instead of blocking it
+  private static final ForkJoinPool QUERY_POOL = new ForkJoinPool(
+      NUM_PROCESSORS);
+
+  private final int size;
+  private final int dimension;
+  // the coordinates of the points in the order of the tree
+  private final double[] coordinates;
+  private final int[] splitDimensions;
+  // maps a position in the tree to the index of the point in the input
+  private final int[] indices;
+  private final DoubleVector[] keys;
+  private final List<VALUE> values;
+
+  /**
+   * Bulk loads the given points without values.
+   * 
+   * @param keys the points, all must have the same dimension.
+   */
+  public FlatKDTree(List<DoubleVector> keys) {
+    this(keys, null);
+  }
+
+  /**
+   * Bulk loads the given points and their values.
+   * 
+   * @param keys the points, all must have the same dimension.
+   * @param values the value for each point, can be null.
+   */
+  public FlatKDTree(List<DoubleVector> keys, List<VALUE> values) {
+    Preconditions.checkArgument(values == null
+        || keys.size() == values.size(),
+        "Number of keys and values must match!");
+    this.size = keys.size();
+    this.dimension = size == 0 ? 0 : keys.get(0).getDimension();
+    this.values = values;
+    double[] input = new double[size * dimension];
+    int[] permutation = new int[size];
+    for (int i = 0; i < size; i++) {
+      DoubleVector key = keys.get(i);
+      Preconditions.checkArgument(key.getDimension() == dimension,
+          "All keys must have the dimension " + dimension + "! Given: "
+              + key.getDimension() + " at index " + i);
+      System.arraycopy(key.toArray(), 0, input, i * dimension, dimension);
+      permutation[i] = i;
+    }
+    this.splitDimensions = new int[size];
+    build(input, permutation, 0, size);
+
+    this.coordinates = new double[size * dimension];
+    this.indices = permutation;
+    this.keys = new DoubleVector[size];
+    for (int i = 0; i < size; i++) {
+      System.arraycopy(input, permutation[i] * dimension, coordinates, i
+          * dimension, dimension);
+      this.keys[i] = keys.get(permutation[i]);
+    }
+  }
+
+  /**
+   * Builds the subtree of the range [start, end) of the permutation.
+   */
+  private void build(double[] input, int[] permutation, int start, int end) {
+    if (end - start < 2) {
+      return;
+    }
+    int split = 0;
+    double largestSpread = -1d;
+    for (int d = 0; d < dimension; d++) {
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i = start; i < end; i++) {
+        double value = input[permutation[i] * dimension + d];
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+      }
+      if (max - min > largestSpread) {
+        largestSpread = max - min;
+        split = d;
+      }
+    }
+    int mid = (start + end) >>> 1;
+    select(input, permutation, split, start, end - 1, mid);
+    splitDimensions[mid] = split;
+    build(input, permutation, start, mid);
+    build(input, permutation, mid + 1, end);
+  }
+
+  /**
+   * Partially sorts the permutation between start and end (inclusive), such
+   * that the element at position k is preceded by smaller or equal ones and
+   * followed by larger or equal ones in the given dimension.
+   */
+  private void select(double[] input, int[] permutation, int d, int start,
+      int end, int k) {
+    while (end > start) {
+      double pivot = input[permutation[(start + end) >>> 1] * dimension + d];
+      int i = start;
+      int j = end;
+      while (i <= j) {
+        while (input[permutation[i] * dimension + d] < pivot) {
+          i++;
+        }
+        while (input[permutation[j] * dimension + d] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          int tmp = permutation[i];
+          permutation[i++] = permutation[j];
+          permutation[j--] = tmp;
+        }
+      }
+      if (k <= j) {
+        end = j;
+      } else if (k >= i) {
+        start = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the k nearest neighbours to the given vector, sorted ascending by
+   *         their distance.
+   */
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k) {
+    return getNearestNeighbours(vec, k, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * @return the neighbours within the given radius (inclusive) of the vector,
+   *         sorted ascending by their distance.
+   */
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, double radius) {
+    return getNearestNeighbours(vec, Integer.MAX_VALUE, radius);
+  }
+
+  /**
+   * @return the k nearest neighbours within the given radius (inclusive) of
+   *         the vector, sorted ascending by their distance. Ties in the
+   *         distance are broken by the index of the points in the input.
+   */
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius) {
+    Preconditions.checkArgument(k > 0, "k must be positive! Given: " + k);
+    Searcher searcher = new Searcher(k, radius);
+    return searcher.search(vec);
+  }
+
+  /**
+   * Queries the nearest neighbours of a batch of vectors on the given number
+   * of threads.
+   * 
+   * @param vectors the vectors to query.
+   * @param k the maximum number of neighbours per vector.
+   * @param radius the maximum distance of a neighbour, inclusive.
+   * @param numThreads the number of threads to query with, capped at the
+   *          number of available processors.
+   * @return the neighbours of each vector in the order of the given vectors,
+   *         as returned by {@link #getNearestNeighbours(DoubleVector, int,
+   *         double)}.
+   */
+  public List<List<VectorDistanceTuple<VALUE>>> getNearestNeighbours(
+      List<DoubleVector> vectors, int k, double radius, int numThreads) {
+    Preconditions.checkArgument(k > 0, "k must be positive! Given: " + k);
+    Preconditions.checkArgument(numThreads > 0,
+        "Number of threads must be at least one.");
+    if (vectors.isEmpty()) {
+      return new ArrayList<>();
+    }
+    DoubleVector[] queries = vectors.toArray(new DoubleVector[vectors.size()]);
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    List<VectorDistanceTuple<VALUE>>[] result = new List[queries.length];
+    int threads = Math.min(Math.min(numThreads, NUM_PROCESSORS),
+        queries.length);
+    List<QueryBatch> batches = new ArrayList<>(threads);
+    for (Range range : new BlockPartitioner().partition(threads,
+        queries.length).getBoundaries()) {
+      batches.add(new QueryBatch(queries, result, range.getStart(), range
+          .getEnd() + 1, k, radius));
+    }
+    if (threads == 1) {
+      batches.get(0).call();
+    } else {
+      try {
+        for (Future<Void> future : QUERY_POOL.invokeAll(batches)) {
+          future.get();
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return Arrays.asList(result);
+  }
+
+  /**
+   * Range queries the kd-tree.
+   * 
+   * @param lower a lower range bound, inclusive.
+   * @param upper a upper range bound, inclusive.
+   * @return the vectors between the two vectors.
+   */
+  public List<DoubleVector> rangeQuery(DoubleVector lower, DoubleVector upper) {
+    List<DoubleVector> list = new ArrayList<>();
+    if (size > 0) {
+      rangeQuery(lower.toArray(), upper.toArray(), 0, size, list);
+    }
+    return list;
+  }
+
+  private void rangeQuery(double[] lower, double[] upper, int start, int end,
+      List<DoubleVector> list) {
+    if (start >= end) {
+      return;
+    }
+    int mid = (start + end) >>> 1;
+    int offset = mid * dimension;
+    boolean inside = true;
+    for (int d = 0; d < dimension && inside; d++) {
+      double value = coordinates[offset + d];
+      inside = value >= lower[d] && value <= upper[d];
+    }
+    if (inside) {
+      list.add(keys[mid]);
+    }
+    double split = coordinates[offset + splitDimensions[mid]];
+    if (lower[splitDimensions[mid]] <= split) {
+      rangeQuery(lower, upper, start, mid, list);
+    }
+    if (upper[splitDimensions[mid]] >= split) {
+      rangeQuery(lower, upper, mid + 1, end, list);
+    }
+  }
+
+  /**
+   * @return the number of points in this tree.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Queries a range of the batch, the search buffers are reused between the
+   * queries.
+   */
+  private final class QueryBatch implements Callable<Void> {
+
+    private final DoubleVector[] queries;
+    private final List<VectorDistanceTuple<VALUE>>[] result;
+    private final int start;
+    private final int end;
+    private final Searcher searcher;
+
+    QueryBatch(DoubleVector[] queries,
+        List<VectorDistanceTuple<VALUE>>[] result, int start, int end, int k,
+        double radius) {
+      this.queries = queries;
+      this.result = result;
+      this.start = start;
+      this.end = end;
+      this.searcher = new Searcher(k, radius);
+    }
+
+    @Override
+    public Void call() {
+      for (int i = start; i < end; i++) {
+        result[i] = searcher.search(queries[i]);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A k nearest neighbour search, the found neighbours are kept in a max heap
+   * of their squared distances. The heap grows on demand up to k elements.
+   */
+  private final class Searcher {
+
+    private final int k;
+    private final double radiusSquared;
+    private double[] distances;
+    private int[] positions;
+    private int heapSize;
+    private double[] query;
+
+    Searcher(int k, double radius) {
+      this.k = Math.min(k, size);
+      this.radiusSquared = radius * radius;
+      int capacity = Math.max(1, Math.min(this.k, 16));
+      this.distances = new double[capacity];
+      this.positions = new int[capacity];
+    }
+
+    List<VectorDistanceTuple<VALUE>> search(DoubleVector vec) {
+      Preconditions.checkArgument(size == 0 || vec.getDimension() == dimension,
+          "Dimension must be " + dimension + "! Given: " + vec.getDimension());
+      query = vec.toArray();
+      heapSize = 0;
+      if (size > 0) {
+        search(0, size);
+      }
+      // pop the heap from the largest distance downwards
+      final int found = heapSize;
+      @SuppressWarnings({ "unchecked", "rawtypes" })
+      VectorDistanceTuple<VALUE>[] result = new VectorDistanceTuple[found];
+      for (int i = found - 1; i >= 0; i--) {
+        int position = positions[0];
+        result[i] = new VectorDistanceTuple<>(keys[position],
+            values == null ? null : values.get(indices[position]),
+            Math.sqrt(distances[0]));
+        removeTop();
+      }
+      query = null;
+      return Arrays.asList(result);
+    }
+
+    private void search(int start, int end) {
+      int mid = (start + end) >>> 1;
+      int offset = mid * dimension;
+      offer(mid, distance(offset));
+      int split = splitDimensions[mid];
+      double diff = query[split] - coordinates[offset + split];
+      int nearStart = diff < 0 ? start : mid + 1;
+      int nearEnd = diff < 0 ? mid : end;
+      int farStart = diff < 0 ? mid + 1 : start;
+      int farEnd = diff < 0 ? end : mid;
+      if (nearStart < nearEnd) {
+        search(nearStart, nearEnd);
+      }
+      if (farStart < farEnd && diff * diff <= bound()) {
+        search(farStart, farEnd);
+      }
+    }
+
+    /**
+     * @return the squared distance to the point at the offset, or infinity
+     *         if it exceeds the current bound.
+     */
+    private double distance(int offset) {
+      final double bound = bound();
+      double sum = 0d;
+      for (int d = 0; d < dimension; d++) {
+        double diff = query[d] - coordinates[offset + d];
+        sum += diff * diff;
+        if (sum > bound) {
+          return Double.POSITIVE_INFINITY;
+        }
+      }
+      return sum;
+    }
+
+    private double bound() {
+      return heapSize == k ? Math.min(radiusSquared, distances[0])
+          : radiusSquared;
+    }
+
+    private void offer(int position, double distance) {
+      if (distance > radiusSquared) {
+        return;
+      }
+      if (heapSize < k) {
+        if (heapSize == distances.length) {
+          int capacity = (int) Math.min(k, 2L * distances.length);
+          distances = Arrays.copyOf(distances, capacity);
+          positions = Arrays.copyOf(positions, capacity);
+        }
+        // sift up the new element
+        int i = heapSize++;
+        while (i > 0) {
+          int parent = (i - 1) >>> 1;
+          if (!greater(distance, position, distances[parent],
+              positions[parent])) {
+            break;
+          }
+          distances[i] = distances[parent];
+          positions[i] = positions[parent];
+          i = parent;
+        }
+        distances[i] = distance;
+        positions[i] = position;
+      } else if (greater(distances[0], positions[0], distance, position)) {
+        siftDown(distance, position);
+      }
+    }
+
+    private void removeTop() {
+      heapSize--;
+      if (heapSize > 0) {
+        siftDown(distances[heapSize], positions[heapSize]);
+      }
+    }
+
+    /**
+     * Replaces the top of the heap with the given element.
+     */
+    private void siftDown(double distance, int position) {
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= heapSize) {
+          break;
+        }
+        if (child + 1 < heapSize
+            && greater(distances[child + 1], positions[child + 1],
+                distances[child], positions[child])) {
+          child++;
+        }
+        if (!greater(distances[child], positions[child], distance, position)) {
+          break;
+        }
+        distances[i] = distances[child];
+        positions[i] = positions[child];
+        i = child;
+      }
+      distances[i] = distance;
+      positions[i] = position;
+    }
+
+    /**
+     * @return true if the first element is further away than the second, ties
+     *         are ordered by the index of the points in the input.
+     */
+    private boolean greater(double distance1, int position1,
+        double distance2, int position2) {
+      return distance1 > distance2 || distance1 == distance2
+          && indices[position1] > indices[position2];
+    }
+  }
+
+}
@@ -0,0 +1,594 @@
+package de.jungblut.datastructure;
+
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.datastructure.KDTree.VectorDistanceTuple;
+import de.jungblut.distance.DistanceMeasurer;
+import de.jungblut.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.writable.VectorWritable;
+
+/**
+ * Approximate nearest neighbour index based on hierarchical navigable small
+ * world graphs (Malkov, Yashunin 2016). Every vector is a node in a layered
+ * proximity graph, the upper layers contain exponentially less nodes and act
+ * like the express lanes of a skip list. A query greedily walks down the
+ * layers and runs a beam search of width "ef" in the lowest layer, so the
+ * number of distance computations grows roughly logarithmically with the size
+ * of the index. <br/>
+ * <br/>
+ * The index works with any {@link DistanceMeasurer}, vectors can be added one
+ * at a time and receive their insertion index as id. A higher ef trades
+ * latency for recall, it can be changed at query time. Queries can run
+ * concurrently, insertions must not run concurrently to other insertions or
+ * queries. For configuration use the {@link HNSWIndexBuilder}.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public final class HNSWIndex {
+
+  private static final Log LOG = LogFactory.getLog(HNSWIndex.class);
+
+  public static class HNSWIndexBuilder {
+
+    private final DistanceMeasurer measurer;
+    private int m = 16;
+    private int efConstruction = 100;
+    private int efSearch = 50;
+    private long seed = System.currentTimeMillis();
+
+    private HNSWIndexBuilder(DistanceMeasurer measurer) {
+      this.measurer = measurer;
+    }
+
+    public HNSWIndex build() {
+      return new HNSWIndex(this);
+    }
+
+    /**
+     * Sets the number of neighbours of a node in the upper layers, the lowest
+     * layer has twice as many. More neighbours increase the recall, but also
+     * the memory and the time to insert. Defaults to 16.
+     * 
+     * @param m the number of neighbours.
+     * @return the builder again.
+     */
+    public HNSWIndexBuilder m(int m) {
+      Preconditions.checkArgument(m > 1, "m must be at least two! Given: " + m);
+      this.m = m;
+      return this;
+    }
+
+    /**
+     * Sets the width of the search for neighbours while inserting, defaults
+     * to 100.
+     * 
+     * @param ef the width of the search.
+     * @return the builder again.
+     */
+    public HNSWIndexBuilder efConstruction(int ef) {
+      Preconditions.checkArgument(ef > 0, "ef must be positive! Given: " + ef);
+      this.efConstruction = ef;
+      return this;
+    }
+
+    /**
+     * Sets the default width of the search for the query, defaults to 50.
+     * 
+     * @param ef the width of the search.
+     * @return the builder again.
+     */
+    public HNSWIndexBuilder efSearch(int ef) {
+      Preconditions.checkArgument(ef > 0, "ef must be positive! Given: " + ef);
+      this.efSearch = ef;
+      return this;
+    }
+
+    /**
+     * Sets the seed for the random layers of the nodes.
+     * 
+     * @return the builder again.
+     */
+    public HNSWIndexBuilder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * Creates a new builder.
+     * 
+     * @param measurer the distance measurer to use.
+     * @return a new builder.
+     */
+    public static HNSWIndexBuilder create(DistanceMeasurer measurer) {
+      return new HNSWIndexBuilder(measurer);
+    }
+
+  }
+
+  private final DistanceMeasurer measurer;
+  private final int m;
+  private final int efConstruction;
+  private final double levelMultiplier;
+  private final Random random;
+  private int efSearch;
+
+  private final List<DoubleVector> vectors = new ArrayList<>();
+  // links[node][layer] holds the number of neighbours at index zero, followed
+  // by the neighbours
+  private final List<int[][]> links = new ArrayList<>();
+  private int entryPoint = -1;
+  private int maxLayer = -1;
+
+  private HNSWIndex(HNSWIndexBuilder builder) {
+    this(builder.measurer, builder.m, builder.efConstruction,
+        builder.efSearch, builder.seed);
+  }
+
+  private HNSWIndex(DistanceMeasurer measurer, int m, int efConstruction,
+      int efSearch, long seed) {
+    this.measurer = measurer;
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.efSearch = efSearch;
+    this.levelMultiplier = 1d / Math.log(m);
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Adds the given vector to the index.
+   * 
+   * @return the id of the vector, which is the number of vectors that were
+   *         added before.
+   */
+  public int add(DoubleVector vector) {
+    final int id = vectors.size();
+    final int layer = (int) (-Math.log(1d - random.nextDouble())
+        * levelMultiplier);
+    int[][] nodeLinks = new int[layer + 1][];
+    for (int l = 0; l <= layer; l++) {
+      nodeLinks[l] = new int[maxNeighbours(l) + 1];
+    }
+    vectors.add(vector);
+    links.add(nodeLinks);
+    if (entryPoint < 0) {
+      entryPoint = id;
+      maxLayer = layer;
+      return id;
+    }
+
+    int current = entryPoint;
+    double currentDistance = distance(vector, current);
+    for (int l = maxLayer; l > layer; l--) {
+      current = greedySearch(vector, current, currentDistance, l);
+      currentDistance = distance(vector, current);
+    }
+    for (int l = Math.min(layer, maxLayer); l >= 0; l--) {
+      DistanceHeap candidates = searchLayer(vector, current, currentDistance,
+          efConstruction, l);
+      int found = candidates.sortAscending();
+      current = candidates.ids[0];
+      currentDistance = candidates.keys[0];
+      int[] selected = selectNeighbours(candidates, found, m);
+      int[] own = nodeLinks[l];
+      System.arraycopy(selected, 0, own, 1, selected.length);
+      own[0] = selected.length;
+      for (int neighbour : selected) {
+        connect(neighbour, id, l);
+      }
+    }
+    if (layer > maxLayer) {
+      entryPoint = id;
+      maxLayer = layer;
+    }
+    return id;
+  }
+
+  /**
+   * @return the k approximate nearest neighbours of the given vector, sorted
+   *         ascending by their distance. The value of a tuple is the id of
+   *         the vector.
+   */
+  public List<VectorDistanceTuple<Integer>> query(DoubleVector vector, int k) {
+    return query(vector, k, efSearch);
+  }
+
+  /**
+   * @param ef the width of the search, is at least k.
+   * @return the k approximate nearest neighbours of the given vector, sorted
+   *         ascending by their distance. The value of a tuple is the id of
+   *         the vector.
+   */
+  public List<VectorDistanceTuple<Integer>> query(DoubleVector vector, int k,
+      int ef) {
+    Preconditions.checkArgument(k > 0, "k must be positive! Given: " + k);
+    if (entryPoint < 0) {
+      return new ArrayList<>();
+    }
+    int current = entryPoint;
+    double currentDistance = distance(vector, current);
+    for (int l = maxLayer; l > 0; l--) {
+      current = greedySearch(vector, current, currentDistance, l);
+      currentDistance = distance(vector, current);
+    }
+    DistanceHeap candidates = searchLayer(vector, current, currentDistance,
+        Math.max(ef, k), 0);
+    int size = Math.min(k, candidates.sortAscending());
+    List<VectorDistanceTuple<Integer>> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      int id = candidates.ids[i];
+      result.add(new VectorDistanceTuple<>(vectors.get(id), id,
+          candidates.keys[i]));
+    }
+    return result;
+  }
+
+  /**
+   * @return the vector with the given id.
+   */
+  public DoubleVector get(int id) {
+    return vectors.get(id);
+  }
+
+  /**
+   * @return the number of vectors in the index.
+   */
+  public int size() {
+    return vectors.size();
+  }
+
+  /**
+   * Sets the default width of the search for the query.
+   */
+  public void setEfSearch(int ef) {
+    Preconditions.checkArgument(ef > 0, "ef must be positive! Given: " + ef);
+    this.efSearch = ef;
+  }
+
+  /**
+   * Moves from the given node to the closest neighbour, until no neighbour is
+   * closer to the target.
+   */
+  private int greedySearch(DoubleVector target, int current,
+      double currentDistance, int layer) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      int[] neighbours = links.get(current)[layer];
+      for (int i = 1; i <= neighbours[0]; i++) {
+        double d = distance(target, neighbours[i]);
+        if (d < currentDistance) {
+          currentDistance = d;
+          current = neighbours[i];
+          changed = true;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Beam search in a single layer.
+   * 
+   * @return a max heap of the ef closest nodes that were found.
+   */
+  private DistanceHeap searchLayer(DoubleVector target, int entry,
+      double entryDistance, int ef, int layer) {
+    TIntHashSet visited = new TIntHashSet();
+    visited.add(entry);
+    // candidates is a min heap by negating the distances
+    DistanceHeap candidates = new DistanceHeap(ef);
+    DistanceHeap result = new DistanceHeap(ef);
+    candidates.push(-entryDistance, entry);
+    result.push(entryDistance, entry);
+    while (candidates.size() > 0) {
+      double distance = -candidates.peekKey();
+      int current = candidates.peekId();
+      if (distance > result.peekKey()) {
+        break;
+      }
+      candidates.pop();
+      int[] neighbours = links.get(current)[layer];
+      for (int i = 1; i <= neighbours[0]; i++) {
+        int neighbour = neighbours[i];
+        if (visited.add(neighbour)) {
+          double d = distance(target, neighbour);
+          if (result.size() < ef || d < result.peekKey()) {
+            candidates.push(-d, neighbour);
+            result.push(d, neighbour);
+            if (result.size() > ef) {
+              result.pop();
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Selects up to max neighbours from the sorted candidates, a candidate is
+   * skipped if it is closer to an already selected neighbour than to the base
+   * node. This keeps the graph connected across clusters.
+   */
+  private int[] selectNeighbours(DistanceHeap sorted, int count, int max) {
+    int[] selected = new int[Math.min(max, count)];
+    int size = 0;
+    for (int i = 0; i < count && size < selected.length; i++) {
+      boolean good = true;
+      DoubleVector candidate = vectors.get(sorted.ids[i]);
+      for (int j = 0; j < size && good; j++) {
+        good = distance(candidate, selected[j]) >= sorted.keys[i];
+      }
+      if (good) {
+        selected[size++] = sorted.ids[i];
+      }
+    }
+    return Arrays.copyOf(selected, size);
+  }
+
+  /**
+   * Adds the new node to the neighbours of the given node, shrinks them if
+   * they exceed the maximum.
+   */
+  private void connect(int node, int newNode, int layer) {
+    int[] neighbours = links.get(node)[layer];
+    int count = neighbours[0];
+    if (count < neighbours.length - 1) {
+      neighbours[++count] = newNode;
+      neighbours[0] = count;
+      return;
+    }
+    DoubleVector base = vectors.get(node);
+    DistanceHeap heap = new DistanceHeap(count + 1);
+    heap.push(distance(base, newNode), newNode);
+    for (int i = 1; i <= count; i++) {
+      heap.push(distance(base, neighbours[i]), neighbours[i]);
+    }
+    int[] selected = selectNeighbours(heap, heap.sortAscending(), count);
+    System.arraycopy(selected, 0, neighbours, 1, selected.length);
+    neighbours[0] = selected.length;
+  }
+
+  private int maxNeighbours(int layer) {
+    return layer == 0 ? 2 * m : m;
+  }
+
+  private double distance(DoubleVector vector, int id) {
+    return measurer.measureDistance(vector, vectors.get(id));
+  }
+
+  /**
+   * Max heap of distances and the ids of the nodes in primitive arrays.
+   */
+  private static final class DistanceHeap {
+
+    private double[] keys;
+    private int[] ids;
+    private int size;
+
+    DistanceHeap(int capacity) {
+      keys = new double[capacity + 1];
+      ids = new int[capacity + 1];
+    }
+
+    void push(double key, int id) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (keys[parent] >= key) {
+          break;
+        }
+        keys[i] = keys[parent];
+        ids[i] = ids[parent];
+        i = parent;
+      }
+      keys[i] = key;
+      ids[i] = id;
+    }
+
+    void pop() {
+      size--;
+      double key = keys[size];
+      int id = ids[size];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && keys[child + 1] > keys[child]) {
+          child++;
+        }
+        if (keys[child] <= key) {
+          break;
+        }
+        keys[i] = keys[child];
+        ids[i] = ids[child];
+        i = child;
+      }
+      keys[i] = key;
+      ids[i] = id;
+    }
+
+    double peekKey() {
+      return keys[0];
+    }
+
+    int peekId() {
+      return ids[0];
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Sorts the keys and ids ascending in place, this empties the heap.
+     * 
+     * @return the number of sorted elements.
+     */
+    int sortAscending() {
+      // heap sort, popping moves the largest key behind the heap
+      final int sorted = size;
+      while (size > 0) {
+        double key = keys[0];
+        int id = ids[0];
+        pop();
+        keys[size] = key;
+        ids[size] = id;
+      }
+      return sorted;
+    }
+  }
+
+  /**
+   * Writes the given index to the output stream. Note that the stream isn't
+   * closed here.
+   */
+  public static void serialize(HNSWIndex index, DataOutput out)
+      throws IOException {
+    out.writeUTF(index.measurer.getClass().getName());
+    WritableUtils.writeVInt(out, index.m);
+    WritableUtils.writeVInt(out, index.efConstruction);
+    WritableUtils.writeVInt(out, index.efSearch);
+    WritableUtils.writeVInt(out, index.entryPoint);
+    WritableUtils.writeVInt(out, index.maxLayer);
+    WritableUtils.writeVInt(out, index.size());
+    for (int i = 0; i < index.size(); i++) {
+      VectorWritable.writeVector(index.vectors.get(i), out);
+      int[][] nodeLinks = index.links.get(i);
+      WritableUtils.writeVInt(out, nodeLinks.length);
+      for (int[] neighbours : nodeLinks) {
+        WritableUtils.writeVInt(out, neighbours[0]);
+        for (int j = 1; j <= neighbours[0]; j++) {
+          WritableUtils.writeVInt(out, neighbours[j]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads a new index from the given stream. The distance measurer is
+   * instantiated by its default constructor, new vectors are placed in
+   * random layers seeded by the current time. Note that the stream isn't
+   * closed here.
+   */
+  public static HNSWIndex deserialize(DataInput in) throws IOException {
+    DistanceMeasurer measurer = null;
+    try {
+      measurer = (DistanceMeasurer) Class.forName(in.readUTF())
+          .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+    int m = WritableUtils.readVInt(in);
+    int efConstruction = WritableUtils.readVInt(in);
+    int efSearch = WritableUtils.readVInt(in);
+    HNSWIndex index = new HNSWIndex(measurer, m, efConstruction, efSearch,
+        System.currentTimeMillis());
+    index.entryPoint = WritableUtils.readVInt(in);
+    index.maxLayer = WritableUtils.readVInt(in);
+    int size = WritableUtils.readVInt(in);
+    for (int i = 0; i < size; i++) {
+      index.vectors.add(VectorWritable.readVector(in));
+      int[][] nodeLinks = new int[WritableUtils.readVInt(in)][];
+      for (int l = 0; l < nodeLinks.length; l++) {
+        nodeLinks[l] = new int[index.maxNeighbours(l) + 1];
+        nodeLinks[l][0] = WritableUtils.readVInt(in);
+        for (int j = 1; j <= nodeLinks[l][0]; j++) {
+          nodeLinks[l][j] = WritableUtils.readVInt(in);
+        }
+      }
+      index.links.add(nodeLinks);
+    }
+    return index;
+  }
+
+  /*
+   * Simple benchmark of the recall@k against the exact search on random
+   * vectors. Arguments are optional: number of vectors, dimension, k.
+   */
+  public static void main(String[] args) {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int numQueries = 200;
+
+    Random rnd = new Random(0L);
+    List<DoubleVector> data = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      data.add(randomVector(rnd, dimension));
+    }
+    HNSWIndex index = HNSWIndexBuilder.create(EuclidianDistance.get())
+        .seed(0L).build();
+    long start = System.currentTimeMillis();
+    for (DoubleVector v : data) {
+      index.add(v);
+    }
+    LOG.info("Building the index of " + n + " vectors took: "
+        + (System.currentTimeMillis() - start) / 1000f + "s!");
+
+    List<DoubleVector> queries = new ArrayList<>(numQueries);
+    for (int i = 0; i < numQueries; i++) {
+      queries.add(randomVector(rnd, dimension));
+    }
+    start = System.currentTimeMillis();
+    List<TIntHashSet> exact = new ArrayList<>(numQueries);
+    for (DoubleVector query : queries) {
+      LimitedPriorityQueue<Integer> queue = new LimitedPriorityQueue<>(k);
+      for (int i = 0; i < n; i++) {
+        queue.add(i, EuclidianDistance.get().measureDistance(query,
+            data.get(i)));
+      }
+      exact.add(new TIntHashSet(queue.toList()));
+    }
+    LOG.info("Brute force: " + (System.currentTimeMillis() - start)
+        / (float) numQueries + "ms per query.");
+
+    for (int ef : new int[] { 10, 20, 50, 100, 200, 400 }) {
+      start = System.nanoTime();
+      int found = 0;
+      for (int q = 0; q < numQueries; q++) {
+        for (VectorDistanceTuple<Integer> tuple : index.query(queries.get(q),
+            k, ef)) {
+          if (exact.get(q).contains(tuple.getValue())) {
+            found++;
+          }
+        }
+      }
+      LOG.info("ef=" + ef + " | recall@" + k + ": " + found
+          / (double) (numQueries * k) + " | "
+          + (System.nanoTime() - start) / 1e6 / numQueries + "ms per query.");
+    }
+  }
+
+  private static DoubleVector randomVector(Random rnd, int dimension) {
+    DoubleVector v = new DenseDoubleVector(dimension);
+    for (int j = 0; j < dimension; j++) {
+      v.set(j, rnd.nextDouble());
+    }
+    return v;
+  }
+
+}
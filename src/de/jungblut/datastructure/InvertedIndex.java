@@ -1,13 +1,15 @@
 package de.jungblut.datastructure;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.HashMultimap;
 
 import de.jungblut.distance.DistanceMeasurer;
 import de.jungblut.distance.VectorDocumentDistanceMeasurer;
@@ -18,7 +20,16 @@ import de.jungblut.nlp.SparseVectorDocumentMapper;
  * Inverted Index, mainly developed for sparse vectors to speedup dimension
  * lookups for fast distance measurement and search space reduction. But of
  * course it can also be used to behave like a fulltext index to find relevant
- * documents by their textual representation.
+ * documents by their textual representation.<br/>
+ * <br/>
+ * Every key maps to a compressed {@link PostingList} of the ascending document
+ * indices that contain it. Candidates of a query are generated by a merge over
+ * the postings of its keys. If the measurer is a
+ * {@link BoundedDocumentDistanceMeasurer}, the merge counts how many keys each
+ * candidate shares with the query and computes the distance from it. Once the
+ * result is full, the postings of the most frequent keys are no longer merged
+ * but only skipped to the candidates of the others (max-score), as documents
+ * that only share those keys can't make it into the result anymore.
  * 
  * @author thomas.jungblut
  * 
@@ -28,21 +39,30 @@ import de.jungblut.nlp.SparseVectorDocumentMapper;
  */
 public final class InvertedIndex<DOCUMENT_TYPE, KEY_TYPE> {
 
-  private final HashMultimap<KEY_TYPE, Integer> index = HashMultimap.create();
+  private final Map<KEY_TYPE, PostingList> index = new HashMap<>();
   private final DocumentMapper<DOCUMENT_TYPE, KEY_TYPE> docMapper;
   private final DocumentDistanceMeasurer<DOCUMENT_TYPE, KEY_TYPE> docMeasurer;
+  // the same as the docMeasurer if it can bound distances, else null
+  private final BoundedDocumentDistanceMeasurer<DOCUMENT_TYPE, KEY_TYPE> boundMeasurer;
 
   private List<DOCUMENT_TYPE> documents;
   private List<Set<KEY_TYPE>> keys;
+  private int[] keySizes;
 
   /**
    * @param mapper the mapper that transforms each document to a look-up-able
    *          key set that can be searched on.
    */
+  @SuppressWarnings("unchecked")
   private InvertedIndex(DocumentMapper<DOCUMENT_TYPE, KEY_TYPE> mapper,
       DocumentDistanceMeasurer<DOCUMENT_TYPE, KEY_TYPE> measurer) {
     this.docMapper = mapper;
     this.docMeasurer = measurer;
+    if (measurer instanceof BoundedDocumentDistanceMeasurer) {
+      this.boundMeasurer = (BoundedDocumentDistanceMeasurer<DOCUMENT_TYPE, KEY_TYPE>) measurer;
+    } else {
+      this.boundMeasurer = null;
+    }
   }
 
   /**
@@ -58,15 +78,26 @@ public final class InvertedIndex<DOCUMENT_TYPE, KEY_TYPE> {
     // do a defensive read-only random access copy of the documents
     this.documents = Collections.unmodifiableList(new ArrayList<>(items));
     this.keys = new ArrayList<>(items.size());
+    this.keySizes = new int[items.size()];
+    this.index.clear();
     for (int i = 0; i < documents.size(); i++) {
       DOCUMENT_TYPE doc = documents.get(i);
       Set<KEY_TYPE> keySet = docMapper.mapDocument(doc);
       this.keys.add(keySet);
+      this.keySizes[i] = keySet.size();
       // for each key part, index the document as an index
       for (KEY_TYPE key : keySet) {
-        index.put(key, i);
+        PostingList postings = index.get(key);
+        if (postings == null) {
+          postings = new PostingList();
+          index.put(key, postings);
+        }
+        postings.add(i);
       }
     }
+    for (PostingList postings : index.values()) {
+      postings.trim();
+    }
   }
 
   /**
@@ -120,25 +151,19 @@ public final class InvertedIndex<DOCUMENT_TYPE, KEY_TYPE> {
                 + minDistance);
 
     Set<KEY_TYPE> keys = docMapper.mapDocument(document);
-    Set<Integer> allSet = new HashSet<>();
-    // retrieve all sets
+    List<PostingList> postings = new ArrayList<>(keys.size());
     for (KEY_TYPE key : keys) {
-      Set<Integer> set = index.get(key);
-      if (set != null && !set.isEmpty()) {
-        allSet.addAll(set);
+      PostingList list = index.get(key);
+      if (list != null) {
+        postings.add(list);
       }
     }
     LimitedPriorityQueue<DistanceResult<DOCUMENT_TYPE>> queue = new LimitedPriorityQueue<>(
         maxResults);
-    // now measure distances and apply the filters
-    for (Integer docIndex : allSet) {
-      DOCUMENT_TYPE candidateDoc = documents.get(docIndex);
-      Set<KEY_TYPE> candidateKeys = this.keys.get(docIndex);
-      double distance = docMeasurer.measure(document, keys, candidateDoc,
-          candidateKeys);
-      if (distance <= minDistance) {
-        queue.add(new DistanceResult<>(distance, candidateDoc), distance);
-      }
+    if (boundMeasurer != null) {
+      queryMaxScore(document, keys.size(), postings, queue, minDistance);
+    } else {
+      queryUnion(document, keys, postings, queue, minDistance);
     }
 
     List<DistanceResult<DOCUMENT_TYPE>> res = new ArrayList<>(queue.size());
@@ -153,6 +178,129 @@ public final class InvertedIndex<DOCUMENT_TYPE, KEY_TYPE> {
     return res;
   }
 
+  /**
+   * Measures every document that shares at least a single key with the query.
+   * The candidates are the union of the postings in ascending order of the
+   * document indices.
+   */
+  private void queryUnion(DOCUMENT_TYPE document, Set<KEY_TYPE> keys,
+      List<PostingList> postings,
+      LimitedPriorityQueue<DistanceResult<DOCUMENT_TYPE>> queue,
+      double minDistance) {
+    PostingList.Cursor[] heap = new PostingList.Cursor[postings.size()];
+    for (int i = 0; i < heap.length; i++) {
+      heap[i] = postings.get(i).cursor();
+      heap[i].next();
+    }
+    heapify(heap);
+    while (heap.length > 0 && heap[0].docId() != Integer.MAX_VALUE) {
+      final int docIndex = heap[0].docId();
+      do {
+        heap[0].next();
+        siftDown(heap, 0);
+      } while (heap[0].docId() == docIndex);
+      // now measure distances and apply the filters
+      DOCUMENT_TYPE candidateDoc = documents.get(docIndex);
+      double distance = docMeasurer.measure(document, keys, candidateDoc,
+          this.keys.get(docIndex));
+      if (distance <= minDistance) {
+        queue.add(new DistanceResult<>(distance, candidateDoc), distance);
+      }
+    }
+  }
+
+  /**
+   * Max-score traversal for measurers that only depend on the number of shared
+   * keys. A document needs a minimum overlap with the query to get under the
+   * current threshold, which shrinks as the queue fills up. The postings are
+   * sorted by their length, the longest ones that together can't reach the
+   * minimum overlap are non-essential: candidates are only generated by the
+   * union of the essential postings, the non-essential ones are just skipped
+   * forward to the candidates that can still make it.
+   */
+  private void queryMaxScore(DOCUMENT_TYPE document, int numKeys,
+      List<PostingList> postings,
+      LimitedPriorityQueue<DistanceResult<DOCUMENT_TYPE>> queue,
+      double minDistance) {
+    Collections.sort(postings, new Comparator<PostingList>() {
+      @Override
+      public int compare(PostingList o1, PostingList o2) {
+        return Integer.compare(o1.size(), o2.size());
+      }
+    });
+    final int numPostings = postings.size();
+    PostingList.Cursor[] cursors = new PostingList.Cursor[numPostings];
+    for (int i = 0; i < numPostings; i++) {
+      cursors[i] = postings.get(i).cursor();
+      cursors[i].next();
+    }
+    int minOverlap = minOverlap(numKeys, numPostings, 1, minDistance);
+    if (minOverlap > numPostings) {
+      return;
+    }
+    // the essential postings are a prefix of the cursors
+    int numEssential = numPostings - (minOverlap - 1);
+    PostingList.Cursor[] heap = essentialHeap(cursors, numEssential);
+    while (heap.length > 0 && heap[0].docId() != Integer.MAX_VALUE) {
+      final int docIndex = heap[0].docId();
+      int overlap = 0;
+      do {
+        overlap++;
+        heap[0].next();
+        siftDown(heap, 0);
+      } while (heap[0].docId() == docIndex);
+      for (int i = numEssential; i < numPostings
+          && overlap + (numPostings - i) >= minOverlap; i++) {
+        if (cursors[i].advance(docIndex) && cursors[i].docId() == docIndex) {
+          overlap++;
+        }
+      }
+      if (overlap < minOverlap) {
+        continue;
+      }
+      double distance = boundMeasurer.measure(numKeys, keySizes[docIndex],
+          overlap);
+      if (distance <= minDistance) {
+        queue.add(new DistanceResult<>(distance, documents.get(docIndex)),
+            distance);
+        if (queue.isFull()) {
+          minOverlap = minOverlap(numKeys, numPostings, minOverlap,
+              Math.min(minDistance, queue.getMaximumPriority()));
+          if (minOverlap > numPostings) {
+            // no document can get under the threshold anymore
+            break;
+          }
+          int essential = numPostings - (minOverlap - 1);
+          if (essential < numEssential) {
+            numEssential = essential;
+            heap = essentialHeap(cursors, numEssential);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the smallest overlap starting from the given one, that can lead to
+   *         a distance lower or equal than the threshold. Or the number of
+   *         postings plus one if there is none.
+   */
+  private int minOverlap(int numKeys, int numPostings, int overlap,
+      double threshold) {
+    while (overlap <= numPostings
+        && boundMeasurer.lowerBound(numKeys, overlap) > threshold) {
+      overlap++;
+    }
+    return overlap;
+  }
+
+  private static PostingList.Cursor[] essentialHeap(
+      PostingList.Cursor[] cursors, int numEssential) {
+    PostingList.Cursor[] heap = Arrays.copyOf(cursors, numEssential);
+    heapify(heap);
+    return heap;
+  }
+
   /**
    * Measurer that measures distance of two documents.
    * 
@@ -176,6 +324,39 @@ public final class InvertedIndex<DOCUMENT_TYPE, KEY_TYPE> {
 
   }
 
+  /**
+   * Measurer whose distance of two documents only depends on the number of
+   * their keys and the number of keys they share. The index counts the shared
+   * keys while merging the postings and can bound the distance of documents
+   * it hasn't seen yet.
+   * 
+   * @param <DOCUMENT_TYPE> the type of the documents to index.
+   * @param <KEY_TYPE> the look-up-able part of the document.
+   */
+  public static interface BoundedDocumentDistanceMeasurer<DOCUMENT_TYPE, KEY_TYPE>
+      extends DocumentDistanceMeasurer<DOCUMENT_TYPE, KEY_TYPE> {
+
+    /**
+     * @param referenceKeySize the number of keys of the reference document.
+     * @param docKeySize the number of keys of the candidate document.
+     * @param overlap the number of keys both documents share.
+     * @return the same value as {@link #measure(Object, Set, Object, Set)}
+     *         for the two documents.
+     */
+    public double measure(int referenceKeySize, int docKeySize, int overlap);
+
+    /**
+     * @param referenceKeySize the number of keys of the reference document.
+     * @param overlap the maximum number of keys a document shares with the
+     *          reference.
+     * @return a value that is lower or equal than the distance of every
+     *         document that shares at most overlap keys with the reference.
+     *         Must not increase with the overlap.
+     */
+    public double lowerBound(int referenceKeySize, int overlap);
+
+  }
+
   /**
    * Mapper that maps a document to its keys.
    * 
@@ -195,6 +376,34 @@ public final class InvertedIndex<DOCUMENT_TYPE, KEY_TYPE> {
 
   }
 
+  private static void heapify(PostingList.Cursor[] heap) {
+    for (int i = heap.length / 2 - 1; i >= 0; i--) {
+      siftDown(heap, i);
+    }
+  }
+
+  /**
+   * Restores the heap property of the cursors by their current document id
+   * from the given position downwards.
+   */
+  private static void siftDown(PostingList.Cursor[] heap, int pos) {
+    PostingList.Cursor cursor = heap[pos];
+    final int half = heap.length >>> 1;
+    while (pos < half) {
+      int child = 2 * pos + 1;
+      if (child + 1 < heap.length
+          && heap[child + 1].docId() < heap[child].docId()) {
+        child++;
+      }
+      if (cursor.docId() <= heap[child].docId()) {
+        break;
+      }
+      heap[pos] = heap[child];
+      pos = child;
+    }
+    heap[pos] = cursor;
+  }
+
   /**
    * Create an inverted index out of two mapping interfaces: a mapper that maps
    * documents to its key parts and a distance measurer that measures distance
@@ -0,0 +1,181 @@
+package de.jungblut.datastructure;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Compressed list of strictly ascending document ids. The ids are stored as
+ * the gaps between them, each encoded as a variable length integer of seven
+ * bits per byte, so frequent keys with dense postings need a single byte per
+ * document. After every {@value #SKIP_INTERVAL} ids the last id and the
+ * position behind it are remembered, so a {@link Cursor} can skip to a target
+ * id without decoding the ids before it.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public final class PostingList {
+
+  static final int SKIP_INTERVAL = 128;
+
+  private byte[] bytes = new byte[4];
+  private int numBytes;
+  private int size;
+  private int last = -1;
+  // the id and the byte offset behind it of every SKIP_INTERVAL-th id
+  private int[] skipIds = new int[0];
+  private int[] skipOffsets = new int[0];
+
+  /**
+   * Appends the given document id, which must be greater than the last one.
+   */
+  public void add(int docId) {
+    Preconditions.checkArgument(docId > last,
+        "Document ids must be added in ascending order! Given " + docId
+            + " after " + last);
+    int gap = docId - last;
+    if (numBytes + 5 > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(numBytes + 5, bytes.length * 2));
+    }
+    while ((gap & ~0x7F) != 0) {
+      bytes[numBytes++] = (byte) ((gap & 0x7F) | 0x80);
+      gap >>>= 7;
+    }
+    bytes[numBytes++] = (byte) gap;
+    last = docId;
+    size++;
+    if (size % SKIP_INTERVAL == 0) {
+      int skip = size / SKIP_INTERVAL - 1;
+      if (skip == skipIds.length) {
+        skipIds = Arrays.copyOf(skipIds, Math.max(4, skip * 2));
+        skipOffsets = Arrays.copyOf(skipOffsets, skipIds.length);
+      }
+      skipIds[skip] = docId;
+      skipOffsets[skip] = numBytes;
+    }
+  }
+
+  /**
+   * Shrinks the underlying buffers to the encoded size.
+   */
+  public void trim() {
+    if (bytes.length > numBytes) {
+      bytes = Arrays.copyOf(bytes, numBytes);
+    }
+    int numSkips = size / SKIP_INTERVAL;
+    if (skipIds.length > numSkips) {
+      skipIds = Arrays.copyOf(skipIds, numSkips);
+      skipOffsets = Arrays.copyOf(skipOffsets, numSkips);
+    }
+  }
+
+  /**
+   * @return the number of document ids in this list.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of bytes the encoded ids take.
+   */
+  public int sizeInBytes() {
+    return numBytes;
+  }
+
+  /**
+   * @return a new cursor that is positioned before the first document id.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * @return the decoded document ids.
+   */
+  public int[] toArray() {
+    int[] result = new int[size];
+    Cursor cursor = cursor();
+    for (int i = 0; cursor.next(); i++) {
+      result[i] = cursor.docId();
+    }
+    return result;
+  }
+
+  /**
+   * Forward only cursor that decodes the document ids one by one.
+   */
+  public final class Cursor {
+
+    private int offset;
+    private int docId = -1;
+    // the number of decoded ids
+    private int position;
+
+    private Cursor() {
+    }
+
+    /**
+     * Moves to the next document id.
+     * 
+     * @return false if there are no more document ids.
+     */
+    public boolean next() {
+      if (offset >= numBytes) {
+        docId = Integer.MAX_VALUE;
+        return false;
+      }
+      int gap = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = bytes[offset++];
+        gap |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      docId += gap;
+      position++;
+      return true;
+    }
+
+    /**
+     * Moves to the first document id that is greater or equal than the target,
+     * doesn't move if the current id already is. Blocks of ids that are
+     * entirely smaller than the target are skipped without decoding them.
+     * 
+     * @return false if there are no more document ids.
+     */
+    public boolean advance(int target) {
+      if (docId >= target) {
+        return docId != Integer.MAX_VALUE;
+      }
+      // the next skip entry that lies ahead of the cursor
+      final int firstSkip = position / SKIP_INTERVAL;
+      final int numSkips = size / SKIP_INTERVAL;
+      if (firstSkip < numSkips && skipIds[firstSkip] < target) {
+        int found = Arrays.binarySearch(skipIds, firstSkip, numSkips, target);
+        // the last entry that is smaller than the target
+        int skip = (found >= 0 ? found : -found - 1) - 1;
+        docId = skipIds[skip];
+        offset = skipOffsets[skip];
+        position = (skip + 1) * SKIP_INTERVAL;
+      }
+      while (docId < target) {
+        if (!next()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the current document id, -1 before the first and
+     *         Integer.MAX_VALUE after the last call to {@link #next()}.
+     */
+    public int docId() {
+      return docId;
+    }
+  }
+
+}
@@ -0,0 +1,151 @@
+package de.jungblut.datastructure;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+
+import de.jungblut.datastructure.DiskList.IORuntimeException;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+import de.jungblut.writable.VectorWritable;
+
+/**
+ * Sequential reader for binary files of feature vectors with an optional
+ * outcome vector. In contrast to a {@link DiskList} the file can be read over
+ * and over again, every iteration opens a new stream. Files are written by
+ * {@link #write(String, Iterator)}, every row is a flag denoting if an outcome
+ * follows and the vectors in the format of {@link VectorWritable}.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public final class VectorFileInputProvider extends
+    InputProvider<Tuple<DoubleVector, DoubleVector>> {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String path;
+
+  public VectorFileInputProvider(String path) {
+    this.path = path;
+  }
+
+  /**
+   * @return a new iterable that reads the file in a sequential manner. Every
+   *         row is a new tuple of the features and the outcome, the latter is
+   *         null if the row had no outcome. The iterators are
+   *         {@link Closeable} to release the file before its end.
+   */
+  @Override
+  public Iterable<Tuple<DoubleVector, DoubleVector>> iterate() {
+    return new Iterable<Tuple<DoubleVector, DoubleVector>>() {
+      @Override
+      public Iterator<Tuple<DoubleVector, DoubleVector>> iterator() {
+        return read();
+      }
+    };
+  }
+
+  private Iterator<Tuple<DoubleVector, DoubleVector>> read() {
+    try {
+      return new RowIterator(new DataInputStream(new BufferedInputStream(
+          new FileInputStream(path), BUFFER_SIZE)));
+    } catch (IOException e) {
+      throw new IORuntimeException(e);
+    }
+  }
+
+  /**
+   * Iterator over the rows of a file, closes the stream at the end of the
+   * file. Readers that stop earlier must close it on their own.
+   */
+  private static final class RowIterator extends
+      AbstractIterator<Tuple<DoubleVector, DoubleVector>> implements Closeable {
+
+    private final DataInputStream in;
+
+    RowIterator(DataInputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    protected Tuple<DoubleVector, DoubleVector> computeNext() {
+      try {
+        int flag = in.read();
+        if (flag == -1) {
+          in.close();
+          return endOfData();
+        }
+        DoubleVector features = VectorWritable.readVector(in);
+        DoubleVector outcome = flag == 1 ? VectorWritable.readVector(in)
+            : null;
+        return new Tuple<>(features, outcome);
+      } catch (IOException e) {
+        throw new IORuntimeException(e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the given rows to a new file at the given path.
+   * 
+   * @param path the path of the file, existing files are overwritten.
+   * @param rows the rows as tuple of features and outcome, the outcome can be
+   *          null.
+   */
+  public static void write(String path,
+      Iterator<Tuple<DoubleVector, DoubleVector>> rows) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(path), BUFFER_SIZE))) {
+      while (rows.hasNext()) {
+        Tuple<DoubleVector, DoubleVector> row = rows.next();
+        out.writeByte(row.getSecond() != null ? 1 : 0);
+        VectorWritable.writeVector(row.getFirst(), out);
+        if (row.getSecond() != null) {
+          VectorWritable.writeVector(row.getSecond(), out);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the given features and outcomes to a new file at the given path.
+   * 
+   * @param path the path of the file, existing files are overwritten.
+   * @param features the features.
+   * @param outcome the outcome, can be null.
+   */
+  public static void write(String path, final DoubleVector[] features,
+      final DoubleVector[] outcome) throws IOException {
+    Preconditions.checkArgument(outcome == null
+        || features.length == outcome.length,
+        "Number of examples and outcomes must match!");
+    write(path, new AbstractIterator<Tuple<DoubleVector, DoubleVector>>() {
+      int index = 0;
+
+      @Override
+      protected Tuple<DoubleVector, DoubleVector> computeNext() {
+        if (index == features.length) {
+          return endOfData();
+        }
+        DoubleVector out = outcome == null ? null : outcome[index];
+        return new Tuple<>(features[index++], out);
+      }
+    });
+  }
+
+}
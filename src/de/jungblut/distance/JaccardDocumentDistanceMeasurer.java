@@ -0,0 +1,64 @@
+package de.jungblut.distance;
+
+import java.util.Set;
+
+import de.jungblut.datastructure.InvertedIndex.BoundedDocumentDistanceMeasurer;
+
+/**
+ * Document distance measurer that measures the jaccard distance between the
+ * key sets of two documents. As the distance only depends on the number of
+ * shared keys, the inverted index can compute it from its postings without
+ * touching the documents.
+ * 
+ * @author thomas.jungblut
+ * 
+ * @param <DOCUMENT_TYPE> the type of the documents.
+ * @param <KEY_TYPE> the type of the keys of a document.
+ */
+public final class JaccardDocumentDistanceMeasurer<DOCUMENT_TYPE, KEY_TYPE>
+    implements BoundedDocumentDistanceMeasurer<DOCUMENT_TYPE, KEY_TYPE> {
+
+  private JaccardDocumentDistanceMeasurer() {
+  }
+
+  @Override
+  public double measure(DOCUMENT_TYPE reference, Set<KEY_TYPE> referenceKeys,
+      DOCUMENT_TYPE doc, Set<KEY_TYPE> docKeys) {
+    Set<KEY_TYPE> smaller = referenceKeys;
+    Set<KEY_TYPE> larger = docKeys;
+    if (smaller.size() > larger.size()) {
+      smaller = docKeys;
+      larger = referenceKeys;
+    }
+    int overlap = 0;
+    for (KEY_TYPE key : smaller) {
+      if (larger.contains(key)) {
+        overlap++;
+      }
+    }
+    return measure(referenceKeys.size(), docKeys.size(), overlap);
+  }
+
+  @Override
+  public double measure(int referenceKeySize, int docKeySize, int overlap) {
+    int union = referenceKeySize + docKeySize - overlap;
+    if (union == 0) {
+      return 0d;
+    }
+    return 1d - (overlap / (double) union);
+  }
+
+  @Override
+  public double lowerBound(int referenceKeySize, int overlap) {
+    // the union is at least as large as the reference
+    return measure(referenceKeySize, overlap, overlap);
+  }
+
+  /**
+   * @return a new jaccard measurer on the keys of the documents.
+   */
+  public static <DOCUMENT_TYPE, KEY_TYPE> JaccardDocumentDistanceMeasurer<DOCUMENT_TYPE, KEY_TYPE> create() {
+    return new JaccardDocumentDistanceMeasurer<>();
+  }
+
+}
@@ -0,0 +1,228 @@
+package de.jungblut.math.cpu;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.jungblut.math.dense.DenseDoubleMatrix;
+import de.jungblut.partition.BlockPartitioner;
+import de.jungblut.partition.Boundaries.Range;
+
+/**
+ * Matrix multiplication on the CPU that works directly on the column major
+ * arrays of {@link DenseDoubleMatrix}. Transposed operands are read in place
+ * instead of being copied, the loops are blocked to keep the operands in the
+ * cache and the result is split into row or column blocks that are computed
+ * in parallel by a shared pool of daemon threads.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public final class CPUMatrixUtils {
+
+  // the rows of the result that are computed within one block
+  private static final int ROW_BLOCK = 128;
+  // the length of the shared dimension that is computed within one block
+  private static final int INNER_BLOCK = 64;
+  // the minimum number of multiply-adds before threads are used
+  private static final long PARALLEL_THRESHOLD = 1L << 18;
+
+  private static final int NUM_THREADS = Runtime.getRuntime()
+      .availableProcessors();
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(
+      NUM_THREADS, new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("CPU Matrix Worker %d").build());
+
+  private CPUMatrixUtils() {
+    throw new IllegalAccessError();
+  }
+
+  /**
+   * Multiplies two matrices with all available processors.
+   * 
+   * @param a the left matrix.
+   * @param b the right matrix.
+   * @param aTranspose true if the transpose of a should be multiplied.
+   * @param bTranspose true if the transpose of b should be multiplied.
+   * @return a new matrix op(a) * op(b).
+   */
+  public static DenseDoubleMatrix multiply(DenseDoubleMatrix a,
+      DenseDoubleMatrix b, boolean aTranspose, boolean bTranspose) {
+    return multiply(a, b, aTranspose, bTranspose, NUM_THREADS);
+  }
+
+  /**
+   * Multiplies two matrices.
+   * 
+   * @param a the left matrix.
+   * @param b the right matrix.
+   * @param aTranspose true if the transpose of a should be multiplied.
+   * @param bTranspose true if the transpose of b should be multiplied.
+   * @param numThreads the maximum number of threads to use, capped at the
+   *          number of available processors.
+   * @return a new matrix op(a) * op(b).
+   */
+  public static DenseDoubleMatrix multiply(DenseDoubleMatrix a,
+      DenseDoubleMatrix b, boolean aTranspose, boolean bTranspose,
+      int numThreads) {
+    Preconditions.checkArgument(numThreads > 0,
+        "Number of threads must be positive! Given: " + numThreads);
+    final int m = aTranspose ? a.getColumnCount() : a.getRowCount();
+    final int k = aTranspose ? a.getRowCount() : a.getColumnCount();
+    final int kb = bTranspose ? b.getColumnCount() : b.getRowCount();
+    final int n = bTranspose ? b.getRowCount() : b.getColumnCount();
+    Preconditions.checkArgument(k == kb,
+        "Inner dimensions do not match! Given: " + k + " != " + kb);
+
+    final double[] c = new double[m * n];
+    final Kernel kernel = new Kernel(a.getColumnMajorMatrix(),
+        b.getColumnMajorMatrix(), c, m, n, k, aTranspose, bTranspose);
+
+    final int threads = Math.min(numThreads, NUM_THREADS);
+    if (threads == 1 || (long) m * n * k < PARALLEL_THRESHOLD) {
+      kernel.compute(0, m, 0, n);
+    } else {
+      // split along the larger dimension, so every thread gets enough work
+      final boolean splitRows = m > n;
+      Set<Range> ranges = new BlockPartitioner().partition(threads,
+          splitRows ? m : n).getBoundaries();
+      List<Callable<Void>> tasks = new ArrayList<>(ranges.size());
+      for (final Range range : ranges) {
+        final int start = range.getStart();
+        final int end = range.getEnd() + 1;
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            if (splitRows) {
+              kernel.compute(start, end, 0, n);
+            } else {
+              kernel.compute(0, m, start, end);
+            }
+            return null;
+          }
+        });
+      }
+      try {
+        for (Future<Void> future : POOL.invokeAll(tasks)) {
+          future.get();
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return new DenseDoubleMatrix(m, n, c);
+  }
+
+  /**
+   * Computes blocks of c = op(a) * op(b), all column major.
+   */
+  private static final class Kernel {
+
+    private final double[] a;
+    private final double[] b;
+    private final double[] c;
+    private final int m;
+    private final int n;
+    private final int k;
+    private final boolean aTranspose;
+    private final boolean bTranspose;
+
+    Kernel(double[] a, double[] b, double[] c, int m, int n, int k,
+        boolean aTranspose, boolean bTranspose) {
+      this.a = a;
+      this.b = b;
+      this.c = c;
+      this.m = m;
+      this.n = n;
+      this.k = k;
+      this.aTranspose = aTranspose;
+      this.bTranspose = bTranspose;
+    }
+
+    /**
+     * Computes the rows [rowStart, rowEnd) of the columns [colStart, colEnd).
+     */
+    void compute(int rowStart, int rowEnd, int colStart, int colEnd) {
+      if (aTranspose) {
+        computeDot(rowStart, rowEnd, colStart, colEnd);
+      } else {
+        computeAxpy(rowStart, rowEnd, colStart, colEnd);
+      }
+    }
+
+    /**
+     * The columns of a are contiguous, thus every column of c is accumulated
+     * as a sum of scaled columns of a.
+     */
+    private void computeAxpy(int rowStart, int rowEnd, int colStart,
+        int colEnd) {
+      for (int i0 = rowStart; i0 < rowEnd; i0 += ROW_BLOCK) {
+        final int i1 = Math.min(i0 + ROW_BLOCK, rowEnd);
+        for (int p0 = 0; p0 < k; p0 += INNER_BLOCK) {
+          final int p1 = Math.min(p0 + INNER_BLOCK, k);
+          for (int j = colStart; j < colEnd; j++) {
+            final int cCol = j * m;
+            for (int p = p0; p < p1; p++) {
+              final double value = bTranspose ? b[p * n + j] : b[j * k + p];
+              if (value == 0d) {
+                continue;
+              }
+              final int aCol = p * m;
+              for (int i = i0; i < i1; i++) {
+                c[cCol + i] += a[aCol + i] * value;
+              }
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * The rows of the transposed a are contiguous, thus every element of c is
+     * the dot product with a column of op(b), which is gathered into a buffer
+     * if b is transposed as well.
+     */
+    private void computeDot(int rowStart, int rowEnd, int colStart,
+        int colEnd) {
+      final double[] buffer = bTranspose ? new double[INNER_BLOCK] : null;
+      for (int p0 = 0; p0 < k; p0 += INNER_BLOCK) {
+        final int p1 = Math.min(p0 + INNER_BLOCK, k);
+        for (int i0 = rowStart; i0 < rowEnd; i0 += ROW_BLOCK) {
+          final int i1 = Math.min(i0 + ROW_BLOCK, rowEnd);
+          for (int j = colStart; j < colEnd; j++) {
+            final double[] column;
+            final int offset;
+            if (bTranspose) {
+              for (int p = p0; p < p1; p++) {
+                buffer[p - p0] = b[p * n + j];
+              }
+              column = buffer;
+              offset = -p0;
+            } else {
+              column = b;
+              offset = j * k;
+            }
+            final int cCol = j * m;
+            for (int i = i0; i < i1; i++) {
+              final int aCol = i * k;
+              double sum = 0d;
+              for (int p = p0; p < p1; p++) {
+                sum += a[aCol + p] * column[offset + p];
+              }
+              c[cCol + i] += sum;
+            }
+          }
+        }
+      }
+    }
+  }
+
+}
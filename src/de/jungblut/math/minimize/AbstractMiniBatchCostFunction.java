@@ -1,22 +1,30 @@
 package de.jungblut.math.minimize;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import de.jungblut.datastructure.ArrayUtils;
+import de.jungblut.datastructure.InputProvider;
+import de.jungblut.datastructure.VectorFileInputProvider;
 import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
 import de.jungblut.math.dense.DenseDoubleMatrix;
 import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.math.sparse.SparseDoubleRowMatrix;
@@ -30,6 +38,18 @@ import de.jungblut.partition.Boundaries.Range;
  * a new mini-batch will be evaluated, its gradient will immediately be
  * returned. <br/>
  * <br/>
+ * The workers and their gradient buffers are created once and reused for every
+ * evaluation: each worker sums the gradients of its batches in place into its
+ * own buffer, afterwards the buffers are combined pairwise in parallel. By
+ * default workers pull the next free batch, with
+ * {@link #setPinBatches(boolean)} every batch is always evaluated by the same
+ * worker. <br/>
+ * <br/>
+ * Datasets that don't fit into memory can be streamed from an
+ * {@link InputProvider}, e.g. a {@link VectorFileInputProvider}. The batches
+ * are then built on a background thread per pass while the previous ones are
+ * evaluated and only a few batches are held in memory at a time. <br/>
+ * <br/>
  * The resulting costfunction can be minimized with every normal
  * {@link Minimizer}. The extending cost functions should be as stateless as
  * possible.
@@ -37,30 +57,171 @@ import de.jungblut.partition.Boundaries.Range;
  * @author thomas.jungblut
  * 
  */
-public abstract class AbstractMiniBatchCostFunction implements CostFunction {
+public abstract class AbstractMiniBatchCostFunction implements
+    StochasticCostFunction {
 
-  private final Executor pool;
+  private final ExecutorService pool;
   private final List<Tuple<DoubleMatrix, DoubleMatrix>> batches;
   private final boolean stochastic;
   // offset for minibatches in stochastic mode
   private int batchOffset = 0;
 
-  class CallableMiniBatch implements Callable<CostGradientTuple> {
+  // only set if the batches are streamed
+  private final InputProvider<Tuple<DoubleVector, DoubleVector>> provider;
+  private final int batchSize;
+  private final ThreadFactory prefetchThreads;
+  // the current pass in stochastic streaming mode
+  private MiniBatchStream stochasticStream;
+
+  private final int numWorkers;
+  // idle evaluation states, a state is reused by the next call
+  private final Queue<Evaluation> evaluations = new ConcurrentLinkedQueue<>();
+  private volatile boolean pinBatches = false;
+
+  /**
+   * State of a single call of {@link #evaluateCost(DoubleVector)}, callers
+   * like {@link ParticleSwarmOptimization} can evaluate concurrently.
+   */
+  final class Evaluation {
+
+    private final BatchWorker[] workers;
+    // reduction steps, each level adds the buffers with a doubled stride
+    private final List<List<Reducer>> reductionLevels;
+    // next batch to pick for the workers if they aren't pinned
+    private final AtomicInteger nextBatch = new AtomicInteger();
+    private volatile DoubleVector parameters;
+    private volatile MiniBatchStream stream;
+
+    Evaluation() {
+      workers = new BatchWorker[numWorkers];
+      for (int i = 0; i < numWorkers; i++) {
+        workers[i] = new BatchWorker(this, i);
+      }
+      reductionLevels = new ArrayList<>();
+      for (int stride = 1; stride < numWorkers; stride <<= 1) {
+        List<Reducer> level = new ArrayList<>();
+        for (int i = 0; i + stride < numWorkers; i += stride << 1) {
+          level.add(new Reducer(workers[i], workers[i + stride]));
+        }
+        reductionLevels.add(level);
+      }
+    }
+
+    /**
+     * @return the summed result in the first worker.
+     */
+    BatchWorker run(DoubleVector input, MiniBatchStream stream)
+        throws Exception {
+      parameters = input;
+      this.stream = stream;
+      nextBatch.set(0);
+      try {
+        if (workers.length == 1) {
+          workers[0].call();
+        } else {
+          checkResults(pool.invokeAll(Arrays.asList(workers)));
+          for (List<Reducer> level : reductionLevels) {
+            if (level.size() == 1) {
+              level.get(0).call();
+            } else {
+              checkResults(pool.invokeAll(level));
+            }
+          }
+        }
+      } finally {
+        parameters = null;
+        this.stream = null;
+      }
+      return workers[0];
+    }
+  }
+
+  final class BatchWorker implements Callable<Void> {
 
-    private final DoubleVector parameters;
-    private final Tuple<DoubleMatrix, DoubleMatrix> featureOutcome;
+    private final Evaluation evaluation;
+    private final int id;
+    private double[] gradient;
+    private double cost;
+    private int evaluatedBatches;
 
-    public CallableMiniBatch(Tuple<DoubleMatrix, DoubleMatrix> featureOutcome,
-        DoubleVector parameters) {
-      super();
-      this.featureOutcome = featureOutcome;
-      this.parameters = parameters;
+    BatchWorker(Evaluation evaluation, int id) {
+      this.evaluation = evaluation;
+      this.id = id;
     }
 
     @Override
-    public CostGradientTuple call() throws Exception {
-      return evaluateBatch(parameters, featureOutcome.getFirst(),
-          featureOutcome.getSecond());
+    public Void call() throws Exception {
+      final DoubleVector theta = evaluation.parameters;
+      if (gradient == null || gradient.length != theta.getLength()) {
+        gradient = new double[theta.getLength()];
+      } else {
+        Arrays.fill(gradient, 0d);
+      }
+      cost = 0d;
+      evaluatedBatches = 0;
+      MiniBatchStream stream = evaluation.stream;
+      if (stream != null) {
+        Tuple<DoubleMatrix, DoubleMatrix> batch;
+        while ((batch = stream.next()) != null) {
+          accumulate(theta, batch);
+        }
+      } else if (pinBatches) {
+        for (int i = id; i < batches.size(); i += numWorkers) {
+          accumulate(theta, batches.get(i));
+        }
+      } else {
+        int i;
+        while ((i = evaluation.nextBatch.getAndIncrement()) < batches.size()) {
+          accumulate(theta, batches.get(i));
+        }
+      }
+      return null;
+    }
+
+    private void accumulate(DoubleVector theta,
+        Tuple<DoubleMatrix, DoubleMatrix> featureOutcome) {
+      CostGradientTuple result = evaluateBatch(theta,
+          featureOutcome.getFirst(), featureOutcome.getSecond());
+      cost += result.getCost();
+      evaluatedBatches++;
+      DoubleVector batchGradient = result.getGradient();
+      if (batchGradient.isSparse()) {
+        Iterator<DoubleVectorElement> iterateNonZero = batchGradient
+            .iterateNonZero();
+        while (iterateNonZero.hasNext()) {
+          DoubleVectorElement next = iterateNonZero.next();
+          gradient[next.getIndex()] += next.getValue();
+        }
+      } else {
+        // dense vectors return their backing array, thus no copy is made
+        double[] array = batchGradient.toArray();
+        for (int i = 0; i < array.length; i++) {
+          gradient[i] += array[i];
+        }
+      }
+    }
+  }
+
+  static final class Reducer implements Callable<Void> {
+
+    private final BatchWorker target;
+    private final BatchWorker source;
+
+    Reducer(BatchWorker target, BatchWorker source) {
+      this.target = target;
+      this.source = source;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      double[] targetGradient = target.gradient;
+      double[] sourceGradient = source.gradient;
+      for (int i = 0; i < targetGradient.length; i++) {
+        targetGradient[i] += sourceGradient[i];
+      }
+      target.cost += source.cost;
+      target.evaluatedBatches += source.evaluatedBatches;
+      return null;
     }
   }
 
@@ -104,6 +265,9 @@ public abstract class AbstractMiniBatchCostFunction implements CostFunction {
     Preconditions.checkArgument(numThreads >= 1,
         "#Threads need to be at least > 0");
     this.stochastic = stochastic;
+    this.provider = null;
+    this.batchSize = batchSize;
+    this.prefetchThreads = null;
 
     ThreadFactory factory = new ThreadFactoryBuilder().setDaemon(true)
         .setNameFormat("MiniBatch Worker %d").build();
@@ -122,71 +286,201 @@ public abstract class AbstractMiniBatchCostFunction implements CostFunction {
         offset += batchSize;
       }
     }
-    pool = Executors.newFixedThreadPool(stochastic ? 1 : numThreads, factory);
-
     batches = new ArrayList<>();
     for (Range r : partitions) {
       int start = r.getStart();
       int end = r.getEnd(); // inclusive
       DoubleVector[] featureSubArray = ArrayUtils.subArray(inputMatrix, start,
           end);
-      boolean sparse = featureSubArray[0].isSparse();
-      DoubleMatrix outcomeMat = null;
+      DoubleVector[] outcomeSubArray = null;
       if (outcomeMatrix != null) {
-        DoubleVector[] outcomeSubArray = ArrayUtils.subArray(outcomeMatrix,
-            start, end);
-        outcomeMat = new DenseDoubleMatrix(outcomeSubArray);
+        outcomeSubArray = ArrayUtils.subArray(outcomeMatrix, start, end);
       }
-      DenseDoubleVector bias = DenseDoubleVector.ones(featureSubArray.length);
-      DoubleMatrix featureMatrix = sparse ? new SparseDoubleRowMatrix(
-          featureSubArray) : new DenseDoubleMatrix(featureSubArray);
-      DoubleMatrix featuresWithBias = sparse ? new SparseDoubleRowMatrix(bias,
-          featureMatrix) : new DenseDoubleMatrix(bias, featureMatrix);
-      batches.add(new Tuple<>(featuresWithBias, outcomeMat));
+      batches.add(createBatch(featureSubArray, outcomeSubArray));
     }
+
+    // in stochastic mode a single batch is evaluated by the calling thread
+    numWorkers = stochastic ? 0 : Math.min(numThreads, batches.size());
+    pool = numWorkers > 1 ? Executors
+        .newFixedThreadPool(numWorkers, factory) : null;
+  }
+
+  /**
+   * An abstract minibatch costfunction that streams its batches. Every
+   * evaluation is a new pass over the provider, in stochastic mode every
+   * evaluation takes the next batch of the current pass. Note that the batches
+   * can't be accessed by their index, so {@link #getNumBatches()} and
+   * {@link #evaluateBatch(DoubleVector, int)} aren't supported.
+   * 
+   * @param provider the rows to crunch, the first item of a row are the
+   *          features, the second one the outcome that can be null for
+   *          unsupervised methods. Bias will be added while calculating the
+   *          batches. Every iteration must return new vector instances.
+   * @param batchSize the batch size to use, must be at least one.
+   * @param numThreads the number of threads to use to calculate the batches.
+   * @param stochastic if true the batches will be evaluated stochastically,
+   *          that means that each iteration the next batch is chosen to
+   *          evaluate and calculate gradient and cost.
+   */
+  public AbstractMiniBatchCostFunction(
+      InputProvider<Tuple<DoubleVector, DoubleVector>> provider,
+      int batchSize, int numThreads, boolean stochastic) {
+    Preconditions.checkArgument(batchSize > 0,
+        "Batchsize must be at least one when streaming! Given: " + batchSize);
+    Preconditions.checkArgument(numThreads >= 1,
+        "#Threads need to be at least > 0");
+    this.stochastic = stochastic;
+    this.provider = provider;
+    this.batchSize = batchSize;
+    this.batches = null;
+
+    numWorkers = stochastic ? 0 : numThreads;
+    pool = numWorkers > 1 ? Executors.newFixedThreadPool(numWorkers,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("MiniBatch Worker %d").build()) : null;
+    // every pass reads in its own thread, so concurrent evaluations don't
+    // wait for each other's producers
+    prefetchThreads = new ThreadFactoryBuilder().setDaemon(true)
+        .setNameFormat("MiniBatch Prefetcher %d").build();
+  }
+
+  /**
+   * If set to true, every batch is always evaluated by the same worker thread,
+   * so its data stays in the caches of that thread. Otherwise the workers pick
+   * the next free batch, which balances unequal batch runtimes better. Defaults
+   * to false.
+   */
+  public AbstractMiniBatchCostFunction setPinBatches(boolean pinBatches) {
+    this.pinBatches = pinBatches;
+    return this;
   }
 
   @Override
   public final CostGradientTuple evaluateCost(DoubleVector input) {
+    if (provider != null && stochastic) {
+      return evaluateNextStreamedBatch(input);
+    } else if (stochastic) {
+      Tuple<DoubleMatrix, DoubleMatrix> batch = batches.get(batchOffset);
+      // if stochastic, we will increase the batch and check for wrap-ups
+      batchOffset++;
+      if (batchOffset >= batches.size()) {
+        batchOffset = 0;
+      }
+      return evaluateBatch(input, batch.getFirst(), batch.getSecond());
+    }
 
-    ExecutorCompletionService<CostGradientTuple> completionService = new ExecutorCompletionService<>(
-        pool);
-
-    int submittedBatches = 0;
-    // submit all batches to the service, pool will take care of the parallelism
-    for (int i = batchOffset; i < batches.size(); i++) {
-      completionService.submit(new CallableMiniBatch(batches.get(i), input));
-      submittedBatches++;
-      if (stochastic) {
-        // if stochastic, we will increase the batch
-        batchOffset++;
-        // check for wrap-ups
-        if (batchOffset >= batches.size()) {
-          batchOffset = 0;
-        }
-        break;
+    Evaluation evaluation = evaluations.poll();
+    if (evaluation == null) {
+      evaluation = new Evaluation();
+    }
+    BatchWorker result;
+    MiniBatchStream stream = null;
+    try {
+      if (provider != null) {
+        stream = newStream();
+      }
+      result = evaluation.run(input, stream);
+    } catch (Exception e) {
+      if (stream != null) {
+        stream.cancel();
       }
+      e.printStackTrace();
+      // return null so minimizers should fast-fail
+      return null;
     }
-    double costSum = 0d;
-    DoubleVector gradientSum = new DenseDoubleVector(input.getLength());
+    Preconditions.checkArgument(result.evaluatedBatches > 0,
+        "There were no batches to evaluate!");
+
+    // the returned gradient can be retained by minimizers, so copy the sum
+    int submittedBatches = result.evaluatedBatches;
+    double[] gradient = new double[result.gradient.length];
+    for (int i = 0; i < gradient.length; i++) {
+      gradient[i] = result.gradient[i] / submittedBatches;
+    }
+    double cost = result.cost / submittedBatches;
+    evaluations.offer(evaluation);
+    // just return an average over the batches
+    return new CostGradientTuple(cost, new DenseDoubleVector(gradient));
+  }
+
+  private CostGradientTuple evaluateNextStreamedBatch(DoubleVector input) {
     try {
-      // now collect the results
-      for (int i = 0; i < submittedBatches; i++) {
-        CostGradientTuple result = completionService.take().get();
-        costSum += result.getCost();
-        gradientSum = gradientSum.add(result.getGradient());
+      if (stochasticStream == null) {
+        stochasticStream = newStream();
+      }
+      Tuple<DoubleMatrix, DoubleMatrix> batch = stochasticStream.next();
+      if (batch == null) {
+        // wrap-up and start the next pass
+        stochasticStream = newStream();
+        batch = stochasticStream.next();
+      }
+      Preconditions.checkArgument(batch != null,
+          "There were no batches to evaluate!");
+      return evaluateBatch(input, batch.getFirst(), batch.getSecond());
+    } catch (InterruptedException | RuntimeException e) {
+      if (stochasticStream != null) {
+        stochasticStream.cancel();
+        stochasticStream = null;
       }
-    } catch (InterruptedException | ExecutionException e) {
       e.printStackTrace();
       // return null so minimizers should fast-fail
       return null;
     }
-    if (submittedBatches != 1) {
-      // just return an average over the batches
-      return new CostGradientTuple(costSum / submittedBatches,
-          gradientSum.divide(submittedBatches));
-    } else {
-      return new CostGradientTuple(costSum, gradientSum);
+  }
+
+  private MiniBatchStream newStream() {
+    // read one batch ahead for every worker
+    return new MiniBatchStream(provider, batchSize, Math.max(1, numWorkers),
+        prefetchThreads);
+  }
+
+  @Override
+  public final int getNumBatches() {
+    checkNotStreaming();
+    return batches.size();
+  }
+
+  @Override
+  public final CostGradientTuple evaluateBatch(DoubleVector input,
+      int batchIndex) {
+    checkNotStreaming();
+    Tuple<DoubleMatrix, DoubleMatrix> batch = batches.get(batchIndex);
+    return evaluateBatch(input, batch.getFirst(), batch.getSecond());
+  }
+
+  private void checkNotStreaming() {
+    if (provider != null) {
+      throw new UnsupportedOperationException(
+          "Streamed batches can't be accessed by their index!");
+    }
+  }
+
+  /**
+   * Creates the batch matrices, the features are prepended by a bias.
+   * 
+   * @param features the features of the batch.
+   * @param outcome the outcome of the batch, can be null.
+   * @return a tuple of features and outcome matrix.
+   */
+  static Tuple<DoubleMatrix, DoubleMatrix> createBatch(
+      DoubleVector[] features, DoubleVector[] outcome) {
+    boolean sparse = features[0].isSparse();
+    DoubleMatrix outcomeMat = null;
+    if (outcome != null) {
+      outcomeMat = new DenseDoubleMatrix(outcome);
+    }
+    DenseDoubleVector bias = DenseDoubleVector.ones(features.length);
+    DoubleMatrix featureMatrix = sparse ? new SparseDoubleRowMatrix(features)
+        : new DenseDoubleMatrix(features);
+    DoubleMatrix featuresWithBias = sparse ? new SparseDoubleRowMatrix(bias,
+        featureMatrix) : new DenseDoubleMatrix(bias, featureMatrix);
+    return new Tuple<>(featuresWithBias, outcomeMat);
+  }
+
+  private static void checkResults(List<Future<Void>> futures)
+      throws InterruptedException, ExecutionException {
+    for (Future<Void> future : futures) {
+      future.get();
     }
   }
 
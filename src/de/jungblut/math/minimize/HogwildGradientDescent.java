@@ -0,0 +1,309 @@
+package de.jungblut.math.minimize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+/**
+ * Asynchronous stochastic gradient descent in the fashion of "Hogwild!" (Niu,
+ * Recht, Re, Wright 2011). Multiple threads evaluate the batches of a
+ * {@link StochasticCostFunction} and apply their gradients to a single shared
+ * parameter array without any locking. If the gradients are sparse, updates
+ * rarely collide and the minimization scales with the number of cores. The
+ * batches are evaluated on the shared parameters as well, so a cost function
+ * may read parameters that are concurrently updated and must not modify or
+ * retain the given vector. <br/>
+ * <br/>
+ * An iteration is a pass over all batches in random order, the reported cost
+ * is the average of the batch costs seen during the pass. Cost functions that
+ * aren't stochastic are treated as a single batch. For configuration use the
+ * {@link HogwildGradientDescentBuilder}.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public final class HogwildGradientDescent extends AbstractMinimizer {
+
+  private static final Log LOG = LogFactory
+      .getLog(HogwildGradientDescent.class);
+
+  private static final int COST_HISTORY = 3;
+
+  public static class HogwildGradientDescentBuilder {
+
+    private final double alpha;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private double breakDifference;
+    private double momentum;
+    private int annealingIteration = -1;
+    private long seed = System.currentTimeMillis();
+
+    private HogwildGradientDescentBuilder(double alpha) {
+      this.alpha = alpha;
+    }
+
+    public HogwildGradientDescent build() {
+      return new HogwildGradientDescent(this);
+    }
+
+    /**
+     * Sets the number of threads that update the parameters concurrently,
+     * defaults to the number of available processors.
+     * 
+     * @param numThreads the number of threads.
+     * @return the builder again.
+     */
+    public HogwildGradientDescentBuilder numThreads(int numThreads) {
+      Preconditions.checkArgument(numThreads > 0,
+          "Number of threads must be at least one.");
+      this.numThreads = numThreads;
+      return this;
+    }
+
+    /**
+     * Add momentum to this gradient descent minimizer. Every parameter keeps a
+     * velocity that is decayed by the momentum and added on each update.
+     * 
+     * @param momentum the momentum to use. Between 0 and 1.
+     * @return the builder again.
+     */
+    public HogwildGradientDescentBuilder momentum(double momentum) {
+      Preconditions.checkArgument(momentum >= 0d && momentum <= 1d,
+          "Momentum must be between 0 and 1.");
+      this.momentum = momentum;
+      return this;
+    }
+
+    /**
+     * Breaks minimization process when the given delta in costs between two
+     * iterations have been archieved. Usually a quite low value of 1e-4 to
+     * 1e-8.
+     * 
+     * @param delta the delta to break in difference between two costs.
+     * @return the builder again.
+     */
+    public HogwildGradientDescentBuilder breakOnDifference(double delta) {
+      this.breakDifference = delta;
+      return this;
+    }
+
+    /**
+     * Sets a simple annealing (alpha / (1+current_iteration / phi)) where phi
+     * is the given parameter here. This will gradually lower the global
+     * learning rate after the given amount of iterations.
+     * 
+     * @param iteration the iteration to start annealing.
+     * @return the builder again.
+     */
+    public HogwildGradientDescentBuilder annealingAfter(int iteration) {
+      Preconditions.checkArgument(iteration > 0,
+          "Annealing can only kick in after the first iteration! Given: "
+              + iteration);
+      this.annealingIteration = iteration;
+      return this;
+    }
+
+    /**
+     * Sets the seed for the order of the batches.
+     * 
+     * @return the builder again.
+     */
+    public HogwildGradientDescentBuilder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * Creates a new builder.
+     * 
+     * @param alpha the learning rate to set.
+     * @return a new builder.
+     */
+    public static HogwildGradientDescentBuilder create(double alpha) {
+      return new HogwildGradientDescentBuilder(alpha);
+    }
+
+  }
+
+  private final double alpha;
+  private final int numThreads;
+  private final double breakDifference;
+  private final double momentum;
+  private final int annealingIteration;
+  private final long seed;
+
+  private HogwildGradientDescent(HogwildGradientDescentBuilder builder) {
+    this.alpha = builder.alpha;
+    this.numThreads = builder.numThreads;
+    this.breakDifference = builder.breakDifference;
+    this.momentum = builder.momentum;
+    this.annealingIteration = builder.annealingIteration;
+    this.seed = builder.seed;
+  }
+
+  @Override
+  public final DoubleVector minimize(CostFunction f, DoubleVector pInput,
+      final int maxIterations, boolean verbose) {
+    StochasticCostFunction stochastic = null;
+    if (f instanceof StochasticCostFunction) {
+      stochastic = (StochasticCostFunction) f;
+    }
+    final int numBatches = stochastic == null ? 1 : stochastic
+        .getNumBatches();
+    // the workers evaluate on this vector, its backing array is updated
+    final DenseDoubleVector sharedTheta = new DenseDoubleVector(
+        pInput.getLength());
+    final double[] theta = sharedTheta.toArray();
+    System.arraycopy(pInput.toArray(), 0, theta, 0, theta.length);
+    final double[] velocity = momentum != 0d ? new double[theta.length] : null;
+    final int[] order = new int[numBatches];
+    for (int i = 0; i < numBatches; i++) {
+      order[i] = i;
+    }
+    final AtomicInteger nextBatch = new AtomicInteger();
+    final Random random = new Random(seed);
+
+    int threads = Math.min(numThreads, numBatches);
+    ThreadFactory factory = new ThreadFactoryBuilder().setDaemon(true)
+        .setNameFormat("Hogwild Worker %d").build();
+    ExecutorService pool = Executors.newFixedThreadPool(threads, factory);
+    List<Worker> workers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      workers.add(new Worker(f, stochastic, sharedTheta, velocity, order,
+          nextBatch));
+    }
+
+    double[] lastCosts = new double[COST_HISTORY];
+    Arrays.fill(lastCosts, Double.MAX_VALUE);
+    final int lastIndex = lastCosts.length - 1;
+    try {
+      for (int iteration = 0; iteration < maxIterations; iteration++) {
+        double alpha = this.alpha;
+        if (annealingIteration > 0) {
+          // always pick the initial learning rate
+          alpha = this.alpha / (1d + iteration / annealingIteration);
+        }
+        shuffle(order, random);
+        nextBatch.set(0);
+        double costSum = 0d;
+        for (Worker worker : workers) {
+          worker.alpha = alpha;
+        }
+        for (Future<Double> future : pool.invokeAll(workers)) {
+          costSum += future.get();
+        }
+        double cost = costSum / numBatches;
+        if (verbose) {
+          LOG.info("Iteration " + iteration + " | Cost: " + cost + "\r");
+        }
+        onIterationFinished(iteration, cost, new DenseDoubleVector(theta));
+        GradientDescent.shiftLeft(lastCosts);
+        lastCosts[lastIndex] = cost;
+        if (GradientDescent.converged(lastCosts, breakDifference)) {
+          break;
+        }
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    return new DenseDoubleVector(theta);
+  }
+
+  private static void shuffle(int[] order, Random random) {
+    for (int i = order.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+    }
+  }
+
+  /**
+   * Evaluates batches until the pass is done and applies their gradients to
+   * the shared parameters.
+   */
+  private final class Worker implements Callable<Double> {
+
+    private final CostFunction f;
+    private final StochasticCostFunction stochastic;
+    private final DoubleVector sharedTheta;
+    private final double[] theta;
+    private final double[] velocity;
+    private final int[] order;
+    private final AtomicInteger nextBatch;
+    private double alpha;
+
+    Worker(CostFunction f, StochasticCostFunction stochastic,
+        DenseDoubleVector sharedTheta, double[] velocity, int[] order,
+        AtomicInteger nextBatch) {
+      this.f = f;
+      this.stochastic = stochastic;
+      this.sharedTheta = sharedTheta;
+      this.theta = sharedTheta.toArray();
+      this.velocity = velocity;
+      this.order = order;
+      this.nextBatch = nextBatch;
+    }
+
+    @Override
+    public Double call() throws Exception {
+      final double alpha = this.alpha;
+      double costSum = 0d;
+      int batch;
+      while ((batch = nextBatch.getAndIncrement()) < order.length) {
+        // no copy, the batch sees the updates of the other threads as they
+        // happen
+        CostGradientTuple result = stochastic == null ? f
+            .evaluateCost(sharedTheta) : stochastic.evaluateBatch(sharedTheta,
+            order[batch]);
+        costSum += result.getCost();
+        DoubleVector gradient = result.getGradient();
+        if (gradient.isSparse()) {
+          Iterator<DoubleVectorElement> iterateNonZero = gradient
+              .iterateNonZero();
+          while (iterateNonZero.hasNext()) {
+            DoubleVectorElement next = iterateNonZero.next();
+            update(next.getIndex(), next.getValue(), alpha);
+          }
+        } else {
+          for (int i = 0; i < theta.length; i++) {
+            update(i, gradient.get(i), alpha);
+          }
+        }
+      }
+      return costSum;
+    }
+
+    private void update(int index, double gradient, double alpha) {
+      if (velocity != null) {
+        velocity[index] = momentum * velocity[index] - alpha * gradient;
+        theta[index] += velocity[index];
+      } else {
+        theta[index] -= alpha * gradient;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+package de.jungblut.math.minimize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.datastructure.InputProvider;
+import de.jungblut.math.DoubleMatrix;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+/**
+ * A single pass over the rows of an {@link InputProvider}. The rows are
+ * grouped into batch matrices on a background thread, that runs ahead of the
+ * consumers by a bounded number of batches. Thus only the batches in the
+ * queue and the ones currently evaluated are held in memory. Every stream has
+ * its own thread, a producer blocked on its full queue can't stall the
+ * consumers of another stream. Iterators of the provider that are
+ * {@link Closeable} are closed once the pass ends, fails or is cancelled.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+final class MiniBatchStream {
+
+  private static final Tuple<DoubleMatrix, DoubleMatrix> END = new Tuple<>(
+      null, null);
+
+  private final BlockingQueue<Tuple<DoubleMatrix, DoubleMatrix>> queue;
+  private final Thread producer;
+  private volatile RuntimeException failure;
+
+  /**
+   * Starts reading the provider in a new thread.
+   * 
+   * @param provider the rows, features with an optional outcome.
+   * @param batchSize the number of rows in a batch.
+   * @param prefetch the number of batches that are read ahead.
+   * @param threadFactory the factory of the reading thread.
+   */
+  MiniBatchStream(
+      final InputProvider<Tuple<DoubleVector, DoubleVector>> provider,
+      final int batchSize, int prefetch, ThreadFactory threadFactory) {
+    this.queue = new ArrayBlockingQueue<>(prefetch);
+    this.producer = threadFactory.newThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          produce(provider, batchSize);
+        } catch (InterruptedException e) {
+          // cancelled, nobody is waiting anymore
+          return;
+        } catch (RuntimeException e) {
+          failure = e;
+        }
+        try {
+          queue.put(END);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    this.producer.start();
+  }
+
+  private void produce(
+      InputProvider<Tuple<DoubleVector, DoubleVector>> provider, int batchSize)
+      throws InterruptedException {
+    Iterator<Tuple<DoubleVector, DoubleVector>> rows = provider.iterate()
+        .iterator();
+    try {
+      List<DoubleVector> features = new ArrayList<>(batchSize);
+      List<DoubleVector> outcomes = new ArrayList<>(batchSize);
+      while (rows.hasNext()) {
+        Tuple<DoubleVector, DoubleVector> row = rows.next();
+        // the outcome rows must line up with the feature rows
+        Preconditions.checkArgument(features.isEmpty()
+            || outcomes.isEmpty() == (row.getSecond() == null),
+            "Either all or none of the rows of a batch must have an outcome!");
+        features.add(row.getFirst());
+        if (row.getSecond() != null) {
+          outcomes.add(row.getSecond());
+        }
+        if (features.size() == batchSize) {
+          queue.put(createBatch(features, outcomes));
+          features.clear();
+          outcomes.clear();
+        }
+      }
+      if (!features.isEmpty()) {
+        queue.put(createBatch(features, outcomes));
+      }
+    } finally {
+      close(rows);
+    }
+  }
+
+  private static void close(Iterator<?> rows) {
+    if (rows instanceof Closeable) {
+      try {
+        ((Closeable) rows).close();
+      } catch (IOException e) {
+        // the pass is over, nothing to recover
+      }
+    }
+  }
+
+  private static Tuple<DoubleMatrix, DoubleMatrix> createBatch(
+      List<DoubleVector> features, List<DoubleVector> outcomes) {
+    return AbstractMiniBatchCostFunction.createBatch(features
+        .toArray(new DoubleVector[features.size()]), outcomes.isEmpty() ? null
+        : outcomes.toArray(new DoubleVector[outcomes.size()]));
+  }
+
+  /**
+   * Blocks until the next batch is available. Can be called by multiple
+   * consumers concurrently.
+   * 
+   * @return the next batch or null if the pass is finished.
+   */
+  Tuple<DoubleMatrix, DoubleMatrix> next() throws InterruptedException {
+    Tuple<DoubleMatrix, DoubleMatrix> batch = queue.take();
+    if (batch == END) {
+      // make the end visible to the other consumers
+      queue.put(END);
+      if (failure != null) {
+        throw failure;
+      }
+      return null;
+    }
+    return batch;
+  }
+
+  /**
+   * Stops reading ahead, the stream can't be used anymore.
+   */
+  void cancel() {
+    producer.interrupt();
+  }
+
+}
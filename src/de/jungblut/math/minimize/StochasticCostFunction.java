@@ -0,0 +1,31 @@
+package de.jungblut.math.minimize;
+
+import de.jungblut.math.DoubleVector;
+
+/**
+ * Cost function whose objective is an average over independent batches of the
+ * data. Stochastic minimizers like {@link HogwildGradientDescent} evaluate the
+ * batches one by one instead of the whole function.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public interface StochasticCostFunction extends CostFunction {
+
+  /**
+   * @return the number of batches, at least one.
+   */
+  public int getNumBatches();
+
+  /**
+   * Evaluates the cost and gradient of a single batch. Implementations must be
+   * safe to be called concurrently.
+   * 
+   * @param input the given parameters.
+   * @param batchIndex the index of the batch, between zero and
+   *          {@link #getNumBatches()} exclusive.
+   * @return a tuple of the cost and gradient of the batch.
+   */
+  public CostGradientTuple evaluateBatch(DoubleVector input, int batchIndex);
+
+}
@@ -1,17 +1,27 @@
 package de.jungblut.nlp;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Preconditions;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import de.jungblut.datastructure.ArrayUtils;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.DoubleVector.DoubleVectorElement;
+import de.jungblut.partition.BlockPartitioner;
+import de.jungblut.partition.Boundaries.Range;
 
 /**
  * Linear MinHash algorithm to find near duplicates faster or to speedup nearest
@@ -27,7 +37,13 @@ public final class MinHash {
    */
 
   public static enum HashType {
-    LINEAR, MURMUR128, MD5
+    LINEAR, MURMUR128, MD5,
+    /**
+     * Derives all hashes from two 64 bit base hashes of an element by double
+     * hashing (h1 + i * h2), so the vector is only iterated once and nothing
+     * is allocated per element.
+     */
+    DOUBLE_HASHING
   }
 
   abstract class HashFunction {
@@ -102,6 +118,9 @@ public final class MinHash {
   private final int numHashes;
 
   private final HashFunction[] functions;
+  // seeds of the base hashes for double hashing
+  private final long seed1;
+  private final long seed2;
 
   private MinHash(int numHashes) {
     this(numHashes, HashType.LINEAR, System.currentTimeMillis());
@@ -113,9 +132,17 @@ public final class MinHash {
 
   private MinHash(int numHashes, HashType type, long seed) {
     this.numHashes = numHashes;
-    this.functions = new HashFunction[numHashes];
     Random r = new Random(seed);
-    for (int i = 0; i < numHashes; i++) {
+    if (type == HashType.DOUBLE_HASHING) {
+      this.seed1 = r.nextLong();
+      this.seed2 = r.nextLong();
+      this.functions = null;
+    } else {
+      this.seed1 = 0L;
+      this.seed2 = 0L;
+      this.functions = new HashFunction[numHashes];
+    }
+    for (int i = 0; functions != null && i < numHashes; i++) {
       switch (type) {
         case LINEAR:
           functions[i] = new LinearHashFunction(r.nextInt(), r.nextInt());
@@ -143,18 +170,22 @@ public final class MinHash {
    */
   public int[] minHashVector(DoubleVector vector) {
     int[] minHashes = new int[numHashes];
-    byte[] bytesToHash = new byte[4];
     Arrays.fill(minHashes, Integer.MAX_VALUE);
-
-    for (int i = 0; i < numHashes; i++) {
-      Iterator<DoubleVectorElement> iterateNonZero = vector.iterateNonZero();
-      while (iterateNonZero.hasNext()) {
-        DoubleVectorElement next = iterateNonZero.next();
-        int value = (int) next.getValue();
-        bytesToHash[0] = (byte) (value >> 24);
-        bytesToHash[1] = (byte) (value >> 16);
-        bytesToHash[2] = (byte) (value >> 8);
-        bytesToHash[3] = (byte) value;
+    if (functions == null) {
+      minHashDoubleHashing(vector, minHashes);
+      return minHashes;
+    }
+    byte[] bytesToHash = new byte[4];
+    // a single pass over the vector, every element is hashed by all functions
+    Iterator<DoubleVectorElement> iterateNonZero = vector.iterateNonZero();
+    while (iterateNonZero.hasNext()) {
+      DoubleVectorElement next = iterateNonZero.next();
+      int value = (int) next.getValue();
+      bytesToHash[0] = (byte) (value >> 24);
+      bytesToHash[1] = (byte) (value >> 16);
+      bytesToHash[2] = (byte) (value >> 8);
+      bytesToHash[3] = (byte) value;
+      for (int i = 0; i < numHashes; i++) {
         int hash = functions[i].hash(bytesToHash);
         if (minHashes[i] > hash) {
           minHashes[i] = hash;
@@ -165,6 +196,87 @@ public final class MinHash {
     return minHashes;
   }
 
+  /**
+   * Min hashes the given vectors on the given number of threads.
+   * 
+   * @param vectors the vectors to hash.
+   * @param numThreads the number of threads to hash with.
+   * @return the min hashes for each vector in the same order, see
+   *         {@link #minHashVector(DoubleVector)}.
+   */
+  public int[][] minHashVectors(final List<DoubleVector> vectors,
+      int numThreads) {
+    Preconditions.checkArgument(numThreads > 0,
+        "Number of threads must be at least one.");
+    final int[][] result = new int[vectors.size()][];
+    int threads = Math.min(numThreads, vectors.size());
+    if (threads <= 1) {
+      for (int i = 0; i < result.length; i++) {
+        result[i] = minHashVector(vectors.get(i));
+      }
+      return result;
+    }
+    List<Callable<Void>> batches = new ArrayList<>(threads);
+    for (final Range range : new BlockPartitioner().partition(threads,
+        vectors.size()).getBoundaries()) {
+      batches.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int i = range.getStart(); i <= range.getEnd(); i++) {
+            result[i] = minHashVector(vectors.get(i));
+          }
+          return null;
+        }
+      });
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("MinHash Worker %d").build());
+    try {
+      for (Future<Void> future : pool.invokeAll(batches)) {
+        future.get();
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    } finally {
+      pool.shutdownNow();
+    }
+    return result;
+  }
+
+  /**
+   * Double hashing of every element, the i-th hash is the upper half of h1 +
+   * i * h2, where h2 is odd to reach all values.
+   */
+  private void minHashDoubleHashing(DoubleVector vector, int[] minHashes) {
+    Iterator<DoubleVectorElement> iterateNonZero = vector.iterateNonZero();
+    while (iterateNonZero.hasNext()) {
+      int value = (int) iterateNonZero.next().getValue();
+      long h1 = mix(value ^ seed1);
+      long h2 = mix(value ^ seed2) | 1L;
+      long hash = h1;
+      for (int i = 0; i < numHashes; i++) {
+        int h = (int) (hash >>> 32);
+        if (minHashes[i] > h) {
+          minHashes[i] = h;
+        }
+        hash += h2;
+      }
+    }
+  }
+
+  /**
+   * The 64 bit finalizer of murmur3.
+   */
+  private static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
   /**
    * Measures the similarity between two min hash arrays by comparing the hashes
    * at the same index. This is assuming that both arrays having the same size.
@@ -0,0 +1,285 @@
+package de.jungblut.nlp;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TObjectProcedure;
+import gnu.trove.set.hash.TIntHashSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Locality sensitive hashing index for {@link MinHash} signatures. A signature
+ * is cut into bands of a few rows each, two documents become candidates if
+ * all rows of at least one band are equal. With b bands of r rows, documents
+ * with a jaccard similarity s collide with the probability 1-(1-s^r)^b, which
+ * is a steep s-curve around (1/b)^(1/r). <br/>
+ * <br/>
+ * Every band has its own table from the 64 bit hash of the rows to the ids of
+ * the documents. Candidates are verified by the fraction of equal hashes in
+ * their signatures, which is an estimate of their jaccard similarity.
+ * 
+ * @author thomas.jungblut
+ * 
+ */
+public final class MinHashLSH {
+
+  /**
+   * A pair of similar documents, the left id is always smaller than the right.
+   */
+  public static final class CandidatePair {
+
+    private final int left;
+    private final int right;
+    private final double similarity;
+
+    CandidatePair(int left, int right, double similarity) {
+      this.left = left;
+      this.right = right;
+      this.similarity = similarity;
+    }
+
+    public int getLeft() {
+      return this.left;
+    }
+
+    public int getRight() {
+      return this.right;
+    }
+
+    /**
+     * @return the estimated jaccard similarity.
+     */
+    public double getSimilarity() {
+      return this.similarity;
+    }
+
+    @Override
+    public String toString() {
+      return left + " <-> " + right + " = " + similarity;
+    }
+  }
+
+  private final int numBands;
+  private final int rowsPerBand;
+  private final TLongObjectHashMap<TIntArrayList>[] bands;
+  private final TIntObjectHashMap<int[]> signatures = new TIntObjectHashMap<>();
+  // the length of all signatures, set by the first insert
+  private int signatureLength = -1;
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private MinHashLSH(int numBands, int rowsPerBand) {
+    Preconditions.checkArgument(numBands > 0 && rowsPerBand > 0,
+        "Number of bands and rows must be positive!");
+    this.numBands = numBands;
+    this.rowsPerBand = rowsPerBand;
+    this.bands = new TLongObjectHashMap[numBands];
+    for (int i = 0; i < numBands; i++) {
+      bands[i] = new TLongObjectHashMap<>();
+    }
+  }
+
+  /**
+   * Inserts the signature of a document.
+   * 
+   * @param id the id of the document, must be unique.
+   * @param signature the min hashes of the document, at least as many as
+   *          bands times rows. All signatures must have the length of the
+   *          first inserted one.
+   */
+  public void insert(int id, int[] signature) {
+    checkSignature(signature);
+    Preconditions.checkArgument(!signatures.containsKey(id), "Id " + id
+        + " was already inserted!");
+    signatureLength = signature.length;
+    signatures.put(id, signature);
+    for (int band = 0; band < numBands; band++) {
+      long key = hashBand(signature, band);
+      TIntArrayList bucket = bands[band].get(key);
+      if (bucket == null) {
+        bucket = new TIntArrayList(2);
+        bands[band].put(key, bucket);
+      }
+      bucket.add(id);
+    }
+  }
+
+  /**
+   * @return the ids of all documents that share at least a single band with
+   *         the given signature.
+   */
+  public int[] query(int[] signature) {
+    checkSignature(signature);
+    TIntHashSet candidates = new TIntHashSet();
+    for (int band = 0; band < numBands; band++) {
+      TIntArrayList bucket = bands[band].get(hashBand(signature, band));
+      if (bucket != null) {
+        candidates.addAll(bucket);
+      }
+    }
+    return candidates.toArray();
+  }
+
+  /**
+   * @return the ids of all candidate documents whose estimated similarity to
+   *         the given signature is at least the threshold.
+   */
+  public int[] query(int[] signature, double threshold) {
+    TIntArrayList result = new TIntArrayList();
+    for (int id : query(signature)) {
+      if (estimateSimilarity(signature, signatures.get(id)) >= threshold) {
+        result.add(id);
+      }
+    }
+    return result.toArray();
+  }
+
+  /**
+   * @return all pairs of inserted documents that share at least a single band
+   *         and whose estimated similarity is at least the threshold.
+   */
+  public List<CandidatePair> findPairs(final double threshold) {
+    final List<CandidatePair> pairs = new ArrayList<>();
+    final TLongHashSet seen = new TLongHashSet();
+    for (TLongObjectHashMap<TIntArrayList> band : bands) {
+      band.forEachValue(new TObjectProcedure<TIntArrayList>() {
+        @Override
+        public boolean execute(TIntArrayList bucket) {
+          for (int i = 0; i < bucket.size(); i++) {
+            for (int j = i + 1; j < bucket.size(); j++) {
+              int left = Math.min(bucket.get(i), bucket.get(j));
+              int right = Math.max(bucket.get(i), bucket.get(j));
+              if (seen.add(((long) left << 32) | (right & 0xffffffffL))) {
+                double similarity = estimateSimilarity(signatures.get(left),
+                    signatures.get(right));
+                if (similarity >= threshold) {
+                  pairs.add(new CandidatePair(left, right, similarity));
+                }
+              }
+            }
+          }
+          return true;
+        }
+      });
+    }
+    return pairs;
+  }
+
+  /**
+   * Builds the index from the given signatures, the id of a document is its
+   * index in the array.
+   * 
+   * @return all pairs of documents with an estimated similarity of at least
+   *         the threshold, see {@link #findPairs(double)}.
+   */
+  public List<CandidatePair> bulkBuild(int[][] signatures, double threshold) {
+    for (int i = 0; i < signatures.length; i++) {
+      insert(i, signatures[i]);
+    }
+    return findPairs(threshold);
+  }
+
+  /**
+   * @return the number of inserted documents.
+   */
+  public int size() {
+    return signatures.size();
+  }
+
+  /**
+   * @return the fraction of equal hashes at the same position, which is an
+   *         unbiased estimate of the jaccard similarity of the documents.
+   */
+  public static double estimateSimilarity(int[] left, int[] right) {
+    Preconditions.checkArgument(left.length == right.length,
+        "Left length was not equal to right length! " + left.length + " != "
+            + right.length);
+    if (left.length == 0) {
+      return 0d;
+    }
+    int equal = 0;
+    for (int i = 0; i < left.length; i++) {
+      if (left[i] == right[i]) {
+        equal++;
+      }
+    }
+    return equal / (double) left.length;
+  }
+
+  private long hashBand(int[] signature, int band) {
+    // 64 bit FNV-1a over the rows, seeded with the band
+    long hash = 0xcbf29ce484222325L ^ band;
+    final int start = band * rowsPerBand;
+    for (int i = start; i < start + rowsPerBand; i++) {
+      hash ^= signature[i];
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private void checkSignature(int[] signature) {
+    Preconditions.checkArgument(signature.length >= numBands * rowsPerBand,
+        "Signature needs at least " + numBands * rowsPerBand
+            + " hashes! Given: " + signature.length);
+    // the similarity is only defined for signatures of the same length
+    Preconditions.checkArgument(signatureLength < 0
+        || signature.length == signatureLength, "Signature must have "
+        + signatureLength + " hashes like the inserted ones! Given: "
+        + signature.length);
+  }
+
+  /**
+   * Creates a new index with the given number of bands and rows per band.
+   */
+  public static MinHashLSH create(int numBands, int rowsPerBand) {
+    return new MinHashLSH(numBands, rowsPerBand);
+  }
+
+  /**
+   * Creates a new index for signatures of the given length. The bands and rows
+   * are chosen to minimize the weighted sum of false positives and false
+   * negatives around the given similarity threshold.
+   */
+  public static MinHashLSH create(int numHashes, double threshold) {
+    Preconditions.checkArgument(threshold > 0d && threshold < 1d,
+        "Threshold must be between 0 and 1! Given: " + threshold);
+    int bestBands = 1;
+    int bestRows = numHashes;
+    double bestError = Double.MAX_VALUE;
+    for (int rows = 1; rows <= numHashes; rows++) {
+      int bands = numHashes / rows;
+      double falsePositives = integrateCollision(bands, rows, 0d, threshold);
+      double falseNegatives = (1d - threshold)
+          - integrateCollision(bands, rows, threshold, 1d);
+      double error = falsePositives + falseNegatives;
+      if (error < bestError) {
+        bestError = error;
+        bestBands = bands;
+        bestRows = rows;
+      }
+    }
+    return new MinHashLSH(bestBands, bestRows);
+  }
+
+  /**
+   * Integrates the collision probability 1-(1-s^r)^b between the given
+   * similarities by the trapezoidal rule.
+   */
+  private static double integrateCollision(int bands, int rows, double from,
+      double to) {
+    final int steps = 100;
+    double step = (to - from) / steps;
+    double sum = 0d;
+    for (int i = 0; i <= steps; i++) {
+      double s = from + i * step;
+      double p = 1d - Math.pow(1d - Math.pow(s, rows), bands);
+      sum += (i == 0 || i == steps) ? p / 2d : p;
+    }
+    return sum * step;
+  }
+
+}
@@ -3,9 +3,12 @@ package de.jungblut.writable;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.DoubleVector.DoubleVectorElement;
@@ -17,14 +20,48 @@ import de.jungblut.math.sparse.SparseDoubleVector;
  * New and updated VectorWritable class that has all the other fancy
  * combinations of vectors that are possible in my math library.<br/>
  * This class is not compatible to the one in the clustering package that has a
- * totally other byte alignment in binary files.
+ * totally other byte alignment in binary files.<br/>
+ * <br/>
+ * Vectors can be written in a compact {@link Encoding} with variable length
+ * sparse indices and optionally float values. Reading detects the encoding by
+ * the first byte, so files in the plain encoding can still be read.
  * 
  * @author thomas.jungblut
  * 
  */
 public final class VectorWritable implements WritableComparable<VectorWritable> {
 
+  /**
+   * The binary encodings of a vector.
+   */
+  public static enum Encoding {
+    /**
+     * Every sparse element as an int index and a double value, every dense
+     * element as a double. This is the format of all existing files.
+     */
+    PLAIN,
+    /**
+     * Sparse indices as variable length gaps and all values as doubles.
+     */
+    COMPACT,
+    /**
+     * Same as {@link #COMPACT}, but the values are rounded to floats.
+     */
+    COMPACT_FLOAT
+  }
+
+  // the plain encoding starts with a boolean, the compact encoding has the
+  // version in the upper and the flags in the lower bits of the first byte
+  private static final int COMPACT_VERSION = 0x10;
+  private static final int SPARSE_FLAG = 0x01;
+  private static final int FLOAT_FLAG = 0x02;
+  private static final int NAMED_FLAG = 0x04;
+  private static final int COMPACT_FLAGS = SPARSE_FLAG | FLOAT_FLAG
+      | NAMED_FLAG;
+  private static final int BUFFER_SIZE = 8192;
+
   private DoubleVector vector;
+  private Encoding encoding = Encoding.PLAIN;
 
   public VectorWritable() {
     super();
@@ -32,20 +69,42 @@ public final class VectorWritable implements WritableComparable<VectorWritable>
 
   public VectorWritable(VectorWritable v) {
     this.vector = v.getVector();
+    this.encoding = v.getEncoding();
   }
 
   public VectorWritable(DoubleVector v) {
     this.vector = v;
   }
 
+  /**
+   * @param v the vector to wrap.
+   * @param encoding the encoding the vector is written with.
+   */
+  public VectorWritable(DoubleVector v, Encoding encoding) {
+    this.vector = v;
+    this.encoding = encoding;
+  }
+
   @Override
   public final void write(DataOutput out) throws IOException {
-    writeVector(this.vector, out);
+    writeVector(this.vector, out, encoding);
   }
 
+  /**
+   * Reads the vector and remembers its encoding, so it is written back the
+   * same way.
+   */
   @Override
   public final void readFields(DataInput in) throws IOException {
-    this.vector = readVector(in);
+    int header = in.readByte() & 0xFF;
+    if (header == 0 || header == 1) {
+      this.encoding = Encoding.PLAIN;
+    } else if ((header & FLOAT_FLAG) != 0) {
+      this.encoding = Encoding.COMPACT_FLOAT;
+    } else {
+      this.encoding = Encoding.COMPACT;
+    }
+    this.vector = readVector(in, header);
   }
 
   @Override
@@ -85,13 +144,56 @@ public final class VectorWritable implements WritableComparable<VectorWritable>
     return vector;
   }
 
+  /**
+   * @return the encoding the vector is written with.
+   */
+  public Encoding getEncoding() {
+    return encoding;
+  }
+
   @Override
   public String toString() {
     return vector.toString();
   }
 
+  /**
+   * Writes the vector in the {@link Encoding#PLAIN} encoding.
+   */
   public static void writeVector(DoubleVector vector, DataOutput out)
       throws IOException {
+    writeVector(vector, out, Encoding.PLAIN);
+  }
+
+  /**
+   * Writes the vector in the given encoding, {@link #readVector(DataInput)}
+   * can read all of them.
+   */
+  public static void writeVector(DoubleVector vector, DataOutput out,
+      Encoding encoding) throws IOException {
+    if (encoding == Encoding.PLAIN) {
+      writePlainVector(vector, out);
+    } else {
+      writeCompactVector(vector, out, encoding == Encoding.COMPACT_FLOAT);
+    }
+  }
+
+  public static DoubleVector readVector(DataInput in) throws IOException {
+    return readVector(in, in.readByte() & 0xFF);
+  }
+
+  private static DoubleVector readVector(DataInput in, int header)
+      throws IOException {
+    if (header == 0 || header == 1) {
+      return readPlainVector(in, header == 1);
+    }
+    if ((header & ~COMPACT_FLAGS) != COMPACT_VERSION) {
+      throw new IOException("Unknown vector encoding: " + header);
+    }
+    return readCompactVector(in, header);
+  }
+
+  private static void writePlainVector(DoubleVector vector, DataOutput out)
+      throws IOException {
     out.writeBoolean(vector.isSparse());
     out.writeInt(vector.getLength());
     if (vector.isSparse()) {
@@ -103,9 +205,7 @@ public final class VectorWritable implements WritableComparable<VectorWritable>
         out.writeDouble(next.getValue());
       }
     } else {
-      for (int i = 0; i < vector.getDimension(); i++) {
-        out.writeDouble(vector.get(i));
-      }
+      writeValues(vector.toArray(), vector.getDimension(), false, out);
     }
     if (vector.isNamed() && vector.getName() != null) {
       out.writeBoolean(true);
@@ -115,8 +215,8 @@ public final class VectorWritable implements WritableComparable<VectorWritable>
     }
   }
 
-  public static DoubleVector readVector(DataInput in) throws IOException {
-    boolean sparse = in.readBoolean();
+  private static DoubleVector readPlainVector(DataInput in, boolean sparse)
+      throws IOException {
     int length = in.readInt();
     DoubleVector vector = null;
     if (sparse) {
@@ -129,16 +229,129 @@ public final class VectorWritable implements WritableComparable<VectorWritable>
       }
     } else {
       vector = new DenseDoubleVector(length);
+      readValues(in, vector.toArray(), length, false);
+    }
+    if (in.readBoolean()) {
+      vector = new NamedDoubleVector(in.readUTF(), vector);
+    }
+    return vector;
+  }
+
+  private static void writeCompactVector(DoubleVector vector,
+      DataOutput out, boolean float32) throws IOException {
+    final boolean named = vector.isNamed() && vector.getName() != null;
+    int header = COMPACT_VERSION;
+    header |= vector.isSparse() ? SPARSE_FLAG : 0;
+    header |= float32 ? FLOAT_FLAG : 0;
+    header |= named ? NAMED_FLAG : 0;
+    out.writeByte(header);
+    WritableUtils.writeVInt(out, vector.getDimension());
+    if (vector.isSparse()) {
+      final int length = vector.getLength();
+      int[] indices = new int[length];
+      Iterator<DoubleVectorElement> iterateNonZero = vector.iterateNonZero();
+      for (int i = 0; i < length; i++) {
+        indices[i] = iterateNonZero.next().getIndex();
+      }
+      Arrays.sort(indices);
+      double[] values = new double[length];
+      WritableUtils.writeVInt(out, length);
+      int last = 0;
       for (int i = 0; i < length; i++) {
-        vector.set(i, in.readDouble());
+        WritableUtils.writeVInt(out, indices[i] - last);
+        last = indices[i];
+        values[i] = vector.get(indices[i]);
       }
+      writeValues(values, length, float32, out);
+    } else {
+      writeValues(vector.toArray(), vector.getDimension(), float32, out);
     }
-    if (in.readBoolean()) {
+    if (named) {
+      out.writeUTF(vector.getName());
+    }
+  }
+
+  private static DoubleVector readCompactVector(DataInput in, int header)
+      throws IOException {
+    final boolean float32 = (header & FLOAT_FLAG) != 0;
+    final int dimension = WritableUtils.readVInt(in);
+    DoubleVector vector;
+    if ((header & SPARSE_FLAG) != 0) {
+      final int length = WritableUtils.readVInt(in);
+      int[] indices = new int[length];
+      int last = 0;
+      for (int i = 0; i < length; i++) {
+        last += WritableUtils.readVInt(in);
+        indices[i] = last;
+      }
+      double[] values = new double[length];
+      readValues(in, values, length, float32);
+      vector = new SparseDoubleVector(dimension);
+      for (int i = 0; i < length; i++) {
+        vector.set(indices[i], values[i]);
+      }
+    } else {
+      // the dense vector hands out its backing array, so it is filled in bulk
+      vector = new DenseDoubleVector(dimension);
+      readValues(in, vector.toArray(), dimension, float32);
+    }
+    if ((header & NAMED_FLAG) != 0) {
       vector = new NamedDoubleVector(in.readUTF(), vector);
     }
     return vector;
   }
 
+  /**
+   * Writes the values in big endian byte order, like
+   * {@link DataOutput#writeDouble(double)} and
+   * {@link DataOutput#writeFloat(float)} would, but in chunks.
+   */
+  private static void writeValues(double[] values, int length,
+      boolean float32, DataOutput out) throws IOException {
+    final int width = float32 ? 4 : 8;
+    byte[] buffer = new byte[(int) Math.min((long) length * width,
+        BUFFER_SIZE)];
+    ByteBuffer bytes = ByteBuffer.wrap(buffer);
+    for (int offset = 0; offset < length;) {
+      int count = Math.min(length - offset, buffer.length / width);
+      bytes.clear();
+      for (int i = offset; i < offset + count; i++) {
+        if (float32) {
+          bytes.putFloat((float) values[i]);
+        } else {
+          bytes.putDouble(values[i]);
+        }
+      }
+      out.write(buffer, 0, count * width);
+      offset += count;
+    }
+  }
+
+  /**
+   * Reads values that were written by
+   * {@link #writeValues(double[], int, boolean, DataOutput)}.
+   */
+  private static void readValues(DataInput in, double[] values, int length,
+      boolean float32) throws IOException {
+    final int width = float32 ? 4 : 8;
+    byte[] buffer = new byte[(int) Math.min((long) length * width,
+        BUFFER_SIZE)];
+    ByteBuffer bytes = ByteBuffer.wrap(buffer);
+    for (int offset = 0; offset < length;) {
+      int count = Math.min(length - offset, buffer.length / width);
+      in.readFully(buffer, 0, count * width);
+      bytes.clear();
+      if (float32) {
+        for (int i = offset; i < offset + count; i++) {
+          values[i] = bytes.getFloat();
+        }
+      } else {
+        bytes.asDoubleBuffer().get(values, offset, count);
+      }
+      offset += count;
+    }
+  }
+
   public static int compareVector(VectorWritable a, VectorWritable o) {
     return compareVector(a.getVector(), o.getVector());
   }
@@ -1,13 +1,17 @@
 package de.jungblut.classification.bayes;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.apache.commons.math3.util.FastMath;
 import org.junit.Test;
@@ -41,6 +45,151 @@ public class MultinomialNaiveBayesTest {
     internalChecks(classifier);
   }
 
+  @Test
+  public void testParallelTraining() {
+    MultinomialNaiveBayes classifier = new MultinomialNaiveBayes(false, 4);
+    classifier.train(getFeatures(), getOutcome());
+    internalChecks(classifier);
+
+    // many more documents than the observers pull in a chunk, so the counts
+    // of every thread need to be merged
+    Random rnd = new Random(1);
+    int numFeatures = 100;
+    int numClasses = 5;
+    DoubleVector[] features = new DoubleVector[20000];
+    DoubleVector[] outcome = new DoubleVector[features.length];
+    for (int i = 0; i < features.length; i++) {
+      int clazz = rnd.nextInt(numClasses);
+      features[i] = new SparseDoubleVector(numFeatures);
+      for (int j = 0; j < 8; j++) {
+        features[i].set(clazz * 15 + rnd.nextInt(30), 1 + rnd.nextInt(3));
+      }
+      outcome[i] = new DenseDoubleVector(numClasses);
+      outcome[i].set(clazz, 1d);
+    }
+    MultinomialNaiveBayes sequential = new MultinomialNaiveBayes();
+    sequential.train(features, outcome);
+    MultinomialNaiveBayes parallel = new MultinomialNaiveBayes(false, 4);
+    parallel.train(features, outcome);
+
+    // the counts are integral, so the merge order doesn't change them
+    DoubleMatrix expected = sequential.getProbabilityMatrix();
+    DoubleMatrix actual = parallel.getProbabilityMatrix();
+    for (int c = 0; c < numClasses; c++) {
+      assertEquals(sequential.getClassProbability().get(c), parallel
+          .getClassProbability().get(c), 0d);
+      for (int f = 0; f < numFeatures; f++) {
+        assertEquals(expected.get(c, f), actual.get(c, f), 0d);
+      }
+    }
+    for (int i = 0; i < 100; i++) {
+      assertArrayEquals(sequential.predict(features[i]).toArray(), parallel
+          .predict(features[i]).toArray(), 0d);
+    }
+  }
+
+  @Test
+  public void testMergedStatistics() throws Exception {
+    DoubleVector[] features = getFeatures();
+    DoubleVector[] outcome = getOutcome();
+    NaiveBayesStatistics left = new NaiveBayesStatistics(2, 5);
+    NaiveBayesStatistics right = new NaiveBayesStatistics(2, 5);
+    for (int i = 0; i < features.length; i++) {
+      (i % 2 == 0 ? left : right).observe(features[i], outcome[i]);
+    }
+    // ship one shard through its serialized form like a map task would
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    right.write(new DataOutputStream(bytes));
+    NaiveBayesStatistics deserialized = new NaiveBayesStatistics();
+    deserialized.readFields(new DataInputStream(new ByteArrayInputStream(
+        bytes.toByteArray())));
+    left.merge(deserialized);
+    assertEquals(features.length, left.getNumDocuments());
+    internalChecks(MultinomialNaiveBayes.create(left));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooLargeTermTable() {
+    new MultinomialNaiveBayes()
+        .setMaxTermTableSize(MultinomialNaiveBayes.MAX_TERM_TABLE_SIZE + 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeDifferentDimensions() {
+    new NaiveBayesStatistics(2, 5).merge(new NaiveBayesStatistics(3, 5));
+  }
+
+  @Test
+  public void testBatchPrediction() {
+    Random rnd = new Random(0);
+    int numFeatures = 50;
+    int numClasses = 4;
+    DoubleVector[] features = new DoubleVector[200];
+    DoubleVector[] outcome = new DoubleVector[features.length];
+    for (int i = 0; i < features.length; i++) {
+      int clazz = rnd.nextInt(numClasses);
+      features[i] = new SparseDoubleVector(numFeatures);
+      for (int j = 0; j < 5; j++) {
+        // the last features are never seen while training
+        features[i].set(clazz * 10 + rnd.nextInt(15), 1 + rnd.nextInt(3));
+      }
+      outcome[i] = new DenseDoubleVector(numClasses);
+      outcome[i].set(clazz, 1d);
+    }
+    MultinomialNaiveBayes classifier = new MultinomialNaiveBayes();
+    classifier.train(features, outcome);
+
+    DoubleVector[] test = new DoubleVector[30];
+    for (int i = 0; i < test.length; i++) {
+      test[i] = new SparseDoubleVector(numFeatures);
+      for (int j = 0; j < 6; j++) {
+        test[i].set(rnd.nextInt(numFeatures), 1 + rnd.nextInt(3));
+      }
+    }
+    // a table size of zero scores every class separately
+    for (long maxTableSize : new long[] {
+        MultinomialNaiveBayes.MAX_TERM_TABLE_SIZE, 0 }) {
+      classifier.setMaxTermTableSize(maxTableSize);
+      for (int threads : new int[] { 1, 3 }) {
+        DoubleMatrix batch = classifier.predict(test, threads);
+        for (int i = 0; i < test.length; i++) {
+          DoubleVector expected = sparsePrediction(classifier, test[i]);
+          DoubleVector single = classifier.predict(test[i]);
+          for (int c = 0; c < numClasses; c++) {
+            assertEquals(expected.get(c), single.get(c), 1e-10);
+            assertEquals(expected.get(c), batch.get(i, c), 1e-10);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Scores every class separately on the sparse probability matrix.
+   */
+  private static DoubleVector sparsePrediction(
+      MultinomialNaiveBayes classifier, DoubleVector document) {
+    DoubleMatrix mat = classifier.getProbabilityMatrix();
+    DoubleVector prior = classifier.getClassProbability();
+    DoubleVector distribution = new DenseDoubleVector(prior.getDimension());
+    for (int c = 0; c < prior.getDimension(); c++) {
+      double sum = 0d;
+      for (int i = 0; i < document.getDimension(); i++) {
+        if (document.get(i) != 0d) {
+          double p = mat.get(c, i);
+          sum += document.get(i) * (p == 0d ? FastMath.log(1e-8) : p);
+        }
+      }
+      distribution.set(c, sum);
+    }
+    double max = distribution.max();
+    for (int c = 0; c < prior.getDimension(); c++) {
+      distribution.set(c,
+          FastMath.exp(distribution.get(c) - max + prior.get(c)));
+    }
+    return distribution.divide(distribution.sum());
+  }
+
   public void internalChecks(MultinomialNaiveBayes classifier) {
     DoubleVector classProbability = classifier.getClassProbability();
     assertEquals(FastMath.log(2d / 5d), classProbability.get(0), 0.01d);
@@ -79,21 +228,26 @@ public class MultinomialNaiveBayesTest {
 
   public MultinomialNaiveBayes getTrainedClassifier() {
     MultinomialNaiveBayes classifier = new MultinomialNaiveBayes();
+    classifier.train(getFeatures(), getOutcome());
+    return classifier;
+  }
 
-    DoubleVector[] features = new DoubleVector[] {
+  private static DoubleVector[] getFeatures() {
+    return new DoubleVector[] {
         new SparseDoubleVector(new double[] { 1, 0, 0, 0, 0 }),
         new SparseDoubleVector(new double[] { 1, 0, 0, 0, 0 }),
         new SparseDoubleVector(new double[] { 1, 1, 0, 0, 0 }),
         new SparseDoubleVector(new double[] { 0, 0, 1, 1, 1 }),
         new SparseDoubleVector(new double[] { 0, 0, 0, 1, 1 }), };
-    DenseDoubleVector[] outcome = new DenseDoubleVector[] {
+  }
+
+  private static DoubleVector[] getOutcome() {
+    return new DoubleVector[] {
         new DenseDoubleVector(new double[] { 1 }),
         new DenseDoubleVector(new double[] { 1 }),
         new DenseDoubleVector(new double[] { 1 }),
         new DenseDoubleVector(new double[] { 0 }),
         new DenseDoubleVector(new double[] { 0 }), };
-    classifier.train(features, outcome);
-    return classifier;
   }
 
 }
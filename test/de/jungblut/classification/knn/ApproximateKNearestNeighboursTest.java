@@ -0,0 +1,58 @@
+package de.jungblut.classification.knn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.datastructure.HNSWIndex.HNSWIndexBuilder;
+import de.jungblut.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+public class ApproximateKNearestNeighboursTest {
+
+  @Test
+  public void testMatchesExactNeighbours() throws Exception {
+    Random rnd = new Random(0);
+    List<DoubleVector> features = new ArrayList<>();
+    List<DoubleVector> outcome = new ArrayList<>();
+    for (int i = 0; i < 600; i++) {
+      int clazz = i % 3;
+      features.add(new DenseDoubleVector(new double[] {
+          clazz * 5 + rnd.nextGaussian(), rnd.nextGaussian() }));
+      double[] arr = new double[3];
+      arr[clazz] = 1d;
+      outcome.add(new DenseDoubleVector(arr));
+    }
+    KNearestNeighbours exact = new KNearestNeighbours(3, 5);
+    exact.train(features, outcome);
+    ApproximateKNearestNeighbours approximate = new ApproximateKNearestNeighbours(
+        3, 5, HNSWIndexBuilder.create(new EuclidianDistance()).seed(0L)
+            .efSearch(100).build());
+    approximate.train(features, outcome);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ApproximateKNearestNeighbours.serialize(approximate, new DataOutputStream(
+        baos));
+    ApproximateKNearestNeighbours read = ApproximateKNearestNeighbours
+        .deserialize(new DataInputStream(new ByteArrayInputStream(baos
+            .toByteArray())));
+
+    for (int i = 0; i < 100; i++) {
+      DoubleVector query = new DenseDoubleVector(new double[] {
+          rnd.nextDouble() * 15 - 2, rnd.nextGaussian() });
+      int expected = exact.predictedClass(query);
+      assertEquals(expected, approximate.predictedClass(query));
+      assertEquals(expected, read.predictedClass(query));
+    }
+  }
+
+}
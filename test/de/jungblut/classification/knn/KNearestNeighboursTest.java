@@ -9,6 +9,7 @@ import org.junit.Test;
 
 import de.jungblut.classification.eval.Evaluator;
 import de.jungblut.classification.eval.Evaluator.EvaluationResult;
+import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.math.dense.SingleEntryDoubleVector;
@@ -51,6 +52,42 @@ public class KNearestNeighboursTest {
     assertArrayEquals(new double[] { 0.5, 0, 0, 0, 0.5 }, prediction.toArray());
   }
 
+  @Test
+  public void testBatchPrediction() {
+    KNearestNeighbours knn = new KNearestNeighbours(5, 3);
+    List<DoubleVector> features = new ArrayList<>();
+    List<DoubleVector> outcome = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      features.add(new DenseDoubleVector(new double[] { i, i % 7 }));
+      double[] arr = new double[5];
+      arr[i % 5] = 1d;
+      outcome.add(new DenseDoubleVector(arr));
+    }
+    knn.train(features, outcome);
+
+    DoubleVector[] queries = new DoubleVector[20];
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = new DenseDoubleVector(new double[] { i * 2.5, i % 4 });
+    }
+    DoubleMatrix predictions = knn.predict(queries);
+    assertEquals(queries.length, predictions.getRowCount());
+    for (int i = 0; i < queries.length; i++) {
+      assertArrayEquals(knn.predict(queries[i]).toArray(), predictions
+          .getRowVector(i).toArray());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBatchPredictionBeforeTraining() {
+    new KNearestNeighbours(2, 3)
+        .predict(new DoubleVector[] { new SingleEntryDoubleVector(1) });
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPredictionBeforeTraining() {
+    new KNearestNeighbours(2, 3).predict(new SingleEntryDoubleVector(1));
+  }
+
   void assertArrayEquals(double[] real, double[] actual) {
     assertEquals(real.length, actual.length);
     for (int i = 0; i < real.length; i++) {
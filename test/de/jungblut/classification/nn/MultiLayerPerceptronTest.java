@@ -14,14 +14,18 @@ import java.io.FileOutputStream;
 
 import org.junit.Test;
 
+import de.jungblut.datastructure.VectorFileInputProvider;
+import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.activation.ActivationFunction;
 import de.jungblut.math.activation.ActivationFunctionSelector;
+import de.jungblut.math.dense.DenseDoubleMatrix;
 import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.math.minimize.Fmincg;
 import de.jungblut.math.minimize.GradientDescent;
 import de.jungblut.math.minimize.Minimizer;
 import de.jungblut.math.minimize.ParticleSwarmOptimization;
+import de.jungblut.math.sparse.SparseDoubleRowMatrix;
 import de.jungblut.math.squashing.CrossEntropyErrorFunction;
 import de.jungblut.math.squashing.LogisticErrorFunction;
 import de.jungblut.math.squashing.SquaredMeanErrorFunction;
@@ -92,6 +96,29 @@ public class MultiLayerPerceptronTest {
     }
   }
 
+  @Test
+  public void testBatchPrediction() {
+    MultilayerPerceptron mlp = MultilayerPerceptron.MultilayerPerceptronBuilder
+        .create(
+            new int[] { 2, 4, 3, 2 },
+            new ActivationFunction[] { LINEAR.get(), SIGMOID.get(),
+                ActivationFunctionSelector.TANH.get(), SOFTMAX.get() },
+            new CrossEntropyErrorFunction(), new Fmincg(), 1).build();
+    DoubleVector[] features = sampleXOR().getFirst();
+    DoubleMatrix predictions = mlp.predict(new DenseDoubleMatrix(features));
+    assertEquals(features.length, predictions.getRowCount());
+    for (int i = 0; i < features.length; i++) {
+      assertEquals(0d, mlp.predict(features[i])
+          .subtract(predictions.getRowVector(i)).abs().sum(), 1e-10);
+    }
+    // sparse rows are multiplied by their non-zero entries
+    predictions = mlp.predict(new SparseDoubleRowMatrix(features));
+    for (int i = 0; i < features.length; i++) {
+      assertEquals(0d, mlp.predict(features[i])
+          .subtract(predictions.getRowVector(i)).abs().sum(), 1e-10);
+    }
+  }
+
   @Test
   public void testXORElliotFminCG() {
     MultilayerPerceptron mlp = MultilayerPerceptron.MultilayerPerceptronBuilder
@@ -155,6 +182,30 @@ public class MultiLayerPerceptronTest {
     }
   }
 
+  @Test
+  public void testXORStreamedFromDisk() throws Exception {
+    MultilayerPerceptron mlp = MultilayerPerceptron.MultilayerPerceptronBuilder
+        .create(
+            new int[] { 2, 4, 1 },
+            new ActivationFunction[] { LINEAR.get(), SIGMOID.get(),
+                SIGMOID.get() }, new LogisticErrorFunction(), new Fmincg(), 100)
+        .miniBatchSize(2).batchParallelism(2).build();
+    Tuple<DoubleVector[], DoubleVector[]> sampleXOR = sampleXOR();
+    File tmp = File.createTempFile("neuraltest", ".tmp");
+    tmp.deleteOnExit();
+    VectorFileInputProvider.write(tmp.getAbsolutePath(), sampleXOR.getFirst(),
+        sampleXOR.getSecond());
+    double error = mlp.train(new VectorFileInputProvider(tmp
+        .getAbsolutePath()));
+    System.out.println(error);
+    if (error < 0.01) {
+      assertTrue(error < 0.001);
+      validatePredictions(sampleXOR, mlp);
+    } else {
+      throw new RuntimeException("Test seems flaky..");
+    }
+  }
+
   @SuppressWarnings("resource")
   @Test
   public void testSerialization() throws Exception {
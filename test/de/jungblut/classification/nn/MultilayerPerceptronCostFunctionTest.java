@@ -0,0 +1,138 @@
+package de.jungblut.classification.nn;
+
+import static de.jungblut.math.activation.ActivationFunctionSelector.LINEAR;
+import static de.jungblut.math.activation.ActivationFunctionSelector.SIGMOID;
+import static de.jungblut.math.activation.ActivationFunctionSelector.SOFTMAX;
+import static de.jungblut.math.activation.ActivationFunctionSelector.TANH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.activation.ActivationFunction;
+import de.jungblut.math.dense.DenseDoubleMatrix;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.minimize.CostGradientTuple;
+import de.jungblut.math.minimize.Fmincg;
+import de.jungblut.math.squashing.CrossEntropyErrorFunction;
+import de.jungblut.math.squashing.ErrorFunction;
+import de.jungblut.math.squashing.SquaredMeanErrorFunction;
+
+public class MultilayerPerceptronCostFunctionTest {
+
+  static {
+    MultilayerPerceptron.SEED = 0L;
+  }
+
+  @Test
+  public void testWorkspaceMatchesMatrixComputation() {
+    checkWorkspace(new int[] { 3, 4, 2 }, new ActivationFunction[] {
+        LINEAR.get(), SIGMOID.get(), SIGMOID.get() },
+        new CrossEntropyErrorFunction(), 0d);
+    checkWorkspace(new int[] { 3, 4, 2 }, new ActivationFunction[] {
+        LINEAR.get(), SIGMOID.get(), SIGMOID.get() },
+        new CrossEntropyErrorFunction(), 0.5d);
+    checkWorkspace(new int[] { 3, 5, 4, 3 }, new ActivationFunction[] {
+        LINEAR.get(), TANH.get(), SIGMOID.get(), SOFTMAX.get() },
+        new CrossEntropyErrorFunction(), 0.1d);
+    checkWorkspace(new int[] { 3, 2, 1 }, new ActivationFunction[] {
+        LINEAR.get(), SIGMOID.get(), LINEAR.get() },
+        new SquaredMeanErrorFunction(), 0d);
+  }
+
+  @Test
+  public void testWorkspaceSupport() {
+    assertTrue(MultilayerPerceptronCostFunction.isWorkspaceSupported(
+        TrainingType.CPU, new ActivationFunction[] { LINEAR.get(),
+            SIGMOID.get(), LINEAR.get() }));
+    // the linear matrix gradient differs from the element-wise one
+    assertFalse(MultilayerPerceptronCostFunction.isWorkspaceSupported(
+        TrainingType.CPU, new ActivationFunction[] { LINEAR.get(),
+            LINEAR.get(), SIGMOID.get() }));
+    assertFalse(MultilayerPerceptronCostFunction.isWorkspaceSupported(
+        TrainingType.GPU, new ActivationFunction[] { LINEAR.get(),
+            SIGMOID.get(), SIGMOID.get() }));
+    assertFalse(MultilayerPerceptronCostFunction.isWorkspaceSupported(
+        TrainingType.CPU_BLOCKED, new ActivationFunction[] { LINEAR.get(),
+            SIGMOID.get(), SIGMOID.get() }));
+  }
+
+  @Test
+  public void testBlockedMatchesMatrixComputation() {
+    int[] layers = new int[] { 30, 40, 3 };
+    ActivationFunction[] activations = new ActivationFunction[] {
+        LINEAR.get(), SIGMOID.get(), SOFTMAX.get() };
+    Random rnd = new Random(0);
+    int m = 50;
+    DoubleVector[] features = new DoubleVector[m];
+    DoubleVector[] outcome = new DoubleVector[m];
+    for (int i = 0; i < m; i++) {
+      features[i] = new DenseDoubleVector(layers[0]);
+      for (int j = 0; j < layers[0]; j++) {
+        features[i].set(j, rnd.nextGaussian());
+      }
+      outcome[i] = new DenseDoubleVector(layers[layers.length - 1]);
+      outcome[i].set(rnd.nextInt(outcome[i].getDimension()), 1d);
+    }
+    DenseDoubleMatrix x = new DenseDoubleMatrix(
+        DenseDoubleVector.ones(features.length), new DenseDoubleMatrix(
+            features));
+    DenseDoubleMatrix y = new DenseDoubleMatrix(outcome);
+
+    MultilayerPerceptron cpu = MultilayerPerceptron.MultilayerPerceptronBuilder
+        .create(layers, activations, new CrossEntropyErrorFunction(),
+            new Fmincg(), 1).lambda(0.1d).build();
+    MultilayerPerceptron blocked = MultilayerPerceptron.MultilayerPerceptronBuilder
+        .create(layers, activations, new CrossEntropyErrorFunction(),
+            new Fmincg(), 1).lambda(0.1d)
+        .trainingType(TrainingType.CPU_BLOCKED).build();
+    DoubleVector theta = cpu.getFoldedThetaVector();
+    CostGradientTuple expected = new MultilayerPerceptronCostFunction(cpu,
+        features, outcome).compute(theta, x, y);
+    CostGradientTuple actual = new MultilayerPerceptronCostFunction(blocked,
+        features, outcome).compute(theta, x, y);
+    assertEquals(expected.getCost(), actual.getCost(), 1e-10);
+    assertEquals(0d, expected.getGradient().subtract(actual.getGradient())
+        .abs().sum(), 1e-10);
+  }
+
+  private void checkWorkspace(int[] layers, ActivationFunction[] activations,
+      ErrorFunction error, double lambda) {
+    Random rnd = new Random(0);
+    int m = 7;
+    DoubleVector[] features = new DoubleVector[m];
+    DoubleVector[] outcome = new DoubleVector[m];
+    for (int i = 0; i < m; i++) {
+      features[i] = new DenseDoubleVector(layers[0]);
+      for (int j = 0; j < layers[0]; j++) {
+        features[i].set(j, rnd.nextGaussian());
+      }
+      outcome[i] = new DenseDoubleVector(layers[layers.length - 1]);
+      outcome[i].set(rnd.nextInt(outcome[i].getDimension()), 1d);
+    }
+    MultilayerPerceptron mlp = MultilayerPerceptron.MultilayerPerceptronBuilder
+        .create(layers, activations, error, new Fmincg(), 1).lambda(lambda)
+        .build();
+    MultilayerPerceptronCostFunction fnc = new MultilayerPerceptronCostFunction(
+        mlp, features, outcome);
+
+    DenseDoubleMatrix x = new DenseDoubleMatrix(
+        DenseDoubleVector.ones(features.length), new DenseDoubleMatrix(
+            features));
+    DenseDoubleMatrix y = new DenseDoubleMatrix(outcome);
+    DoubleVector theta = mlp.getFoldedThetaVector();
+    CostGradientTuple expected = fnc.compute(theta, x, y);
+    // evaluate twice to make sure the reused buffers are overwritten
+    for (int i = 0; i < 2; i++) {
+      CostGradientTuple actual = fnc.computeInWorkspace(theta, x, y);
+      assertEquals(expected.getCost(), actual.getCost(), 1e-10);
+      assertEquals(0d, expected.getGradient()
+          .subtract(actual.getGradient()).abs().sum(), 1e-10);
+    }
+  }
+
+}
@@ -81,6 +81,25 @@ public class RBMCostFunctionTest {
     assertEquals(0d, evaluateCost.getGradient().subtract(target).sum(), 1e-4);
   }
 
+  @Test
+  public void testBlockedGradient() {
+    WeightMatrix pInput = new WeightMatrix(test[0].getDimension(),
+        hiddenUnits + 1);
+    DoubleVector foldMatrices = DenseMatrixFolder.foldMatrices(pInput
+        .getWeights());
+    RBMCostFunction cpu = new RBMCostFunction(test, 0, 1, hiddenUnits,
+        new SigmoidActivationFunction(), TrainingType.CPU, 0.1d,
+        MultilayerPerceptron.SEED, false);
+    RBMCostFunction blocked = new RBMCostFunction(test, 0, 1, hiddenUnits,
+        new SigmoidActivationFunction(), TrainingType.CPU_BLOCKED, 0.1d,
+        MultilayerPerceptron.SEED, false);
+    CostGradientTuple expected = cpu.evaluateCost(foldMatrices);
+    CostGradientTuple actual = blocked.evaluateCost(foldMatrices);
+    assertEquals(expected.getCost(), actual.getCost(), 1e-10);
+    assertEquals(0d, expected.getGradient().subtract(actual.getGradient())
+        .abs().sum(), 1e-10);
+  }
+
   @Test
   public void testCostFunction() {
     WeightMatrix pInput = new WeightMatrix(test[0].getDimension(),
@@ -1,5 +1,6 @@
 package de.jungblut.classification.regression;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Random;
@@ -8,8 +9,14 @@ import org.junit.Test;
 
 import de.jungblut.classification.eval.Evaluator;
 import de.jungblut.classification.eval.Evaluator.EvaluationResult;
+import de.jungblut.math.DoubleMatrix;
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleMatrix;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.minimize.CostGradientTuple;
 import de.jungblut.math.minimize.Fmincg;
+import de.jungblut.math.minimize.HogwildGradientDescent;
+import de.jungblut.math.minimize.HogwildGradientDescent.HogwildGradientDescentBuilder;
 import de.jungblut.reader.CsvDatasetReader;
 import de.jungblut.reader.Dataset;
 
@@ -59,6 +66,73 @@ public class LogisticRegressionTest {
         + " and should have been between 9 and 13!", 11, trainingError, 2d);
   }
 
+  @Test
+  public void testHogwildStochasticTraining() {
+    // stochastic gradient descent needs features on a similar scale
+    DoubleVector mean = new DenseDoubleVector(features[0].getDimension());
+    for (DoubleVector feature : features) {
+      mean = mean.add(feature);
+    }
+    mean = mean.divide(features.length);
+    DoubleVector std = new DenseDoubleVector(mean.getDimension());
+    for (DoubleVector feature : features) {
+      std = std.add(feature.subtract(mean).pow(2));
+    }
+    std = std.divide(features.length).sqrt();
+    DoubleVector[] scaled = new DoubleVector[features.length];
+    for (int i = 0; i < features.length; i++) {
+      scaled[i] = features[i].subtract(mean).divide(std);
+    }
+
+    HogwildGradientDescent minimizer = HogwildGradientDescentBuilder
+        .create(0.1d).momentum(0.5d).numThreads(4).seed(0L).build();
+    LogisticRegression clf = new LogisticRegression(0d, minimizer, 200, 10,
+        false);
+    clf.setRandom(new Random(0));
+    clf.train(scaled, outcome);
+    double trainingError = 0d;
+    for (int i = 0; i < scaled.length; i++) {
+      int predict = clf.predictedClass(scaled[i], 0.5d);
+      trainingError += Math.abs(outcome[i].get(0) - predict);
+    }
+    assertEquals("Training error was: " + trainingError
+        + " and should have been between 9 and 13!", 11, trainingError, 2d);
+  }
+
+  @Test
+  public void testBatchPrediction() {
+    LogisticRegression clf = new LogisticRegression(new DenseDoubleVector(
+        new double[] { -1, 0.01, 0.02 }));
+    DoubleMatrix predictions = clf.predict(new DenseDoubleMatrix(features));
+    assertEquals(features.length, predictions.getRowCount());
+    assertEquals(1, predictions.getColumnCount());
+    for (int i = 0; i < features.length; i++) {
+      assertEquals(clf.predict(features[i]).get(0), predictions.get(i, 0),
+          1e-10);
+    }
+  }
+
+  @Test
+  public void testBatchGradient() {
+    DoubleMatrix x = new DenseDoubleMatrix(
+        DenseDoubleVector.ones(features.length),
+        new DenseDoubleMatrix(features));
+    DoubleMatrix y = new DenseDoubleMatrix(outcome).transpose();
+    DoubleVector theta = new DenseDoubleVector(new double[] { -1, 0.01, 0.02 });
+    for (double lambda : new double[] { 0d, 0.1d }) {
+      LogisticRegressionCostFunction fnc = new LogisticRegressionCostFunction(
+          x, y, lambda);
+      assertEquals(1, fnc.getNumBatches());
+      CostGradientTuple full = fnc.evaluateCost(theta);
+      CostGradientTuple batch = fnc.evaluateBatch(theta, 0);
+      assertEquals(full.getCost(), batch.getCost(), 1e-8);
+      assertArrayEquals(full.getGradient().toArray(), batch.getGradient()
+          .toArray(), 1e-8);
+    }
+    assertEquals(10, new LogisticRegressionCostFunction(x, y, 0d, 10)
+        .getNumBatches());
+  }
+
   @Test
   public void testRegressionEvaluation() {
     LogisticRegression clf = new LogisticRegression(0d, new Fmincg(), 1000,
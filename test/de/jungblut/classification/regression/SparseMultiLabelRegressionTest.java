@@ -66,6 +66,36 @@ public class SparseMultiLabelRegressionTest {
     assertEquals(1, loss, 1e-5);
   }
 
+  @Test
+  public void testMultiThreadedTraining() {
+
+    ArrayList<Tuple<DoubleVector, DoubleVector>> data = getData();
+    ArrayList<Tuple<DoubleVector, DoubleVector>> stream = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      stream.addAll(data);
+    }
+    SparseMultiLabelRegression reg = new SparseMultiLabelRegression(2, 0.1, 5,
+        5).setNumThreads(4);
+    reg.setRandom(new Random(0));
+    reg.train(stream);
+
+    double loss = 0d;
+    for (Tuple<DoubleVector, DoubleVector> dx : data) {
+      DoubleVector prediction = reg.predict(dx.getFirst());
+      prediction = new DenseDoubleVector(
+          prediction.apply(new DoubleVectorFunction() {
+
+            @Override
+            public double calculate(int index, double value) {
+              return value > 0.5 ? 1d : 0d;
+            }
+          }));
+      loss += dx.getSecond().subtract(prediction).abs().sum();
+    }
+
+    assertEquals(0, loss, 1e-5);
+  }
+
   public ArrayList<Tuple<DoubleVector, DoubleVector>> getData() {
     ArrayList<Tuple<DoubleVector, DoubleVector>> stream = new ArrayList<>();
     // that is an extremely simple linear testcase
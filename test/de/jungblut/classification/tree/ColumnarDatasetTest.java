@@ -0,0 +1,60 @@
+package de.jungblut.classification.tree;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+public class ColumnarDatasetTest {
+
+  @Test
+  public void testBinaryDataset() {
+    DoubleVector[] features = new DoubleVector[] {
+        new DenseDoubleVector(new double[] { 1, 2 }),
+        new DenseDoubleVector(new double[] { 3, 4 }),
+        new DenseDoubleVector(new double[] { 5, 6 }) };
+    DoubleVector[] outcome = new DoubleVector[] {
+        new DenseDoubleVector(new double[] { 0 }),
+        new DenseDoubleVector(new double[] { 1 }),
+        new DenseDoubleVector(new double[] { 1 }) };
+
+    ColumnarDataset dataset = ColumnarDataset.create(features, outcome);
+    assertTrue(dataset.isBinaryClassification());
+    assertEquals(2, dataset.getOutcomeDimension());
+    assertEquals(3, dataset.getNumRows());
+    assertEquals(2, dataset.getNumFeatures());
+    assertArrayEquals(new double[] { 1, 3, 5 }, dataset.getColumn(0), 1e-5);
+    assertArrayEquals(new double[] { 2, 4, 6 }, dataset.getColumn(1), 1e-5);
+    assertArrayEquals(new int[] { 0, 1, 1 }, dataset.getOutcomes());
+    assertArrayEquals(new int[] { 0, 1, 2 }, dataset.allRows());
+
+    int[] bag = dataset.bag(new Random(0));
+    assertEquals(3, bag.length);
+    for (int row : bag) {
+      assertTrue(row >= 0 && row < 3);
+    }
+  }
+
+  @Test
+  public void testMultiClassDataset() {
+    DoubleVector[] features = new DoubleVector[] {
+        new DenseDoubleVector(new double[] { 1 }),
+        new DenseDoubleVector(new double[] { 2 }) };
+    DoubleVector[] outcome = new DoubleVector[] {
+        new DenseDoubleVector(new double[] { 0, 0, 1 }),
+        new DenseDoubleVector(new double[] { 0, 1, 0 }) };
+
+    ColumnarDataset dataset = ColumnarDataset.create(features, outcome);
+    assertFalse(dataset.isBinaryClassification());
+    assertEquals(3, dataset.getOutcomeDimension());
+    assertArrayEquals(new int[] { 2, 1 }, dataset.getOutcomes());
+  }
+
+}
@@ -1,13 +1,18 @@
 package de.jungblut.classification.tree;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import gnu.trove.set.hash.TIntHashSet;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 
+import org.apache.hadoop.io.WritableUtils;
 import org.junit.Test;
 
 import de.jungblut.classification.eval.EvaluationSplit;
@@ -43,6 +48,62 @@ public class DecisionTreeTest {
     assertEquals(0.9, res.getAccuracy(), 1e-5);
   }
 
+  @Test
+  public void testIrisNumericalHistogramData() {
+    DecisionTree tree = DecisionTree.create(FeatureType.allNumerical(4))
+        .setNumericalSplitBins(16);
+    EvaluationResult res = Evaluator.evaluateSplit(tree, 3, null,
+        irisEvaluationSplit);
+    assertTrue(res.getAccuracy() >= 0.9);
+  }
+
+  @Test
+  public void testQuantiles() {
+    double[] sorted = new double[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+    assertArrayEquals(new double[] { 2, 4, 6, 8 },
+        DecisionTree.getQuantiles(sorted, 4), 1e-5);
+    // less distinct values than bins
+    sorted = new double[] { 1, 1, 1, 2, 2, 3 };
+    assertArrayEquals(new double[] { 1, 2, 3 },
+        DecisionTree.getQuantiles(sorted, 10), 1e-5);
+  }
+
+  @Test
+  public void testSharedColumnarDataset() {
+    ColumnarDataset dataset = ColumnarDataset.create(mushroom.getFeatures(),
+        mushroom.getOutcomes());
+    int[] rows = dataset.allRows();
+    DecisionTree tree = DecisionTree.create();
+    tree.train(dataset, rows);
+    EvaluationResult res = Evaluator.testClassifier(tree, 2, null,
+        mushroom.getFeatures().length, mushroom.getFeatures(),
+        mushroom.getOutcomes());
+    assertEquals(1d, res.getAccuracy(), 1e-5);
+    // the rows are only reordered
+    Arrays.sort(rows);
+    assertArrayEquals(dataset.allRows(), rows);
+  }
+
+  @Test
+  public void testParallelBuildIsDeterministic() throws Exception {
+    DecisionTree serial = DecisionTree.create().setSeed(0)
+        .setNumRandomFeaturesToChoose(10);
+    serial.train(mushroom.getFeatures(), mushroom.getOutcomes());
+    DecisionTree parallel = DecisionTree.create().setSeed(0)
+        .setNumRandomFeaturesToChoose(10).setNumThreads(4);
+    parallel.train(mushroom.getFeatures(), mushroom.getOutcomes());
+    assertArrayEquals(serialize(serial), serialize(parallel));
+
+    serial = DecisionTree.create(FeatureType.allNumerical(4)).setSeed(0);
+    serial.train(irisEvaluationSplit.getTrainFeatures(),
+        irisEvaluationSplit.getTrainOutcome());
+    parallel = DecisionTree.create(FeatureType.allNumerical(4)).setSeed(0)
+        .setNumThreads(4);
+    parallel.train(irisEvaluationSplit.getTrainFeatures(),
+        irisEvaluationSplit.getTrainOutcome());
+    assertArrayEquals(serialize(serial), serialize(parallel));
+  }
+
   @Test
   public void testCompiledMushroomNominalData() {
     DecisionTree tree = DecisionTree.createCompiledTree();
@@ -112,6 +173,35 @@ public class DecisionTreeTest {
     assertEquals(1d, res.getAccuracy(), 1e-5);
   }
 
+  @Test
+  public void testReadSingleCompiledClassFormat() throws Exception {
+    DecisionTree tree = DecisionTree.create();
+    tree.train(mushroom.getFeatures(), mushroom.getOutcomes());
+    String name = TreeCompiler.generateClassName();
+    byte[] compiled = TreeCompiler.compileNode(name, tree.getRootNode());
+
+    // the layout of a compiled tree before helper classes were introduced
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(baos);
+    int numFeatures = mushroom.getFeatures()[0].getDimension();
+    out.writeBoolean(true);
+    WritableUtils.writeVInt(out, 1);
+    WritableUtils.writeVInt(out, numFeatures);
+    for (int i = 0; i < numFeatures; i++) {
+      WritableUtils.writeVInt(out, FeatureType.NOMINAL.ordinal());
+    }
+    out.writeBoolean(true);
+    out.writeUTF(name);
+    WritableUtils.writeCompressedByteArray(out, compiled);
+
+    DecisionTree deserialized = DecisionTree.deserialize(new DataInputStream(
+        new ByteArrayInputStream(baos.toByteArray())));
+    EvaluationResult res = Evaluator.testClassifier(deserialized, 2, null,
+        mushroom.getFeatures().length, mushroom.getFeatures(),
+        mushroom.getOutcomes());
+    assertEquals(1d, res.getAccuracy(), 1e-5);
+  }
+
   @Test
   public void testPossibleFeatures() {
     DecisionTree tree = DecisionTree.create();
@@ -135,11 +225,21 @@ public class DecisionTreeTest {
     assertEquals(2, set.size());
   }
 
+  static byte[] serialize(DecisionTree tree) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DecisionTree.serialize(tree, new DataOutputStream(baos));
+    return baos.toByteArray();
+  }
+
   @Test
   public void testEntropy() {
     int[] outcomeCounter = new int[] { 5, 9 };
     double entropy = DecisionTree.getEntropy(outcomeCounter);
     assertEquals(0.94, entropy, 1e-3);
+    entropy = DecisionTree.getEntropy(outcomeCounter, 14);
+    assertEquals(0.94, entropy, 1e-3);
+    entropy = DecisionTree.getEntropy(new int[] { 5, 0, 9 }, 14);
+    assertEquals(0.94, entropy, 1e-3);
   }
 
 }
@@ -0,0 +1,79 @@
+package de.jungblut.classification.tree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+import de.jungblut.classification.Classifier;
+import de.jungblut.math.DoubleMatrix;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.reader.Dataset;
+import de.jungblut.reader.IrisReader;
+import de.jungblut.reader.MushroomReader;
+
+public class FlatForestTest {
+
+  static Dataset mushroom = MushroomReader
+      .readMushroomDataset("files/mushroom/mushroom_dataset.csv");
+  static Dataset iris = IrisReader
+      .readIrisDataset("files/iris/iris_dataset.csv");
+
+  @Test
+  public void testNominalTree() {
+    DecisionTree tree = DecisionTree.create();
+    tree.train(mushroom.getFeatures(), mushroom.getOutcomes());
+    FlatForest flat = FlatForest.create(tree);
+    assertEquals(1, flat.getNumTrees());
+    assertSamePredictions(tree, flat, mushroom.getFeatures());
+  }
+
+  @Test
+  public void testNumericalForest() {
+    RandomForest forest = RandomForest
+        .create(10, FeatureType.allNumerical(4))
+        .setNumRandomFeaturesToChoose(2).setSeed(0);
+    forest.train(iris.getFeatures(), iris.getOutcomes());
+    FlatForest flat = FlatForest.create(forest);
+    assertEquals(10, flat.getNumTrees());
+    assertSamePredictions(forest, flat, iris.getFeatures());
+
+    DoubleVector[] probabilities = flat.predictProbability(iris.getFeatures());
+    for (int i = 0; i < probabilities.length; i++) {
+      DoubleVector expected = forest.predictProbability(iris.getFeatures()[i]);
+      assertEquals(0d, expected.subtract(probabilities[i]).abs().sum(), 1e-5);
+    }
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    RandomForest forest = RandomForest.create(5)
+        .setNumRandomFeaturesToChoose(10).setSeed(0);
+    forest.train(mushroom.getFeatures(), mushroom.getOutcomes());
+    FlatForest flat = FlatForest.create(forest);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    FlatForest.serialize(flat, new DataOutputStream(baos));
+    FlatForest deserialized = FlatForest.deserialize(new DataInputStream(
+        new ByteArrayInputStream(baos.toByteArray())));
+    assertEquals(flat.getNumNodes(), deserialized.getNumNodes());
+    assertSamePredictions(forest, deserialized, mushroom.getFeatures());
+  }
+
+  static void assertSamePredictions(Classifier expected, FlatForest flat,
+      DoubleVector[] features) {
+    DoubleMatrix batch = flat.predict(features);
+    for (int i = 0; i < features.length; i++) {
+      DoubleVector prediction = expected.predict(features[i]);
+      assertEquals(0d, prediction.subtract(batch.getRowVector(i)).abs()
+          .sum(), 1e-5);
+      assertEquals(0d, prediction.subtract(flat.predict(features[i])).abs()
+          .sum(), 1e-5);
+    }
+  }
+
+}
@@ -1,5 +1,6 @@
 package de.jungblut.classification.tree;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
@@ -12,6 +13,8 @@ import org.junit.Test;
 
 import de.jungblut.classification.eval.Evaluator;
 import de.jungblut.classification.eval.Evaluator.EvaluationResult;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.reader.Dataset;
 import de.jungblut.reader.MushroomReader;
 
@@ -37,6 +40,62 @@ public class RandomForestTest {
 
   }
 
+  @Test
+  public void testSeededForestIsDeterministic() throws IOException {
+    RandomForest forest = RandomForest.create(5).setNumRandomFeaturesToChoose(
+        10).setSeed(1337L).numThreads(2);
+    forest.train(mushroom.getFeatures(), mushroom.getOutcomes());
+    RandomForest other = RandomForest.create(5)
+        .setNumRandomFeaturesToChoose(10).setSeed(1337L).numTreeThreads(2);
+    other.train(mushroom.getFeatures(), mushroom.getOutcomes());
+    assertArrayEquals(serialize(forest), serialize(other));
+  }
+
+  @Test
+  public void testCompiledForest() throws Exception {
+    RandomForest forest = RandomForest.create(10).setNumRandomFeaturesToChoose(
+        10).setSeed(0);
+    forest.train(mushroom.getFeatures(), mushroom.getOutcomes());
+    DoubleVector[] predictions = new DoubleVector[mushroom.getFeatures().length];
+    for (int i = 0; i < predictions.length; i++) {
+      predictions[i] = forest.predict(mushroom.getFeatures()[i]);
+    }
+    forest.compileForest();
+    for (int i = 0; i < predictions.length; i++) {
+      assertEquals(predictions[i].get(0),
+          forest.predict(mushroom.getFeatures()[i]).get(0), 1e-5);
+    }
+  }
+
+  @Test
+  public void testRetrainAfterCompile() throws Exception {
+    RandomForest forest = RandomForest.create(10).setNumRandomFeaturesToChoose(
+        10).setSeed(0);
+    forest.train(mushroom.getFeatures(), mushroom.getOutcomes());
+    forest.compileForest();
+
+    // retrain on the inverted outcome, the compiled trees must not be used
+    DoubleVector[] inverted = new DoubleVector[mushroom.getOutcomes().length];
+    for (int i = 0; i < inverted.length; i++) {
+      inverted[i] = new DenseDoubleVector(new double[] { 1d - mushroom
+          .getOutcomes()[i].get(0) });
+    }
+    forest.train(mushroom.getFeatures(), inverted);
+    RandomForest expected = RandomForest.create(10)
+        .setNumRandomFeaturesToChoose(10).setSeed(0);
+    expected.train(mushroom.getFeatures(), inverted);
+    for (int i = 0; i < inverted.length; i++) {
+      assertEquals(expected.predict(mushroom.getFeatures()[i]).get(0), forest
+          .predict(mushroom.getFeatures()[i]).get(0), 1e-5);
+    }
+  }
+
+  static byte[] serialize(RandomForest forest) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    RandomForest.serialize(forest, new DataOutputStream(baos));
+    return baos.toByteArray();
+  }
+
   @Test
   public void testSerialization() throws IOException {
     RandomForest forest = RandomForest.create(10).setNumRandomFeaturesToChoose(
@@ -1,9 +1,13 @@
 package de.jungblut.classification.tree;
 
+import java.util.Map;
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import de.jungblut.datastructure.ArrayUtils;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.dense.DenseDoubleVector;
 
@@ -46,6 +50,62 @@ public class TreeCompilerTest {
     Assert.assertEquals(33, result);
   }
 
+  @Test
+  public void testChunkedDeepTree() throws Exception {
+    Random rnd = new Random(0);
+    // more than 2^16 nodes need multiple methods and classes
+    AbstractTreeNode root = randomTree(rnd, 16);
+    String name = TreeCompiler.generateClassName();
+    Map<String, byte[]> classes = TreeCompiler.compile(name, root);
+    Assert.assertTrue(classes.size() > 1);
+    AbstractTreeNode compiled = TreeCompiler.load(name, classes);
+    for (int i = 0; i < 1000; i++) {
+      DoubleVector vec = randomVector(rnd);
+      Assert.assertEquals(root.predict(vec), compiled.predict(vec));
+    }
+  }
+
+  @Test
+  public void testCompiledForest() throws Exception {
+    Random rnd = new Random(0);
+    AbstractTreeNode[] roots = new AbstractTreeNode[300];
+    for (int i = 0; i < roots.length; i++) {
+      roots[i] = randomTree(rnd, 6);
+    }
+    String name = TreeCompiler.generateClassName();
+    AbstractTreeNode compiled = TreeCompiler.load(name,
+        TreeCompiler.compileForest(name, roots, 2));
+    for (int i = 0; i < 1000; i++) {
+      DoubleVector vec = randomVector(rnd);
+      int[] votes = new int[2];
+      for (AbstractTreeNode root : roots) {
+        votes[root.predict(vec)]++;
+      }
+      Assert.assertEquals(ArrayUtils.maxIndex(votes), compiled.predict(vec));
+    }
+  }
+
+  static AbstractTreeNode randomTree(Random rnd, int depth) {
+    if (depth == 0) {
+      return new LeafNode(rnd.nextInt(2));
+    }
+    if (rnd.nextInt(4) == 0) {
+      NominalNode nd = new NominalNode(3, 2);
+      nd.nominalSplitValues[0] = 0;
+      nd.children[0] = randomTree(rnd, depth - 1);
+      nd.nominalSplitValues[1] = 1;
+      nd.children[1] = randomTree(rnd, depth - 1);
+      return nd;
+    }
+    return new NumericalNode(rnd.nextInt(3), rnd.nextDouble(), randomTree(
+        rnd, depth - 1), randomTree(rnd, depth - 1));
+  }
+
+  static DoubleVector randomVector(Random rnd) {
+    return new DenseDoubleVector(new double[] { rnd.nextDouble(),
+        rnd.nextDouble(), rnd.nextDouble(), rnd.nextInt(3) });
+  }
+
   @Test
   public void testOtherResults() {
 
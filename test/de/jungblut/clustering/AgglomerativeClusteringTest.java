@@ -1,11 +1,13 @@
 package de.jungblut.clustering;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Test;
@@ -14,6 +16,9 @@ import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
 
 import de.jungblut.clustering.AgglomerativeClustering.ClusterNode;
+import de.jungblut.clustering.AgglomerativeClustering.Linkage;
+import de.jungblut.distance.DistanceMeasurer;
+import de.jungblut.distance.EuclidianDistance;
 import de.jungblut.distance.ManhattanDistance;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.dense.DenseDoubleVector;
@@ -58,6 +63,169 @@ public class AgglomerativeClusteringTest {
     assertEquals(0, result.size());
   }
 
+  @Test
+  public void testLinkagesMatchNaiveClustering() {
+    List<DoubleVector> points = getRandomPoints(60);
+    for (Linkage linkage : Linkage.values()) {
+      ClusterNode root = AgglomerativeClustering.cluster(points,
+          new EuclidianDistance(), linkage);
+      assertArrayEquals(linkage.name(), naiveHeights(points, linkage),
+          heights(root), 1e-9);
+      assertEquals(points.size(), countLeafs(root));
+    }
+  }
+
+  @Test
+  public void testWardCentroidsMatchCondensedDistances() {
+    List<DoubleVector> points = getRandomPoints(80);
+    ClusterNode centroids = AgglomerativeClustering.cluster(points,
+        new EuclidianDistance(), Linkage.WARD);
+    // not an instance of the euclidian distance, thus uses the condensed array
+    final EuclidianDistance euclidian = new EuclidianDistance();
+    ClusterNode condensed = AgglomerativeClustering.cluster(points,
+        new DistanceMeasurer() {
+          @Override
+          public double measureDistance(double[] set1, double[] set2) {
+            return euclidian.measureDistance(set1, set2);
+          }
+
+          @Override
+          public double measureDistance(DoubleVector vec1, DoubleVector vec2) {
+            return euclidian.measureDistance(vec1, vec2);
+          }
+        }, Linkage.WARD);
+    assertArrayEquals(heights(condensed), heights(centroids), 1e-9);
+    // the root mean is the mean of all points
+    assertEquals(0d, mean(points).subtract(centroids.getMean()).abs().sum(), 1e-9);
+  }
+
+  @Test
+  public void testSeparatedClusters() {
+    List<DoubleVector> points = new ArrayList<>();
+    Random rnd = new Random(1);
+    for (int i = 0; i < 40; i++) {
+      double offset = i % 2 == 0 ? 0 : 100;
+      points.add(new DenseDoubleVector(new double[] {
+          offset + rnd.nextDouble(), offset + rnd.nextDouble() }));
+    }
+    for (Linkage linkage : Linkage.values()) {
+      ClusterNode root = AgglomerativeClustering.cluster(points,
+          new EuclidianDistance(), linkage);
+      assertEquals(20, countLeafs(root.getLeft()));
+      assertEquals(20, countLeafs(root.getRight()));
+      assertEquals(root, root.getLeft().getParent());
+    }
+  }
+
+  private static List<DoubleVector> getRandomPoints(int n) {
+    Random rnd = new Random(0);
+    List<DoubleVector> points = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      double offset = (i % 3) * 5;
+      points.add(new DenseDoubleVector(new double[] {
+          offset + rnd.nextGaussian(), rnd.nextGaussian(),
+          offset + rnd.nextGaussian() }));
+    }
+    return points;
+  }
+
+  private static int countLeafs(ClusterNode node) {
+    if (node.getLeft() == null) {
+      return 1;
+    }
+    return countLeafs(node.getLeft()) + countLeafs(node.getRight());
+  }
+
+  private static double[] heights(ClusterNode root) {
+    List<Double> list = new ArrayList<>();
+    collectHeights(root, list);
+    double[] heights = new double[list.size()];
+    for (int i = 0; i < heights.length; i++) {
+      heights[i] = list.get(i);
+    }
+    Arrays.sort(heights);
+    return heights;
+  }
+
+  private static void collectHeights(ClusterNode node, List<Double> list) {
+    if (node.getLeft() != null) {
+      list.add(node.getSplitDistance());
+      collectHeights(node.getLeft(), list);
+      collectHeights(node.getRight(), list);
+    }
+  }
+
+  /**
+   * Merges the closest pair of clusters by the definition of the linkage.
+   */
+  private static double[] naiveHeights(List<DoubleVector> points,
+      Linkage linkage) {
+    EuclidianDistance dist = new EuclidianDistance();
+    List<List<DoubleVector>> clusters = new ArrayList<>();
+    for (DoubleVector point : points) {
+      clusters.add(new ArrayList<>(Arrays.asList(point)));
+    }
+    double[] heights = new double[points.size() - 1];
+    int merge = 0;
+    while (clusters.size() > 1) {
+      int bestA = -1;
+      int bestB = -1;
+      double best = Double.MAX_VALUE;
+      for (int a = 0; a < clusters.size(); a++) {
+        for (int b = a + 1; b < clusters.size(); b++) {
+          double d = linkageDistance(clusters.get(a), clusters.get(b),
+              linkage, dist);
+          if (d < best) {
+            best = d;
+            bestA = a;
+            bestB = b;
+          }
+        }
+      }
+      heights[merge++] = best;
+      clusters.get(bestA).addAll(clusters.remove(bestB));
+    }
+    Arrays.sort(heights);
+    return heights;
+  }
+
+  private static double linkageDistance(List<DoubleVector> a,
+      List<DoubleVector> b, Linkage linkage, EuclidianDistance dist) {
+    if (linkage == Linkage.WARD) {
+      double na = a.size();
+      double nb = b.size();
+      return Math.sqrt(2d * na * nb / (na + nb))
+          * dist.measureDistance(mean(a), mean(b));
+    }
+    double min = Double.MAX_VALUE;
+    double max = 0d;
+    double sum = 0d;
+    for (DoubleVector x : a) {
+      for (DoubleVector y : b) {
+        double d = dist.measureDistance(x, y);
+        min = Math.min(min, d);
+        max = Math.max(max, d);
+        sum += d;
+      }
+    }
+    switch (linkage) {
+      case SINGLE:
+        return min;
+      case COMPLETE:
+        return max;
+      default:
+        return sum / (a.size() * b.size());
+    }
+  }
+
+  private static DoubleVector mean(List<DoubleVector> points) {
+    DoubleVector sum = points.get(0);
+    for (int i = 1; i < points.size(); i++) {
+      sum = sum.add(points.get(i));
+    }
+    return sum.divide(points.size());
+  }
+
   public void traverse(ClusterNode clusterNode, int level,
       HashMultimap<Integer, double[]> result) {
     System.out.println(level + " " + Strings.repeat("\t", level)
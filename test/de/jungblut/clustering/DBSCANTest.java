@@ -1,9 +1,11 @@
 package de.jungblut.clustering;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -35,4 +37,52 @@ public class DBSCANTest {
     assertEquals(noise.get(0), input.get(input.size() - 1));
   }
 
+  @Test
+  public void testDBSCANWithIndex() {
+    ArrayList<DoubleVector> input = KMeansClusteringTest.getClusteringInput(10,
+        10);
+    input.add(new DenseDoubleVector(new double[] { 2000, 2000 }));
+
+    DBSCAN scan = new DBSCAN();
+    ArrayList<DoubleVector>[] cluster = scan.cluster(input, 5, 100, 2);
+    assertEquals(1, cluster.length);
+    assertEquals(input.size() - 1, cluster[0].size());
+    List<DoubleVector> noise = scan.getNoise();
+    assertEquals(1, noise.size());
+    assertEquals(noise.get(0), input.get(input.size() - 1));
+  }
+
+  @Test
+  public void testIndexMatchesDistanceMatrix() {
+    Random rnd = new Random(0);
+    List<DoubleVector> input = new ArrayList<>();
+    // three blobs of different density and some uniform noise
+    double[][] centers = { { 0, 0 }, { 10, 10 }, { -10, 8 } };
+    double[] spread = { 1, 2, 0.5 };
+    for (int c = 0; c < centers.length; c++) {
+      for (int i = 0; i < 150; i++) {
+        input.add(new DenseDoubleVector(new double[] {
+            centers[c][0] + rnd.nextGaussian() * spread[c],
+            centers[c][1] + rnd.nextGaussian() * spread[c] }));
+      }
+    }
+    for (int i = 0; i < 50; i++) {
+      input.add(new DenseDoubleVector(new double[] { rnd.nextDouble() * 40 - 20,
+          rnd.nextDouble() * 40 - 20 }));
+    }
+    // duplicates have a distance of zero and must still be neighbours
+    input.add(input.get(0).deepCopy());
+
+    DBSCAN matrixScan = new DBSCAN();
+    ArrayList<DoubleVector>[] expected = matrixScan.cluster(input,
+        new EuclidianDistance(), 4, 0.8);
+    for (int threads : new int[] { 1, 4 }) {
+      DBSCAN indexScan = new DBSCAN();
+      ArrayList<DoubleVector>[] actual = indexScan.cluster(input, 4, 0.8,
+          threads);
+      assertArrayEquals(expected, actual);
+      assertEquals(matrixScan.getNoise(), indexScan.getNoise());
+    }
+  }
+
 }
@@ -0,0 +1,144 @@
+package de.jungblut.clustering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hama.bsp.BSPJob;
+import org.junit.Test;
+
+import de.jungblut.bsp.CenterMessage;
+import de.jungblut.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.writable.VectorWritable;
+
+public class KMeansBSPTest {
+
+  private static final int NUM_TASKS = 3;
+  private static final int K = 4;
+
+  @Test
+  public void testMatchesSequentialKMeans() throws Exception {
+    File dir = Files.createTempDirectory("kmeansbsp").toFile();
+    try {
+      Configuration conf = new Configuration();
+      FileSystem fs = FileSystem.getLocal(conf);
+      Path in = new Path(dir.getAbsolutePath(), "in");
+      Path out = new Path(dir.getAbsolutePath(), "out");
+      Path centerIn = new Path(dir.getAbsolutePath(), "center.seq");
+      Path centerOut = new Path(dir.getAbsolutePath(), "center_out.seq");
+
+      List<DoubleVector> vectors = sampleBlobs(2000);
+      List<DoubleVector> initialCenters = vectors.subList(0, K);
+      // one file per task, so every task combines a part of the sums
+      for (int task = 0; task < NUM_TASKS; task++) {
+        List<DoubleVector> split = new ArrayList<>();
+        for (int i = task; i < vectors.size(); i += NUM_TASKS) {
+          split.add(vectors.get(i));
+        }
+        write(fs, conf, new Path(in, "data" + task + ".seq"), split);
+      }
+      write(fs, conf, centerIn, initialCenters);
+
+      conf.set(KMeansBSP.CENTER_IN_PATH, centerIn.toString());
+      conf.set(KMeansBSP.CENTER_OUT_PATH, centerOut.toString());
+      conf.set("bsp.local.tasks.maximum", "" + NUM_TASKS);
+      conf.setInt(KMeansBSP.MAX_ITERATIONS_KEY, 100);
+      BSPJob job = KMeansBSP.createJob(conf, in, out);
+      job.setNumBspTask(NUM_TASKS);
+      assertTrue(job.waitForCompletion(false));
+
+      KMeansClustering sequential = new KMeansClustering(
+          new ArrayList<>(initialCenters), vectors);
+      sequential.cluster(100, new EuclidianDistance(), 0d, false);
+      DoubleVector[] expected = sequential.getCenters();
+
+      List<DoubleVector> actual = read(fs, conf, centerOut);
+      assertEquals(K, actual.size());
+      for (int i = 0; i < K; i++) {
+        assertArrayEquals(expected[i].toArray(), actual.get(i).toArray(), 1e-8);
+      }
+
+      // every vector is assigned exactly once
+      int assigned = 0;
+      for (FileStatus status : fs.listStatus(out)) {
+        if (status.getPath().getName().startsWith("part-")) {
+          try (SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+              status.getPath(), conf)) {
+            IntWritable key = new IntWritable();
+            VectorWritable value = new VectorWritable();
+            while (reader.next(key, value)) {
+              assigned++;
+            }
+          }
+        }
+      }
+      assertEquals(vectors.size(), assigned);
+    } finally {
+      FileSystem.getLocal(new Configuration()).delete(
+          new Path(dir.getAbsolutePath()), true);
+    }
+  }
+
+  @Test
+  public void testMessageBytes() throws IOException {
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    for (CenterMessage msg : new CenterMessage[] {
+        new CenterMessage(1, new DenseDoubleVector(new double[] { 1, 2, 3 })),
+        new CenterMessage(7, 25, new DenseDoubleVector(new double[] { 4 })) }) {
+      buffer.reset();
+      msg.write(buffer);
+      assertEquals(buffer.getLength(), KMeansBSP.getMessageBytes(msg));
+    }
+  }
+
+  private static List<DoubleVector> sampleBlobs(int n) {
+    Random rnd = new Random(0);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      int blob = rnd.nextInt(K);
+      vectors.add(new DenseDoubleVector(new double[] {
+          blob * 10 + rnd.nextGaussian(), blob * 5 + rnd.nextGaussian() }));
+    }
+    return vectors;
+  }
+
+  private static void write(FileSystem fs, Configuration conf, Path path,
+      List<DoubleVector> vectors) throws IOException {
+    try (SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+        path, VectorWritable.class, NullWritable.class)) {
+      for (DoubleVector v : vectors) {
+        writer.append(new VectorWritable(v), NullWritable.get());
+      }
+    }
+  }
+
+  private static List<DoubleVector> read(FileSystem fs, Configuration conf,
+      Path path) throws IOException {
+    List<DoubleVector> vectors = new ArrayList<>();
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(fs, path, conf)) {
+      VectorWritable key = new VectorWritable();
+      while (reader.next(key, NullWritable.get())) {
+        vectors.add(key.getVector().deepCopy());
+      }
+    }
+    return vectors;
+  }
+
+}
@@ -4,15 +4,20 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 import org.junit.Test;
 
+import de.jungblut.clustering.KMeansClustering.KMeansClusteringBuilder;
+import de.jungblut.distance.DistanceMeasurer;
 import de.jungblut.distance.EuclidianDistance;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.dense.DenseDoubleVector;
 
 public class KMeansClusteringTest {
 
+  private static final double BLOB_DISTANCE = 20d;
+
   @Test
   public void testKMeansClustering() {
     ArrayList<DoubleVector> lst = getClusteringInput();
@@ -44,6 +49,128 @@ public class KMeansClusteringTest {
     }
   }
 
+  @Test
+  public void testTriangleInequalityMatchesBruteForce() {
+    // the grid contains a lot of ties between centers
+    assertSameClustering(getClusteringInput(), 7);
+
+    Random rnd = new Random(0);
+    ArrayList<DoubleVector> lst = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      int blob = rnd.nextInt(10);
+      DoubleVector v = new DenseDoubleVector(5);
+      for (int j = 0; j < v.getDimension(); j++) {
+        v.set(j, blob * 3 + rnd.nextGaussian());
+      }
+      lst.add(v);
+    }
+    assertSameClustering(lst, 25);
+  }
+
+  @Test
+  public void testParallelMatchesSingleThreaded() {
+    ArrayList<DoubleVector> lst = sampleBlobs(5000, 10);
+    EuclidianDistance dist = new EuclidianDistance();
+    KMeansClustering single = KMeansClusteringBuilder.create(lst, 10)
+        .numThreads(1).seed(0L).build();
+    ArrayList<DoubleVector>[] expected = single.cluster(50, dist, 0d, false);
+    KMeansClustering parallel = KMeansClusteringBuilder.create(lst, 10)
+        .numThreads(4).seed(0L).triangleInequality().build();
+    ArrayList<DoubleVector>[] actual = parallel.cluster(50, dist, 0d, false);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(expected[i], actual[i]);
+      assertEquals(0d, single.getCenters()[i]
+          .subtract(parallel.getCenters()[i]).abs().sum(), 1e-8);
+    }
+  }
+
+  @Test
+  public void testKMeansPlusPlusSeeding() {
+    ArrayList<DoubleVector> lst = sampleBlobs(1000, 5);
+    DoubleVector[] centers = KMeansClustering.seedPlusPlus(lst, 5,
+        new Random(0));
+    // the blobs are far apart, so every blob should get a center
+    boolean[] seeded = new boolean[5];
+    for (DoubleVector center : centers) {
+      seeded[blobOf(center)] = true;
+    }
+    for (boolean b : seeded) {
+      assertTrue(b);
+    }
+  }
+
+  @Test
+  public void testMiniBatch() {
+    ArrayList<DoubleVector> lst = sampleBlobs(5000, 5);
+    KMeansClustering clusterer = KMeansClusteringBuilder.create(lst, 5)
+        .numThreads(2).seed(0L).build();
+    ArrayList<DoubleVector>[] assignments = clusterer.clusterMiniBatch(50,
+        100, new EuclidianDistance(), false);
+    int total = 0;
+    for (ArrayList<DoubleVector> cluster : assignments) {
+      assertTrue(cluster.size() > 0);
+      // all vectors of a cluster are within the same blob
+      int blob = blobOf(cluster.get(0));
+      for (DoubleVector v : cluster) {
+        assertEquals(blob, blobOf(v));
+      }
+      total += cluster.size();
+    }
+    assertEquals(lst.size(), total);
+  }
+
+  private static ArrayList<DoubleVector> sampleBlobs(int n, int blobs) {
+    Random rnd = new Random(0);
+    ArrayList<DoubleVector> lst = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      int blob = rnd.nextInt(blobs);
+      DoubleVector v = new DenseDoubleVector(5);
+      for (int j = 0; j < v.getDimension(); j++) {
+        v.set(j, blob * BLOB_DISTANCE + rnd.nextGaussian());
+      }
+      lst.add(v);
+    }
+    return lst;
+  }
+
+  private static int blobOf(DoubleVector v) {
+    return (int) Math.round(v.get(0) / BLOB_DISTANCE);
+  }
+
+  private void assertSameClustering(ArrayList<DoubleVector> lst, int k) {
+    CountingDistance dist = new CountingDistance();
+    KMeansClustering bruteForce = new KMeansClustering(k, lst, false);
+    ArrayList<DoubleVector>[] expected = bruteForce.cluster(50, dist, 0d,
+        false);
+    long bruteForceMeasurements = dist.measurements;
+    dist.measurements = 0;
+    KMeansClustering accelerated = new KMeansClustering(k, lst, false, true);
+    ArrayList<DoubleVector>[] actual = accelerated.cluster(50, dist, 0d, false);
+    assertTrue(dist.measurements < bruteForceMeasurements);
+    for (int i = 0; i < k; i++) {
+      assertEquals(expected[i], actual[i]);
+      assertEquals(0d, bruteForce.getCenters()[i]
+          .subtract(accelerated.getCenters()[i]).abs().sum(), 0d);
+    }
+  }
+
+  static class CountingDistance implements DistanceMeasurer {
+    private final EuclidianDistance dist = new EuclidianDistance();
+    long measurements;
+
+    @Override
+    public double measureDistance(double[] set1, double[] set2) {
+      measurements++;
+      return dist.measureDistance(set1, set2);
+    }
+
+    @Override
+    public double measureDistance(DoubleVector vec1, DoubleVector vec2) {
+      measurements++;
+      return dist.measureDistance(vec1, vec2);
+    }
+  }
+
   public static ArrayList<DoubleVector> getClusteringInput() {
     // we are "sampling" a 100x100 grid to a vector space and let's do some
     // clustering.
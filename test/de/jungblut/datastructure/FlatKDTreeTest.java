@@ -0,0 +1,177 @@
+package de.jungblut.datastructure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.jungblut.datastructure.KDTree.VectorDistanceTuple;
+import de.jungblut.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+public class FlatKDTreeTest {
+
+  @Test
+  public void testKNearestNeighbours() {
+    Random rnd = new Random(0);
+    List<DoubleVector> points = randomPoints(rnd, 500, 3);
+    FlatKDTree<Integer> tree = new FlatKDTree<>(points, indices(points));
+    assertEquals(points.size(), tree.size());
+    for (int q = 0; q < 50; q++) {
+      DoubleVector query = randomPoints(rnd, 1, 3).get(0);
+      for (int k : new int[] { 1, 7, 600 }) {
+        List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+            query, k);
+        assertNeighbours(bruteForce(points, query, k, Double.MAX_VALUE),
+            result);
+      }
+    }
+  }
+
+  @Test
+  public void testRadiusSearch() {
+    Random rnd = new Random(1);
+    List<DoubleVector> points = randomPoints(rnd, 500, 2);
+    FlatKDTree<Integer> tree = new FlatKDTree<>(points, indices(points));
+    for (int q = 0; q < 50; q++) {
+      DoubleVector query = points.get(q);
+      List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+          query, 0.2);
+      assertNeighbours(bruteForce(points, query, Integer.MAX_VALUE, 0.2),
+          result);
+      result = tree.getNearestNeighbours(query, 3, 0.2);
+      assertNeighbours(bruteForce(points, query, 3, 0.2), result);
+    }
+  }
+
+  @Test
+  public void testTiesAndDuplicates() {
+    List<DoubleVector> points = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      points.add(new DenseDoubleVector(new double[] { i % 5 }));
+    }
+    FlatKDTree<Integer> tree = new FlatKDTree<>(points, indices(points));
+    List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+        new DenseDoubleVector(new double[] { 2 }), 4);
+    // both duplicates of 2 and then the lower indices of 1 and 3
+    assertEquals(Arrays.asList(2, 7, 1, 3), values(result));
+  }
+
+  @Test
+  public void testRangeQuery() {
+    Random rnd = new Random(2);
+    List<DoubleVector> points = randomPoints(rnd, 300, 2);
+    FlatKDTree<Integer> tree = new FlatKDTree<>(points);
+    DoubleVector lower = new DenseDoubleVector(new double[] { 0.2, 0.4 });
+    DoubleVector upper = new DenseDoubleVector(new double[] { 0.5, 0.6 });
+    Set<DoubleVector> expected = new HashSet<>();
+    for (DoubleVector v : points) {
+      if (v.get(0) >= 0.2 && v.get(0) <= 0.5 && v.get(1) >= 0.4
+          && v.get(1) <= 0.6) {
+        expected.add(v);
+      }
+    }
+    List<DoubleVector> result = tree.rangeQuery(lower, upper);
+    assertEquals(expected.size(), result.size());
+    assertEquals(expected, new HashSet<>(result));
+  }
+
+  @Test
+  public void testBatchQuery() {
+    Random rnd = new Random(3);
+    List<DoubleVector> points = randomPoints(rnd, 1000, 4);
+    FlatKDTree<Integer> tree = new FlatKDTree<>(points, indices(points));
+    List<DoubleVector> queries = randomPoints(rnd, 200, 4);
+    for (int threads : new int[] { 1, 4 }) {
+      List<List<VectorDistanceTuple<Integer>>> result = tree
+          .getNearestNeighbours(queries, 5, 0.5, threads);
+      assertEquals(queries.size(), result.size());
+      for (int i = 0; i < queries.size(); i++) {
+        assertNeighbours(tree.getNearestNeighbours(queries.get(i), 5, 0.5),
+            result.get(i));
+      }
+    }
+    assertTrue(tree.getNearestNeighbours(new ArrayList<DoubleVector>(), 5,
+        0.5, 4).isEmpty());
+  }
+
+  @Test
+  public void testEmptyTree() {
+    FlatKDTree<Integer> tree = new FlatKDTree<>(new ArrayList<DoubleVector>());
+    assertEquals(0, tree.size());
+    assertTrue(tree.getNearestNeighbours(
+        new DenseDoubleVector(new double[] { 1 }), 3).isEmpty());
+  }
+
+  private static List<Integer> values(List<VectorDistanceTuple<Integer>> list) {
+    List<Integer> values = new ArrayList<>();
+    for (VectorDistanceTuple<Integer> tuple : list) {
+      values.add(tuple.getValue());
+    }
+    return values;
+  }
+
+  private static void assertNeighbours(
+      List<VectorDistanceTuple<Integer>> expected,
+      List<VectorDistanceTuple<Integer>> actual) {
+    assertEquals(values(expected), values(actual));
+    for (int i = 0; i < expected.size(); i++) {
+      assertSame(expected.get(i).getVector(), actual.get(i).getVector());
+      assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance(),
+          1e-12);
+    }
+  }
+
+  private static List<VectorDistanceTuple<Integer>> bruteForce(
+      List<DoubleVector> points, DoubleVector query, int k, double radius) {
+    List<VectorDistanceTuple<Integer>> list = new ArrayList<>();
+    for (int i = 0; i < points.size(); i++) {
+      double dist = EuclidianDistance.get().measureDistance(points.get(i),
+          query);
+      if (dist <= radius) {
+        list.add(new VectorDistanceTuple<>(points.get(i), i, dist));
+      }
+    }
+    // stable sort, thus ties stay ordered by index
+    Collections.sort(list, new Comparator<VectorDistanceTuple<Integer>>() {
+      @Override
+      public int compare(VectorDistanceTuple<Integer> o1,
+          VectorDistanceTuple<Integer> o2) {
+        return Double.compare(o1.getDistance(), o2.getDistance());
+      }
+    });
+    return list.subList(0, Math.min(k, list.size()));
+  }
+
+  private static List<Integer> indices(List<DoubleVector> points) {
+    List<Integer> indices = new ArrayList<>();
+    for (int i = 0; i < points.size(); i++) {
+      indices.add(i);
+    }
+    return indices;
+  }
+
+  private static List<DoubleVector> randomPoints(Random rnd, int n, int dim) {
+    List<DoubleVector> points = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      double[] arr = new double[dim];
+      for (int d = 0; d < dim; d++) {
+        arr[d] = rnd.nextDouble();
+      }
+      points.add(new DenseDoubleVector(arr));
+    }
+    return points;
+  }
+
+}
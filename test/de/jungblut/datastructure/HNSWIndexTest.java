@@ -0,0 +1,128 @@
+package de.jungblut.datastructure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.datastructure.HNSWIndex.HNSWIndexBuilder;
+import de.jungblut.datastructure.KDTree.VectorDistanceTuple;
+import de.jungblut.distance.DistanceMeasurer;
+import de.jungblut.distance.EuclidianDistance;
+import de.jungblut.distance.ManhattanDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+public class HNSWIndexTest {
+
+  @Test
+  public void testRecall() {
+    Random rnd = new Random(0);
+    List<DoubleVector> points = randomPoints(rnd, 3000, 8);
+    List<DoubleVector> queries = randomPoints(rnd, 100, 8);
+    for (DistanceMeasurer measurer : new DistanceMeasurer[] {
+        new EuclidianDistance(), new ManhattanDistance() }) {
+      HNSWIndex index = HNSWIndexBuilder.create(measurer).seed(0L).build();
+      for (DoubleVector v : points) {
+        index.add(v);
+      }
+      assertEquals(points.size(), index.size());
+      double lowRecall = recall(index, points, queries, measurer, 10, 10);
+      double highRecall = recall(index, points, queries, measurer, 10, 200);
+      assertTrue("Recall was " + highRecall, highRecall > 0.95);
+      assertTrue(highRecall >= lowRecall);
+    }
+  }
+
+  @Test
+  public void testIncrementalInsertion() {
+    Random rnd = new Random(1);
+    HNSWIndex index = HNSWIndexBuilder.create(new EuclidianDistance())
+        .seed(1L).m(4).build();
+    assertTrue(index.query(randomPoints(rnd, 1, 3).get(0), 3).isEmpty());
+    for (DoubleVector v : randomPoints(rnd, 500, 3)) {
+      int id = index.add(v);
+      // every vector is found right after it was inserted
+      List<VectorDistanceTuple<Integer>> result = index.query(v, 1);
+      assertEquals(0d, result.get(0).getDistance(), 1e-12);
+      assertEquals(id, result.get(0).getValue().intValue());
+    }
+    // results are sorted ascending
+    List<VectorDistanceTuple<Integer>> result = index.query(index.get(0), 20);
+    assertEquals(20, result.size());
+    for (int i = 1; i < result.size(); i++) {
+      assertTrue(result.get(i - 1).getDistance() <= result.get(i)
+          .getDistance());
+    }
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    Random rnd = new Random(2);
+    HNSWIndex index = HNSWIndexBuilder.create(new ManhattanDistance())
+        .seed(2L).efSearch(20).build();
+    for (DoubleVector v : randomPoints(rnd, 1000, 5)) {
+      index.add(v);
+    }
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    HNSWIndex.serialize(index, new DataOutputStream(baos));
+    HNSWIndex read = HNSWIndex.deserialize(new DataInputStream(
+        new ByteArrayInputStream(baos.toByteArray())));
+    assertEquals(index.size(), read.size());
+    for (DoubleVector query : randomPoints(rnd, 50, 5)) {
+      List<VectorDistanceTuple<Integer>> expected = index.query(query, 5);
+      List<VectorDistanceTuple<Integer>> actual = read.query(query, 5);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+        assertEquals(expected.get(i).getDistance(), actual.get(i)
+            .getDistance(), 1e-12);
+      }
+    }
+    // the read index can still grow
+    DoubleVector v = randomPoints(rnd, 1, 5).get(0);
+    int id = read.add(v);
+    assertEquals(id, read.query(v, 1).get(0).getValue().intValue());
+  }
+
+  private static double recall(HNSWIndex index, List<DoubleVector> points,
+      List<DoubleVector> queries, DistanceMeasurer measurer, int k, int ef) {
+    int found = 0;
+    for (DoubleVector query : queries) {
+      LimitedPriorityQueue<Integer> queue = new LimitedPriorityQueue<>(k);
+      for (int i = 0; i < points.size(); i++) {
+        queue.add(i, measurer.measureDistance(query, points.get(i)));
+      }
+      TIntHashSet exact = new TIntHashSet(queue.toList());
+      for (VectorDistanceTuple<Integer> tuple : index.query(query, k, ef)) {
+        if (exact.contains(tuple.getValue())) {
+          found++;
+        }
+      }
+    }
+    return found / (double) (queries.size() * k);
+  }
+
+  private static List<DoubleVector> randomPoints(Random rnd, int n, int dim) {
+    List<DoubleVector> points = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      double[] arr = new double[dim];
+      for (int d = 0; d < dim; d++) {
+        arr[d] = rnd.nextDouble();
+      }
+      points.add(new DenseDoubleVector(arr));
+    }
+    return points;
+  }
+
+}
@@ -2,8 +2,10 @@ package de.jungblut.datastructure;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Test;
@@ -14,6 +16,7 @@ import com.google.common.collect.Sets.SetView;
 import de.jungblut.datastructure.InvertedIndex.DocumentDistanceMeasurer;
 import de.jungblut.datastructure.InvertedIndex.DocumentMapper;
 import de.jungblut.distance.CosineDistance;
+import de.jungblut.distance.JaccardDocumentDistanceMeasurer;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.sparse.SparseDoubleVector;
 import de.jungblut.nlp.TokenizerUtils;
@@ -76,27 +79,114 @@ public class InvertedIndexTest {
 
   }
 
+  @Test
+  public void testBoundedMeasurerMatchesUnbounded() {
+    Random rnd = new Random(0);
+    List<String> docs = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      docs.add(randomDocument(rnd));
+    }
+    InvertedIndex<String, String> unbounded = create(jaccard());
+    unbounded.build(docs);
+    InvertedIndex<String, String> bounded = create(JaccardDocumentDistanceMeasurer
+        .<String, String> create());
+    bounded.build(docs);
+
+    for (int q = 0; q < 50; q++) {
+      String query = randomDocument(rnd);
+      for (int k : new int[] { 1, 10, Integer.MAX_VALUE }) {
+        List<DistanceResult<String>> expected = unbounded.query(query, k, 0.9);
+        List<DistanceResult<String>> actual = bounded.query(query, k, 0.9);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+          assertEquals(expected.get(i).getDistance(), actual.get(i)
+              .getDistance(), 1e-12);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMaxScoreMatchesUnbounded() {
+    Random rnd = new Random(1);
+    List<String> docs = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      docs.add(skewedDocument(rnd));
+    }
+    InvertedIndex<String, String> unbounded = create(jaccard());
+    unbounded.build(docs);
+    InvertedIndex<String, String> bounded = create(JaccardDocumentDistanceMeasurer
+        .<String, String> create());
+    bounded.build(docs);
+
+    for (int q = 0; q < 50; q++) {
+      String query = skewedDocument(rnd);
+      for (int k : new int[] { 1, 5, 50 }) {
+        for (double minDistance : new double[] { 0.5, 1d }) {
+          List<DistanceResult<String>> expected = unbounded.query(query, k,
+              minDistance);
+          List<DistanceResult<String>> actual = bounded.query(query, k,
+              minDistance);
+          assertEquals(expected.size(), actual.size());
+          for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getDistance(), actual.get(i)
+                .getDistance(), 1e-12);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Few words are very frequent, so their postings are long and get skipped.
+   */
+  private static String skewedDocument(Random rnd) {
+    StringBuilder sb = new StringBuilder();
+    int words = 3 + rnd.nextInt(8);
+    for (int i = 0; i < words; i++) {
+      double r = rnd.nextDouble();
+      sb.append("w").append((int) (500 * r * r * r)).append(' ');
+    }
+    return sb.toString().trim();
+  }
+
+  private static String randomDocument(Random rnd) {
+    StringBuilder sb = new StringBuilder();
+    int words = 3 + rnd.nextInt(8);
+    for (int i = 0; i < words; i++) {
+      sb.append("w").append(rnd.nextInt(40)).append(' ');
+    }
+    return sb.toString().trim();
+  }
+
   public static InvertedIndex<String, String> getBuiltIndex() {
     // create a white space tokenizing index that measures the jaccard
     // distance.
-    InvertedIndex<String, String> invIndex = InvertedIndex.create(
-        new DocumentMapper<String, String>() {
-          @Override
-          public Set<String> mapDocument(String doc) {
-            return Sets.newHashSet(TokenizerUtils.whiteSpaceTokenize(doc));
-          }
-        }, new DocumentDistanceMeasurer<String, String>() {
-          @Override
-          public double measure(String reference, Set<String> referenceKeys,
-              String doc, Set<String> docKeys) {
-            SetView<String> union = Sets.union(referenceKeys, docKeys);
-            SetView<String> intersection = Sets.intersection(referenceKeys,
-                docKeys);
-            return 1d - (intersection.size() / (double) union.size());
-          }
-        });
-
+    InvertedIndex<String, String> invIndex = create(jaccard());
     invIndex.build(phrases);
     return invIndex;
   }
+
+  private static InvertedIndex<String, String> create(
+      DocumentDistanceMeasurer<String, String> measurer) {
+    return InvertedIndex.create(new DocumentMapper<String, String>() {
+      @Override
+      public Set<String> mapDocument(String doc) {
+        return Sets.newHashSet(TokenizerUtils.whiteSpaceTokenize(doc));
+      }
+    }, measurer);
+  }
+
+  private static DocumentDistanceMeasurer<String, String> jaccard() {
+    return new DocumentDistanceMeasurer<String, String>() {
+      @Override
+      public double measure(String reference, Set<String> referenceKeys,
+          String doc, Set<String> docKeys) {
+        SetView<String> union = Sets.union(referenceKeys, docKeys);
+        SetView<String> intersection = Sets.intersection(referenceKeys,
+            docKeys);
+        return 1d - (intersection.size() / (double) union.size());
+      }
+    };
+  }
 }
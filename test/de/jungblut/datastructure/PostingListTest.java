@@ -0,0 +1,97 @@
+package de.jungblut.datastructure;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PostingListTest {
+
+  @Test
+  public void testEncodeDecode() {
+    Random rnd = new Random(0);
+    int[] expected = new int[1000];
+    PostingList list = new PostingList();
+    int docId = -1;
+    for (int i = 0; i < expected.length; i++) {
+      // mix of dense and very sparse gaps
+      docId += 1 + (i % 10 == 0 ? rnd.nextInt(1 << 24) : rnd.nextInt(3));
+      expected[i] = docId;
+      list.add(docId);
+    }
+    list.trim();
+    assertEquals(expected.length, list.size());
+    assertArrayEquals(expected, list.toArray());
+
+    PostingList.Cursor cursor = list.cursor();
+    assertEquals(-1, cursor.docId());
+    for (int id : expected) {
+      cursor.next();
+      assertEquals(id, cursor.docId());
+    }
+    assertFalse(cursor.next());
+    assertEquals(Integer.MAX_VALUE, cursor.docId());
+  }
+
+  @Test
+  public void testAdvance() {
+    Random rnd = new Random(1);
+    int[] ids = new int[5000];
+    PostingList list = new PostingList();
+    int docId = -1;
+    for (int i = 0; i < ids.length; i++) {
+      docId += 1 + rnd.nextInt(20);
+      ids[i] = docId;
+      list.add(docId);
+    }
+    list.trim();
+
+    for (int run = 0; run < 10; run++) {
+      PostingList.Cursor cursor = list.cursor();
+      int expected = 0;
+      int target = 0;
+      while (true) {
+        // mix of short steps and long jumps over multiple skip blocks
+        target += rnd.nextBoolean() ? rnd.nextInt(30) : rnd.nextInt(20000);
+        while (expected < ids.length && ids[expected] < target) {
+          expected++;
+        }
+        if (expected == ids.length) {
+          assertFalse(cursor.advance(target));
+          assertEquals(Integer.MAX_VALUE, cursor.docId());
+          break;
+        }
+        assertTrue(cursor.advance(target));
+        assertEquals(ids[expected], cursor.docId());
+        // mixing next and advance keeps the cursor consistent
+        if (rnd.nextBoolean() && expected + 1 < ids.length) {
+          assertTrue(cursor.next());
+          expected++;
+          assertEquals(ids[expected], cursor.docId());
+          target = ids[expected];
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDenseCompression() {
+    PostingList list = new PostingList();
+    for (int i = 0; i < 10000; i++) {
+      list.add(i * 2);
+    }
+    assertEquals(10000, list.sizeInBytes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnorderedAdd() {
+    PostingList list = new PostingList();
+    list.add(5);
+    list.add(5);
+  }
+
+}
@@ -0,0 +1,93 @@
+package de.jungblut.datastructure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import de.jungblut.datastructure.DiskList.IORuntimeException;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.sparse.SparseDoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+public class VectorFileInputProviderTest {
+
+  @Test
+  public void testReadWrite() throws IOException {
+    File file = File.createTempFile("vectorfile", ".tmp");
+    file.deleteOnExit();
+    DoubleVector[] features = new DoubleVector[100];
+    DoubleVector[] outcome = new DoubleVector[features.length];
+    for (int i = 0; i < features.length; i++) {
+      features[i] = new DenseDoubleVector(new double[] { i, i * 2 });
+      if (i % 2 == 0) {
+        features[i] = new SparseDoubleVector(features[i]);
+      }
+      outcome[i] = new DenseDoubleVector(new double[] { i % 3 });
+    }
+    VectorFileInputProvider.write(file.getAbsolutePath(), features, outcome);
+
+    VectorFileInputProvider provider = new VectorFileInputProvider(
+        file.getAbsolutePath());
+    // the file must be readable multiple times
+    for (int pass = 0; pass < 2; pass++) {
+      int index = 0;
+      for (Tuple<DoubleVector, DoubleVector> row : provider.iterate()) {
+        assertEquals(features[index], row.getFirst());
+        assertEquals(features[index].isSparse(), row.getFirst().isSparse());
+        assertEquals(outcome[index], row.getSecond());
+        index++;
+      }
+      assertEquals(features.length, index);
+    }
+  }
+
+  @Test
+  public void testWithoutOutcome() throws IOException {
+    File file = File.createTempFile("vectorfile", ".tmp");
+    file.deleteOnExit();
+    DoubleVector[] features = new DoubleVector[] {
+        new DenseDoubleVector(new double[] { 1, 2 }),
+        new DenseDoubleVector(new double[] { 3, 4 }) };
+    VectorFileInputProvider.write(file.getAbsolutePath(), features, null);
+
+    int index = 0;
+    for (Tuple<DoubleVector, DoubleVector> row : new VectorFileInputProvider(
+        file.getAbsolutePath()).iterate()) {
+      assertEquals(features[index++], row.getFirst());
+      assertNull(row.getSecond());
+    }
+    assertEquals(features.length, index);
+  }
+
+  @Test
+  public void testCloseBeforeEnd() throws IOException {
+    File file = File.createTempFile("vectorfile", ".tmp");
+    file.deleteOnExit();
+    DoubleVector[] features = new DoubleVector[] {
+        new DenseDoubleVector(new double[] { 1, 2 }),
+        new DenseDoubleVector(new double[] { 3, 4 }) };
+    VectorFileInputProvider.write(file.getAbsolutePath(), features, null);
+
+    Iterator<Tuple<DoubleVector, DoubleVector>> iterator = new VectorFileInputProvider(
+        file.getAbsolutePath()).iterate().iterator();
+    assertEquals(features[0], iterator.next().getFirst());
+    assertTrue(iterator instanceof Closeable);
+    ((Closeable) iterator).close();
+    try {
+      iterator.next();
+      fail("The stream should have been closed!");
+    } catch (IORuntimeException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+package de.jungblut.math.cpu;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.math.DoubleMatrix;
+import de.jungblut.math.dense.DenseDoubleMatrix;
+
+public class CPUMatrixUtilsTest {
+
+  @Test
+  public void testSmallMultiplication() {
+    DenseDoubleMatrix a = new DenseDoubleMatrix(new double[][] { { 1, 2, 3 },
+        { 4, 5, 6 } });
+    DenseDoubleMatrix b = new DenseDoubleMatrix(new double[][] { { 7, 8 },
+        { 9, 10 }, { 11, 12 } });
+    DenseDoubleMatrix c = CPUMatrixUtils.multiply(a, b, false, false);
+    assertEquals(2, c.getRowCount());
+    assertEquals(2, c.getColumnCount());
+    assertEquals(58d, c.get(0, 0), 1e-12);
+    assertEquals(64d, c.get(0, 1), 1e-12);
+    assertEquals(139d, c.get(1, 0), 1e-12);
+    assertEquals(154d, c.get(1, 1), 1e-12);
+  }
+
+  @Test
+  public void testTransposedOperands() {
+    Random rnd = new Random(0);
+    // sizes that are no multiple of the block sizes
+    int m = 301;
+    int n = 67;
+    int k = 150;
+    for (int threads : new int[] { 1, 4 }) {
+      for (boolean aTranspose : new boolean[] { false, true }) {
+        for (boolean bTranspose : new boolean[] { false, true }) {
+          DenseDoubleMatrix a = aTranspose ? new DenseDoubleMatrix(k, m, rnd)
+              : new DenseDoubleMatrix(m, k, rnd);
+          DenseDoubleMatrix b = bTranspose ? new DenseDoubleMatrix(n, k, rnd)
+              : new DenseDoubleMatrix(k, n, rnd);
+          DoubleMatrix expected = (aTranspose ? a.transpose() : a)
+              .multiply(bTranspose ? b.transpose() : b);
+          DenseDoubleMatrix actual = CPUMatrixUtils.multiply(a, b,
+              aTranspose, bTranspose, threads);
+          assertMatrixEquals(expected, actual);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testWideResult() {
+    // more columns than rows splits the columns across the threads
+    Random rnd = new Random(1);
+    DenseDoubleMatrix a = new DenseDoubleMatrix(20, 100, rnd);
+    DenseDoubleMatrix b = new DenseDoubleMatrix(500, 100, rnd);
+    DoubleMatrix expected = a.multiply(b.transpose());
+    DenseDoubleMatrix actual = CPUMatrixUtils.multiply(a, b, false, true, 4);
+    assertMatrixEquals(expected, actual);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDimensionMismatch() {
+    CPUMatrixUtils.multiply(new DenseDoubleMatrix(2, 3), new DenseDoubleMatrix(
+        2, 3), false, false);
+  }
+
+  private static void assertMatrixEquals(DoubleMatrix expected,
+      DoubleMatrix actual) {
+    assertEquals(expected.getRowCount(), actual.getRowCount());
+    assertEquals(expected.getColumnCount(), actual.getColumnCount());
+    for (int row = 0; row < expected.getRowCount(); row++) {
+      for (int col = 0; col < expected.getColumnCount(); col++) {
+        assertEquals(expected.get(row, col), actual.get(row, col), 1e-10);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,338 @@
+package de.jungblut.math.minimize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.AbstractIterator;
+
+import de.jungblut.datastructure.CollectionInputProvider;
+import de.jungblut.datastructure.InputProvider;
+import de.jungblut.math.DoubleMatrix;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+public class AbstractMiniBatchCostFunctionTest {
+
+  @Test
+  public void testParallelAverage() {
+    DoubleVector[] features = createFeatures(100);
+    DoubleVector theta = new DenseDoubleVector(new double[] { 1, 2, 3 });
+    // full batch evaluated by a single worker as the reference
+    CostGradientTuple expected = new SumCostFunction(features, 0, 1)
+        .evaluateCost(theta);
+
+    for (int threads : new int[] { 1, 2, 3, 8 }) {
+      for (boolean pin : new boolean[] { false, true }) {
+        AbstractMiniBatchCostFunction fnc = new SumCostFunction(features, 10,
+            threads).setPinBatches(pin);
+        // evaluate multiple times to check the buffers are reset
+        for (int i = 0; i < 3; i++) {
+          CostGradientTuple result = fnc.evaluateCost(theta);
+          assertEquals(expected.getCost(), result.getCost(), 1e-8);
+          assertArrayEquals(expected.getGradient().toArray(), result
+              .getGradient().toArray(), 1e-8);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReturnedGradientIsNotReused() {
+    DoubleVector[] features = createFeatures(40);
+    AbstractMiniBatchCostFunction fnc = new SumCostFunction(features, 10, 4);
+    DoubleVector first = fnc.evaluateCost(
+        new DenseDoubleVector(new double[] { 1, 1, 1 })).getGradient();
+    double[] copy = first.toArray().clone();
+    fnc.evaluateCost(new DenseDoubleVector(new double[] { 5, 5, 5 }));
+    assertArrayEquals(copy, first.toArray(), 0d);
+  }
+
+  @Test
+  public void testConcurrentEvaluation() throws Exception {
+    DoubleVector[] features = createFeatures(100);
+    final AbstractMiniBatchCostFunction fnc = new SumCostFunction(features, 10,
+        4);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<CostGradientTuple>> futures = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        final DoubleVector theta = new DenseDoubleVector(new double[] { i, i,
+            i });
+        futures.add(pool.submit(new Callable<CostGradientTuple>() {
+          @Override
+          public CostGradientTuple call() throws Exception {
+            return fnc.evaluateCost(theta);
+          }
+        }));
+      }
+      CostGradientTuple reference = new SumCostFunction(features, 0, 1)
+          .evaluateCost(new DenseDoubleVector(new double[] { 1, 1, 1 }));
+      for (int i = 0; i < futures.size(); i++) {
+        // the cost is linear in theta
+        assertEquals(reference.getCost() * i, futures.get(i).get().getCost(),
+            1e-6);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testStochastic() {
+    DoubleVector[] features = createFeatures(30);
+    DoubleVector theta = new DenseDoubleVector(new double[] { 1, 2, 3 });
+    SumCostFunction fnc = new SumCostFunction(features, 10, 4, true);
+    double costSum = 0d;
+    for (int i = 0; i < 3; i++) {
+      costSum += fnc.evaluateCost(theta).getCost();
+    }
+    double expected = new SumCostFunction(features, 0, 1).evaluateCost(theta)
+        .getCost();
+    // every batch was visited exactly once
+    assertEquals(expected, costSum / 3, 1e-8);
+  }
+
+  @Test
+  public void testStreaming() {
+    DoubleVector[] features = createFeatures(95);
+    DoubleVector theta = new DenseDoubleVector(new double[] { 1, 2, 3 });
+    CostGradientTuple expected = new SumCostFunction(features, 10, 1)
+        .evaluateCost(theta);
+    for (int threads : new int[] { 1, 3 }) {
+      SumCostFunction fnc = new SumCostFunction(createProvider(features), 10,
+          threads, false);
+      for (int i = 0; i < 3; i++) {
+        CostGradientTuple result = fnc.evaluateCost(theta);
+        assertEquals(expected.getCost(), result.getCost(), 1e-8);
+        assertArrayEquals(expected.getGradient().toArray(), result
+            .getGradient().toArray(), 1e-8);
+      }
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentStreaming() throws Exception {
+    DoubleVector[] features = createFeatures(200);
+    final DoubleVector theta = new DenseDoubleVector(new double[] { 1, 2, 3 });
+    CostGradientTuple expected = new SumCostFunction(features, 5, 1)
+        .evaluateCost(theta);
+    // many more batches than read ahead, so the producers block on their
+    // queues while the workers of the other evaluation wait for batches
+    final SumCostFunction fnc = new SumCostFunction(createProvider(features),
+        5, 3, false);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<CostGradientTuple>> futures = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        futures.add(pool.submit(new Callable<CostGradientTuple>() {
+          @Override
+          public CostGradientTuple call() throws Exception {
+            return fnc.evaluateCost(theta);
+          }
+        }));
+      }
+      for (Future<CostGradientTuple> future : futures) {
+        CostGradientTuple result = future.get();
+        assertEquals(expected.getCost(), result.getCost(), 1e-8);
+        assertArrayEquals(expected.getGradient().toArray(), result
+            .getGradient().toArray(), 1e-8);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testStochasticStreaming() {
+    DoubleVector[] features = createFeatures(30);
+    DoubleVector theta = new DenseDoubleVector(new double[] { 1, 2, 3 });
+    SumCostFunction fnc = new SumCostFunction(createProvider(features), 10, 1,
+        true);
+    double expected = new SumCostFunction(features, 0, 1).evaluateCost(theta)
+        .getCost();
+    // do two passes over the data
+    for (int pass = 0; pass < 2; pass++) {
+      double costSum = 0d;
+      for (int i = 0; i < 3; i++) {
+        costSum += fnc.evaluateCost(theta).getCost();
+      }
+      assertEquals(expected, costSum / 3, 1e-8);
+    }
+  }
+
+  @Test
+  public void testMixedOutcomesInBatch() {
+    DoubleVector[] features = createFeatures(30);
+    List<Tuple<DoubleVector, DoubleVector>> rows = new ArrayList<>();
+    for (int i = 0; i < features.length; i++) {
+      DoubleVector outcome = i % 2 == 0 ? features[i] : null;
+      rows.add(new Tuple<>(features[i], outcome));
+    }
+    ClosingProvider provider = new ClosingProvider(rows);
+    SumCostFunction fnc = new SumCostFunction(provider, 10, 2, false);
+    // a failed evaluation returns null
+    assertNull(fnc.evaluateCost(new DenseDoubleVector(new double[] { 1, 2,
+        3 })));
+    assertEquals(0, provider.open.get());
+  }
+
+  @Test
+  public void testOutcomesPerBatch() {
+    DoubleVector[] features = createFeatures(20);
+    List<Tuple<DoubleVector, DoubleVector>> rows = new ArrayList<>();
+    for (int i = 0; i < features.length; i++) {
+      // the first batch has outcomes, the second has none
+      DoubleVector outcome = i < 10 ? features[i] : null;
+      rows.add(new Tuple<>(features[i], outcome));
+    }
+    ClosingProvider provider = new ClosingProvider(rows);
+    SumCostFunction fnc = new SumCostFunction(provider, 10, 1, false);
+    DoubleVector theta = new DenseDoubleVector(new double[] { 1, 2, 3 });
+    assertEquals(new SumCostFunction(features, 10, 1).evaluateCost(theta)
+        .getCost(), fnc.evaluateCost(theta).getCost(), 1e-8);
+    assertEquals(0, provider.open.get());
+  }
+
+  @Test(timeout = 60000)
+  public void testCancelClosesIterator() throws Exception {
+    List<Tuple<DoubleVector, DoubleVector>> rows = new ArrayList<>();
+    for (DoubleVector feature : createFeatures(100)) {
+      rows.add(new Tuple<DoubleVector, DoubleVector>(feature, null));
+    }
+    ClosingProvider provider = new ClosingProvider(rows);
+    MiniBatchStream stream = new MiniBatchStream(provider, 1, 1,
+        Executors.defaultThreadFactory());
+    assertNotNull(stream.next());
+    // the producer is blocked on the queue, far away from the end of the rows
+    stream.cancel();
+    provider.closed.await();
+    assertEquals(0, provider.open.get());
+  }
+
+  private static InputProvider<Tuple<DoubleVector, DoubleVector>> createProvider(
+      DoubleVector[] features) {
+    List<Tuple<DoubleVector, DoubleVector>> rows = new ArrayList<>();
+    for (DoubleVector feature : features) {
+      rows.add(new Tuple<DoubleVector, DoubleVector>(feature, null));
+    }
+    return new CollectionInputProvider<>(rows);
+  }
+
+  private static DoubleVector[] createFeatures(int n) {
+    Random rnd = new Random(0);
+    DoubleVector[] features = new DoubleVector[n];
+    for (int i = 0; i < n; i++) {
+      features[i] = new DenseDoubleVector(new double[] { rnd.nextDouble(),
+          rnd.nextDouble() });
+    }
+    return features;
+  }
+
+  /**
+   * Provider of closeable iterators that counts the open ones.
+   */
+  static class ClosingProvider extends
+      InputProvider<Tuple<DoubleVector, DoubleVector>> {
+
+    final AtomicInteger open = new AtomicInteger();
+    final CountDownLatch closed = new CountDownLatch(1);
+    private final List<Tuple<DoubleVector, DoubleVector>> rows;
+
+    public ClosingProvider(List<Tuple<DoubleVector, DoubleVector>> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public Iterable<Tuple<DoubleVector, DoubleVector>> iterate() {
+      return new Iterable<Tuple<DoubleVector, DoubleVector>>() {
+        @Override
+        public Iterator<Tuple<DoubleVector, DoubleVector>> iterator() {
+          open.incrementAndGet();
+          return new ClosingIterator(rows.iterator());
+        }
+      };
+    }
+
+    private class ClosingIterator extends
+        AbstractIterator<Tuple<DoubleVector, DoubleVector>> implements
+        Closeable {
+
+      private final Iterator<Tuple<DoubleVector, DoubleVector>> delegate;
+      private boolean isClosed;
+
+      ClosingIterator(Iterator<Tuple<DoubleVector, DoubleVector>> delegate) {
+        this.delegate = delegate;
+      }
+
+      @Override
+      protected Tuple<DoubleVector, DoubleVector> computeNext() {
+        return delegate.hasNext() ? delegate.next() : endOfData();
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (!isClosed) {
+          isClosed = true;
+          open.decrementAndGet();
+          closed.countDown();
+        }
+      }
+    }
+  }
+
+  /**
+   * Mean of the dot product of theta and every row, the gradient is the mean of
+   * the rows.
+   */
+  static class SumCostFunction extends AbstractMiniBatchCostFunction {
+
+    public SumCostFunction(DoubleVector[] features, int batchSize,
+        int numThreads) {
+      this(features, batchSize, numThreads, false);
+    }
+
+    public SumCostFunction(DoubleVector[] features, int batchSize,
+        int numThreads, boolean stochastic) {
+      super(features, null, batchSize, numThreads, stochastic);
+    }
+
+    public SumCostFunction(
+        InputProvider<Tuple<DoubleVector, DoubleVector>> provider,
+        int batchSize, int numThreads, boolean stochastic) {
+      super(provider, batchSize, numThreads, stochastic);
+    }
+
+    @Override
+    protected CostGradientTuple evaluateBatch(DoubleVector theta,
+        DoubleMatrix featureBatch, DoubleMatrix outcomeBatch) {
+      int m = featureBatch.getRowCount();
+      DoubleVector gradient = new DenseDoubleVector(theta.getLength());
+      double cost = 0d;
+      for (int row = 0; row < m; row++) {
+        DoubleVector vec = featureBatch.getRowVector(row);
+        cost += vec.dot(theta);
+        gradient = gradient.add(vec);
+      }
+      return new CostGradientTuple(cost / m, gradient.divide(m));
+    }
+  }
+
+}
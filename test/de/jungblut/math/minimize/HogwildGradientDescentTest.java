@@ -0,0 +1,69 @@
+package de.jungblut.math.minimize;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.minimize.HogwildGradientDescent.HogwildGradientDescentBuilder;
+import de.jungblut.math.sparse.SparseDoubleVector;
+
+public class HogwildGradientDescentTest {
+
+  @Test
+  public void testSingleBatch() {
+    DoubleVector start = new DenseDoubleVector(new double[] { 2, -1 });
+    // our function is f(x,y) = x^2+y^2
+    // the derivative is f'(x,y) = 2x+2y
+    CostFunction inlineFunction = new CostFunction() {
+      @Override
+      public CostGradientTuple evaluateCost(DoubleVector input) {
+        double cost = Math.pow(input.get(0), 2) + Math.pow(input.get(1), 2);
+        DenseDoubleVector gradient = new DenseDoubleVector(new double[] {
+            input.get(0) * 2, input.get(1) * 2 });
+        return new CostGradientTuple(cost, gradient);
+      }
+    };
+    HogwildGradientDescent gd = HogwildGradientDescentBuilder.create(0.1d)
+        .momentum(0.5d).numThreads(4).breakOnDifference(1e-20).build();
+    DoubleVector minimizeFunction = gd.minimize(inlineFunction, start, 1000,
+        false);
+    assertEquals(0, minimizeFunction.get(0), 1E-5);
+    assertEquals(0, minimizeFunction.get(1), 1E-5);
+  }
+
+  @Test
+  public void testSparseBatches() {
+    final int dimension = 50;
+    // every batch b is (x_b - b)^2 and only touches its own parameter
+    StochasticCostFunction fnc = new StochasticCostFunction() {
+      @Override
+      public CostGradientTuple evaluateCost(DoubleVector input) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public int getNumBatches() {
+        return dimension;
+      }
+
+      @Override
+      public CostGradientTuple evaluateBatch(DoubleVector input,
+          int batchIndex) {
+        double diff = input.get(batchIndex) - batchIndex;
+        SparseDoubleVector gradient = new SparseDoubleVector(dimension);
+        gradient.set(batchIndex, 2 * diff);
+        return new CostGradientTuple(diff * diff, gradient);
+      }
+    };
+    HogwildGradientDescent gd = HogwildGradientDescentBuilder.create(0.2d)
+        .numThreads(4).annealingAfter(100).seed(0L).build();
+    DoubleVector result = gd.minimize(fnc, new DenseDoubleVector(dimension),
+        200, false);
+    for (int i = 0; i < dimension; i++) {
+      assertEquals(i, result.get(i), 1E-5);
+    }
+  }
+
+}
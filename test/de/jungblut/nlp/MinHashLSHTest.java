@@ -0,0 +1,120 @@
+package de.jungblut.nlp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.math.sparse.SparseDoubleVector;
+import de.jungblut.nlp.MinHash.HashType;
+import de.jungblut.nlp.MinHashLSH.CandidatePair;
+
+public class MinHashLSHTest {
+
+  private static final int NUM_DOCUMENTS = 200;
+  private static final int NUM_DUPLICATES = 20;
+
+  @Test
+  public void testFindNearDuplicates() {
+    int[][] signatures = createSignatures();
+    MinHashLSH lsh = MinHashLSH.create(32, 4);
+    List<CandidatePair> pairs = lsh.bulkBuild(signatures, 0.7);
+    assertEquals(NUM_DOCUMENTS + NUM_DUPLICATES, lsh.size());
+    // every duplicate is paired with its original and nothing else
+    assertEquals(NUM_DUPLICATES, pairs.size());
+    for (CandidatePair pair : pairs) {
+      assertEquals(pair.getLeft() + NUM_DOCUMENTS, pair.getRight());
+      assertTrue(pair.getSimilarity() >= 0.7);
+    }
+  }
+
+  @Test
+  public void testQuery() {
+    int[][] signatures = createSignatures();
+    MinHashLSH lsh = MinHashLSH.create(128, 0.7);
+    for (int i = 0; i < NUM_DOCUMENTS; i++) {
+      lsh.insert(i, signatures[i]);
+    }
+    for (int i = 0; i < NUM_DUPLICATES; i++) {
+      int[] result = lsh.query(signatures[NUM_DOCUMENTS + i], 0.7);
+      assertEquals(1, result.length);
+      assertEquals(i, result[0]);
+      // the unfiltered candidates contain the original as well
+      assertTrue(new TIntHashSet(lsh.query(signatures[NUM_DOCUMENTS + i]))
+          .contains(i));
+    }
+  }
+
+  @Test
+  public void testSignatureLength() {
+    MinHashLSH lsh = MinHashLSH.create(2, 2);
+    // longer signatures than bands times rows are fine
+    lsh.insert(0, new int[] { 1, 2, 3, 4, 5 });
+    lsh.insert(1, new int[] { 1, 2, 3, 4, 6 });
+    assertEquals(2, lsh.query(new int[] { 1, 2, 3, 4, 7 }).length);
+    for (int[] signature : new int[][] { { 1, 2, 3, 4 },
+        { 1, 2, 3, 4, 5, 6 } }) {
+      try {
+        lsh.insert(2, signature);
+        fail("Signatures of a different length should be rejected!");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+      try {
+        lsh.query(signature, 0.5);
+        fail("Signatures of a different length should be rejected!");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    assertEquals(2, lsh.size());
+  }
+
+  @Test
+  public void testEstimateSimilarity() {
+    assertEquals(0.5d, MinHashLSH.estimateSimilarity(new int[] { 1, 2, 3, 4 },
+        new int[] { 1, 5, 3, 6 }), 1e-10);
+    assertEquals(0d, MinHashLSH.estimateSimilarity(new int[0], new int[0]),
+        1e-10);
+  }
+
+  /**
+   * Random documents of 50 tokens, followed by copies of the first documents
+   * with three replaced tokens, that have a jaccard similarity of about 0.89.
+   */
+  private static int[][] createSignatures() {
+    Random rnd = new Random(0);
+    MinHash minHash = MinHash.create(128, HashType.MURMUR128, 0L);
+    int[][] documents = new int[NUM_DOCUMENTS + NUM_DUPLICATES][];
+    for (int i = 0; i < NUM_DOCUMENTS; i++) {
+      TIntHashSet tokens = new TIntHashSet();
+      while (tokens.size() < 50) {
+        tokens.add(rnd.nextInt(100000) + 1);
+      }
+      documents[i] = tokens.toArray();
+    }
+    for (int i = 0; i < NUM_DUPLICATES; i++) {
+      documents[NUM_DOCUMENTS + i] = documents[i].clone();
+      for (int j = 0; j < 3; j++) {
+        documents[NUM_DOCUMENTS + i][j] = 200000 + i * 3 + j;
+      }
+    }
+    int[][] signatures = new int[documents.length][];
+    for (int i = 0; i < documents.length; i++) {
+      // the min hash works on the values of the vector
+      SparseDoubleVector vector = new SparseDoubleVector(50);
+      for (int j = 0; j < documents[i].length; j++) {
+        vector.set(j, documents[i][j]);
+      }
+      signatures[i] = minHash.minHashVector(vector);
+    }
+    return signatures;
+  }
+
+}
@@ -1,9 +1,16 @@
 package de.jungblut.nlp;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
+import de.jungblut.math.DoubleVector;
 import de.jungblut.math.sparse.SparseDoubleVector;
 import de.jungblut.nlp.MinHash.HashType;
 
@@ -81,4 +88,76 @@ public class MinHashTest {
     assertEquals(1.0d, similarity, 1e-5);
   }
 
+  @Test
+  public void testMinHashingDoubleHashing() throws Exception {
+    // the values are hashed, both vectors contain the values 2 and 311
+    SparseDoubleVector vec1 = new SparseDoubleVector(5);
+    vec1.set(0, 2d);
+    vec1.set(3, 311d);
+    vec1.set(4, 2d);
+    SparseDoubleVector vec2 = new SparseDoubleVector(5);
+    vec2.set(0, 2d);
+    vec2.set(2, 2d);
+    vec2.set(3, 311d);
+    vec2.set(4, 2d);
+    // no value in common with the others
+    SparseDoubleVector vec3 = new SparseDoubleVector(5);
+    vec3.set(1, 7d);
+    vec3.set(2, 9d);
+
+    // double hashing collides exactly where independent hash functions do
+    for (HashType type : new HashType[] { HashType.MURMUR128,
+        HashType.DOUBLE_HASHING }) {
+      MinHash minHash = MinHash.create(64, type, 0L);
+      int[] minHashVector = minHash.minHashVector(vec1);
+      assertArrayEquals(minHashVector, minHash.minHashVector(vec2));
+      assertEquals(0d, minHash.measureSimilarity(minHashVector,
+          minHash.minHashVector(vec3)), 1e-5);
+    }
+
+    // the hash functions h1 + i * h2 of a single value must all differ
+    SparseDoubleVector single = new SparseDoubleVector(1);
+    single.set(0, 311d);
+    int[] minHashVector = MinHash.create(64, HashType.DOUBLE_HASHING, 0L)
+        .minHashVector(single);
+    TIntHashSet distinct = new TIntHashSet(minHashVector);
+    assertEquals(minHashVector.length, distinct.size());
+  }
+
+  @Test
+  public void testDoubleHashingEstimatesJaccard() throws Exception {
+    // two sets of 300 values that share 200, thus a jaccard of 0.5
+    SparseDoubleVector vec1 = new SparseDoubleVector(300);
+    SparseDoubleVector vec2 = new SparseDoubleVector(300);
+    for (int i = 0; i < 300; i++) {
+      vec1.set(i, i + 1);
+      vec2.set(i, i + 101);
+    }
+    MinHash minHash = MinHash.create(512, HashType.DOUBLE_HASHING, 0L);
+    double estimate = MinHashLSH.estimateSimilarity(
+        minHash.minHashVector(vec1), minHash.minHashVector(vec2));
+    assertEquals(0.5d, estimate, 0.07);
+  }
+
+  @Test
+  public void testBatchMinHashing() throws Exception {
+    Random rnd = new Random(0);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      SparseDoubleVector vec = new SparseDoubleVector(20);
+      for (int j = 0; j < 20; j++) {
+        vec.set(j, rnd.nextInt(1000) + 1);
+      }
+      vectors.add(vec);
+    }
+    for (HashType type : HashType.values()) {
+      MinHash minHash = MinHash.create(16, type, 0L);
+      int[][] batch = minHash.minHashVectors(vectors, 4);
+      assertEquals(vectors.size(), batch.length);
+      for (int i = 0; i < vectors.size(); i++) {
+        assertArrayEquals(minHash.minHashVector(vectors.get(i)), batch[i]);
+      }
+    }
+  }
+
 }
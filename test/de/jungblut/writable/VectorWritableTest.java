@@ -1,5 +1,6 @@
 package de.jungblut.writable;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -15,6 +16,7 @@ import de.jungblut.math.DoubleVector;
 import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.math.named.NamedDoubleVector;
 import de.jungblut.math.sparse.SparseDoubleVector;
+import de.jungblut.writable.VectorWritable.Encoding;
 
 public class VectorWritableTest {
 
@@ -42,11 +44,97 @@ public class VectorWritableTest {
     assertEquals(name, ((NamedDoubleVector) check).getName());
   }
 
-  public DoubleVector check(DoubleVector vec) throws IOException {
+  @Test
+  public void testCompactDenseSerDe() throws Exception {
+    DenseDoubleVector vec = new DenseDoubleVector(new double[] { 1, 2, 3 });
+    DoubleVector check = check(vec, Encoding.COMPACT);
+    assertTrue(check instanceof DenseDoubleVector);
+    assertArrayEquals(vec.toArray(), check.toArray(), 0d);
+  }
+
+  @Test
+  public void testCompactSparseSerDe() throws Exception {
+    SparseDoubleVector vec = new SparseDoubleVector(100000);
+    vec.set(99999, 0.1);
+    vec.set(5, -2.5);
+    vec.set(70000, 3);
+    vec.set(6, 1);
+    DoubleVector check = check(vec, Encoding.COMPACT);
+    assertTrue(check instanceof SparseDoubleVector);
+    assertEquals(vec.getDimension(), check.getDimension());
+    assertEquals(vec.getLength(), check.getLength());
+    assertEquals(0.1, check.get(99999), 0d);
+    assertEquals(-2.5, check.get(5), 0d);
+    assertEquals(3, check.get(70000), 0d);
+    assertEquals(1, check.get(6), 0d);
+  }
+
+  @Test
+  public void testCompactNamedSerDe() throws Exception {
+    String name = "myName";
+    DoubleVector vec = new NamedDoubleVector(name, new SparseDoubleVector(
+        new double[] { 1, 0, 3 }));
+    DoubleVector check = check(vec, Encoding.COMPACT_FLOAT);
+    assertTrue(check instanceof NamedDoubleVector);
+    assertEquals(name, ((NamedDoubleVector) check).getName());
+  }
+
+  @Test
+  public void testCompactFloatSerDe() throws Exception {
+    DenseDoubleVector vec = new DenseDoubleVector(new double[] { 1d / 3d,
+        -1e-7, 123.456 });
+    DoubleVector check = check(vec, Encoding.COMPACT_FLOAT);
+    for (int i = 0; i < vec.getDimension(); i++) {
+      assertEquals((float) vec.get(i), check.get(i), 0d);
+    }
+  }
+
+  @Test
+  public void testLargeDenseSerDe() throws Exception {
+    // spans multiple chunks of the bulk read and write
+    double[] values = new double[5000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i * 0.5 - 1000;
+    }
+    DenseDoubleVector vec = new DenseDoubleVector(values);
+    for (Encoding encoding : Encoding.values()) {
+      assertArrayEquals(values, check(vec, encoding).toArray(), 0d);
+    }
+  }
+
+  @Test
+  public void testCompactSize() throws Exception {
+    SparseDoubleVector vec = new SparseDoubleVector(1000);
+    for (int i = 0; i < 1000; i += 10) {
+      vec.set(i, i);
+    }
+    int plain = serialize(vec, Encoding.PLAIN).length;
+    int compact = serialize(vec, Encoding.COMPACT).length;
+    int compactFloat = serialize(vec, Encoding.COMPACT_FLOAT).length;
+    assertTrue(compact < plain);
+    assertTrue(compactFloat < compact);
+  }
+
+  @Test
+  public void testWritableKeepsEncoding() throws Exception {
+    DenseDoubleVector vec = new DenseDoubleVector(new double[] { 1, 2, 3 });
+    byte[] bytes = serialize(vec, Encoding.COMPACT_FLOAT);
+    VectorWritable writable = new VectorWritable();
+    writable.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+    assertEquals(Encoding.COMPACT_FLOAT, writable.getEncoding());
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    DataOutputStream out = new DataOutputStream(baos);
-    VectorWritable.writeVector(vec, out);
-    ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+    writable.write(new DataOutputStream(baos));
+    assertArrayEquals(bytes, baos.toByteArray());
+  }
+
+  public DoubleVector check(DoubleVector vec) throws IOException {
+    return check(vec, Encoding.PLAIN);
+  }
+
+  public DoubleVector check(DoubleVector vec, Encoding encoding)
+      throws IOException {
+    ByteArrayInputStream bais = new ByteArrayInputStream(serialize(vec,
+        encoding));
     DataInputStream in = new DataInputStream(bais);
 
     DoubleVector readVec = VectorWritable.readVector(in);
@@ -55,4 +143,11 @@ public class VectorWritableTest {
     return readVec;
   }
 
+  private byte[] serialize(DoubleVector vec, Encoding encoding)
+      throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    new VectorWritable(vec, encoding).write(new DataOutputStream(baos));
+    return baos.toByteArray();
+  }
+
 }